@@ -0,0 +1,100 @@
+package org.ycavatars.toymongo.core.collection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures how {@link ConcurrentBTreeMap} scales with threads, against a
+ * {@link BTreeMap} guarded by a {@link ReentrantReadWriteLock}, i.e. shared
+ * lookups and exclusive puts. Each operation is a lookup or, for
+ * {@code 100 - readPercent} percent of them, a put which replaces the value
+ * of an existing key. The throughput is per thread count, so run it once per
+ * count, e.g. {@code -t 1}, {@code -t 2}, {@code -t 4} and {@code -t 8}.
+ *
+ * @author ycavatars
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ConcurrentMapBenchmark {
+
+  @Param({"ConcurrentBTreeMap", "LockedBTreeMap"})
+  String impl;
+
+  @Param({"1000000"})
+  int size;
+
+  @Param({"100", "90", "50"})
+  int readPercent;
+
+  private Long[] keys;
+
+  private ConcurrentBTreeMap<Long, Long> concurrent;
+
+  private BTreeMap<Long, Long> locked;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(size);
+    BTreeMap<Long, Long> map = new BTreeMap<>();
+    keys = new Long[size];
+    for (int i = 0; i < size; ) {
+      Long key = random.nextLong();
+      if (map.put(key, key) == null) {
+        keys[i++] = key;
+      }
+    }
+    if (impl.equals("ConcurrentBTreeMap")) {
+      concurrent = new ConcurrentBTreeMap<>(map);
+    } else if (impl.equals("LockedBTreeMap")) {
+      locked = map;
+    } else {
+      throw new IllegalArgumentException("impl: " + impl);
+    }
+  }
+
+  @Benchmark
+  public Object operation() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    Long key = keys[random.nextInt(keys.length)];
+    boolean read = random.nextInt(100) < readPercent;
+    if (concurrent != null) {
+      return read ? concurrent.get(key) : concurrent.put(key, key);
+    }
+    if (read) {
+      lock.readLock().lock();
+      try {
+        return locked.get(key);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+    lock.writeLock().lock();
+    try {
+      return locked.put(key, key);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.ycavatars.toymongo.core.collection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link BTreeMap} with {@link TreeMap} and
+ * {@link ConcurrentSkipListMap}: lookups, replacing puts, iteration, and
+ * building a map by random puts or from a sorted map, which
+ * {@link BTreeMap} bulk loads. The node degree only applies to
+ * {@link BTreeMap}, so it's swept on its own, e.g.
+ * {@code -p impl=BTreeMap -p minDegree=16,64,250,500,1000}.
+ * <p>
+ * Keys are distinct random longs, or strings of them, so lookups miss the
+ * caches like an index of random values does.
+ *
+ * @author ycavatars
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@State(Scope.Benchmark)
+public class MapBenchmark {
+
+  @Param({"BTreeMap", "TreeMap", "ConcurrentSkipListMap"})
+  String impl;
+
+  @Param({"Long", "String"})
+  String keyType;
+
+  @Param({"1000", "10000", "100000", "1000000", "10000000"})
+  int size;
+
+  @Param({"" + BTreeMap.MIN_NODE_DEGREE})
+  int minDegree;
+
+  // the keys in a random order
+  private Object[] shuffled;
+
+  private SortedMap<Object, Object> sorted;
+
+  private NavigableMap<Object, Object> map;
+
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(size);
+    TreeMap<Object, Object> sorted = new TreeMap<>();
+    while (sorted.size() < size) {
+      long key = random.nextLong();
+      sorted.put(keyType.equals("Long") ? (Object) key
+          : String.format("%016x", key), key);
+    }
+    this.sorted = sorted;
+    List<Object> list = Arrays.asList(sorted.keySet().toArray());
+    Collections.shuffle(list, random);
+    shuffled = list.toArray();
+    map = build();
+  }
+
+  private NavigableMap<Object, Object> create() {
+    switch (impl) {
+      case "BTreeMap":
+        return new BTreeMap<>(Optional.empty(), minDegree);
+      case "TreeMap":
+        return new TreeMap<>();
+      case "ConcurrentSkipListMap":
+        return new ConcurrentSkipListMap<>();
+      default:
+        throw new IllegalArgumentException("impl: " + impl);
+    }
+  }
+
+  // puts the keys in a random order
+  private NavigableMap<Object, Object> build() {
+    NavigableMap<Object, Object> map = create();
+    for (Object key : shuffled) {
+      map.put(key, key);
+    }
+    return map;
+  }
+
+  private Object nextKey() {
+    Object key = shuffled[next];
+    next = next + 1 == shuffled.length ? 0 : next + 1;
+    return key;
+  }
+
+  @Benchmark
+  public Object get() {
+    return map.get(nextKey());
+  }
+
+  /**
+   * Replaces the value of an existing key, so the map doesn't grow.
+   */
+  @Benchmark
+  public Object put() {
+    Object key = nextKey();
+    return map.put(key, key);
+  }
+
+  @Benchmark
+  public void iterate(Blackhole blackhole) {
+    for (Map.Entry<Object, Object> entry : map.entrySet()) {
+      blackhole.consume(entry.getValue());
+    }
+  }
+
+  @Benchmark
+  public Object build_randomPuts() {
+    return build();
+  }
+
+  /**
+   * Builds a map from a sorted map, which {@link TreeMap} and
+   * {@link ConcurrentSkipListMap} do in linear time too.
+   */
+  @Benchmark
+  public Object build_sorted() {
+    switch (impl) {
+      case "BTreeMap":
+        BTreeMap<Object, Object> map = new BTreeMap<>(Optional.empty(),
+            minDegree);
+        map.putAll(sorted);
+        return map;
+      case "TreeMap":
+        return new TreeMap<>(sorted);
+      case "ConcurrentSkipListMap":
+        return new ConcurrentSkipListMap<>(sorted);
+      default:
+        throw new IllegalArgumentException("impl: " + impl);
+    }
+  }
+}
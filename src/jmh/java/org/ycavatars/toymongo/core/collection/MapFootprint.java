@@ -0,0 +1,148 @@
+package org.ycavatars.toymongo.core.collection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Measures the heap retained per mapping by {@link LongBTreeMap},
+ * {@link BTreeMap BTreeMap&lt;Long, V&gt;} and {@link TreeMap TreeMap&lt;Long,
+ * V&gt;} of random keys, which JMH doesn't: the used heap after a full
+ * collection, before and after building the maps. Small maps are built many
+ * times over, so every measurement covers at least a million mappings. Every
+ * mapping has the same value, so only the map and its keys are counted.
+ * <p>
+ * Run by {@code gradle footprint}, which writes JSON results next to the
+ * JMH ones; the path of the results is the only argument. It runs with
+ * {@code -XX:MarkSweepDeadRatio=0}: otherwise a full collection may leave
+ * dead objects in place rather than compact them, and the used heap before
+ * or after building the maps includes them, so the results are off by
+ * megabytes, and may even be negative.
+ *
+ * @author ycavatars
+ */
+public class MapFootprint {
+
+  private static final int[] SIZES = {1000, 100000, 10000000};
+
+  private static final List<String> IMPLS =
+      Arrays.asList("LongBTreeMap", "BTreeMap", "TreeMap");
+
+  private static final int MIN_MAPPINGS = 1000000;
+
+  private static final Object VALUE = new Object();
+
+  // the maps being measured
+  private static Object[] retained;
+
+  public static void main(String[] args) throws Exception {
+    List<String> results = new ArrayList<>();
+    for (int size : SIZES) {
+      long[] keys = keys(size);
+      int maps = Math.max(1, MIN_MAPPINGS / size);
+      for (String impl : IMPLS) {
+        double bytes = bytesPerMapping(impl, keys, maps);
+        System.out.printf(Locale.ROOT, "%-12s %,11d x %,5d %8.2f bytes%n",
+            impl, size, maps, bytes);
+        results.add(String.format(Locale.ROOT, "  {\"impl\":\"%s\","
+            + "\"size\":%d,\"maps\":%d,\"bytesPerMapping\":%.2f}", impl, size,
+            maps, bytes));
+      }
+    }
+    String json = String.format(Locale.ROOT, "{\"benchmark\":\"%s\","
+            + "\"jvm\":\"%s %s\",\"maxHeap\":%d,\"results\":[%n%s%n]}%n",
+        MapFootprint.class.getName(), System.getProperty("java.vm.name"),
+        System.getProperty("java.version"), Runtime.getRuntime().maxMemory(),
+        String.join(",\n", results));
+    if (args.length > 0) {
+      Path path = Paths.get(args[0]);
+      Files.write(path, json.getBytes(StandardCharsets.UTF_8));
+      System.out.println("results: " + path);
+    } else {
+      System.out.print(json);
+    }
+  }
+
+  // distinct random keys
+  private static long[] keys(int size) {
+    Random random = new Random(size);
+    LongBTreeMap<Object> distinct = new LongBTreeMap<>();
+    long[] keys = new long[size];
+    for (int i = 0; i < size; ) {
+      long key = random.nextLong();
+      if (distinct.put(key, VALUE) == null) {
+        keys[i++] = key;
+      }
+    }
+    return keys;
+  }
+
+  private static double bytesPerMapping(String impl, long[] keys, int count)
+      throws InterruptedException {
+    long before = usedHeap();
+    retain(impl, keys, count);
+    long after = usedHeap();
+    retained = null;
+    return (after - before) / ((double) count * keys.length);
+  }
+
+  // keeps the maps in a static field, so the compiler can't drop them
+  private static void retain(String impl, long[] keys, int count) {
+    retained = new Object[count];
+    for (int i = 0; i < count; i++) {
+      retained[i] = build(impl, keys);
+    }
+  }
+
+  private static Object build(String impl, long[] keys) {
+    switch (impl) {
+      case "LongBTreeMap":
+        LongBTreeMap<Object> longMap = new LongBTreeMap<>();
+        for (long key : keys) {
+          longMap.put(key, VALUE);
+        }
+        return longMap;
+      case "BTreeMap":
+        return fill(new BTreeMap<>(), keys);
+      case "TreeMap":
+        return fill(new TreeMap<>(), keys);
+      default:
+        throw new IllegalArgumentException("impl: " + impl);
+    }
+  }
+
+  private static Map<Long, Object> fill(Map<Long, Object> map, long[] keys) {
+    for (long key : keys) {
+      map.put(key, VALUE);
+    }
+    return map;
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // until a collection frees nothing more
+    for (int i = 0; i < 10; i++) {
+      System.gc();
+      Thread.sleep(50);
+      long now = runtime.totalMemory() - runtime.freeMemory();
+      if (now >= used) {
+        return now;
+      }
+      used = now;
+    }
+    return used;
+  }
+
+  private MapFootprint() {
+  }
+}
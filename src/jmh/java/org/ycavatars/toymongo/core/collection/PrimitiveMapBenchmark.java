@@ -0,0 +1,110 @@
+package org.ycavatars.toymongo.core.collection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link LongBTreeMap} with {@link BTreeMap BTreeMap&lt;Long, V&gt;}
+ * of the same node degree: lookups, replacing puts and iteration over random
+ * long keys. Every mapping has the same value, so the maps only differ by how
+ * they store keys; the gc profiler shows the boxing of {@link BTreeMap}.
+ *
+ * @author ycavatars
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class PrimitiveMapBenchmark {
+
+  private static final Object VALUE = new Object();
+
+  @Param({"LongBTreeMap", "BTreeMap"})
+  String impl;
+
+  @Param({"1000", "100000", "10000000"})
+  int size;
+
+  // distinct keys in a random order
+  private long[] keys;
+
+  private LongBTreeMap<Object> longMap;
+
+  private BTreeMap<Long, Object> map;
+
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(size);
+    LongBTreeMap<Object> distinct = new LongBTreeMap<>();
+    keys = new long[size];
+    for (int i = 0; i < size; ) {
+      long key = random.nextLong();
+      if (distinct.put(key, VALUE) == null) {
+        keys[i++] = key;
+      }
+    }
+    if (impl.equals("LongBTreeMap")) {
+      longMap = distinct;
+    } else if (impl.equals("BTreeMap")) {
+      map = new BTreeMap<>();
+      for (long key : keys) {
+        map.put(key, VALUE);
+      }
+    } else {
+      throw new IllegalArgumentException("impl: " + impl);
+    }
+  }
+
+  private long nextKey() {
+    long key = keys[next];
+    next = next + 1 == keys.length ? 0 : next + 1;
+    return key;
+  }
+
+  @Benchmark
+  public Object get() {
+    return longMap != null ? longMap.get(nextKey()) : map.get(nextKey());
+  }
+
+  /**
+   * Replaces the value of an existing key, so the map doesn't grow.
+   */
+  @Benchmark
+  public Object put() {
+    return longMap != null ? longMap.put(nextKey(), VALUE)
+        : map.put(nextKey(), VALUE);
+  }
+
+  @Benchmark
+  public void iterate(Blackhole blackhole) {
+    if (longMap != null) {
+      LongBTreeMap.Cursor cursor = longMap.cursor();
+      while (cursor.next()) {
+        blackhole.consume(cursor.key());
+      }
+    } else {
+      for (Map.Entry<Long, Object> entry : map.entrySet()) {
+        blackhole.consume(entry.getKey().longValue());
+      }
+    }
+  }
+}
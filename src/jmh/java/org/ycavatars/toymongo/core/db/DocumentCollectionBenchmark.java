@@ -0,0 +1,118 @@
+package org.ycavatars.toymongo.core.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the storage path of a collection in a temporary directory: a
+ * batch insert, which appends to an extent and the journal and updates an
+ * index, a read of a record by its id, and a lookup by the index.
+ *
+ * @author ycavatars
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentCollectionBenchmark {
+
+  private static final FieldPath NAME = FieldPath.of("name");
+
+  @Param({"100000"})
+  int size;
+
+  @Param({"1000"})
+  int batchSize;
+
+  private Path directory;
+
+  private Database database;
+
+  private DocumentCollection collection;
+
+  private List<Document> batch;
+
+  private List<RecordId> ids;
+
+  private Random random;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("toymongo-bench");
+    database = new Database(directory.resolve("bench"), 0,
+        TimeUnit.MILLISECONDS);
+    collection = database.collection("c");
+    collection.createIndex(NAME);
+    ids = new ArrayList<>(size);
+    for (int n = 0; n < size; n += batchSize) {
+      ids.addAll(collection.insert(documents(n, n + batchSize)));
+    }
+    batch = documents(size, size + batchSize);
+    random = new Random(size);
+  }
+
+  private static List<Document> documents(int from, int to) {
+    List<Document> documents = new ArrayList<>(to - from);
+    for (int n = from; n < to; n++) {
+      documents.add(DocumentJson.parse("{\"n\":" + n + ",\"name\":\"name"
+          + n + "\",\"address\":{\"city\":\"city" + n % 100 + "\"}}"));
+    }
+    return documents;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    database.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files
+          .sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  /**
+   * Inserts a batch, which waits for the journal to be forced.
+   */
+  @Benchmark
+  public Object insert() throws IOException {
+    return collection.insert(batch);
+  }
+
+  @Benchmark
+  public Object get() throws IOException {
+    return collection.get(ids.get(random.nextInt(ids.size())));
+  }
+
+  @Benchmark
+  public Object find() {
+    return collection.find(NAME, "name" + random.nextInt(size));
+  }
+}
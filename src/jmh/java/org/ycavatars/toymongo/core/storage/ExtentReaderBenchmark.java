@@ -0,0 +1,127 @@
+package org.ycavatars.toymongo.core.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares reading records through the mappings of an {@link ExtentReader}
+ * with {@link ExtentStore#read}, whose positioned {@code FileChannel.read}s
+ * copy every record to a new heap buffer: a lookup of a random record, and a
+ * scan of every record in {@link RecordId} order. The extents are in a
+ * temporary directory, so they're likely in the page cache; this measures the
+ * copies and the system calls, not the disk.
+ *
+ * @author ycavatars
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtentReaderBenchmark {
+
+  @Param({"100000"})
+  int size;
+
+  @Param({"100", "1000"})
+  int recordSize;
+
+  private Path directory;
+
+  private ExtentStore store;
+
+  private ExtentReader reader;
+
+  private List<RecordId> ids;
+
+  private Random random;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("toymongo-bench");
+    store = new ExtentStore(directory, "c");
+    reader = new ExtentReader(store);
+    ids = new ArrayList<>(size);
+    ByteBuffer data = ByteBuffer.allocate(recordSize);
+    for (int n = 0; n < size; n++) {
+      data.clear();
+      data.putInt(0, n);
+      ids.add(store.insert(data));
+    }
+    store.force();
+    random = new Random(size);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+    store.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files
+          .sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private RecordId nextId() {
+    return ids.get(random.nextInt(ids.size()));
+  }
+
+  @Benchmark
+  public int read_extentReader() throws IOException {
+    try (RecordSlice record = reader.read(nextId())) {
+      return record.data().getInt(0);
+    }
+  }
+
+  @Benchmark
+  public int read_fileChannel() throws IOException {
+    return store.read(nextId()).getInt(0);
+  }
+
+  /**
+   * Sums the first int of every record.
+   */
+  @Benchmark
+  public long scan_extentReader() throws IOException {
+    long[] sum = {0};
+    reader.scan((id, data) -> {
+      sum[0] += data.getInt(0);
+      return true;
+    });
+    return sum[0];
+  }
+
+  @Benchmark
+  public long scan_fileChannel() throws IOException {
+    long sum = 0;
+    for (RecordId id : ids) {
+      sum += store.read(id).getInt(0);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,654 @@
+package org.ycavatars.toymongo.core.collection;
+
+import com.google.common.base.Preconditions;
+
+import java.util.*;
+
+/**
+ * Skeleton of the sorted maps in this package. A subclass only has to find the
+ * entry near a key, find the first and the last entries, and iterate entries
+ * between two bounds in either direction. Navigation methods and the key set,
+ * sub map and descending views are built on top of them. Views are backed by
+ * the map directly, nothing is copied when they are created.
+ *
+ * @author ycavatars
+ */
+abstract class AbstractNavigableMap<K, V> extends AbstractMap<K, V>
+    implements NavigableMap<K, V> {
+
+  /**
+   * Relations of the entry returned by {@link #findNear(Object, Relation)} to
+   * the given key.
+   */
+  enum Relation {
+    LOWER, FLOOR, CEILING, HIGHER;
+
+    Relation reverse() {
+      switch (this) {
+        case LOWER:
+          return HIGHER;
+        case FLOOR:
+          return CEILING;
+        case CEILING:
+          return FLOOR;
+        default:
+          return LOWER;
+      }
+    }
+  }
+
+  /**
+   * Compares two keys according to the order of this map.
+   */
+  abstract int compare(Object key1, Object key2);
+
+  /**
+   * Returns the entry in the map which has the specified relation to
+   * {@code key}, or null if there's no such entry.
+   *
+   * @throws NullPointerException if the specified key is null
+   */
+  abstract Map.Entry<K, V> findNear(Object key, Relation relation);
+
+  /**
+   * Returns the entry with the least key, or null if the map is empty.
+   */
+  abstract Map.Entry<K, V> findFirst();
+
+  /**
+   * Returns the entry with the greatest key, or null if the map is empty.
+   */
+  abstract Map.Entry<K, V> findLast();
+
+  /**
+   * Returns an iterator over the entries within the bounds. The ascending
+   * iterator starts from {@code lo} and stops after {@code hi}; the descending
+   * one starts from {@code hi} and stops after {@code lo}. An absent bound means
+   * the start or the end of the map.
+   */
+  abstract Iterator<Map.Entry<K, V>> entryIterator(Optional<K> lo,
+      boolean loInclusive, Optional<K> hi, boolean hiInclusive,
+      boolean descending);
+
+  @Override public Map.Entry<K, V> lowerEntry(K key) {
+    return exportEntry(findNear(key, Relation.LOWER));
+  }
+
+  @Override public K lowerKey(K key) {
+    return keyOrNull(findNear(key, Relation.LOWER));
+  }
+
+  @Override public Map.Entry<K, V> floorEntry(K key) {
+    return exportEntry(findNear(key, Relation.FLOOR));
+  }
+
+  @Override public K floorKey(K key) {
+    return keyOrNull(findNear(key, Relation.FLOOR));
+  }
+
+  @Override public Map.Entry<K, V> ceilingEntry(K key) {
+    return exportEntry(findNear(key, Relation.CEILING));
+  }
+
+  @Override public K ceilingKey(K key) {
+    return keyOrNull(findNear(key, Relation.CEILING));
+  }
+
+  @Override public Map.Entry<K, V> higherEntry(K key) {
+    return exportEntry(findNear(key, Relation.HIGHER));
+  }
+
+  @Override public K higherKey(K key) {
+    return keyOrNull(findNear(key, Relation.HIGHER));
+  }
+
+  @Override public Map.Entry<K, V> firstEntry() {
+    return exportEntry(findFirst());
+  }
+
+  @Override public Map.Entry<K, V> lastEntry() {
+    return exportEntry(findLast());
+  }
+
+  @Override public K firstKey() {
+    return key(findFirst());
+  }
+
+  @Override public K lastKey() {
+    return key(findLast());
+  }
+
+  @Override public Map.Entry<K, V> pollFirstEntry() {
+    Map.Entry<K, V> first = firstEntry();
+    if (first != null) {
+      remove(first.getKey());
+    }
+    return first;
+  }
+
+  @Override public Map.Entry<K, V> pollLastEntry() {
+    Map.Entry<K, V> last = lastEntry();
+    if (last != null) {
+      remove(last.getKey());
+    }
+    return last;
+  }
+
+  @Override public NavigableSet<K> keySet() {
+    return navigableKeySet();
+  }
+
+  @Override public NavigableSet<K> navigableKeySet() {
+    return new KeySet<>(this);
+  }
+
+  @Override public NavigableSet<K> descendingKeySet() {
+    return descendingMap().navigableKeySet();
+  }
+
+  @Override public NavigableMap<K, V> descendingMap() {
+    return newSubMap(Optional.empty(), false, Optional.empty(), false, true);
+  }
+
+  @Override public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive,
+      K toKey, boolean toInclusive) {
+    return newSubMap(Optional.of(fromKey), fromInclusive, Optional.of(toKey),
+        toInclusive, false);
+  }
+
+  @Override public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+    return newSubMap(Optional.empty(), false, Optional.of(toKey), inclusive,
+        false);
+  }
+
+  @Override public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+    return newSubMap(Optional.of(fromKey), inclusive, Optional.empty(), false,
+        false);
+  }
+
+  @Override public SortedMap<K, V> subMap(K fromKey, K toKey) {
+    return subMap(fromKey, true, toKey, false);
+  }
+
+  @Override public SortedMap<K, V> headMap(K toKey) {
+    return headMap(toKey, false);
+  }
+
+  @Override public SortedMap<K, V> tailMap(K fromKey) {
+    return tailMap(fromKey, true);
+  }
+
+  /**
+   * Creates a view of the range. Every view of this map, including views of
+   * views, is created here, so subclasses can return their own type of view.
+   */
+  SubMap<K, V> newSubMap(Optional<K> lo, boolean loInclusive, Optional<K> hi,
+      boolean hiInclusive, boolean isDescending) {
+    return new SubMap<>(this, lo, loInclusive, hi, hiInclusive, isDescending);
+  }
+
+  /**
+   * Returns an immutable copy of the entry, so callers can't change the map
+   * through it.
+   */
+  static <K, V> Map.Entry<K, V> exportEntry(Map.Entry<K, V> entry) {
+    return entry == null ? null : new SimpleImmutableEntry<>(entry);
+  }
+
+  static <K, V> K keyOrNull(Map.Entry<K, V> entry) {
+    return entry == null ? null : entry.getKey();
+  }
+
+  static <K, V> K key(Map.Entry<K, V> entry) {
+    if (entry == null) {
+      throw new NoSuchElementException();
+    }
+    return entry.getKey();
+  }
+
+  /**
+   * A {@link java.util.NavigableSet} view of the keys of a navigable map.
+   */
+  static final class KeySet<K> extends AbstractSet<K> implements NavigableSet<K> {
+    private final NavigableMap<K, ?> map;
+
+    KeySet(NavigableMap<K, ?> map) {
+      this.map = map;
+    }
+
+    @Override public Iterator<K> iterator() {
+      Iterator<? extends Map.Entry<K, ?>> entries = map.entrySet().iterator();
+      return new Iterator<K>() {
+        @Override public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        @Override public K next() {
+          return entries.next().getKey();
+        }
+
+        @Override public void remove() {
+          entries.remove();
+        }
+      };
+    }
+
+    @Override public int size() {
+      return map.size();
+    }
+
+    @Override public boolean isEmpty() {
+      return map.isEmpty();
+    }
+
+    @Override public boolean contains(Object o) {
+      return map.containsKey(o);
+    }
+
+    @Override public boolean remove(Object o) {
+      if (map.containsKey(o)) {
+        map.remove(o);
+        return true;
+      }
+      return false;
+    }
+
+    @Override public void clear() {
+      map.clear();
+    }
+
+    @Override public K lower(K k) {
+      return map.lowerKey(k);
+    }
+
+    @Override public K floor(K k) {
+      return map.floorKey(k);
+    }
+
+    @Override public K ceiling(K k) {
+      return map.ceilingKey(k);
+    }
+
+    @Override public K higher(K k) {
+      return map.higherKey(k);
+    }
+
+    @Override public K pollFirst() {
+      return keyOrNull(map.pollFirstEntry());
+    }
+
+    @Override public K pollLast() {
+      return keyOrNull(map.pollLastEntry());
+    }
+
+    @Override public Comparator<? super K> comparator() {
+      return map.comparator();
+    }
+
+    @Override public K first() {
+      return map.firstKey();
+    }
+
+    @Override public K last() {
+      return map.lastKey();
+    }
+
+    @Override public NavigableSet<K> descendingSet() {
+      return new KeySet<>(map.descendingMap());
+    }
+
+    @Override public Iterator<K> descendingIterator() {
+      return descendingSet().iterator();
+    }
+
+    @Override public NavigableSet<K> subSet(K fromElement, boolean fromInclusive,
+        K toElement, boolean toInclusive) {
+      return new KeySet<>(map.subMap(fromElement, fromInclusive, toElement,
+          toInclusive));
+    }
+
+    @Override public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+      return new KeySet<>(map.headMap(toElement, inclusive));
+    }
+
+    @Override public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+      return new KeySet<>(map.tailMap(fromElement, inclusive));
+    }
+
+    @Override public SortedSet<K> subSet(K fromElement, K toElement) {
+      return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override public SortedSet<K> headSet(K toElement) {
+      return headSet(toElement, false);
+    }
+
+    @Override public SortedSet<K> tailSet(K fromElement) {
+      return tailSet(fromElement, true);
+    }
+  }
+
+  /**
+   * A range of the backing map, optionally in descending order. Bounds are
+   * always kept in the order of the backing map, and every operation is
+   * delegated to it, so a lookup takes log(n) time and iterating k entries
+   * takes log(n) + k time.
+   */
+  static class SubMap<K, V> extends AbstractMap<K, V>
+      implements NavigableMap<K, V> {
+
+    final AbstractNavigableMap<K, V> m;
+
+    final Optional<K> lo;
+
+    final boolean loInclusive;
+
+    final Optional<K> hi;
+
+    final boolean hiInclusive;
+
+    final boolean isDescending;
+
+    SubMap(AbstractNavigableMap<K, V> m, Optional<K> lo, boolean loInclusive,
+        Optional<K> hi, boolean hiInclusive, boolean isDescending) {
+      if (lo.isPresent() && hi.isPresent()) {
+        Preconditions.checkArgument(m.compare(lo.get(), hi.get()) <= 0,
+            "inconsistent range");
+      } else {
+        lo.ifPresent(key -> m.compare(key, key)); // type check
+        hi.ifPresent(key -> m.compare(key, key));
+      }
+      this.m = m;
+      this.lo = lo;
+      this.loInclusive = loInclusive;
+      this.hi = hi;
+      this.hiInclusive = hiInclusive;
+      this.isDescending = isDescending;
+    }
+
+    boolean tooLow(Object key) {
+      if (lo.isPresent()) {
+        int c = m.compare(key, lo.get());
+        return c < 0 || (c == 0 && !loInclusive);
+      }
+      return false;
+    }
+
+    boolean tooHigh(Object key) {
+      if (hi.isPresent()) {
+        int c = m.compare(key, hi.get());
+        return c > 0 || (c == 0 && !hiInclusive);
+      }
+      return false;
+    }
+
+    boolean inBounds(Object key) {
+      return !tooLow(key) && !tooHigh(key);
+    }
+
+    void checkKeyBounds(Object key) {
+      Preconditions.checkNotNull(key);
+      Preconditions.checkArgument(inBounds(key), "key out of range");
+    }
+
+    // the least entry in the range, in the order of the backing map
+    private Map.Entry<K, V> loEntry() {
+      Map.Entry<K, V> e = lo.isPresent()
+          ? m.findNear(lo.get(), loInclusive ? Relation.CEILING : Relation.HIGHER)
+          : m.findFirst();
+      return e == null || tooHigh(e.getKey()) ? null : e;
+    }
+
+    // the greatest entry in the range, in the order of the backing map
+    private Map.Entry<K, V> hiEntry() {
+      Map.Entry<K, V> e = hi.isPresent()
+          ? m.findNear(hi.get(), hiInclusive ? Relation.FLOOR : Relation.LOWER)
+          : m.findLast();
+      return e == null || tooLow(e.getKey()) ? null : e;
+    }
+
+    // relation is in the order of the backing map
+    private Map.Entry<K, V> findNear(Object key, Relation relation) {
+      Preconditions.checkNotNull(key);
+      if (tooLow(key)) {
+        return relation == Relation.CEILING || relation == Relation.HIGHER
+            ? loEntry() : null;
+      }
+      if (tooHigh(key)) {
+        return relation == Relation.FLOOR || relation == Relation.LOWER
+            ? hiEntry() : null;
+      }
+      Map.Entry<K, V> e = m.findNear(key, relation);
+      return e == null || !inBounds(e.getKey()) ? null : e;
+    }
+
+    private Map.Entry<K, V> near(Object key, Relation relation) {
+      return findNear(key, isDescending ? relation.reverse() : relation);
+    }
+
+    private Map.Entry<K, V> first() {
+      return isDescending ? hiEntry() : loEntry();
+    }
+
+    private Map.Entry<K, V> last() {
+      return isDescending ? loEntry() : hiEntry();
+    }
+
+    @Override public boolean containsKey(Object key) {
+      Preconditions.checkNotNull(key);
+      return inBounds(key) && m.containsKey(key);
+    }
+
+    @Override public V get(Object key) {
+      Preconditions.checkNotNull(key);
+      return inBounds(key) ? m.get(key) : null;
+    }
+
+    @Override public V put(K key, V value) {
+      checkKeyBounds(key);
+      return m.put(key, value);
+    }
+
+    @Override public V remove(Object key) {
+      Preconditions.checkNotNull(key);
+      return inBounds(key) ? m.remove(key) : null;
+    }
+
+    @Override public int size() {
+      int size = 0;
+      Iterator<Map.Entry<K, V>> iterator = entryIterator();
+      while (iterator.hasNext()) {
+        iterator.next();
+        size++;
+      }
+      return size;
+    }
+
+    @Override public boolean isEmpty() {
+      return loEntry() == null;
+    }
+
+    @Override public void clear() {
+      for (Map.Entry<K, V> e = loEntry(); e != null;
+           e = findNear(e.getKey(), Relation.HIGHER)) {
+        m.remove(e.getKey());
+      }
+    }
+
+    @Override public Comparator<? super K> comparator() {
+      Comparator<? super K> comparator = m.comparator();
+      return isDescending ? Collections.reverseOrder(comparator) : comparator;
+    }
+
+    Iterator<Map.Entry<K, V>> entryIterator() {
+      return m.entryIterator(lo, loInclusive, hi, hiInclusive, isDescending);
+    }
+
+    @Override public Set<Map.Entry<K, V>> entrySet() {
+      return new AbstractSet<Map.Entry<K, V>>() {
+        @Override public Iterator<Map.Entry<K, V>> iterator() {
+          return entryIterator();
+        }
+
+        @Override public int size() {
+          return SubMap.this.size();
+        }
+
+        @Override public boolean isEmpty() {
+          return SubMap.this.isEmpty();
+        }
+
+        @Override public void clear() {
+          SubMap.this.clear();
+        }
+      };
+    }
+
+    @Override public Map.Entry<K, V> lowerEntry(K key) {
+      return exportEntry(near(key, Relation.LOWER));
+    }
+
+    @Override public K lowerKey(K key) {
+      return keyOrNull(near(key, Relation.LOWER));
+    }
+
+    @Override public Map.Entry<K, V> floorEntry(K key) {
+      return exportEntry(near(key, Relation.FLOOR));
+    }
+
+    @Override public K floorKey(K key) {
+      return keyOrNull(near(key, Relation.FLOOR));
+    }
+
+    @Override public Map.Entry<K, V> ceilingEntry(K key) {
+      return exportEntry(near(key, Relation.CEILING));
+    }
+
+    @Override public K ceilingKey(K key) {
+      return keyOrNull(near(key, Relation.CEILING));
+    }
+
+    @Override public Map.Entry<K, V> higherEntry(K key) {
+      return exportEntry(near(key, Relation.HIGHER));
+    }
+
+    @Override public K higherKey(K key) {
+      return keyOrNull(near(key, Relation.HIGHER));
+    }
+
+    @Override public Map.Entry<K, V> firstEntry() {
+      return exportEntry(first());
+    }
+
+    @Override public Map.Entry<K, V> lastEntry() {
+      return exportEntry(last());
+    }
+
+    @Override public K firstKey() {
+      return key(first());
+    }
+
+    @Override public K lastKey() {
+      return key(last());
+    }
+
+    @Override public Map.Entry<K, V> pollFirstEntry() {
+      Map.Entry<K, V> first = firstEntry();
+      if (first != null) {
+        m.remove(first.getKey());
+      }
+      return first;
+    }
+
+    @Override public Map.Entry<K, V> pollLastEntry() {
+      Map.Entry<K, V> last = lastEntry();
+      if (last != null) {
+        m.remove(last.getKey());
+      }
+      return last;
+    }
+
+    @Override public NavigableSet<K> keySet() {
+      return navigableKeySet();
+    }
+
+    @Override public NavigableSet<K> navigableKeySet() {
+      return new KeySet<>(this);
+    }
+
+    @Override public NavigableSet<K> descendingKeySet() {
+      return descendingMap().navigableKeySet();
+    }
+
+    @Override public NavigableMap<K, V> descendingMap() {
+      return m.newSubMap(lo, loInclusive, hi, hiInclusive, !isDescending);
+    }
+
+    /**
+     * Creates a sub map of this range. Keys and flags are in the order of this
+     * view.
+     */
+    SubMap<K, V> subRange(Optional<K> fromKey, boolean fromInclusive,
+        Optional<K> toKey, boolean toInclusive) {
+      if (isDescending) {
+        Optional<K> key = fromKey;
+        fromKey = toKey;
+        toKey = key;
+        boolean inclusive = fromInclusive;
+        fromInclusive = toInclusive;
+        toInclusive = inclusive;
+      }
+
+      if (lo.isPresent()) {
+        if (!fromKey.isPresent()) {
+          fromKey = lo;
+          fromInclusive = loInclusive;
+        } else {
+          int c = m.compare(fromKey.get(), lo.get());
+          Preconditions.checkArgument(
+              c > 0 || (c == 0 && (loInclusive || !fromInclusive)),
+              "key out of range");
+        }
+      }
+      if (hi.isPresent()) {
+        if (!toKey.isPresent()) {
+          toKey = hi;
+          toInclusive = hiInclusive;
+        } else {
+          int c = m.compare(toKey.get(), hi.get());
+          Preconditions.checkArgument(
+              c < 0 || (c == 0 && (hiInclusive || !toInclusive)),
+              "key out of range");
+        }
+      }
+      return m.newSubMap(fromKey, fromInclusive, toKey, toInclusive,
+          isDescending);
+    }
+
+    @Override public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive,
+        K toKey, boolean toInclusive) {
+      return subRange(Optional.of(fromKey), fromInclusive, Optional.of(toKey),
+          toInclusive);
+    }
+
+    @Override public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+      return subRange(Optional.empty(), false, Optional.of(toKey), inclusive);
+    }
+
+    @Override public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+      return subRange(Optional.of(fromKey), inclusive, Optional.empty(), false);
+    }
+
+    @Override public SortedMap<K, V> subMap(K fromKey, K toKey) {
+      return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override public SortedMap<K, V> headMap(K toKey) {
+      return headMap(toKey, false);
+    }
+
+    @Override public SortedMap<K, V> tailMap(K fromKey) {
+      return tailMap(fromKey, true);
+    }
+  }
+}
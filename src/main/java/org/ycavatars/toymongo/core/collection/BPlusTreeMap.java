@@ -0,0 +1,753 @@
+package org.ycavatars.toymongo.core.collection;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.util.*;
+
+/**
+ * A B+Tree based {@link java.util.NavigableMap} implementation, which is meant
+ * for indexes that are mostly scanned by ranges. The map is sorted according to
+ * the {@link java.lang.Comparable} natural ordering of its keys, or by a
+ * {@link java.util.Comparator} provided through constructor.
+ * <p>
+ * Unlike {@link BTreeMap}, internal nodes only hold separator keys, so they
+ * have more children per node, and all mappings are in leaves. Leaves are
+ * linked in both directions, so an ordered scan descends once and then follows
+ * the links, never going back to internal nodes.
+ * <p>
+ * Operations {@code containsKey}, {@code get}, {@code put} and {@code remove}
+ * take log(n) time. Entries returned by iterators are immutable snapshots.
+ *
+ * @author ycavatars
+ */
+public class BPlusTreeMap<K, V> extends AbstractNavigableMap<K, V> {
+
+  /**
+   * Must be greater than 2.
+   */
+  static final int MIN_NODE_DEGREE = 500;
+  static final int MIN_NODE_KEYS = MIN_NODE_DEGREE - 1;
+  static final int MAX_NODE_DEGREE = 2 * MIN_NODE_DEGREE;
+  static final int MAX_NODE_KEYS = 2 * MIN_NODE_DEGREE - 1;
+
+  /**
+   * Use this comparator to maintain the key order or empty if use the key natural
+   * ordering.
+   */
+  private final Optional<Comparator<? super K>> comparator;
+
+  private Optional<Node> root = Optional.empty();
+
+  // the leaf with the least keys
+  private Leaf head;
+
+  // the leaf with the greatest keys
+  private Leaf tail;
+
+  /**
+   * The number of entries in the tree
+   */
+  private int size = 0;
+
+  /**
+   * The number of structural modifications to the tree.
+   */
+  private int modCount = 0;
+
+  /**
+   * Create an empty BPlusTreeMap which uses the natural ordering of keys.
+   * Note that every key object has to implement {@link java.lang.Comparable}.
+   */
+  public BPlusTreeMap() {
+    comparator = Optional.empty();
+  }
+
+  /**
+   * @param comparator which is used to sort the keys
+   * @throws java.lang.NullPointerException if {@code comparator} is null
+   */
+  public BPlusTreeMap(Comparator<? super K> comparator) {
+    this.comparator = Optional.of(comparator);
+  }
+
+  /**
+   * Create a new BPlusTreeMap which contains the same entries as the
+   * {@code map}. Keys of the map have to implement {@link java.lang.Comparable}
+   * because the {@code comparator} is null.
+   *
+   * @param map
+   * @throws java.lang.NullPointerException if {@code map} is null
+   */
+  public BPlusTreeMap(Map<? extends K, ? extends V> map) {
+    comparator = Optional.empty();
+    putAll(Preconditions.checkNotNull(map));
+  }
+
+  /**
+   * Node in the B+Tree. {@code keys[0...keySize-1]} are sorted.
+   */
+  private abstract static class Node {
+    int keySize = 0;
+
+    final Object[] keys = new Object[MAX_NODE_KEYS];
+
+    boolean isFull() {
+      return keySize == MAX_NODE_KEYS;
+    }
+  }
+
+  /**
+   * Internal node. Keys in {@code children[i]} are less than {@code keys[i]},
+   * and keys in {@code children[i + 1]} are greater than or equal to it.
+   */
+  private static final class Inner extends Node {
+    final Node[] children = new Node[MAX_NODE_DEGREE];
+  }
+
+  /**
+   * Leaf node which holds {@code values[i]} of {@code keys[i]}.
+   */
+  private static final class Leaf extends Node {
+    final Object[] values = new Object[MAX_NODE_KEYS];
+
+    Leaf prev;
+
+    Leaf next;
+  }
+
+  /**
+   * Binary search {@code key} among the keys of {@code node}.
+   *
+   * @return index of the key if it's in the node; otherwise,
+   * <tt>(-(<i>insertion point</i>) - 1)</tt>.
+   */
+  private int search(Node node, Object key) {
+    int low = 0;
+    int high = node.keySize - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(node.keys[mid], key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  // index of the child which may contain the key
+  private int childIndex(Inner node, Object key) {
+    int index = search(node, key);
+    return index >= 0 ? index + 1 : -(index + 1);
+  }
+
+  private Leaf findLeaf(Object key) {
+    Node node = root.get();
+    while (node instanceof Inner) {
+      Inner inner = (Inner) node;
+      node = inner.children[childIndex(inner, key)];
+    }
+    return (Leaf) node;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override public V get(Object key) {
+    Preconditions.checkNotNull(key);
+    if (!root.isPresent()) {
+      return null;
+    }
+    Leaf leaf = findLeaf(key);
+    int index = search(leaf, key);
+    return index >= 0 ? (V) leaf.values[index] : null;
+  }
+
+  @Override public boolean containsKey(Object key) {
+    Preconditions.checkNotNull(key);
+    return root.isPresent() && search(findLeaf(key), key) >= 0;
+  }
+
+  /**
+   * Associates the specified value with the specified key in this map. Full
+   * nodes are split on the way down, so a new key can always be added to the
+   * leaf.
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return the previous value associated with {@code key}, or {@code null}
+   * if there was no mapping for {@code key}
+   * @throws ClassCastException   if the specified key cannot be compared
+   *                              with the keys currently in the map
+   * @throws NullPointerException if the specified key is null
+   */
+  @SuppressWarnings("unchecked")
+  @Override public V put(K key, V value) {
+    Preconditions.checkNotNull(key);
+
+    if (!root.isPresent()) {
+      Leaf leaf = new Leaf();
+      head = leaf;
+      tail = leaf;
+      root = Optional.of(leaf);
+      modCount++;
+    }
+
+    if (root.get().isFull()) {
+      Inner newRoot = new Inner();
+      newRoot.children[0] = root.get();
+      root = Optional.of(newRoot);
+      splitFullChild(newRoot, 0);
+    }
+
+    Node node = root.get();
+    while (node instanceof Inner) {
+      Inner inner = (Inner) node;
+      int index = childIndex(inner, key);
+      if (inner.children[index].isFull()) {
+        splitFullChild(inner, index);
+        if (compare(key, inner.keys[index]) >= 0) {
+          index++;
+        }
+      }
+      node = inner.children[index];
+    }
+
+    Leaf leaf = (Leaf) node;
+    int index = search(leaf, key);
+    if (index >= 0) {
+      V old = (V) leaf.values[index];
+      leaf.values[index] = value;
+      return old;
+    }
+
+    index = -(index + 1);
+    System.arraycopy(leaf.keys, index, leaf.keys, index + 1, leaf.keySize - index);
+    System.arraycopy(leaf.values, index, leaf.values, index + 1,
+        leaf.keySize - index);
+    leaf.keys[index] = key;
+    leaf.values[index] = value;
+    leaf.keySize++;
+
+    size++;
+    modCount++;
+    return null;
+  }
+
+  /**
+   * Split {@code parent.children[index]}. A full leaf keeps the lower half and
+   * the first key of the new leaf is copied to the parent. A full internal node
+   * moves its median key up to the parent.
+   */
+  private void splitFullChild(Inner parent, int index) {
+    Node child = parent.children[index];
+    Object separator;
+    Node newNode;
+
+    if (child instanceof Leaf) {
+      Leaf leaf = (Leaf) child;
+      Leaf newLeaf = new Leaf();
+      int moved = MAX_NODE_KEYS - MIN_NODE_DEGREE;
+      System.arraycopy(leaf.keys, MIN_NODE_DEGREE, newLeaf.keys, 0, moved);
+      System.arraycopy(leaf.values, MIN_NODE_DEGREE, newLeaf.values, 0, moved);
+      Arrays.fill(leaf.keys, MIN_NODE_DEGREE, MAX_NODE_KEYS, null);
+      Arrays.fill(leaf.values, MIN_NODE_DEGREE, MAX_NODE_KEYS, null);
+      newLeaf.keySize = moved;
+      leaf.keySize = MIN_NODE_DEGREE;
+
+      // link the new leaf after the full one
+      newLeaf.prev = leaf;
+      newLeaf.next = leaf.next;
+      if (leaf.next != null) {
+        leaf.next.prev = newLeaf;
+      } else {
+        tail = newLeaf;
+      }
+      leaf.next = newLeaf;
+
+      separator = newLeaf.keys[0];
+      newNode = newLeaf;
+    } else {
+      Inner inner = (Inner) child;
+      Inner newInner = new Inner();
+      separator = inner.keys[MIN_NODE_KEYS];
+      System.arraycopy(inner.keys, MIN_NODE_DEGREE, newInner.keys, 0,
+          MIN_NODE_KEYS);
+      System.arraycopy(inner.children, MIN_NODE_DEGREE, newInner.children, 0,
+          MIN_NODE_DEGREE);
+      Arrays.fill(inner.keys, MIN_NODE_KEYS, MAX_NODE_KEYS, null);
+      Arrays.fill(inner.children, MIN_NODE_DEGREE, MAX_NODE_DEGREE, null);
+      newInner.keySize = MIN_NODE_KEYS;
+      inner.keySize = MIN_NODE_KEYS;
+      newNode = newInner;
+    }
+
+    System.arraycopy(parent.children, index + 1, parent.children, index + 2,
+        parent.keySize - index);
+    parent.children[index + 1] = newNode;
+    System.arraycopy(parent.keys, index, parent.keys, index + 1,
+        parent.keySize - index);
+    parent.keys[index] = separator;
+    parent.keySize++;
+
+    modCount++;
+  }
+
+  /**
+   * Removes the mapping for a key from this map if it is present. An underflow
+   * node borrows a key from a sibling, or is merged with it, from the leaf up
+   * to the root.
+   *
+   * @param key key whose mapping is to be removed from the map
+   * @return the previous value associated with {@code key}, or {@code null}
+   * if there was no mapping for {@code key}
+   * @throws ClassCastException   if the specified key cannot be compared
+   *                              with the keys currently in the map
+   * @throws NullPointerException if the specified key is null
+   */
+  @SuppressWarnings("unchecked")
+  @Override public V remove(Object key) {
+    Preconditions.checkNotNull(key);
+    if (!root.isPresent()) {
+      return null;
+    }
+
+    // remember the path, so we can rebalance from the leaf up
+    int height = height();
+    Inner[] parents = new Inner[height];
+    int[] indexes = new int[height];
+    int depth = 0;
+    Node node = root.get();
+    while (node instanceof Inner) {
+      Inner inner = (Inner) node;
+      int index = childIndex(inner, key);
+      parents[depth] = inner;
+      indexes[depth] = index;
+      depth++;
+      node = inner.children[index];
+    }
+
+    Leaf leaf = (Leaf) node;
+    int index = search(leaf, key);
+    if (index < 0) {
+      return null;
+    }
+
+    V old = (V) leaf.values[index];
+    System.arraycopy(leaf.keys, index + 1, leaf.keys, index,
+        leaf.keySize - index - 1);
+    System.arraycopy(leaf.values, index + 1, leaf.values, index,
+        leaf.keySize - index - 1);
+    leaf.keySize--;
+    leaf.keys[leaf.keySize] = null;
+    leaf.values[leaf.keySize] = null;
+    size--;
+    modCount++;
+
+    node = leaf;
+    for (depth--; depth >= 0 && node.keySize < MIN_NODE_KEYS; depth--) {
+      if (!rebalance(parents[depth], indexes[depth])) {
+        break;
+      }
+      node = parents[depth];
+    }
+
+    // shrink the tree
+    Node top = root.get();
+    if (top instanceof Inner && top.keySize == 0) {
+      root = Optional.of(((Inner) top).children[0]);
+    } else if (top.keySize == 0) {
+      root = Optional.empty();
+      head = null;
+      tail = null;
+    }
+    return old;
+  }
+
+  /**
+   * Fix the underflow {@code parent.children[index]} by borrowing a key from a
+   * sibling, or merging it with a sibling.
+   *
+   * @return true if two nodes are merged, so the parent may underflow
+   */
+  private boolean rebalance(Inner parent, int index) {
+    Node node = parent.children[index];
+    if (index > 0 && parent.children[index - 1].keySize > MIN_NODE_KEYS) {
+      borrowFromLeft(parent, index, parent.children[index - 1], node);
+      return false;
+    }
+    if (index < parent.keySize
+        && parent.children[index + 1].keySize > MIN_NODE_KEYS) {
+      borrowFromRight(parent, index, node, parent.children[index + 1]);
+      return false;
+    }
+
+    if (index > 0) {
+      merge(parent, index - 1);
+    } else {
+      merge(parent, index);
+    }
+    return true;
+  }
+
+  private void borrowFromLeft(Inner parent, int index, Node left, Node node) {
+    shiftRight(node);
+    int last = left.keySize - 1;
+    if (node instanceof Leaf) {
+      node.keys[0] = left.keys[last];
+      ((Leaf) node).values[0] = ((Leaf) left).values[last];
+      ((Leaf) left).values[last] = null;
+      parent.keys[index - 1] = node.keys[0];
+    } else {
+      // rotate the separator down and the last key of the left node up
+      node.keys[0] = parent.keys[index - 1];
+      ((Inner) node).children[0] = ((Inner) left).children[last + 1];
+      ((Inner) left).children[last + 1] = null;
+      parent.keys[index - 1] = left.keys[last];
+    }
+    left.keys[last] = null;
+    left.keySize--;
+    node.keySize++;
+  }
+
+  private void borrowFromRight(Inner parent, int index, Node node, Node right) {
+    int end = node.keySize;
+    if (node instanceof Leaf) {
+      node.keys[end] = right.keys[0];
+      ((Leaf) node).values[end] = ((Leaf) right).values[0];
+      node.keySize++;
+      shiftLeft(right);
+      parent.keys[index] = right.keys[0];
+    } else {
+      // rotate the separator down and the first key of the right node up
+      node.keys[end] = parent.keys[index];
+      ((Inner) node).children[end + 1] = ((Inner) right).children[0];
+      node.keySize++;
+      parent.keys[index] = right.keys[0];
+      shiftLeft(right);
+    }
+  }
+
+  // make room at index 0
+  private static void shiftRight(Node node) {
+    System.arraycopy(node.keys, 0, node.keys, 1, node.keySize);
+    if (node instanceof Leaf) {
+      Leaf leaf = (Leaf) node;
+      System.arraycopy(leaf.values, 0, leaf.values, 1, leaf.keySize);
+    } else {
+      Inner inner = (Inner) node;
+      System.arraycopy(inner.children, 0, inner.children, 1, inner.keySize + 1);
+    }
+  }
+
+  // remove the first key, and the first child if it's an internal node
+  private static void shiftLeft(Node node) {
+    int last = node.keySize - 1;
+    System.arraycopy(node.keys, 1, node.keys, 0, last);
+    node.keys[last] = null;
+    if (node instanceof Leaf) {
+      Leaf leaf = (Leaf) node;
+      System.arraycopy(leaf.values, 1, leaf.values, 0, last);
+      leaf.values[last] = null;
+    } else {
+      Inner inner = (Inner) node;
+      System.arraycopy(inner.children, 1, inner.children, 0, last + 1);
+      inner.children[last + 1] = null;
+    }
+    node.keySize--;
+  }
+
+  /**
+   * Merge {@code parent.children[index + 1]} into {@code parent.children[index]}
+   * and remove the separator between them from the parent.
+   */
+  private void merge(Inner parent, int index) {
+    Node left = parent.children[index];
+    Node right = parent.children[index + 1];
+
+    if (left instanceof Leaf) {
+      Leaf leftLeaf = (Leaf) left;
+      Leaf rightLeaf = (Leaf) right;
+      System.arraycopy(rightLeaf.keys, 0, leftLeaf.keys, leftLeaf.keySize,
+          rightLeaf.keySize);
+      System.arraycopy(rightLeaf.values, 0, leftLeaf.values, leftLeaf.keySize,
+          rightLeaf.keySize);
+      leftLeaf.keySize += rightLeaf.keySize;
+
+      leftLeaf.next = rightLeaf.next;
+      if (rightLeaf.next != null) {
+        rightLeaf.next.prev = leftLeaf;
+      } else {
+        tail = leftLeaf;
+      }
+    } else {
+      Inner leftInner = (Inner) left;
+      Inner rightInner = (Inner) right;
+      leftInner.keys[leftInner.keySize] = parent.keys[index];
+      System.arraycopy(rightInner.keys, 0, leftInner.keys, leftInner.keySize + 1,
+          rightInner.keySize);
+      System.arraycopy(rightInner.children, 0, leftInner.children,
+          leftInner.keySize + 1, rightInner.keySize + 1);
+      leftInner.keySize += rightInner.keySize + 1;
+    }
+
+    System.arraycopy(parent.keys, index + 1, parent.keys, index,
+        parent.keySize - index - 1);
+    System.arraycopy(parent.children, index + 2, parent.children, index + 1,
+        parent.keySize - index - 1);
+    parent.keySize--;
+    parent.keys[parent.keySize] = null;
+    parent.children[parent.keySize + 1] = null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map.Entry<K, V> entry(Leaf leaf, int index) {
+    return new SimpleImmutableEntry<>((K) leaf.keys[index], (V) leaf.values[index]);
+  }
+
+  @Override Map.Entry<K, V> findNear(Object key, Relation relation) {
+    Preconditions.checkNotNull(key);
+    if (!root.isPresent()) {
+      return null;
+    }
+
+    Leaf leaf = findLeaf(key);
+    int index = search(leaf, key);
+    boolean ascending = relation == Relation.CEILING
+        || relation == Relation.HIGHER;
+    if (index >= 0) {
+      switch (relation) {
+        case LOWER:
+          index--;
+          break;
+        case HIGHER:
+          index++;
+          break;
+        default:
+      }
+    } else {
+      // the insertion point is the ceiling
+      index = ascending ? -(index + 1) : -(index + 1) - 1;
+    }
+
+    // the entry may be in the neighbor leaf
+    if (index >= leaf.keySize) {
+      leaf = leaf.next;
+      index = 0;
+    } else if (index < 0) {
+      leaf = leaf.prev;
+      index = leaf == null ? 0 : leaf.keySize - 1;
+    }
+    return leaf == null ? null : entry(leaf, index);
+  }
+
+  @Override Map.Entry<K, V> findFirst() {
+    return root.isPresent() ? entry(head, 0) : null;
+  }
+
+  @Override Map.Entry<K, V> findLast() {
+    return root.isPresent() ? entry(tail, tail.keySize - 1) : null;
+  }
+
+  @Override Iterator<Map.Entry<K, V>> entryIterator(Optional<K> lo,
+      boolean loInclusive, Optional<K> hi, boolean hiInclusive,
+      boolean descending) {
+    LeafIterator iterator = new LeafIterator(descending ? lo : hi,
+        descending ? loInclusive : hiInclusive, descending);
+    Optional<K> start = descending ? hi : lo;
+    if (start.isPresent()) {
+      iterator.seek(start.get(), descending ? hiInclusive : loInclusive);
+    } else if (root.isPresent()) {
+      iterator.leaf = descending ? tail : head;
+      iterator.index = descending ? tail.keySize - 1 : 0;
+    }
+    return iterator;
+  }
+
+  /**
+   * Iterates entries by following the leaf links. It stops at the entry beyond
+   * {@code bound}. If the map structure is changed while iterating, except
+   * through {@link #remove()}, it'll throw ConcurrentModificationException.
+   */
+  private final class LeafIterator implements Iterator<Map.Entry<K, V>> {
+    final Optional<K> bound;
+
+    final boolean boundInclusive;
+
+    final boolean descending;
+
+    Leaf leaf;
+
+    int index;
+
+    Optional<K> lastReturned = Optional.empty();
+
+    int expectedModCount = modCount;
+
+    LeafIterator(Optional<K> bound, boolean boundInclusive, boolean descending) {
+      this.bound = bound;
+      this.boundInclusive = boundInclusive;
+      this.descending = descending;
+    }
+
+    void seek(Object key, boolean inclusive) {
+      Map.Entry<K, V> start = findNear(key, descending
+          ? (inclusive ? Relation.FLOOR : Relation.LOWER)
+          : (inclusive ? Relation.CEILING : Relation.HIGHER));
+      leaf = null;
+      if (start != null) {
+        leaf = findLeaf(start.getKey());
+        index = search(leaf, start.getKey());
+      }
+    }
+
+    @Override public boolean hasNext() {
+      if (leaf == null) {
+        return false;
+      }
+      if (!bound.isPresent()) {
+        return true;
+      }
+      // the leaf may have lost the key at the index, or left the tree
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      int c = compare(leaf.keys[index], bound.get());
+      if (descending) {
+        c = -c;
+      }
+      return c < 0 || (c == 0 && boundInclusive);
+    }
+
+    @Override public Map.Entry<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+
+      Map.Entry<K, V> next = entry(leaf, index);
+      lastReturned = Optional.of(next.getKey());
+      if (descending) {
+        index--;
+        if (index < 0) {
+          leaf = leaf.prev;
+          index = leaf == null ? 0 : leaf.keySize - 1;
+        }
+      } else {
+        index++;
+        if (index == leaf.keySize) {
+          leaf = leaf.next;
+          index = 0;
+        }
+      }
+      return next;
+    }
+
+    @Override public void remove() {
+      Preconditions.checkState(lastReturned.isPresent());
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+
+      // leaves may be rebalanced, so find the next entry again
+      BPlusTreeMap.this.remove(lastReturned.get());
+      if (leaf != null) {
+        seek(lastReturned.get(), false);
+      }
+      lastReturned = Optional.empty();
+      expectedModCount = modCount;
+    }
+  }
+
+  @Override public Set<Map.Entry<K, V>> entrySet() {
+    return new AbstractSet<Map.Entry<K, V>>() {
+      @Override public Iterator<Map.Entry<K, V>> iterator() {
+        return entryIterator(Optional.empty(), false, Optional.empty(), false,
+            false);
+      }
+
+      @Override public boolean contains(Object o) {
+        if (!(o instanceof Map.Entry)) {
+          return false;
+        }
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+        return containsKey(entry.getKey())
+            && Objects.equals(get(entry.getKey()), entry.getValue());
+      }
+
+      @Override public boolean remove(Object o) {
+        if (contains(o)) {
+          BPlusTreeMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+          return true;
+        }
+        return false;
+      }
+
+      @Override public int size() {
+        return BPlusTreeMap.this.size();
+      }
+
+      @Override public void clear() {
+        BPlusTreeMap.this.clear();
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override int compare(Object key1, Object key2) {
+    if (comparator.isPresent()) {
+      return comparator.get().compare((K) key1, (K) key2);
+    }
+    return ((Comparable<? super K>) key1).compareTo((K) key2);
+  }
+
+  @Override public Comparator<? super K> comparator() {
+    return comparator.orElse(null);
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  /**
+   * Removes all of the mappings from this map.
+   * The map will be empty after this call returns.
+   */
+  @Override public void clear() {
+    modCount++;
+    size = 0;
+    root = Optional.empty();
+    head = null;
+    tail = null;
+  }
+
+  /**
+   * Returns the number of levels of the tree, 0 if the map is empty.
+   */
+  @VisibleForTesting int height() {
+    int height = 0;
+    Optional<Node> node = root;
+    while (node.isPresent()) {
+      height++;
+      node = node.get() instanceof Inner
+          ? Optional.of(((Inner) node.get()).children[0]) : Optional.empty();
+    }
+    return height;
+  }
+
+  /**
+   * Returns the number of leaves by following the links from the first leaf.
+   */
+  @VisibleForTesting int leafCount() {
+    int count = 0;
+    for (Leaf leaf = head; leaf != null; leaf = leaf.next) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -2,9 +2,7 @@ package org.ycavatars.toymongo.core.collection;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 
-import java.lang.reflect.Array;
 import java.util.*;
 import java.util.function.Consumer;
 
@@ -14,12 +12,13 @@ import java.util.function.Consumer;
  * or by a {@link java.util.Comparator} provided through constructor.
  * <p>
  * Operations {@code containsKey}, {@code get}, {@code put} and {@code remove}
- * take log(n) time.  Algorithms are described in Cormen, Leiserson, Rivest, and
+ * take log(n) time. Range views such as {@code subMap} are backed by the tree
+ * directly, so iterating k entries of a view takes log(n) + k time.  Algorithms are described in Cormen, Leiserson, Rivest, and
  * stein's <em>Introduction to Algorithms</em>.
  *
  * @author ycavatars
  */
-public class BTreeMap<K, V> extends AbstractMap<K, V> {
+public class BTreeMap<K, V> extends AbstractNavigableMap<K, V> {
 
   /**
    * Must be greater than 2.
@@ -29,12 +28,30 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
   static final int MAX_NODE_DEGREE = 2 * MIN_NODE_DEGREE;
   static final int MAX_NODE_KEYS = 2 * MIN_NODE_DEGREE - 1;
 
+  /**
+   * The capacity of entries of a new root node. Node arrays grow twice as large
+   * when they're full, up to {@code MAX_NODE_KEYS}.
+   */
+  static final int INITIAL_NODE_KEYS = 8;
+
+  /**
+   * The fill factor used by {@code putAll} when it bulk loads a sorted map.
+   * Some room is left in every node, so later inserts don't split at once.
+   */
+  static final float DEFAULT_FILL_FACTOR = 0.9f;
+
   /**
    * Use this comparator to maintain the key order or empty if use the key natural
    * ordering.
    */
   private final Optional<Comparator<? super K>> comparator;
 
+  // the node degrees, MIN_NODE_DEGREE unless a map is created with another
+  private final int minDegree;
+  private final int minKeys;
+  private final int maxDegree;
+  private final int maxKeys;
+
   private Optional<Node<K, V>> root = Optional.empty();
 
   /**
@@ -42,11 +59,30 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
    */
   private int size = 0;
 
+  /**
+   * The number of nodes in the tree
+   */
+  private int nodes = 0;
+
+  /**
+   * The number of nodes split by puts.
+   */
+  private long splits = 0;
+
+  // counts lookups if it's present
+  private Optional<LookupCounters> counters = Optional.empty();
+
   /**
    * The number of structural modifications to the tree.
    */
   private int modCount = 0;
 
+  /**
+   * Nodes created before the latest {@link #snapshot()} have a smaller epoch.
+   * They are shared with snapshots, so they are copied before being changed.
+   */
+  private int epoch = 0;
+
   private Optional<EntrySet> entrySet = Optional.empty();
 
   /**
@@ -54,7 +90,7 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
    * Note that every key object has to implement {@link java.lang.Comparable}.
    */
   public BTreeMap() {
-    comparator = Optional.empty();
+    this(Optional.empty(), MIN_NODE_DEGREE);
   }
 
 
@@ -63,7 +99,26 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
    * @throws java.lang.NullPointerException if {@code comparator} is null
    */
   public BTreeMap(Comparator<? super K> comparator) {
-    this.comparator = Optional.of(comparator);
+    this(Optional.of(comparator), MIN_NODE_DEGREE);
+  }
+
+  /**
+   * Create an empty BTreeMap whose nodes have between {@code minDegree} and
+   * twice as many children, e.g. to measure other node sizes. Keys use their
+   * natural ordering, or {@code comparator} if it's present.
+   *
+   * @param comparator
+   * @param minDegree  the minimum number of children of an inner node
+   * @throws IllegalArgumentException if {@code minDegree} is not greater than
+   *                                  2
+   */
+  public BTreeMap(Optional<Comparator<? super K>> comparator, int minDegree) {
+    Preconditions.checkArgument(minDegree > 2, "minDegree: %s", minDegree);
+    this.comparator = Preconditions.checkNotNull(comparator);
+    this.minDegree = minDegree;
+    this.minKeys = minDegree - 1;
+    this.maxDegree = 2 * minDegree;
+    this.maxKeys = 2 * minDegree - 1;
   }
 
   /**
@@ -75,13 +130,23 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
    * @throws java.lang.NullPointerException if {@code map} is null
    */
   public BTreeMap(Map<? extends K, ? extends V> map) {
-    comparator = Optional.empty();
+    this();
     putAll(Preconditions.checkNotNull(map));
   }
 
+  // shares the nodes of a snapshot
+  private BTreeMap(Optional<Comparator<? super K>> comparator, int minDegree,
+      Optional<Node<K, V>> root, int size, int nodes) {
+    this(comparator, minDegree);
+    this.root = root;
+    this.size = size;
+    this.nodes = nodes;
+  }
+
   class EntrySet extends AbstractSet<Map.Entry<K, V>> {
     @Override public Iterator<Map.Entry<K, V>> iterator() {
-      return new CopyEntryIterator<Map.Entry<K, V>>(root.get());
+      return entryIterator(Optional.empty(), false, Optional.empty(), false,
+          false);
     }
 
     public boolean contains(Object o) {
@@ -91,7 +156,7 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
       Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
       Object value = entry.getValue();
       Optional<Entry<K, V>> p = getEntry(entry.getKey());
-      return p.isPresent() && p.get().value.equals(value);
+      return p.isPresent() && Objects.equals(p.get().value, value);
     }
 
     public boolean remove(Object o) {
@@ -101,8 +166,8 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
       Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
       Object value = entry.getValue();
       Optional<Entry<K, V>> p = getEntry(entry.getKey());
-      if (p.isPresent() && p.get().value.equals(value)) {
-        deleteEntry(p.get());
+      if (p.isPresent() && Objects.equals(p.get().value, value)) {
+        BTreeMap.this.remove(p.get().key);
         return true;
       }
       return false;
@@ -117,74 +182,301 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
     }
   }
 
-  class CopyEntryIterator<T> implements Iterator<T> {
-    Entry[] entries;
+  /**
+   * Iterates entries in key order through a {@link Cursor}, so nothing is
+   * copied when it's created. It stops at the entry beyond {@code bound}.
+   * Every returned entry is a copy of the entry in the tree, i.e. changing its
+   * value doesn't change the map. If the map structure is changed while
+   * iterating, it'll throw ConcurrentModificationException.
+   */
+  class EntryIterator implements Iterator<Map.Entry<K, V>> {
+    final Cursor cursor;
 
-    int currentIndex;
+    final Optional<K> bound;
+
+    final boolean boundInclusive;
+
+    final boolean descending;
 
     int expectedModCount;
 
-    CopyEntryIterator(Node<K, V> root) {
-      this.entries = buildEntries(root);
+    // the key returned by the last next(), or empty after remove()
+    Optional<K> lastReturned = Optional.empty();
+
+    EntryIterator(Cursor cursor, Optional<K> bound, boolean boundInclusive,
+        boolean descending) {
+      this.cursor = cursor;
+      this.bound = bound;
+      this.boundInclusive = boundInclusive;
+      this.descending = descending;
       this.expectedModCount = modCount;
     }
 
-    private Entry[] buildEntries(Node<K, V> node) {
-      if (node.isLeaf) {
-        return copyEntries(node);
+    @Override public boolean hasNext() {
+      if (modCount != expectedModCount) {
+        // nodes on the path may be changed, next() will throw
+        return true;
+      }
+      if (!cursor.isValid()) {
+        return false;
       }
+      if (!bound.isPresent()) {
+        return true;
+      }
+      int c = compare(cursor.entry().key, bound.get());
+      if (descending) {
+        c = -c;
+      }
+      return c < 0 || (c == 0 && boundInclusive);
+    }
 
-      List<Entry<K, V>> entries = Lists.newArrayList();
-      Optional<Node> child;
-      for (int i = 0; i < node.keySize; i++) {
-        child = Optional.ofNullable(node.children[i]);
-        if (child.isPresent()) {
-          entries.addAll(Lists.newArrayList(buildEntries(child.get())));
+    @Override public Map.Entry<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+
+      Entry<K, V> next = new Entry<>(cursor.entry());
+      if (descending) {
+        cursor.previous();
+      } else {
+        cursor.next();
+      }
+      lastReturned = Optional.of(next.key);
+      return next;
+    }
+
+    /**
+     * Removes the last returned entry. The tree may be restructured, so the
+     * cursor moves to the entry after the removed key again.
+     */
+    @Override public void remove() {
+      Preconditions.checkState(lastReturned.isPresent());
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+
+      boolean hasNext = cursor.isValid();
+      BTreeMap.this.remove(lastReturned.get());
+      if (hasNext) {
+        if (descending) {
+          cursor.seekBackward(lastReturned.get(), false);
+        } else {
+          cursor.seek(lastReturned.get(), false);
         }
-        assert Optional.ofNullable(node.entries[i]).isPresent();
-        entries.add(new Entry<K, V>(node.entries[i]));
       }
+      lastReturned = Optional.empty();
+      expectedModCount = modCount;
+    }
 
-      child = Optional.ofNullable(node.children[node.keySize]);
-      if (child.isPresent()) {
-        entries.addAll(Lists.newArrayList(buildEntries(child.get())));
+    @Override public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+      while (hasNext()) {
+        action.accept(next());
       }
+    }
+  }
 
-      return entries.toArray(new Entry[0]);
+  /**
+   * A position of an entry in the tree. Instead of copying entries, it keeps
+   * the path from the root to the current entry, so it takes O(height) memory
+   * and each step takes amortized constant time.
+   * <p>
+   * {@code indexes[depth]} is the index of the current entry in
+   * {@code path[depth]}. For every ancestor, {@code indexes[i]} is the index of
+   * the child we descended into. After the child is exhausted, the ancestor's
+   * entry at the same index is the next one in order.
+   * <p>
+   * A cursor is invalid after any structural modification of the map.
+   */
+  final class Cursor {
+    final Node<K, V>[] path;
+
+    final int[] indexes;
+
+    // -1 if there's no current entry
+    int depth = -1;
+
+    @SuppressWarnings("unchecked")
+    Cursor() {
+      int height = height();
+      this.path = new Node[height];
+      this.indexes = new int[height];
     }
 
-    private Entry[] copyEntries(Node<K, V> node) {
-      Entry[] copy = new Entry[node.keySize];
-      for (int i = 0; i < node.keySize; i++) {
-        copy[i] = new Entry<K, V>(node.entries[i]);
+    boolean isValid() {
+      return depth >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    Entry<K, V> entry() {
+      return path[depth].entries[indexes[depth]];
+    }
+
+    /**
+     * Moves to the least entry.
+     */
+    void first() {
+      depth = -1;
+      if (root.isPresent()) {
+        pushLeftmost(root.get());
+        normalize();
       }
-      return copy;
     }
 
-    @Override public boolean hasNext() {
-      if (currentIndex == entries.length) {
-        return false;
+    /**
+     * Moves to the greatest entry.
+     */
+    void last() {
+      depth = -1;
+      if (root.isPresent()) {
+        pushRightmost(root.get());
+        normalizeBackward();
       }
-      Optional<Entry<K, V>> next = Optional.ofNullable(entries[currentIndex]);
-      return next.isPresent();
     }
 
-    @Override public T next() {
-      if (currentIndex == entries.length) {
-        throw new NoSuchElementException();
+    /**
+     * Moves to the least entry whose key is greater than (or equal to, if
+     * {@code inclusive} is true) the specified key.
+     *
+     * @param key
+     * @param inclusive
+     */
+    void seek(Object key, boolean inclusive) {
+      depth = -1;
+      if (!root.isPresent()) {
+        return;
       }
-      if (modCount != expectedModCount) {
-        throw new ConcurrentModificationException();
+      counters.ifPresent(LookupCounters::lookup);
+
+      Node<K, V> node = root.get();
+      while (true) {
+        int index = search(node, key);
+        if (index >= 0) {
+          push(node, index);
+          if (!inclusive) {
+            next();
+          }
+          return;
+        }
+
+        // insertion point is the child index, or the entry index at the leaf
+        push(node, -(index + 1));
+        if (node.isLeaf) {
+          normalize();
+          return;
+        }
+        node = node.children[-(index + 1)];
+      }
+    }
+
+    /**
+     * Moves to the greatest entry whose key is less than (or equal to, if
+     * {@code inclusive} is true) the specified key.
+     *
+     * @param key
+     * @param inclusive
+     */
+    void seekBackward(Object key, boolean inclusive) {
+      depth = -1;
+      if (!root.isPresent()) {
+        return;
       }
+      counters.ifPresent(LookupCounters::lookup);
+
+      Node<K, V> node = root.get();
+      while (true) {
+        int index = search(node, key);
+        if (index >= 0) {
+          push(node, index);
+          if (!inclusive) {
+            previous();
+          }
+          return;
+        }
 
-      Entry<K, V> next = entries[currentIndex];
-      currentIndex++;
-      return (T) next;
+        int insertionPoint = -(index + 1);
+        if (node.isLeaf) {
+          push(node, insertionPoint - 1);
+          normalizeBackward();
+          return;
+        }
+        push(node, insertionPoint);
+        node = node.children[insertionPoint];
+      }
     }
 
-    @Override public void forEachRemaining(Consumer<? super T> action) {
-      while (hasNext()) {
-        action.accept(next());
+    /**
+     * Moves to the next entry in order.
+     */
+    void next() {
+      Node<K, V> node = path[depth];
+      int index = indexes[depth];
+      indexes[depth] = index + 1;
+      if (node.isLeaf) {
+        normalize();
+      } else {
+        // the successor is the leftmost entry of the right subtree
+        pushLeftmost(node.children[index + 1]);
+      }
+    }
+
+    /**
+     * Moves to the previous entry in order.
+     */
+    void previous() {
+      Node<K, V> node = path[depth];
+      int index = indexes[depth];
+      if (node.isLeaf) {
+        indexes[depth] = index - 1;
+        normalizeBackward();
+      } else {
+        // the predecessor is the rightmost entry of the left subtree, and the
+        // index stays as the child index
+        pushRightmost(node.children[index]);
+      }
+    }
+
+    private void push(Node<K, V> node, int index) {
+      depth++;
+      path[depth] = node;
+      indexes[depth] = index;
+    }
+
+    private void pushLeftmost(Node<K, V> node) {
+      while (true) {
+        push(node, 0);
+        if (node.isLeaf) {
+          return;
+        }
+        node = node.children[0];
+      }
+    }
+
+    private void pushRightmost(Node<K, V> node) {
+      while (!node.isLeaf) {
+        push(node, node.keySize);
+        node = node.children[node.keySize];
+      }
+      push(node, node.keySize - 1);
+    }
+
+    // climb up while the current node is exhausted
+    private void normalize() {
+      while (depth >= 0 && indexes[depth] >= path[depth].keySize) {
+        depth--;
+      }
+    }
+
+    // climb up while the current node is exhausted backward. The entry before
+    // child i of an ancestor is the entry i - 1.
+    private void normalizeBackward() {
+      while (depth >= 0 && indexes[depth] < 0) {
+        depth--;
+        if (depth >= 0) {
+          indexes[depth]--;
+        }
       }
     }
   }
@@ -194,22 +486,54 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
    */
   private static class Node<K, V> {
 
-    //TODO apply load factor, resize arrays
+    // the epoch of the map when the node is created
+    final int epoch;
 
-    boolean isLeaf;
+    final boolean isLeaf;
 
     // number of elements in entries array
     int keySize = 0;
 
-    // keys
-    Entry[] entries = new Entry[MAX_NODE_KEYS];
+    // keys, the length is between keySize and maxKeys
+    Entry[] entries;
+
+    // degrees, one longer than entries. Leaf nodes have no children.
+    Node[] children;
+
+    Node(int epoch, boolean isLeaf, int capacity) {
+      this.epoch = epoch;
+      this.isLeaf = isLeaf;
+      this.entries = new Entry[capacity];
+      this.children = isLeaf ? null : new Node[capacity + 1];
+    }
 
-    // degrees
-    Node[] children = new Node[MAX_NODE_DEGREE];
+    Node<K, V> copy(int epoch) {
+      Node<K, V> copy = new Node<>(epoch, isLeaf, 0);
+      copy.keySize = keySize;
+      copy.entries = entries.clone();
+      copy.children = isLeaf ? null : children.clone();
+      return copy;
+    }
+
+    /**
+     * Grows the arrays if there's no room for {@code keys} keys, up to
+     * {@code maxKeys}.
+     */
+    void ensureCapacity(int keys, int maxKeys) {
+      if (keys <= entries.length) {
+        return;
+      }
+      int capacity = Math.min(Math.max(Math.max(entries.length * 2, keys),
+          INITIAL_NODE_KEYS), maxKeys);
+      entries = Arrays.copyOf(entries, capacity);
+      if (!isLeaf) {
+        children = Arrays.copyOf(children, capacity + 1);
+      }
+    }
 
     void addChild(int childIndex, Node<K, V> child) {
-      Preconditions.checkElementIndex(childIndex, MAX_NODE_DEGREE);
-      this.isLeaf = false;
+      Preconditions.checkState(!isLeaf);
+      Preconditions.checkElementIndex(childIndex, children.length);
       children[childIndex] = child;
     }
   }
@@ -245,6 +569,21 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
       return old;
     }
 
+    @Override public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+    }
+
+    @Override public int hashCode() {
+      return Objects.hashCode(key) ^ Objects.hashCode(value);
+    }
+
+    @Override public String toString() {
+      return key + "=" + value;
+    }
   }
 
   /**
@@ -271,123 +610,141 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
 
     // create empty btree
     if (!root.isPresent()) {
-      Node<K, V> rootNode = new Node<>();
-      rootNode.isLeaf = true;
+      Node<K, V> rootNode = new Node<>(epoch, true,
+          Math.min(INITIAL_NODE_KEYS, maxKeys));
       root = Optional.of(rootNode);
+      nodes++;
       modCount++;
     }
 
+    root = Optional.of(writable(root.get()));
     splitRootIfFull();
 
-    return insertNonFull(root.get(), new Entry<>(key, value)).orElse(null);
+    counters.ifPresent(LookupCounters::lookup);
+    return insertNonFull(root.get(), key, value).orElse(null);
   }
 
   @VisibleForTesting void splitRootIfFull() {
     // if the root is full
-    if (root.get().keySize == MAX_NODE_KEYS) {
-      Node<K, V> newRoot = new Node<>();
-      newRoot.isLeaf = false;
-      newRoot.keySize = 0;
-      newRoot.children[0] = root.get();
+    if (root.get().keySize == maxKeys) {
+      Node<K, V> newRoot = new Node<>(epoch, false,
+          Math.min(INITIAL_NODE_KEYS, maxKeys));
+      newRoot.addChild(0, root.get());
       root = Optional.of(newRoot);
+      nodes++;
 
       splitFullChild(newRoot, 0); // split old root node which is the first child of newRoot
-      modCount++;
     }
   }
 
   /**
-   * Insert {@code entry} to {@code node} if the node is a leaf node. Otherwise,
-   * traverse from the node to find the leaf.
+   * Insert the mapping to {@code node} if the node is a leaf node. Otherwise,
+   * traverse from the node to find the leaf. If any node on the way already
+   * contains the key, its value is replaced instead. {@code node} must be
+   * writable, and so is every node on the way.
    *
    * @param node
-   * @param entry
+   * @param key
+   * @param value
+   * @return the previous value of the key, or empty if it's a new key
    */
-  private Optional<V> insertNonFull(Node<K, V> node, Entry<K, V> entry) {
-    int index = node.keySize - 1;
+  @SuppressWarnings("unchecked")
+  private Optional<V> insertNonFull(Node<K, V> node, K key, V value) {
+    int index = search(node, key);
+    if (index >= 0) {
+      return Optional.ofNullable(replaceValue(node, index, value));
+    }
+    // insertion point
+    index = -(index + 1);
+
     // same as binary tree, we add a key to a leaf
     if (node.isLeaf) {
-      // TODO the comparator may affect the algorithm you choose, and binary search
-      // may not work, so have to add constraints on comparator. Before that, make it
-      // works first.
-      while (index >= 0 && compare(entry.key, node.entries[index].key) < 0) {
-        node.entries[index + 1] = node.entries[index];
-        index--;
-      }
-
-      // set the new entry
-      Optional<V> old = Optional.empty();
-      index++;
-      if (Optional.ofNullable(node.entries[index]).isPresent()) {
-        old = Optional.ofNullable((V) node.entries[index].getValue());
-      }
-      node.entries[index] = entry;
+      node.ensureCapacity(node.keySize + 1, maxKeys);
+      System.arraycopy(node.entries, index, node.entries, index + 1,
+          node.keySize - index);
+      node.entries[index] = new Entry<>(key, value);
       node.keySize++;
 
       size++;
+      modCount++;
 
-      return old;
-    } else {
-      while (index >= 0 && compare(entry.key, node.entries[index].key) < 0) {
-        index--;
-      }
-      index++;
-
-      assert Optional.ofNullable(node.children[index]).isPresent()
-          : "the index:" + index + ", the keySize:" + node.keySize;
+      return Optional.empty();
+    }
 
-      // if the child is full
-      if (node.children[index].keySize == MAX_NODE_KEYS) {
-        splitFullChild(node, index);
-        if (compare(entry.key, node.entries[index].key) > 0) {
-          index++;
-        }
+    assert Optional.ofNullable(node.children[index]).isPresent()
+        : "the index:" + index + ", the keySize:" + node.keySize;
+
+    node.children[index] = writable(node.children[index]);
+    // if the child is full
+    if (node.children[index].keySize == maxKeys) {
+      splitFullChild(node, index);
+      // the median key moved up from the child may be the key itself
+      int cmp = compare(key, node.entries[index].key);
+      if (cmp == 0) {
+        return Optional.ofNullable(replaceValue(node, index, value));
+      } else if (cmp > 0) {
+        index++;
       }
-      return insertNonFull(node.children[index], entry);
     }
+    return insertNonFull(node.children[index], key, value);
+  }
+
+  /**
+   * Entries may be shared with snapshots, so the value is replaced with a new
+   * entry instead of changing the entry.
+   *
+   * @return the old value
+   */
+  @SuppressWarnings("unchecked")
+  private V replaceValue(Node<K, V> node, int index, V value) {
+    Entry<K, V> old = node.entries[index];
+    node.entries[index] = new Entry<>(old.key, value);
+    return old.value;
+  }
+
+  /**
+   * Returns the node itself if it's created after the latest snapshot.
+   * Otherwise, it's shared with a snapshot, and a copy is returned. Callers
+   * have to replace the reference in the parent with the returned node.
+   */
+  private Node<K, V> writable(Node<K, V> node) {
+    return node.epoch == epoch ? node : node.copy(epoch);
   }
 
   /**
-   * Split {@code parent.children[index]}.
+   * Split {@code parent.children[index]}. {@code parent} must be writable.
    *
    * @param parent
    * @param index
    */
   @SuppressWarnings("unchecked")
   private void splitFullChild(Node<K, V> parent, int index) {
-    Node<K, V> child = parent.children[index];
-    Node<K, V> newNode = new Node<>();
+    Node<K, V> child = writable(parent.children[index]);
+    parent.children[index] = child;
 
     assert Optional.ofNullable(child).isPresent();
-    assert child.keySize == child.entries.length : "the child node should be full";
-
-    newNode.isLeaf = child.isLeaf;
-
-    Entry<K, V> medianEntry = child.entries[MIN_NODE_KEYS];
-    // Move the later half of entries to newNode.entries.
-    System.arraycopy(
-        child.entries,
-        MIN_NODE_KEYS + 1, // child.entries[MIN_NODE_KEYS] will be the median key
-        newNode.entries,
-        0,
-        MAX_NODE_KEYS - MIN_NODE_KEYS - 1 // minus median key
-    );
-    newNode.keySize = MAX_NODE_KEYS - MIN_NODE_KEYS - 1;
-    child.keySize = MIN_NODE_KEYS;
-    child.entries = keepElements(child.entries, MIN_NODE_KEYS);
-
-    // Leaf node will not be full, so it won't have any children.
+    assert child.keySize == maxKeys : "the child node should be full";
+
+    // child.entries[minKeys] will be the median key. The later half of
+    // entries moves to newNode, whose arrays are just large enough.
+    Entry<K, V> medianEntry = child.entries[minKeys];
+    int newKeySize = maxKeys - minKeys - 1;
+    Node<K, V> newNode = new Node<>(epoch, child.isLeaf, 0);
+    newNode.entries = Arrays.copyOfRange(child.entries, minKeys + 1,
+        maxKeys);
+    newNode.keySize = newKeySize;
+
+    // the child keeps its arrays, and releases the moved references
+    Arrays.fill(child.entries, minKeys, maxKeys, null);
+    child.keySize = minKeys;
+
     if (!child.isLeaf) {
-      System.arraycopy(
-          child.children,
-          MIN_NODE_DEGREE,
-          newNode.children,
-          0,
-          MAX_NODE_DEGREE - MIN_NODE_DEGREE
-      );
-      child.children = keepElements(child.children, MIN_NODE_DEGREE);
+      newNode.children = Arrays.copyOfRange(child.children, minDegree,
+          maxDegree);
+      Arrays.fill(child.children, minDegree, maxDegree, null);
     }
 
+    parent.ensureCapacity(parent.keySize + 1, maxKeys);
     // shift children right
     System.arraycopy(parent.children, index + 1, parent.children, index + 2,
         parent.keySize - index);
@@ -401,22 +758,241 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
     parent.entries[index] = medianEntry;
 
     parent.keySize++;
+    nodes++;
+    splits++;
+    // entries moved, so cursors of iterators are invalid
+    modCount++;
   }
 
   /**
-   * Returns a new array which contains original[0...newSize-1]. The length of
-   * returned array is the same as {@code original}.
+   * Bulk loads the map if it's empty and {@code map} is sorted in the same
+   * order. Otherwise, mappings are put one by one.
    *
-   * @param original
-   * @param newSize
-   * @param <T>
-   * @return
+   * @param map mappings to be stored in this map
+   * @throws NullPointerException if {@code map} is null, or contains a null
+   *                              key
+   */
+  @Override public void putAll(Map<? extends K, ? extends V> map) {
+    if (isEmpty() && map instanceof SortedMap && Objects.equals(
+        comparator.orElse(null), ((SortedMap<?, ?>) map).comparator())) {
+      bulkLoad(map.entrySet().iterator(), DEFAULT_FILL_FACTOR);
+    } else {
+      super.putAll(map);
+    }
+  }
+
+  /**
+   * Same as {@link #bulkLoad(Iterator, float)}, {@code map} has to be sorted
+   * in the same order as this map.
+   *
+   * @param map        mappings to be stored in this map
+   * @param fillFactor between 0.5 and 1
+   */
+  public void bulkLoad(SortedMap<? extends K, ? extends V> map,
+      float fillFactor) {
+    bulkLoad(map.entrySet().iterator(), fillFactor);
+  }
+
+  /**
+   * Builds the tree bottom-up from mappings in ascending key order, which
+   * takes linear time. Every node except the root is about {@code fillFactor}
+   * full, but never less than half full.
+   * <p>
+   * The mappings are streamed: only the rightmost node of each level, and the
+   * node before it, are kept until the next separator comes, so it takes
+   * O(height) nodes of memory besides the tree.
+   *
+   * @param entries    mappings in ascending key order
+   * @param fillFactor between 0.5 and 1
+   * @throws IllegalStateException    if this map is not empty
+   * @throws IllegalArgumentException if keys are not strictly ascending, or
+   *                                  {@code fillFactor} is out of range
+   * @throws NullPointerException     if a key is null
    */
-  private static <T> T[] keepElements(T[] original, int newSize) {
-    T[] newArray = (T[]) Array.newInstance(original.getClass().getComponentType(),
-        original.length);
-    System.arraycopy(original, 0, newArray, 0, newSize);
-    return newArray;
+  public void bulkLoad(
+      Iterator<? extends Map.Entry<? extends K, ? extends V>> entries,
+      float fillFactor) {
+    Preconditions.checkState(isEmpty(), "the map is not empty");
+    Preconditions.checkArgument(fillFactor >= 0.5f && fillFactor <= 1f,
+        "fillFactor: %s", fillFactor);
+
+    int targetKeys = Math.max(minKeys,
+        Math.min(maxKeys, Math.round(fillFactor * maxKeys)));
+    Loader loader = new Loader(targetKeys);
+    Optional<K> last = Optional.empty();
+    while (entries.hasNext()) {
+      Map.Entry<? extends K, ? extends V> entry = entries.next();
+      K key = Preconditions.checkNotNull(entry.getKey());
+      if (last.isPresent()) {
+        Preconditions.checkArgument(compare(last.get(), key) < 0,
+            "keys are not in ascending order: %s", key);
+      }
+      last = Optional.of(key);
+      loader.add(new Entry<>(key, entry.getValue()));
+    }
+    if (loader.size == 0) {
+      return;
+    }
+
+    root = Optional.of(loader.finish());
+    size = loader.size;
+    nodes = loader.nodes;
+    modCount++;
+  }
+
+  /**
+   * Builds a tree level by level from entries in ascending order. The
+   * rightmost node of a level is filled up to {@code targetKeys} keys, and
+   * the next entry of the level becomes the separator of the node and the
+   * node after it, which goes up to the level above. A full node is held
+   * back until the next one is full, so the last two nodes of a level can be
+   * rebalanced when the input ends.
+   */
+  private final class Loader {
+
+    private final int targetKeys;
+
+    // the rightmost node of each level. An internal node has as many
+    // children as keys, since the child after its last key is not full yet
+    private final List<Node<K, V>> open = new ArrayList<>();
+
+    // the full node before the rightmost node of each level, or null
+    private final List<Node<K, V>> held = new ArrayList<>();
+
+    // the separator after the held node of each level
+    private final List<Entry<K, V>> separators = new ArrayList<>();
+
+    int size;
+
+    int nodes;
+
+    Loader(int targetKeys) {
+      this.targetKeys = targetKeys;
+    }
+
+    void add(Entry<K, V> entry) {
+      size++;
+      Node<K, V> leaf = open(0);
+      if (leaf.keySize < targetKeys) {
+        leaf.entries[leaf.keySize++] = entry;
+      } else {
+        hold(0, entry);
+      }
+    }
+
+    private Node<K, V> open(int level) {
+      if (open.size() == level) {
+        open.add(newNode(level == 0));
+        held.add(null);
+        separators.add(null);
+      }
+      return open.get(level);
+    }
+
+    private Node<K, V> newNode(boolean isLeaf) {
+      nodes++;
+      return new Node<>(epoch, isLeaf,
+          Math.min(Math.max(targetKeys, INITIAL_NODE_KEYS), maxKeys));
+    }
+
+    // the rightmost node of the level is full, and the separator follows it
+    private void hold(int level, Entry<K, V> separator) {
+      if (held.get(level) != null) {
+        addChild(level + 1, held.get(level), separators.get(level));
+      }
+      held.set(level, open.get(level));
+      separators.set(level, separator);
+      open.set(level, newNode(level == 0));
+    }
+
+    // appends a child and the separator after it to a node of the level
+    private void addChild(int level, Node<K, V> child,
+        Entry<K, V> separator) {
+      Node<K, V> node = open(level);
+      node.children[node.keySize] = child;
+      if (node.keySize < targetKeys) {
+        node.entries[node.keySize++] = separator;
+      } else {
+        hold(level, separator);
+      }
+    }
+
+    /**
+     * Completes the rightmost nodes from the leaves up, and returns the root.
+     */
+    Node<K, V> finish() {
+      Node<K, V> child = null;
+      for (int level = 0; ; level++) {
+        Node<K, V> node = open.get(level);
+        if (level > 0) {
+          node.children[node.keySize] = child;
+        }
+        Node<K, V> left = held.get(level);
+        if (left == null) {
+          // the only node of the top level
+          return node;
+        }
+        Entry<K, V> separator = separators.get(level);
+        if (node.keySize < minKeys) {
+          if (left.keySize + 1 + node.keySize <= maxKeys) {
+            child = merge(left, separator, node);
+            if (level == open.size() - 1) {
+              return child;
+            }
+            continue;
+          }
+          separator = rebalance(left, separator, node);
+        }
+        addChild(level + 1, left, separator);
+        child = node;
+      }
+    }
+
+    // moves the separator and the keys of right to the end of left
+    private Node<K, V> merge(Node<K, V> left, Entry<K, V> separator,
+        Node<K, V> right) {
+      int keys = left.keySize + 1 + right.keySize;
+      left.ensureCapacity(keys, maxKeys);
+      left.entries[left.keySize] = separator;
+      System.arraycopy(right.entries, 0, left.entries, left.keySize + 1,
+          right.keySize);
+      if (!left.isLeaf) {
+        System.arraycopy(right.children, 0, left.children, left.keySize + 1,
+            right.keySize + 1);
+      }
+      left.keySize = keys;
+      nodes--;
+      return left;
+    }
+
+    /**
+     * Moves keys from the end of left to the front of right, so both have
+     * about the same number of keys, and returns the new separator.
+     */
+    private Entry<K, V> rebalance(Node<K, V> left, Entry<K, V> separator,
+        Node<K, V> right) {
+      int keys = left.keySize + 1 + right.keySize;
+      int leftKeys = (keys - 1) / 2;
+      int moved = left.keySize - leftKeys;
+      right.ensureCapacity(keys - 1 - leftKeys, maxKeys);
+      System.arraycopy(right.entries, 0, right.entries, moved,
+          right.keySize);
+      right.entries[moved - 1] = separator;
+      System.arraycopy(left.entries, leftKeys + 1, right.entries, 0,
+          moved - 1);
+      Entry<K, V> newSeparator = left.entries[leftKeys];
+      Arrays.fill(left.entries, leftKeys, left.keySize, null);
+      if (!left.isLeaf) {
+        System.arraycopy(right.children, 0, right.children, moved,
+            right.keySize + 1);
+        System.arraycopy(left.children, leftKeys + 1, right.children, 0,
+            moved);
+        Arrays.fill(left.children, leftKeys + 1, left.keySize + 1, null);
+      }
+      right.keySize += moved;
+      left.keySize = leftKeys;
+      return newSeparator;
+    }
   }
 
   /**
@@ -447,6 +1023,19 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
     return getEntry(key).map(e -> e.value).orElse(null);
   }
 
+  /**
+   * Returns {@code true} if this map contains a mapping for the specified key.
+   *
+   * @param key key whose presence in this map is to be tested
+   * @return {@code true} if this map contains a mapping for the specified key
+   * @throws ClassCastException   if the specified key cannot be compared
+   *                              with the keys currently in the map
+   * @throws NullPointerException if the specified key is null
+   */
+  @Override public boolean containsKey(Object key) {
+    return getEntry(key).isPresent();
+  }
+
   /**
    * Search the entry from root.
    *
@@ -459,35 +1048,281 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
 
   @SuppressWarnings("unchecked")
   private Optional<Entry<K, V>> getEntry(Node<K, V> node, Object key) {
-    if (comparator.isPresent()) {
-      return getEntryUsingComparator(key);
+    Preconditions.checkNotNull(key);
+    counters.ifPresent(LookupCounters::lookup);
+
+    while (true) {
+      int index = search(node, key);
+      if (index >= 0) {
+        return Optional.of(node.entries[index]);
+      } else if (node.isLeaf) {
+        return Optional.empty();
+      }
+      node = node.children[-(index + 1)];
     }
+  }
 
-    int index = 0;
-    while (index < node.keySize && compare(key, node.entries[index].key) > 0) {
-      index++;
+  /**
+   * Binary search {@code key} among the entries of {@code node}. Works the same
+   * way as {@link java.util.Arrays#binarySearch(Object[], int, int, Object,
+   * Comparator)}, so it takes log(keySize) comparisons no matter whether the
+   * natural ordering or the comparator is used.
+   *
+   * @param node
+   * @param key
+   * @return index of the key if it's in the node; otherwise,
+   * <tt>(-(<i>insertion point</i>) - 1)</tt>. The insertion point is also the
+   * index of the child which may contain the key.
+   */
+  private int search(Node<K, V> node, Object key) {
+    int low = 0;
+    int high = node.keySize - 1;
+    int compared = 0;
+    int found = -1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(node.entries[mid].key, key);
+      compared++;
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        found = mid;
+        break;
+      }
+    }
+    if (counters.isPresent()) {
+      counters.get().compared(compared);
     }
+    return found >= 0 ? found : -(low + 1);
+  }
 
-    if (index < node.keySize && key.equals(node.entries[index].key)) {
-      return Optional.of(node.entries[index]);
-    } else if (node.isLeaf) {
-      return Optional.empty();
+  /**
+   * Removes the mapping in a single pass down from the root, as described in
+   * CLRS. Before descending into a child with only {@code minKeys} keys,
+   * the child borrows a key from a sibling or is merged with a sibling, so a
+   * key can be removed without going back up. The root is replaced by its only
+   * child when its last key is moved down by a merge.
+   *
+   * @param key key whose mapping is to be removed from the map
+   * @return the previous value of the key, or {@code null} if there was no
+   * mapping for the key
+   * @throws ClassCastException   if the specified key cannot be compared
+   *                              with the keys currently in the map
+   * @throws NullPointerException if the specified key is null
+   */
+  @Override public V remove(Object key) {
+    Preconditions.checkNotNull(key);
+    if (!root.isPresent()) {
+      return null;
+    }
+
+    Node<K, V> rootNode = writable(root.get());
+    counters.ifPresent(LookupCounters::lookup);
+    Entry<K, V> removed = delete(rootNode, key);
+    // the descent may merge the children of the root even if the key is absent
+    if (rootNode.keySize > 0) {
+      root = Optional.of(rootNode);
     } else {
-      return getEntry(node.children[index], key);
+      root = rootNode.isLeaf ? Optional.empty()
+          : Optional.of(rootNode.children[0]);
+      nodes--;
+    }
+    if (removed == null) {
+      return null;
+    }
+    size--;
+    modCount++;
+    return removed.value;
+  }
+
+  /**
+   * Deletes the key from the subtree of {@code node} in a single descent.
+   * {@code node} must be writable, and has more than {@code minKeys} keys
+   * unless it's the root. Nodes on the way are refilled before the key is
+   * found, so the tree may be restructured even if the key is absent.
+   *
+   * @return the removed entry, or {@code null} if there's no such key
+   */
+  private Entry<K, V> delete(Node<K, V> node, Object key) {
+    while (true) {
+      int index = search(node, key);
+      if (node.isLeaf) {
+        if (index < 0) {
+          return null;
+        }
+        Entry<K, V> removed = node.entries[index];
+        removeEntry(node, index);
+        return removed;
+      }
+
+      if (index < 0) {
+        node = childToDescend(node, -(index + 1));
+        continue;
+      }
+
+      // replace the key with its predecessor or successor, which is in a leaf
+      Entry<K, V> removed = node.entries[index];
+      if (node.children[index].keySize > minKeys) {
+        node.entries[index] = deleteLast(writableChild(node, index));
+        return removed;
+      }
+      if (node.children[index + 1].keySize > minKeys) {
+        node.entries[index] = deleteFirst(writableChild(node, index + 1));
+        return removed;
+      }
+      // otherwise the key moves down to the merged child
+      node = merge(node, index);
     }
   }
 
-  private void deleteEntry(Entry<K, V> entry) {
-    //TODO delete entry
+  // removes and returns the greatest entry of the subtree
+  private Entry<K, V> deleteLast(Node<K, V> node) {
+    while (!node.isLeaf) {
+      node = childToDescend(node, node.keySize);
+    }
+    Entry<K, V> last = node.entries[node.keySize - 1];
+    removeEntry(node, node.keySize - 1);
+    return last;
+  }
+
+  // removes and returns the least entry of the subtree
+  private Entry<K, V> deleteFirst(Node<K, V> node) {
+    while (!node.isLeaf) {
+      node = childToDescend(node, 0);
+    }
+    Entry<K, V> first = node.entries[0];
+    removeEntry(node, 0);
+    return first;
   }
 
-  private Optional<Entry<K, V>> getEntryUsingComparator(Object key) {
-    //TODO
-    return null;
+  private void removeEntry(Node<K, V> leaf, int index) {
+    System.arraycopy(leaf.entries, index + 1, leaf.entries, index,
+        leaf.keySize - index - 1);
+    leaf.keySize--;
+    leaf.entries[leaf.keySize] = null;
   }
 
+  /**
+   * Makes sure {@code parent.children[index]} has more than
+   * {@code minKeys} keys, and returns the child which now covers the
+   * same keys. It's the writable child itself, or its left sibling if they're
+   * merged.
+   */
+  private Node<K, V> childToDescend(Node<K, V> parent, int index) {
+    if (parent.children[index].keySize > minKeys) {
+      return writableChild(parent, index);
+    }
+    if (index > 0 && parent.children[index - 1].keySize > minKeys) {
+      borrowFromLeft(parent, index);
+      return parent.children[index];
+    }
+    if (index < parent.keySize
+        && parent.children[index + 1].keySize > minKeys) {
+      borrowFromRight(parent, index);
+      return parent.children[index];
+    }
+    return index < parent.keySize ? merge(parent, index)
+        : merge(parent, index - 1);
+  }
+
+  /**
+   * Moves the separator {@code parent.entries[index - 1]} down to the front
+   * of {@code parent.children[index]}, and the last key of the left sibling up
+   * to its place.
+   */
   @SuppressWarnings("unchecked")
-  private int compare(Object key1, Object key2) {
+  private void borrowFromLeft(Node<K, V> parent, int index) {
+    Node<K, V> child = writableChild(parent, index);
+    Node<K, V> left = writableChild(parent, index - 1);
+    child.ensureCapacity(child.keySize + 1, maxKeys);
+
+    System.arraycopy(child.entries, 0, child.entries, 1, child.keySize);
+    child.entries[0] = parent.entries[index - 1];
+    parent.entries[index - 1] = left.entries[left.keySize - 1];
+    left.entries[left.keySize - 1] = null;
+    if (!child.isLeaf) {
+      System.arraycopy(child.children, 0, child.children, 1,
+          child.keySize + 1);
+      child.children[0] = left.children[left.keySize];
+      left.children[left.keySize] = null;
+    }
+    child.keySize++;
+    left.keySize--;
+    modCount++;
+  }
+
+  /**
+   * Moves the separator {@code parent.entries[index]} down to the end of
+   * {@code parent.children[index]}, and the first key of the right sibling up
+   * to its place.
+   */
+  @SuppressWarnings("unchecked")
+  private void borrowFromRight(Node<K, V> parent, int index) {
+    Node<K, V> child = writableChild(parent, index);
+    Node<K, V> right = writableChild(parent, index + 1);
+    child.ensureCapacity(child.keySize + 1, maxKeys);
+
+    child.entries[child.keySize] = parent.entries[index];
+    parent.entries[index] = right.entries[0];
+    System.arraycopy(right.entries, 1, right.entries, 0, right.keySize - 1);
+    right.entries[right.keySize - 1] = null;
+    if (!child.isLeaf) {
+      child.children[child.keySize + 1] = right.children[0];
+      System.arraycopy(right.children, 1, right.children, 0, right.keySize);
+      right.children[right.keySize] = null;
+    }
+    child.keySize++;
+    right.keySize--;
+    modCount++;
+  }
+
+  /**
+   * Merges {@code parent.children[index + 1]} and the separator
+   * {@code parent.entries[index]} into {@code parent.children[index]}. Both
+   * children have {@code minKeys} keys, so the merged child is full.
+   *
+   * @return the merged child
+   */
+  private Node<K, V> merge(Node<K, V> parent, int index) {
+    Node<K, V> left = writableChild(parent, index);
+    Node<K, V> right = parent.children[index + 1];
+    assert left.keySize == minKeys && right.keySize == minKeys;
+    left.ensureCapacity(maxKeys, maxKeys);
+
+    left.entries[minKeys] = parent.entries[index];
+    System.arraycopy(right.entries, 0, left.entries, minKeys + 1,
+        right.keySize);
+    if (!left.isLeaf) {
+      System.arraycopy(right.children, 0, left.children, minDegree,
+          right.keySize + 1);
+    }
+    left.keySize = maxKeys;
+
+    // remove the separator and the right child from the parent
+    System.arraycopy(parent.entries, index + 1, parent.entries, index,
+        parent.keySize - index - 1);
+    System.arraycopy(parent.children, index + 2, parent.children, index + 1,
+        parent.keySize - index - 1);
+    parent.keySize--;
+    parent.entries[parent.keySize] = null;
+    parent.children[parent.keySize + 1] = null;
+    nodes--;
+    modCount++;
+    return left;
+  }
+
+  // replaces parent.children[index] with a writable node and returns it
+  private Node<K, V> writableChild(Node<K, V> parent, int index) {
+    Node<K, V> child = writable(parent.children[index]);
+    parent.children[index] = child;
+    return child;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override int compare(Object key1, Object key2) {
     if (comparator.isPresent()) {
       return compareUsingComparator(key1, key2);
     }
@@ -505,6 +1340,223 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
     return new EntrySet();
   }
 
+  /**
+   * Returns an iterator over the entries whose keys are greater than (or equal
+   * to, if {@code inclusive} is true) {@code fromKey}, in ascending key order.
+   * It walks the tree lazily from {@code fromKey}, so nothing before the key
+   * is visited.
+   *
+   * @param fromKey   low endpoint of the keys
+   * @param inclusive {@code true} if the low endpoint is to be included
+   * @return the iterator
+   * @throws ClassCastException   if {@code fromKey} cannot be compared with
+   *                              the keys currently in the map
+   * @throws NullPointerException if {@code fromKey} is null
+   */
+  public Iterator<Map.Entry<K, V>> entryIterator(K fromKey, boolean inclusive) {
+    return entryIterator(Optional.of(fromKey), inclusive, Optional.empty(),
+        false, false);
+  }
+
+  @Override Iterator<Map.Entry<K, V>> entryIterator(Optional<K> lo,
+      boolean loInclusive, Optional<K> hi, boolean hiInclusive,
+      boolean descending) {
+    Cursor cursor = new Cursor();
+    if (descending) {
+      if (hi.isPresent()) {
+        cursor.seekBackward(hi.get(), hiInclusive);
+      } else {
+        cursor.last();
+      }
+      return new EntryIterator(cursor, lo, loInclusive, true);
+    }
+
+    if (lo.isPresent()) {
+      cursor.seek(lo.get(), loInclusive);
+    } else {
+      cursor.first();
+    }
+    return new EntryIterator(cursor, hi, hiInclusive, false);
+  }
+
+  @Override Map.Entry<K, V> findNear(Object key, Relation relation) {
+    Preconditions.checkNotNull(key);
+    Cursor cursor = new Cursor();
+    switch (relation) {
+      case LOWER:
+        cursor.seekBackward(key, false);
+        break;
+      case FLOOR:
+        cursor.seekBackward(key, true);
+        break;
+      case CEILING:
+        cursor.seek(key, true);
+        break;
+      default:
+        cursor.seek(key, false);
+    }
+    return cursor.isValid() ? cursor.entry() : null;
+  }
+
+  @Override Map.Entry<K, V> findFirst() {
+    Cursor cursor = new Cursor();
+    cursor.first();
+    return cursor.isValid() ? cursor.entry() : null;
+  }
+
+  @Override Map.Entry<K, V> findLast() {
+    Cursor cursor = new Cursor();
+    cursor.last();
+    return cursor.isValid() ? cursor.entry() : null;
+  }
+
+  @Override public Comparator<? super K> comparator() {
+    return comparator.orElse(null);
+  }
+
+  /**
+   * Returns a read-only view of the current mappings, which is never changed
+   * by later modifications of this map, and never throws
+   * ConcurrentModificationException. It takes constant time because nodes are
+   * shared with this map. After that, this map copies a node before changing it
+   * for the first time, i.e. only the nodes on the changed paths are copied.
+   * Old nodes are garbage collected once no snapshot refers to them.
+   *
+   * @return the snapshot
+   */
+  public NavigableMap<K, V> snapshot() {
+    BTreeMap<K, V> snapshot = new BTreeMap<>(comparator, minDegree, root,
+        size, nodes);
+    epoch++;
+    return Collections.unmodifiableNavigableMap(snapshot);
+  }
+
+  /**
+   * Returns the number of levels of the tree, 0 if the map is empty, i.e. the
+   * number of nodes visited by a lookup.
+   */
+  public int height() {
+    int height = 0;
+    Optional<Node<K, V>> node = root;
+    while (node.isPresent()) {
+      height++;
+      node = node.get().isLeaf ? Optional.empty()
+          : Optional.of(node.get().children[0]);
+    }
+    return height;
+  }
+
+  /**
+   * Returns the total length of entries arrays of all nodes.
+   */
+  @VisibleForTesting int capacity() {
+    return root.isPresent() ? capacity(root.get()) : 0;
+  }
+
+  private int capacity(Node<K, V> node) {
+    int capacity = node.entries.length;
+    if (!node.isLeaf) {
+      for (int i = 0; i <= node.keySize; i++) {
+        capacity += capacity(node.children[i]);
+      }
+    }
+    return capacity;
+  }
+
+  /**
+   * Returns the number of nodes of the tree, which is kept up to date by
+   * writes, so it takes constant time.
+   */
+  public int nodeCount() {
+    return nodes;
+  }
+
+  private int countNodes(Node<K, V> node) {
+    int count = 1;
+    if (!node.isLeaf) {
+      for (int i = 0; i <= node.keySize; i++) {
+        count += countNodes(node.children[i]);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the average number of keys of a node over the maximum, or 0 if
+   * the map is empty.
+   */
+  public double fillFactor() {
+    return nodes == 0 ? 0 : (double) size / ((long) nodes * maxKeys);
+  }
+
+  /**
+   * Returns the number of nodes split by puts since the map was created.
+   */
+  public long splitCount() {
+    return splits;
+  }
+
+  /**
+   * Counts the descents of {@code get}, {@code put}, {@code remove} and
+   * seeks of range views from the root, and the keys they compare, into
+   * {@code counters} from now on. Counting costs an add to a striped counter
+   * per visited node, so it's off unless it's asked for.
+   *
+   * @param counters which may be shared by several maps
+   */
+  public void countLookups(LookupCounters counters) {
+    this.counters = Optional.of(counters);
+  }
+
+  /**
+   * Checks that keys are sorted, every node except the root has at least
+   * {@code minKeys} keys, no node has room for more than {@code maxKeys}, all
+   * leaves have the same depth, and the size and the number of nodes are
+   * correct.
+   *
+   * @throws IllegalStateException if the tree is broken
+   */
+  @VisibleForTesting void checkInvariants() {
+    if (!root.isPresent()) {
+      Preconditions.checkState(size == 0, "size: %s", size);
+      Preconditions.checkState(nodes == 0, "nodes: %s", nodes);
+      return;
+    }
+    Preconditions.checkState(nodes == countNodes(root.get()), "nodes: %s",
+        nodes);
+    Preconditions.checkState(root.get().keySize > 0, "empty root");
+    int keys = checkInvariants(root.get(), Optional.empty(), Optional.empty(),
+        height(), true);
+    Preconditions.checkState(keys == size, "size: %s, keys: %s", size, keys);
+  }
+
+  // returns the number of keys in the subtree
+  private int checkInvariants(Node<K, V> node, Optional<K> lo, Optional<K> hi,
+      int height, boolean isRoot) {
+    Preconditions.checkState(node.keySize <= maxKeys);
+    Preconditions.checkState(node.entries.length <= maxKeys,
+        "capacity: %s", node.entries.length);
+    Preconditions.checkState(isRoot || node.keySize >= minKeys,
+        "keySize: %s", node.keySize);
+    Preconditions.checkState(node.isLeaf == (height == 1), "unbalanced");
+    int keys = node.keySize;
+    for (int i = 0; i < node.keySize; i++) {
+      K key = (K) node.entries[i].key;
+      Preconditions.checkState(!lo.isPresent() || compare(lo.get(), key) < 0);
+      Preconditions.checkState(!hi.isPresent() || compare(key, hi.get()) < 0);
+      if (!node.isLeaf) {
+        keys += checkInvariants(node.children[i], lo, Optional.of(key),
+            height - 1, false);
+      }
+      lo = Optional.of(key);
+    }
+    if (!node.isLeaf) {
+      keys += checkInvariants(node.children[node.keySize], lo, hi, height - 1,
+          false);
+    }
+    return keys;
+  }
+
   @Override public int size() {
     return size;
   }
@@ -516,6 +1568,7 @@ public class BTreeMap<K, V> extends AbstractMap<K, V> {
   @Override public void clear() {
     modCount++;
     size = 0;
+    nodes = 0;
     root = Optional.empty();
   }
 }
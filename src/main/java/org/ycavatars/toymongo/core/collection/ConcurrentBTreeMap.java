@@ -0,0 +1,855 @@
+package org.ycavatars.toymongo.core.collection;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent {@link java.util.concurrent.ConcurrentNavigableMap} based on the
+ * B-link tree of Lehman and Yao, <em>Efficient Locking for Concurrent
+ * Operations on B-Trees</em>. Like {@link BPlusTreeMap}, mappings are stored in
+ * leaves and internal nodes only hold separator keys.
+ * <p>
+ * Every node has a high key and a link to its right sibling. Keys greater than
+ * or equal to the high key have moved to the right, so a reader who arrives at
+ * a node after it's split just follows the link. The content of a node is an
+ * immutable {@link Content} published through a volatile field, so readers
+ * never lock and never retry. A writer only locks the leaf it changes, and
+ * while splitting, the parent it adds the separator to. Locks are always taken
+ * from left to right and from bottom to top, so writers can't deadlock.
+ * <p>
+ * Contents are copied on every write, so nodes are much smaller than the nodes
+ * of {@link BTreeMap}. Nodes are never merged, i.e. removing keys doesn't
+ * shrink the tree.
+ * <p>
+ * Iterators and views are weakly consistent, and entries returned by them are
+ * immutable snapshots. {@code size} takes constant time but is only an
+ * estimate while the map is being changed.
+ *
+ * @author ycavatars
+ */
+public class ConcurrentBTreeMap<K, V> extends AbstractNavigableMap<K, V>
+    implements ConcurrentNavigableMap<K, V> {
+
+  /**
+   * Must be greater than 2.
+   */
+  static final int MIN_NODE_DEGREE = 32;
+  static final int MAX_NODE_KEYS = 2 * MIN_NODE_DEGREE - 1;
+
+  private static final Object[] EMPTY = new Object[0];
+
+  /**
+   * Use this comparator to maintain the key order or empty if use the key natural
+   * ordering.
+   */
+  private final Optional<Comparator<? super K>> comparator;
+
+  /**
+   * The leftmost node of the top level. It's never null, and its level only
+   * grows.
+   */
+  private volatile Node root = new Node(0, new Content(EMPTY, EMPTY, null, null,
+      null));
+
+  // guards growing the tree
+  private final ReentrantLock rootLock = new ReentrantLock();
+
+  private final LongAdder size = new LongAdder();
+
+  /**
+   * Create an empty ConcurrentBTreeMap which uses the natural ordering of keys.
+   * Note that every key object has to implement {@link java.lang.Comparable}.
+   */
+  public ConcurrentBTreeMap() {
+    comparator = Optional.empty();
+  }
+
+  /**
+   * @param comparator which is used to sort the keys
+   * @throws java.lang.NullPointerException if {@code comparator} is null
+   */
+  public ConcurrentBTreeMap(Comparator<? super K> comparator) {
+    this.comparator = Optional.of(comparator);
+  }
+
+  /**
+   * Create a new ConcurrentBTreeMap which contains the same entries as the
+   * {@code map}. Keys of the map have to implement {@link java.lang.Comparable}
+   * because the {@code comparator} is null.
+   *
+   * @param map
+   * @throws java.lang.NullPointerException if {@code map} is null
+   */
+  public ConcurrentBTreeMap(Map<? extends K, ? extends V> map) {
+    comparator = Optional.empty();
+    putAll(Preconditions.checkNotNull(map));
+  }
+
+  /**
+   * Node in the tree. Level 0 is the leaf level.
+   */
+  private static final class Node {
+    final int level;
+
+    volatile Content content;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    Node(int level, Content content) {
+      this.level = level;
+      this.content = content;
+    }
+
+    /**
+     * Lock the node, and move right until the node may contain the key. Only
+     * the returned node is locked.
+     */
+    Node lockCovering(Object key, ConcurrentBTreeMap<?, ?> map) {
+      Node node = this;
+      node.lock.lock();
+      while (true) {
+        Content c = node.content;
+        if (c.covers(key, map)) {
+          return node;
+        }
+        Node right = c.right;
+        right.lock.lock();
+        node.lock.unlock();
+        node = right;
+      }
+    }
+  }
+
+  /**
+   * Immutable state of a node. Leaves have {@code values}, internal nodes have
+   * {@code children}. Keys in {@code children[i]} are less than
+   * {@code keys[i]}, and keys in {@code children[i + 1]} are greater than or
+   * equal to it. Every key is less than {@code highKey}, which is null for the
+   * rightmost node of a level.
+   */
+  private static final class Content {
+    final Object[] keys;
+
+    final Object[] values;
+
+    final Node[] children;
+
+    final Object highKey;
+
+    final Node right;
+
+    Content(Object[] keys, Object[] values, Node[] children, Object highKey,
+        Node right) {
+      this.keys = keys;
+      this.values = values;
+      this.children = children;
+      this.highKey = highKey;
+      this.right = right;
+    }
+
+    boolean isLeaf() {
+      return children == null;
+    }
+
+    boolean covers(Object key, ConcurrentBTreeMap<?, ?> map) {
+      return highKey == null || map.compare(key, highKey) < 0;
+    }
+  }
+
+  /**
+   * Binary search {@code key} among {@code keys}.
+   *
+   * @return index of the key if it's found; otherwise,
+   * <tt>(-(<i>insertion point</i>) - 1)</tt>.
+   */
+  private int search(Object[] keys, Object key) {
+    int low = 0;
+    int high = keys.length - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(keys[mid], key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  // index of the child which may contain the key
+  private int childIndex(Object[] keys, Object key) {
+    int index = search(keys, key);
+    return index >= 0 ? index + 1 : -(index + 1);
+  }
+
+  /**
+   * Descends from the root to the node at {@code level} which may contain the
+   * key, without locking. If {@code path} isn't null, nodes we descend through
+   * are recorded by their levels.
+   */
+  private Node descend(Object key, int level, Node[] path) {
+    Node node = root;
+    while (true) {
+      Content c = node.content;
+      if (!c.covers(key, this)) {
+        node = c.right;
+        continue;
+      }
+      if (node.level == level) {
+        return node;
+      }
+      if (path != null && node.level < path.length) {
+        path[node.level] = node;
+      }
+      node = c.children[childIndex(c.keys, key)];
+    }
+  }
+
+  // the leaf content which may contain the key
+  private Content findLeaf(Object key) {
+    Node node = root;
+    while (true) {
+      Content c = node.content;
+      if (!c.covers(key, this)) {
+        node = c.right;
+      } else if (c.isLeaf()) {
+        return c;
+      } else {
+        node = c.children[childIndex(c.keys, key)];
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override public V get(Object key) {
+    Preconditions.checkNotNull(key);
+    Content c = findLeaf(key);
+    int index = search(c.keys, key);
+    return index >= 0 ? (V) c.values[index] : null;
+  }
+
+  @Override public boolean containsKey(Object key) {
+    Preconditions.checkNotNull(key);
+    return search(findLeaf(key).keys, key) >= 0;
+  }
+
+  @Override public V put(K key, V value) {
+    return doPut(key, value, false);
+  }
+
+  @Override public V putIfAbsent(K key, V value) {
+    return doPut(key, value, true);
+  }
+
+  @SuppressWarnings("unchecked")
+  private V doPut(K key, V value, boolean onlyIfAbsent) {
+    Preconditions.checkNotNull(key);
+    Preconditions.checkNotNull(value);
+
+    Node[] path = new Node[root.level + 1];
+    Node leaf = descend(key, 0, path).lockCovering(key, this);
+    Content c = leaf.content;
+    int index = search(c.keys, key);
+    if (index >= 0) {
+      V old = (V) c.values[index];
+      if (!onlyIfAbsent) {
+        leaf.content = new Content(c.keys, replace(c.values, index, value), null,
+            c.highKey, c.right);
+      }
+      leaf.lock.unlock();
+      return old;
+    }
+
+    index = -(index + 1);
+    Object[] keys = insert(c.keys, index, key);
+    Object[] values = insert(c.values, index, value);
+    if (keys.length <= MAX_NODE_KEYS) {
+      leaf.content = new Content(keys, values, null, c.highKey, c.right);
+      size.increment();
+      leaf.lock.unlock();
+      return null;
+    }
+
+    // split the leaf, the right half moves to a new node
+    int mid = keys.length / 2;
+    Node newNode = new Node(0, new Content(
+        Arrays.copyOfRange(keys, mid, keys.length),
+        Arrays.copyOfRange(values, mid, values.length), null, c.highKey,
+        c.right));
+    Object separator = keys[mid];
+    leaf.content = new Content(Arrays.copyOf(keys, mid),
+        Arrays.copyOf(values, mid), null, separator, newNode);
+    size.increment();
+    insertSeparator(leaf, separator, newNode, path);
+    return null;
+  }
+
+  /**
+   * Adds {@code separator} and {@code newNode}, which was split from
+   * {@code node}, to the parent of {@code node}. {@code node} is locked by the
+   * caller and will be unlocked here.
+   */
+  private void insertSeparator(Node node, Object separator, Node newNode,
+      Node[] path) {
+    int level = node.level + 1;
+    Node parent = level < path.length ? path[level] : null;
+    if (parent == null) {
+      rootLock.lock();
+      try {
+        if (root.level < level) {
+          growRoot();
+          node.lock.unlock();
+          return;
+        }
+      } finally {
+        rootLock.unlock();
+      }
+      // the tree has grown since we descended
+      parent = descend(separator, level, null);
+    }
+
+    parent = parent.lockCovering(separator, this);
+    node.lock.unlock();
+
+    Content c = parent.content;
+    int index = search(c.keys, separator);
+    if (index >= 0) {
+      // already added when the root grew
+      parent.lock.unlock();
+      return;
+    }
+
+    index = -(index + 1);
+    Object[] keys = insert(c.keys, index, separator);
+    Node[] children = insert(c.children, index + 1, newNode);
+    if (keys.length <= MAX_NODE_KEYS) {
+      parent.content = new Content(keys, null, children, c.highKey, c.right);
+      parent.lock.unlock();
+      return;
+    }
+
+    // split the internal node, the median key moves up
+    int mid = keys.length / 2;
+    Node newParent = new Node(level, new Content(
+        Arrays.copyOfRange(keys, mid + 1, keys.length), null,
+        Arrays.copyOfRange(children, mid + 1, children.length), c.highKey,
+        c.right));
+    parent.content = new Content(Arrays.copyOf(keys, mid), null,
+        Arrays.copyOf(children, mid + 1), keys[mid], newParent);
+    insertSeparator(parent, keys[mid], newParent, path);
+  }
+
+  /**
+   * Puts a new root above the top level. All nodes of the top level become its
+   * children, so separators of splits which haven't reached the parent yet are
+   * added as well. Must hold {@code rootLock}.
+   */
+  private void growRoot() {
+    List<Object> keys = new ArrayList<>();
+    List<Node> children = new ArrayList<>();
+    Node node = root;
+    while (true) {
+      children.add(node);
+      Content c = node.content;
+      if (c.right == null) {
+        break;
+      }
+      keys.add(c.highKey);
+      node = c.right;
+    }
+    root = new Node(root.level + 1, new Content(keys.toArray(), null,
+        children.toArray(new Node[children.size()]), null, null));
+  }
+
+  @Override public V remove(Object key) {
+    return doRemove(key, Optional.empty());
+  }
+
+  @Override public boolean remove(Object key, Object value) {
+    Preconditions.checkNotNull(key);
+    return value != null && doRemove(key, Optional.of(value)) != null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private V doRemove(Object key, Optional<Object> expected) {
+    Preconditions.checkNotNull(key);
+
+    Node leaf = descend(key, 0, null).lockCovering(key, this);
+    Content c = leaf.content;
+    int index = search(c.keys, key);
+    if (index < 0 || (expected.isPresent()
+        && !expected.get().equals(c.values[index]))) {
+      leaf.lock.unlock();
+      return null;
+    }
+
+    V old = (V) c.values[index];
+    leaf.content = new Content(delete(c.keys, index), delete(c.values, index),
+        null, c.highKey, c.right);
+    size.decrement();
+    leaf.lock.unlock();
+    return old;
+  }
+
+  @Override public boolean replace(K key, V oldValue, V newValue) {
+    Preconditions.checkNotNull(oldValue);
+    return doReplace(key, Optional.of(oldValue), newValue) != null;
+  }
+
+  @Override public V replace(K key, V value) {
+    return doReplace(key, Optional.empty(), value);
+  }
+
+  @SuppressWarnings("unchecked")
+  private V doReplace(Object key, Optional<Object> expected, V value) {
+    Preconditions.checkNotNull(key);
+    Preconditions.checkNotNull(value);
+
+    Node leaf = descend(key, 0, null).lockCovering(key, this);
+    Content c = leaf.content;
+    int index = search(c.keys, key);
+    if (index < 0 || (expected.isPresent()
+        && !expected.get().equals(c.values[index]))) {
+      leaf.lock.unlock();
+      return null;
+    }
+
+    V old = (V) c.values[index];
+    leaf.content = new Content(c.keys, replace(c.values, index, value), null,
+        c.highKey, c.right);
+    leaf.lock.unlock();
+    return old;
+  }
+
+  private static Object[] replace(Object[] array, int index, Object element) {
+    Object[] copy = array.clone();
+    copy[index] = element;
+    return copy;
+  }
+
+  private static <T> T[] insert(T[] array, int index, T element) {
+    T[] copy = Arrays.copyOf(array, array.length + 1);
+    System.arraycopy(array, index, copy, index + 1, array.length - index);
+    copy[index] = element;
+    return copy;
+  }
+
+  private static Object[] delete(Object[] array, int index) {
+    Object[] copy = new Object[array.length - 1];
+    System.arraycopy(array, 0, copy, 0, index);
+    System.arraycopy(array, index + 1, copy, index, copy.length - index);
+    return copy;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map.Entry<K, V> entry(Content c, int index) {
+    return new SimpleImmutableEntry<>((K) c.keys[index], (V) c.values[index]);
+  }
+
+  // the first entry of the leaf or the leaves on its right
+  private Map.Entry<K, V> firstFrom(Content c, Object key, boolean inclusive) {
+    while (true) {
+      int index = search(c.keys, key);
+      index = index >= 0 ? (inclusive ? index : index + 1) : -(index + 1);
+      if (index < c.keys.length) {
+        return entry(c, index);
+      }
+      if (c.right == null) {
+        return null;
+      }
+      c = c.right.content;
+    }
+  }
+
+  @Override Map.Entry<K, V> findNear(Object key, Relation relation) {
+    Preconditions.checkNotNull(key);
+    if (relation == Relation.CEILING || relation == Relation.HIGHER) {
+      return firstFrom(findLeaf(key), key, relation == Relation.CEILING);
+    }
+
+    boolean inclusive = relation == Relation.FLOOR;
+    while (true) {
+      // remember the least key the leaf may contain, so we can look further
+      // left if the leaf has no such entry
+      Optional<Object> lowKey = Optional.empty();
+      // without inclusive, the entry is in the node which covers keys less
+      // than the key, even if the key is a separator
+      Node node = root;
+      Content c;
+      while (true) {
+        c = node.content;
+        if (c.highKey != null
+            && compare(key, c.highKey) >= (inclusive ? 0 : 1)) {
+          lowKey = Optional.of(c.highKey);
+          node = c.right;
+        } else if (c.isLeaf()) {
+          break;
+        } else {
+          int index = search(c.keys, key);
+          index = index >= 0 ? (inclusive ? index + 1 : index) : -(index + 1);
+          if (index > 0) {
+            lowKey = Optional.of(c.keys[index - 1]);
+          }
+          node = c.children[index];
+        }
+      }
+
+      int index = search(c.keys, key);
+      index = index >= 0 ? (inclusive ? index : index - 1) : -(index + 1) - 1;
+      if (index >= 0) {
+        return entry(c, index);
+      }
+      if (!lowKey.isPresent()) {
+        return null;
+      }
+      key = lowKey.get();
+      inclusive = false;
+    }
+  }
+
+  @Override Map.Entry<K, V> findFirst() {
+    Node node = root;
+    while (node.level > 0) {
+      node = node.content.children[0];
+    }
+    for (Content c = node.content; ; c = c.right.content) {
+      if (c.keys.length > 0) {
+        return entry(c, 0);
+      }
+      if (c.right == null) {
+        return null;
+      }
+    }
+  }
+
+  @Override Map.Entry<K, V> findLast() {
+    // remember the least key the rightmost leaf may contain, like findNear
+    Optional<Object> lowKey = Optional.empty();
+    Node node = root;
+    while (true) {
+      Content c = node.content;
+      if (c.right != null) {
+        lowKey = Optional.of(c.highKey);
+        node = c.right;
+      } else if (c.isLeaf()) {
+        if (c.keys.length > 0) {
+          return entry(c, c.keys.length - 1);
+        }
+        return lowKey.isPresent() ? findNear(lowKey.get(), Relation.LOWER) : null;
+      } else {
+        if (c.keys.length > 0) {
+          lowKey = Optional.of(c.keys[c.keys.length - 1]);
+        }
+        node = c.children[c.children.length - 1];
+      }
+    }
+  }
+
+  @Override Iterator<Map.Entry<K, V>> entryIterator(Optional<K> lo,
+      boolean loInclusive, Optional<K> hi, boolean hiInclusive,
+      boolean descending) {
+    if (descending) {
+      Map.Entry<K, V> start = hi.isPresent()
+          ? findNear(hi.get(), hiInclusive ? Relation.FLOOR : Relation.LOWER)
+          : findLast();
+      return new DescendingIterator(start, lo, loInclusive);
+    }
+
+    Map.Entry<K, V> start = lo.isPresent()
+        ? findNear(lo.get(), loInclusive ? Relation.CEILING : Relation.HIGHER)
+        : findFirst();
+    return new AscendingIterator(start, hi, hiInclusive);
+  }
+
+  /**
+   * Base of the weakly consistent iterators. It never throws
+   * ConcurrentModificationException.
+   */
+  private abstract class BaseIterator implements Iterator<Map.Entry<K, V>> {
+    final Optional<K> bound;
+
+    final boolean boundInclusive;
+
+    Map.Entry<K, V> next;
+
+    Optional<K> lastReturned = Optional.empty();
+
+    BaseIterator(Map.Entry<K, V> first, Optional<K> bound,
+        boolean boundInclusive) {
+      this.bound = bound;
+      this.boundInclusive = boundInclusive;
+      this.next = withinBound(first);
+    }
+
+    abstract boolean beyond(int c);
+
+    abstract Map.Entry<K, V> advance(K key);
+
+    Map.Entry<K, V> withinBound(Map.Entry<K, V> entry) {
+      if (entry == null || !bound.isPresent()) {
+        return entry;
+      }
+      int c = compare(entry.getKey(), bound.get());
+      return beyond(c) || (c == 0 && !boundInclusive) ? null : entry;
+    }
+
+    @Override public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override public Map.Entry<K, V> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<K, V> e = next;
+      lastReturned = Optional.of(e.getKey());
+      next = withinBound(advance(e.getKey()));
+      return e;
+    }
+
+    @Override public void remove() {
+      Preconditions.checkState(lastReturned.isPresent());
+      ConcurrentBTreeMap.this.remove(lastReturned.get());
+      lastReturned = Optional.empty();
+    }
+  }
+
+  /**
+   * Follows the right links between leaves, so each step takes constant time.
+   */
+  private final class AscendingIterator extends BaseIterator {
+    Content leaf;
+
+    AscendingIterator(Map.Entry<K, V> first, Optional<K> hi,
+        boolean hiInclusive) {
+      super(first, hi, hiInclusive);
+      if (next != null) {
+        leaf = findLeaf(next.getKey());
+      }
+    }
+
+    @Override boolean beyond(int c) {
+      return c > 0;
+    }
+
+    @Override Map.Entry<K, V> advance(K key) {
+      Map.Entry<K, V> e = firstFrom(leaf, key, false);
+      while (e != null && !leaf.covers(e.getKey(), ConcurrentBTreeMap.this)) {
+        leaf = leaf.right.content;
+      }
+      return e;
+    }
+  }
+
+  /**
+   * Leaves have no left links, so each step searches from the root.
+   */
+  private final class DescendingIterator extends BaseIterator {
+    DescendingIterator(Map.Entry<K, V> first, Optional<K> lo,
+        boolean loInclusive) {
+      super(first, lo, loInclusive);
+    }
+
+    @Override boolean beyond(int c) {
+      return c < 0;
+    }
+
+    @Override Map.Entry<K, V> advance(K key) {
+      return findNear(key, Relation.LOWER);
+    }
+  }
+
+  @Override public Set<Map.Entry<K, V>> entrySet() {
+    return new AbstractSet<Map.Entry<K, V>>() {
+      @Override public Iterator<Map.Entry<K, V>> iterator() {
+        return entryIterator(Optional.empty(), false, Optional.empty(), false,
+            false);
+      }
+
+      @Override public boolean contains(Object o) {
+        if (!(o instanceof Map.Entry)) {
+          return false;
+        }
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+        V value = get(entry.getKey());
+        return value != null && value.equals(entry.getValue());
+      }
+
+      @Override public boolean remove(Object o) {
+        if (!(o instanceof Map.Entry)) {
+          return false;
+        }
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+        return ConcurrentBTreeMap.this.remove(entry.getKey(), entry.getValue());
+      }
+
+      @Override public int size() {
+        return ConcurrentBTreeMap.this.size();
+      }
+
+      @Override public boolean isEmpty() {
+        return ConcurrentBTreeMap.this.isEmpty();
+      }
+
+      @Override public void clear() {
+        ConcurrentBTreeMap.this.clear();
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override int compare(Object key1, Object key2) {
+    if (comparator.isPresent()) {
+      return comparator.get().compare((K) key1, (K) key2);
+    }
+    return ((Comparable<? super K>) key1).compareTo((K) key2);
+  }
+
+  @Override public Comparator<? super K> comparator() {
+    return comparator.orElse(null);
+  }
+
+  @Override public int size() {
+    long sum = size.sum();
+    return sum >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(sum, 0);
+  }
+
+  @Override public boolean isEmpty() {
+    return findFirst() == null;
+  }
+
+  /**
+   * Removes all of the mappings from this map. Mappings added while clearing
+   * may be kept.
+   */
+  @Override public void clear() {
+    for (Map.Entry<K, V> e = findFirst(); e != null;
+         e = findNear(e.getKey(), Relation.HIGHER)) {
+      remove(e.getKey());
+    }
+  }
+
+  /**
+   * Returns the number of levels of the tree.
+   */
+  @VisibleForTesting int height() {
+    return root.level + 1;
+  }
+
+  @Override SubMap<K, V> newSubMap(Optional<K> lo, boolean loInclusive,
+      Optional<K> hi, boolean hiInclusive, boolean isDescending) {
+    return new ConcurrentSubMap<>(this, lo, loInclusive, hi, hiInclusive,
+        isDescending);
+  }
+
+  @Override public ConcurrentNavigableMap<K, V> descendingMap() {
+    return (ConcurrentNavigableMap<K, V>) super.descendingMap();
+  }
+
+  @Override public ConcurrentNavigableMap<K, V> subMap(K fromKey,
+      boolean fromInclusive, K toKey, boolean toInclusive) {
+    return (ConcurrentNavigableMap<K, V>) super.subMap(fromKey, fromInclusive,
+        toKey, toInclusive);
+  }
+
+  @Override public ConcurrentNavigableMap<K, V> headMap(K toKey,
+      boolean inclusive) {
+    return (ConcurrentNavigableMap<K, V>) super.headMap(toKey, inclusive);
+  }
+
+  @Override public ConcurrentNavigableMap<K, V> tailMap(K fromKey,
+      boolean inclusive) {
+    return (ConcurrentNavigableMap<K, V>) super.tailMap(fromKey, inclusive);
+  }
+
+  @Override public ConcurrentNavigableMap<K, V> subMap(K fromKey, K toKey) {
+    return subMap(fromKey, true, toKey, false);
+  }
+
+  @Override public ConcurrentNavigableMap<K, V> headMap(K toKey) {
+    return headMap(toKey, false);
+  }
+
+  @Override public ConcurrentNavigableMap<K, V> tailMap(K fromKey) {
+    return tailMap(fromKey, true);
+  }
+
+  /**
+   * A range view whose atomic operations are delegated to the backing map.
+   */
+  static final class ConcurrentSubMap<K, V> extends SubMap<K, V>
+      implements ConcurrentNavigableMap<K, V> {
+
+    ConcurrentSubMap(ConcurrentBTreeMap<K, V> m, Optional<K> lo,
+        boolean loInclusive, Optional<K> hi, boolean hiInclusive,
+        boolean isDescending) {
+      super(m, lo, loInclusive, hi, hiInclusive, isDescending);
+    }
+
+    private ConcurrentMap<K, V> map() {
+      return (ConcurrentMap<K, V>) m;
+    }
+
+    @Override public V putIfAbsent(K key, V value) {
+      checkKeyBounds(key);
+      return map().putIfAbsent(key, value);
+    }
+
+    @Override public boolean remove(Object key, Object value) {
+      Preconditions.checkNotNull(key);
+      return inBounds(key) && map().remove(key, value);
+    }
+
+    @Override public boolean replace(K key, V oldValue, V newValue) {
+      checkKeyBounds(key);
+      return map().replace(key, oldValue, newValue);
+    }
+
+    @Override public V replace(K key, V value) {
+      checkKeyBounds(key);
+      return map().replace(key, value);
+    }
+
+    @Override public ConcurrentNavigableMap<K, V> descendingMap() {
+      return (ConcurrentNavigableMap<K, V>) super.descendingMap();
+    }
+
+    @Override public ConcurrentNavigableMap<K, V> subMap(K fromKey,
+        boolean fromInclusive, K toKey, boolean toInclusive) {
+      return (ConcurrentNavigableMap<K, V>) super.subMap(fromKey, fromInclusive,
+          toKey, toInclusive);
+    }
+
+    @Override public ConcurrentNavigableMap<K, V> headMap(K toKey,
+        boolean inclusive) {
+      return (ConcurrentNavigableMap<K, V>) super.headMap(toKey, inclusive);
+    }
+
+    @Override public ConcurrentNavigableMap<K, V> tailMap(K fromKey,
+        boolean inclusive) {
+      return (ConcurrentNavigableMap<K, V>) super.tailMap(fromKey, inclusive);
+    }
+
+    @Override public ConcurrentNavigableMap<K, V> subMap(K fromKey, K toKey) {
+      return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override public ConcurrentNavigableMap<K, V> headMap(K toKey) {
+      return headMap(toKey, false);
+    }
+
+    @Override public ConcurrentNavigableMap<K, V> tailMap(K fromKey) {
+      return tailMap(fromKey, true);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package org.ycavatars.toymongo.core.collection;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A BTree map from primitive {@code long} keys to values, e.g. numeric
+ * {@code _id}s or record offsets. Unlike {@code BTreeMap<Long, V>}, keys are
+ * stored in a {@code long[]} and values in a parallel array of each node,
+ * so {@code get}, {@code put} and {@code remove} allocate neither boxes nor
+ * entries.
+ * <p>
+ * Operations {@code containsKey}, {@code get}, {@code put} and
+ * {@code remove} take log(n) time. Mappings are visited in key order by a
+ * {@link Cursor}. The nodes are shared with {@link IntBTreeMap}, see
+ * {@link PrimitiveBTreeMap}.
+ *
+ * @author ycavatars
+ */
+public class LongBTreeMap<V> extends PrimitiveBTreeMap<V> {
+
+  @Override Object newKeys(int capacity) {
+    return new long[capacity];
+  }
+
+  @Override int search(Object keys, int keySize, long key) {
+    long[] array = (long[]) keys;
+    int low = 0;
+    int high = keySize - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midKey = array[mid];
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  @Override long key(Object keys, int index) {
+    return ((long[]) keys)[index];
+  }
+
+  @Override void setKey(Object keys, int index, long key) {
+    ((long[]) keys)[index] = key;
+  }
+
+  public boolean containsKey(long key) {
+    return contains(key);
+  }
+
+  /**
+   * @param key
+   * @return the value of the key, or {@code null} if there's no mapping for
+   * the key
+   */
+  public V get(long key) {
+    return lookup(key);
+  }
+
+  /**
+   * Associates the value with the key. The old value is replaced if the map
+   * already contains the key.
+   *
+   * @param key
+   * @param value
+   * @return the previous value of the key, or {@code null} if there was no
+   * mapping for the key
+   */
+  public V put(long key, V value) {
+    return insert(key, value);
+  }
+
+  /**
+   * Removes the mapping of the key if it's present.
+   *
+   * @param key
+   * @return the previous value of the key, or {@code null} if there was no
+   * mapping for the key
+   */
+  public V remove(long key) {
+    return delete(key);
+  }
+
+  /**
+   * @throws NoSuchElementException if the map is empty
+   */
+  public long firstKey() {
+    return first();
+  }
+
+  /**
+   * @throws NoSuchElementException if the map is empty
+   */
+  public long lastKey() {
+    return last();
+  }
+
+  /**
+   * Returns a cursor over all mappings in ascending key order.
+   */
+  public Cursor cursor() {
+    Cursor cursor = new Cursor();
+    cursor.first();
+    return cursor;
+  }
+
+  /**
+   * Returns a cursor over the mappings whose keys are greater than or equal
+   * to {@code fromKey}, in ascending key order.
+   *
+   * @param fromKey
+   */
+  public Cursor cursor(long fromKey) {
+    Cursor cursor = new Cursor();
+    cursor.seek(fromKey);
+    return cursor;
+  }
+
+  /**
+   * Visits mappings in key order without creating any objects:
+   * <pre>
+   * LongBTreeMap.Cursor cursor = map.cursor();
+   * while (cursor.next()) {
+   *   use(cursor.key(), cursor.value());
+   * }
+   * </pre>
+   * The cursor is fail-fast like the iterators of {@link BTreeMap}.
+   */
+  public final class Cursor extends Position {
+
+    private Cursor() {
+    }
+
+    /**
+     * @throws IllegalStateException if the cursor is not on a mapping
+     */
+    public long key() {
+      return currentKey();
+    }
+  }
+}
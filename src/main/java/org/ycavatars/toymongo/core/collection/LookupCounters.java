@@ -0,0 +1,43 @@
+package org.ycavatars.toymongo.core.collection;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the descents of a {@link BTreeMap} or a {@link PagedBTreeMap} from
+ * its root and the keys they compare, see
+ * {@link BTreeMap#countLookups(LookupCounters)}. The counts are striped, so
+ * lookups which share a read lock don't contend on them.
+ *
+ * @author ycavatars
+ */
+public final class LookupCounters {
+
+  private final LongAdder lookups = new LongAdder();
+
+  private final LongAdder comparisons = new LongAdder();
+
+  void lookup() {
+    lookups.increment();
+  }
+
+  void compared(int keys) {
+    comparisons.add(keys);
+  }
+
+  public long getLookups() {
+    return lookups.sum();
+  }
+
+  public long getComparisons() {
+    return comparisons.sum();
+  }
+
+  /**
+   * Returns the average number of keys compared by a lookup, or 0 if there
+   * was no lookup.
+   */
+  public double comparisonsPerLookup() {
+    long lookups = getLookups();
+    return lookups == 0 ? 0 : (double) getComparisons() / lookups;
+  }
+}
@@ -0,0 +1,102 @@
+package org.ycavatars.toymongo.core.collection;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes keys or values of a {@link PagedBTreeMap} into pages. Every value
+ * takes the same number of bytes, so the slots of a node can be searched in
+ * place.
+ *
+ * @author ycavatars
+ */
+public interface PageSerializer<T> {
+
+  /**
+   * Returns the number of bytes of every value.
+   */
+  int size();
+
+  void write(ByteBuffer page, int offset, T value);
+
+  T read(ByteBuffer page, int offset);
+
+  PageSerializer<Long> LONG = new PageSerializer<Long>() {
+    @Override public int size() {
+      return 8;
+    }
+
+    @Override public void write(ByteBuffer page, int offset, Long value) {
+      page.putLong(offset, value);
+    }
+
+    @Override public Long read(ByteBuffer page, int offset) {
+      return page.getLong(offset);
+    }
+  };
+
+  PageSerializer<Integer> INTEGER = new PageSerializer<Integer>() {
+    @Override public int size() {
+      return 4;
+    }
+
+    @Override public void write(ByteBuffer page, int offset, Integer value) {
+      page.putInt(offset, value);
+    }
+
+    @Override public Integer read(ByteBuffer page, int offset) {
+      return page.getInt(offset);
+    }
+  };
+
+  PageSerializer<RecordId> RECORD_ID = new PageSerializer<RecordId>() {
+    @Override public int size() {
+      return 8;
+    }
+
+    @Override public void write(ByteBuffer page, int offset, RecordId value) {
+      page.putLong(offset, value.toLong());
+    }
+
+    @Override public RecordId read(ByteBuffer page, int offset) {
+      return RecordId.fromLong(page.getLong(offset));
+    }
+  };
+
+  /**
+   * Returns a serializer of strings up to {@code maxBytes} bytes in UTF-8,
+   * which takes {@code 2 + maxBytes} bytes.
+   *
+   * @throws IllegalArgumentException when a longer string is written
+   */
+  static PageSerializer<String> string(int maxBytes) {
+    Preconditions.checkArgument(maxBytes > 0 && maxBytes <= Short.MAX_VALUE,
+        "maxBytes: %s", maxBytes);
+    return new PageSerializer<String>() {
+      @Override public int size() {
+        return 2 + maxBytes;
+      }
+
+      @Override public void write(ByteBuffer page, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        Preconditions.checkArgument(bytes.length <= maxBytes,
+            "longer than %s bytes: %s", maxBytes, value);
+        page.putShort(offset, (short) bytes.length);
+        ByteBuffer slot = page.duplicate();
+        slot.position(offset + 2);
+        slot.put(bytes);
+      }
+
+      @Override public String read(ByteBuffer page, int offset) {
+        byte[] bytes = new byte[page.getShort(offset)];
+        ByteBuffer slot = page.duplicate();
+        slot.position(offset + 2);
+        slot.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+      }
+    };
+  }
+}
@@ -0,0 +1,821 @@
+package org.ycavatars.toymongo.core.collection;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.storage.BufferPool;
+import org.ycavatars.toymongo.core.storage.Page;
+import org.ycavatars.toymongo.core.storage.PageFile;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A B+Tree based {@link java.util.NavigableMap} whose nodes are pages of a
+ * {@link PageFile}, served by a {@link BufferPool}. Only the pages in the pool
+ * are in memory, so the size of the map is bounded by the disk instead of the
+ * heap, and many maps can share one memory budget.
+ * <p>
+ * Keys and values are written by {@link PageSerializer}s of fixed sizes, so a
+ * node is an array of slots which is searched in place. Like
+ * {@link BPlusTreeMap}, internal nodes hold separator keys only, and leaves are
+ * linked in both directions. Removing a key doesn't rebalance nodes; an
+ * underflow leaf stays in the tree until the map is cleared.
+ * <p>
+ * Page 0 holds the root, the first and the last leaves, and the size. The file
+ * is consistent after {@link #flush()}; after a crash the map is recovered
+ * from the journal. The map is not thread-safe, and I/O errors are thrown as
+ * {@link UncheckedIOException}.
+ *
+ * @author ycavatars
+ */
+public class PagedBTreeMap<K, V> extends AbstractNavigableMap<K, V>
+    implements Flushable {
+
+  private static final int MAGIC = 0x544d4254;
+
+  private static final int META_PAGE = 0;
+
+  // the meta page is never a node, so 0 means no page
+  private static final int NONE = 0;
+
+  // offsets in the meta page
+  private static final int META_MAGIC = 0;
+  private static final int META_KEY_SIZE = 4;
+  private static final int META_VALUE_SIZE = 8;
+  private static final int META_ROOT = 12;
+  private static final int META_HEAD = 16;
+  private static final int META_TAIL = 20;
+  private static final int META_SIZE = 24;
+
+  private static final byte LEAF = 1;
+  private static final byte INNER = 2;
+
+  // offsets in a node page
+  private static final int TYPE = 0;
+  private static final int COUNT = 4;
+  private static final int PREV = 8;
+  private static final int NEXT = 12;
+  private static final int FIRST_CHILD = 8;
+  static final int NODE_HEADER_SIZE = 16;
+
+  private final BufferPool pool;
+
+  private final PageFile file;
+
+  private final PageSerializer<K> keySerializer;
+
+  private final PageSerializer<V> valueSerializer;
+
+  private final Optional<Comparator<? super K>> comparator;
+
+  // a leaf slot is a key and its value
+  private final int leafSlotSize;
+
+  // an inner slot is a key and the child on its right
+  private final int innerSlotSize;
+
+  private final int maxLeafKeys;
+
+  private final int maxInnerKeys;
+
+  private int root = NONE;
+
+  // the leaf with the least keys
+  private int head = NONE;
+
+  // the leaf with the greatest keys
+  private int tail = NONE;
+
+  private int size = 0;
+
+  /**
+   * The number of structural modifications to the tree.
+   */
+  private int modCount = 0;
+
+  // since the map was opened
+  private long splits = 0;
+
+  private Optional<LookupCounters> counters = Optional.empty();
+
+  /**
+   * Opens the map in {@code file}, or creates it if the file is empty. Keys
+   * are sorted by their natural ordering.
+   *
+   * @param pool            which caches the pages of the file
+   * @param file
+   * @param keySerializer
+   * @param valueSerializer
+   * @throws IllegalArgumentException if the file contains another map
+   * @throws IOException
+   */
+  public PagedBTreeMap(BufferPool pool, PageFile file,
+      PageSerializer<K> keySerializer, PageSerializer<V> valueSerializer)
+      throws IOException {
+    this(pool, file, keySerializer, valueSerializer, Optional.empty());
+  }
+
+  /**
+   * @param comparator which is used to sort the keys
+   * @throws java.lang.NullPointerException if {@code comparator} is null
+   */
+  public PagedBTreeMap(BufferPool pool, PageFile file,
+      PageSerializer<K> keySerializer, PageSerializer<V> valueSerializer,
+      Comparator<? super K> comparator) throws IOException {
+    this(pool, file, keySerializer, valueSerializer, Optional.of(comparator));
+  }
+
+  private PagedBTreeMap(BufferPool pool, PageFile file,
+      PageSerializer<K> keySerializer, PageSerializer<V> valueSerializer,
+      Optional<Comparator<? super K>> comparator) throws IOException {
+    this.pool = Preconditions.checkNotNull(pool);
+    this.file = Preconditions.checkNotNull(file);
+    this.keySerializer = Preconditions.checkNotNull(keySerializer);
+    this.valueSerializer = Preconditions.checkNotNull(valueSerializer);
+    this.comparator = comparator;
+    this.leafSlotSize = keySerializer.size() + valueSerializer.size();
+    this.innerSlotSize = keySerializer.size() + 4;
+    this.maxLeafKeys = (file.pageSize() - NODE_HEADER_SIZE) / leafSlotSize;
+    this.maxInnerKeys = (file.pageSize() - NODE_HEADER_SIZE) / innerSlotSize;
+    Preconditions.checkArgument(maxLeafKeys >= 3 && maxInnerKeys >= 3,
+        "pages of %s bytes are too small", file.pageSize());
+
+    if (file.pageCount() == 0) {
+      createMeta();
+    } else {
+      try (Page meta = pool.pin(file, META_PAGE)) {
+        ByteBuffer buffer = meta.buffer();
+        Preconditions.checkArgument(buffer.getInt(META_MAGIC) == MAGIC
+                && buffer.getInt(META_KEY_SIZE) == keySerializer.size()
+                && buffer.getInt(META_VALUE_SIZE) == valueSerializer.size(),
+            "%s doesn't contain a map of these serializers", file);
+        root = buffer.getInt(META_ROOT);
+        head = buffer.getInt(META_HEAD);
+        tail = buffer.getInt(META_TAIL);
+        size = buffer.getInt(META_SIZE);
+      }
+    }
+  }
+
+  private void createMeta() throws IOException {
+    try (Page meta = pool.allocate(file)) {
+      Preconditions.checkState(meta.getId() == META_PAGE);
+      meta.buffer().putInt(META_MAGIC, MAGIC)
+          .putInt(META_KEY_SIZE, keySerializer.size())
+          .putInt(META_VALUE_SIZE, valueSerializer.size());
+    }
+  }
+
+  /**
+   * Writes the root and the size to the meta page, then writes back every
+   * dirty page of the map and forces the file.
+   *
+   * @throws IOException
+   */
+  @Override public void flush() throws IOException {
+    try (Page meta = pool.pin(file, META_PAGE)) {
+      meta.buffer().putInt(META_ROOT, root)
+          .putInt(META_HEAD, head)
+          .putInt(META_TAIL, tail)
+          .putInt(META_SIZE, size);
+      meta.markDirty();
+    }
+    pool.flush(file);
+  }
+
+  private Page pin(int pageId) {
+    try {
+      return pool.pin(file, pageId);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Page allocate(byte type) {
+    Page page;
+    try {
+      page = pool.allocate(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    page.buffer().put(TYPE, type);
+    return page;
+  }
+
+  private static boolean isLeaf(ByteBuffer node) {
+    return node.get(TYPE) == LEAF;
+  }
+
+  private static int count(ByteBuffer node) {
+    return node.getInt(COUNT);
+  }
+
+  private boolean isFull(ByteBuffer node) {
+    return count(node) == (isLeaf(node) ? maxLeafKeys : maxInnerKeys);
+  }
+
+  private int leafSlot(int index) {
+    return NODE_HEADER_SIZE + index * leafSlotSize;
+  }
+
+  private int innerSlot(int index) {
+    return NODE_HEADER_SIZE + index * innerSlotSize;
+  }
+
+  private K key(ByteBuffer node, int index) {
+    return keySerializer.read(node,
+        isLeaf(node) ? leafSlot(index) : innerSlot(index));
+  }
+
+  private V value(ByteBuffer leaf, int index) {
+    return valueSerializer.read(leaf, leafSlot(index) + keySerializer.size());
+  }
+
+  // children[0] is in the header, children[i + 1] is in the slot i
+  private int child(ByteBuffer inner, int index) {
+    return index == 0 ? inner.getInt(FIRST_CHILD)
+        : inner.getInt(innerSlot(index - 1) + keySerializer.size());
+  }
+
+  private static void copy(ByteBuffer from, int fromOffset, ByteBuffer to,
+      int toOffset, int length) {
+    System.arraycopy(from.array(), fromOffset, to.array(), toOffset, length);
+  }
+
+  /**
+   * Binary search {@code key} among the keys of {@code node}.
+   *
+   * @return index of the key if it's in the node; otherwise,
+   * <tt>(-(<i>insertion point</i>) - 1)</tt>.
+   */
+  private int search(ByteBuffer node, Object key) {
+    int low = 0;
+    int high = count(node) - 1;
+    int compared = 0;
+    int found = -1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(key(node, mid), key);
+      compared++;
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        found = mid;
+        break;
+      }
+    }
+    if (counters.isPresent()) {
+      counters.get().compared(compared);
+    }
+    return found >= 0 ? found : -(low + 1);
+  }
+
+  // index of the child which may contain the key
+  private int childIndex(ByteBuffer inner, Object key) {
+    int index = search(inner, key);
+    return index >= 0 ? index + 1 : -(index + 1);
+  }
+
+  // returns the pinned leaf which may contain the key
+  private Page findLeaf(Object key) {
+    counters.ifPresent(LookupCounters::lookup);
+    Page page = pin(root);
+    while (!isLeaf(page.buffer())) {
+      int child = child(page.buffer(), childIndex(page.buffer(), key));
+      page.close();
+      page = pin(child);
+    }
+    return page;
+  }
+
+  @Override public V get(Object key) {
+    Preconditions.checkNotNull(key);
+    if (root == NONE) {
+      return null;
+    }
+    try (Page leaf = findLeaf(key)) {
+      int index = search(leaf.buffer(), key);
+      return index >= 0 ? value(leaf.buffer(), index) : null;
+    }
+  }
+
+  @Override public boolean containsKey(Object key) {
+    Preconditions.checkNotNull(key);
+    if (root == NONE) {
+      return false;
+    }
+    try (Page leaf = findLeaf(key)) {
+      return search(leaf.buffer(), key) >= 0;
+    }
+  }
+
+  /**
+   * Associates the specified value with the specified key in this map. Full
+   * nodes are split on the way down, so a new key can always be added to the
+   * leaf.
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return the previous value associated with {@code key}, or {@code null}
+   * if there was no mapping for {@code key}
+   * @throws ClassCastException       if the specified key cannot be compared
+   *                                  with the keys currently in the map
+   * @throws NullPointerException     if the specified key or value is null
+   * @throws IllegalArgumentException if the serializers can't write them
+   */
+  @Override public V put(K key, V value) {
+    Preconditions.checkNotNull(key);
+    Preconditions.checkNotNull(value);
+    // serialize first, so a bad key doesn't leave a half shifted leaf
+    ByteBuffer slot = ByteBuffer.allocate(leafSlotSize);
+    keySerializer.write(slot, 0, key);
+    valueSerializer.write(slot, keySerializer.size(), value);
+
+    if (root == NONE) {
+      try (Page leaf = allocate(LEAF)) {
+        root = leaf.getId();
+        head = root;
+        tail = root;
+      }
+      modCount++;
+    }
+
+    try (Page top = pin(root)) {
+      if (isFull(top.buffer())) {
+        try (Page newRoot = allocate(INNER)) {
+          newRoot.buffer().putInt(FIRST_CHILD, root);
+          splitFullChild(newRoot, 0, top);
+          root = newRoot.getId();
+        }
+      }
+    }
+
+    counters.ifPresent(LookupCounters::lookup);
+    Page page = pin(root);
+    try {
+      while (!isLeaf(page.buffer())) {
+        ByteBuffer inner = page.buffer();
+        int index = childIndex(inner, key);
+        Page child = pin(child(inner, index));
+        try {
+          if (isFull(child.buffer())) {
+            splitFullChild(page, index, child);
+            if (compare(key, key(inner, index)) >= 0) {
+              child.close();
+              child = pin(child(inner, index + 1));
+            }
+          }
+        } catch (RuntimeException e) {
+          child.close();
+          throw e;
+        }
+        page.close();
+        page = child;
+      }
+
+      ByteBuffer leaf = page.buffer();
+      int index = search(leaf, key);
+      page.markDirty();
+      if (index >= 0) {
+        V old = value(leaf, index);
+        copy(slot, keySerializer.size(), leaf,
+            leafSlot(index) + keySerializer.size(), valueSerializer.size());
+        return old;
+      }
+
+      index = -(index + 1);
+      int count = count(leaf);
+      copy(leaf, leafSlot(index), leaf, leafSlot(index + 1),
+          (count - index) * leafSlotSize);
+      copy(slot, 0, leaf, leafSlot(index), leafSlotSize);
+      leaf.putInt(COUNT, count + 1);
+    } finally {
+      page.close();
+    }
+
+    size++;
+    modCount++;
+    return null;
+  }
+
+  /**
+   * Split the full {@code child} of {@code parent} at {@code index}. A full
+   * leaf keeps the lower half and the first key of the new leaf is copied to
+   * the parent. A full internal node moves its median key up to the parent.
+   */
+  private void splitFullChild(Page parent, int index, Page child) {
+    ByteBuffer node = child.buffer();
+    int count = count(node);
+    int keySize = keySerializer.size();
+    ByteBuffer separator = ByteBuffer.allocate(keySize);
+
+    try (Page sibling = allocate(node.get(TYPE))) {
+      ByteBuffer newNode = sibling.buffer();
+      if (isLeaf(node)) {
+        int keep = count / 2;
+        copy(node, leafSlot(keep), newNode, leafSlot(0),
+            (count - keep) * leafSlotSize);
+        newNode.putInt(COUNT, count - keep);
+        node.putInt(COUNT, keep);
+
+        // link the new leaf after the full one
+        int next = node.getInt(NEXT);
+        newNode.putInt(PREV, child.getId()).putInt(NEXT, next);
+        if (next != NONE) {
+          try (Page nextLeaf = pin(next)) {
+            nextLeaf.buffer().putInt(PREV, sibling.getId());
+            nextLeaf.markDirty();
+          }
+        } else {
+          tail = sibling.getId();
+        }
+        node.putInt(NEXT, sibling.getId());
+        copy(newNode, leafSlot(0), separator, 0, keySize);
+      } else {
+        int keep = count / 2;
+        copy(node, innerSlot(keep), separator, 0, keySize);
+        newNode.putInt(FIRST_CHILD, child(node, keep + 1));
+        copy(node, innerSlot(keep + 1), newNode, innerSlot(0),
+            (count - keep - 1) * innerSlotSize);
+        newNode.putInt(COUNT, count - keep - 1);
+        node.putInt(COUNT, keep);
+      }
+
+      // the separator and the new node go to the slot at index
+      ByteBuffer up = parent.buffer();
+      int parentCount = count(up);
+      copy(up, innerSlot(index), up, innerSlot(index + 1),
+          (parentCount - index) * innerSlotSize);
+      copy(separator, 0, up, innerSlot(index), keySize);
+      up.putInt(innerSlot(index) + keySize, sibling.getId());
+      up.putInt(COUNT, parentCount + 1);
+    }
+    parent.markDirty();
+    child.markDirty();
+    splits++;
+    modCount++;
+  }
+
+  /**
+   * Removes the mapping for a key from this map if it is present. The leaf is
+   * not rebalanced. All pages are dropped when the map becomes empty.
+   *
+   * @param key key whose mapping is to be removed from the map
+   * @return the previous value associated with {@code key}, or {@code null}
+   * if there was no mapping for {@code key}
+   * @throws ClassCastException   if the specified key cannot be compared
+   *                              with the keys currently in the map
+   * @throws NullPointerException if the specified key is null
+   */
+  @Override public V remove(Object key) {
+    Preconditions.checkNotNull(key);
+    if (root == NONE) {
+      return null;
+    }
+
+    V old;
+    try (Page page = findLeaf(key)) {
+      ByteBuffer leaf = page.buffer();
+      int index = search(leaf, key);
+      if (index < 0) {
+        return null;
+      }
+      old = value(leaf, index);
+      int count = count(leaf);
+      copy(leaf, leafSlot(index + 1), leaf, leafSlot(index),
+          (count - index - 1) * leafSlotSize);
+      leaf.putInt(COUNT, count - 1);
+      page.markDirty();
+    }
+    size--;
+    modCount++;
+    if (size == 0) {
+      clear();
+    }
+    return old;
+  }
+
+  /**
+   * A slot in a leaf.
+   */
+  private static final class Position {
+    int leaf;
+
+    int index;
+
+    Position(int leaf, int index) {
+      this.leaf = leaf;
+      this.index = index;
+    }
+  }
+
+  /**
+   * Moves the position to the nearest entry in the direction, skipping the
+   * ends of leaves and empty leaves. An index beyond the last entry means the
+   * last entry when descending.
+   *
+   * @return false if there's no such entry
+   */
+  private boolean settle(Position position, boolean descending) {
+    while (position.leaf != NONE) {
+      try (Page page = pin(position.leaf)) {
+        ByteBuffer leaf = page.buffer();
+        if (descending) {
+          position.index = Math.min(position.index, count(leaf) - 1);
+          if (position.index >= 0) {
+            return true;
+          }
+          position.leaf = leaf.getInt(PREV);
+          position.index = Integer.MAX_VALUE;
+        } else {
+          if (position.index < count(leaf)) {
+            return true;
+          }
+          position.leaf = leaf.getInt(NEXT);
+          position.index = 0;
+        }
+      }
+    }
+    return false;
+  }
+
+  private Map.Entry<K, V> entry(Position position) {
+    try (Page page = pin(position.leaf)) {
+      return new SimpleImmutableEntry<>(key(page.buffer(), position.index),
+          value(page.buffer(), position.index));
+    }
+  }
+
+  // returns null if there's no such entry
+  private Position findPosition(Object key, Relation relation) {
+    if (root == NONE) {
+      return null;
+    }
+    Position position;
+    try (Page leaf = findLeaf(key)) {
+      int index = search(leaf.buffer(), key);
+      if (index >= 0) {
+        switch (relation) {
+          case LOWER:
+            index--;
+            break;
+          case HIGHER:
+            index++;
+            break;
+          default:
+        }
+      } else {
+        // the insertion point is the ceiling
+        index = relation == Relation.CEILING || relation == Relation.HIGHER
+            ? -(index + 1) : -(index + 1) - 1;
+      }
+      position = new Position(leaf.getId(), index);
+    }
+    boolean descending = relation == Relation.LOWER
+        || relation == Relation.FLOOR;
+    return settle(position, descending) ? position : null;
+  }
+
+  @Override Map.Entry<K, V> findNear(Object key, Relation relation) {
+    Preconditions.checkNotNull(key);
+    Position position = findPosition(key, relation);
+    return position == null ? null : entry(position);
+  }
+
+  @Override Map.Entry<K, V> findFirst() {
+    Position position = new Position(head, 0);
+    return settle(position, false) ? entry(position) : null;
+  }
+
+  @Override Map.Entry<K, V> findLast() {
+    Position position = new Position(tail, Integer.MAX_VALUE);
+    return settle(position, true) ? entry(position) : null;
+  }
+
+  @Override Iterator<Map.Entry<K, V>> entryIterator(Optional<K> lo,
+      boolean loInclusive, Optional<K> hi, boolean hiInclusive,
+      boolean descending) {
+    PageIterator iterator = new PageIterator(descending ? lo : hi,
+        descending ? loInclusive : hiInclusive, descending);
+    Optional<K> start = descending ? hi : lo;
+    if (start.isPresent()) {
+      iterator.seek(start.get(), descending ? hiInclusive : loInclusive);
+    } else {
+      Position position = descending ? new Position(tail, Integer.MAX_VALUE)
+          : new Position(head, 0);
+      iterator.position = settle(position, descending) ? position : null;
+    }
+    return iterator;
+  }
+
+  /**
+   * Iterates entries by following the leaf links, pinning a leaf for each
+   * entry. It stops at the entry beyond {@code bound}. If the map structure is
+   * changed while iterating, except through {@link #remove()}, it'll throw
+   * ConcurrentModificationException.
+   */
+  private final class PageIterator implements Iterator<Map.Entry<K, V>> {
+    final Optional<K> bound;
+
+    final boolean boundInclusive;
+
+    final boolean descending;
+
+    // null at the end
+    Position position;
+
+    Optional<K> lastReturned = Optional.empty();
+
+    int expectedModCount = modCount;
+
+    PageIterator(Optional<K> bound, boolean boundInclusive,
+        boolean descending) {
+      this.bound = bound;
+      this.boundInclusive = boundInclusive;
+      this.descending = descending;
+    }
+
+    void seek(Object key, boolean inclusive) {
+      position = findPosition(key, descending
+          ? (inclusive ? Relation.FLOOR : Relation.LOWER)
+          : (inclusive ? Relation.CEILING : Relation.HIGHER));
+    }
+
+    @Override public boolean hasNext() {
+      if (position == null) {
+        return false;
+      }
+      if (!bound.isPresent()) {
+        return true;
+      }
+      // the leaf may have lost the slot, or the file may be truncated
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      int c;
+      try (Page leaf = pin(position.leaf)) {
+        c = compare(key(leaf.buffer(), position.index), bound.get());
+      }
+      if (descending) {
+        c = -c;
+      }
+      return c < 0 || (c == 0 && boundInclusive);
+    }
+
+    @Override public Map.Entry<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+
+      Map.Entry<K, V> next = entry(position);
+      lastReturned = Optional.of(next.getKey());
+      position.index += descending ? -1 : 1;
+      if (!settle(position, descending)) {
+        position = null;
+      }
+      return next;
+    }
+
+    @Override public void remove() {
+      Preconditions.checkState(lastReturned.isPresent());
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+
+      // slots of the leaf are shifted, so find the next entry again
+      PagedBTreeMap.this.remove(lastReturned.get());
+      if (position != null) {
+        seek(lastReturned.get(), false);
+      }
+      lastReturned = Optional.empty();
+      expectedModCount = modCount;
+    }
+  }
+
+  @Override public Set<Map.Entry<K, V>> entrySet() {
+    return new AbstractSet<Map.Entry<K, V>>() {
+      @Override public Iterator<Map.Entry<K, V>> iterator() {
+        return entryIterator(Optional.empty(), false, Optional.empty(), false,
+            false);
+      }
+
+      @Override public boolean contains(Object o) {
+        if (!(o instanceof Map.Entry)) {
+          return false;
+        }
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+        return containsKey(entry.getKey())
+            && Objects.equals(get(entry.getKey()), entry.getValue());
+      }
+
+      @Override public boolean remove(Object o) {
+        if (contains(o)) {
+          PagedBTreeMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+          return true;
+        }
+        return false;
+      }
+
+      @Override public int size() {
+        return PagedBTreeMap.this.size();
+      }
+
+      @Override public void clear() {
+        PagedBTreeMap.this.clear();
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override int compare(Object key1, Object key2) {
+    if (comparator.isPresent()) {
+      return comparator.get().compare((K) key1, (K) key2);
+    }
+    return ((Comparable<? super K>) key1).compareTo((K) key2);
+  }
+
+  @Override public Comparator<? super K> comparator() {
+    return comparator.orElse(null);
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  /**
+   * Removes all of the mappings from this map, and truncates the file. The
+   * map will be empty after this call returns.
+   */
+  @Override public void clear() {
+    modCount++;
+    size = 0;
+    root = NONE;
+    head = NONE;
+    tail = NONE;
+    try {
+      pool.truncate(file);
+      createMeta();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the number of nodes of the tree, i.e. the pages of the file
+   * except the meta page, which takes constant time.
+   */
+  public int nodeCount() {
+    return file.pageCount() - 1;
+  }
+
+  /**
+   * Returns the number of keys over the capacity of the leaves, about as
+   * many as the nodes, or 0 if the map is empty. Inner nodes are few, so it's
+   * close to the average fill of a node.
+   */
+  public double fillFactor() {
+    int nodes = nodeCount();
+    return nodes == 0 ? 0 : (double) size / ((long) nodes * maxLeafKeys);
+  }
+
+  /**
+   * Returns the number of nodes split by puts since the map was opened.
+   */
+  public long splitCount() {
+    return splits;
+  }
+
+  /**
+   * Counts the descents of {@code get}, {@code put}, {@code remove} and
+   * seeks of range views from the root, and the keys they compare, into
+   * {@code counters} from now on, like
+   * {@link BTreeMap#countLookups(LookupCounters)}.
+   */
+  public void countLookups(LookupCounters counters) {
+    this.counters = Optional.of(counters);
+  }
+
+  /**
+   * Returns the number of levels of the tree, 0 if the map is empty. It
+   * pins a page per level.
+   */
+  public int height() {
+    int height = 0;
+    int node = root;
+    while (node != NONE) {
+      height++;
+      try (Page page = pin(node)) {
+        node = isLeaf(page.buffer()) ? NONE : child(page.buffer(), 0);
+      }
+    }
+    return height;
+  }
+}
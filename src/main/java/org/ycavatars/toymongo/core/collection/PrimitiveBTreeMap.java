@@ -0,0 +1,650 @@
+package org.ycavatars.toymongo.core.collection;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * The node logic of {@link LongBTreeMap} and {@link IntBTreeMap}, whose keys
+ * are stored in an array of primitives of each node, e.g. a {@code long[]},
+ * and values in a parallel array. Keys are passed as {@code long}s, which
+ * hold every {@code int} as well, and are moved between nodes by
+ * {@link System#arraycopy}, so subclasses only search and write their key
+ * arrays, and expose the methods of their key type.
+ * <p>
+ * Node arrays start small and grow geometrically up to the maximum, like
+ * {@link BTreeMap}. Algorithms are the same as {@link BTreeMap} too: a put
+ * splits full nodes and a remove refills nodes on the way down, so both take
+ * a single descent.
+ *
+ * @author ycavatars
+ */
+abstract class PrimitiveBTreeMap<V> {
+
+  static final int MIN_NODE_DEGREE = BTreeMap.MIN_NODE_DEGREE;
+  static final int MIN_NODE_KEYS = MIN_NODE_DEGREE - 1;
+  static final int MAX_NODE_DEGREE = 2 * MIN_NODE_DEGREE;
+  static final int MAX_NODE_KEYS = 2 * MIN_NODE_DEGREE - 1;
+
+  // returned by delete() if the key is absent, since values may be null
+  private static final Object ABSENT = new Object();
+
+  private Optional<Node> root = Optional.empty();
+
+  /**
+   * The number of mappings in the tree
+   */
+  private int size = 0;
+
+  /**
+   * The number of structural modifications to the tree.
+   */
+  private int modCount = 0;
+
+  /**
+   * Leaf nodes have no children array.
+   */
+  static final class Node {
+
+    // a primitive array of the subclass, the length is between keySize and
+    // MAX_NODE_KEYS
+    Object keys;
+
+    Object[] values;
+
+    Node[] children;
+
+    // number of elements in keys array
+    int keySize = 0;
+
+    Node(Object keys, int capacity, boolean isLeaf) {
+      this.keys = keys;
+      this.values = new Object[capacity];
+      this.children = isLeaf ? null : new Node[capacity + 1];
+    }
+
+    boolean isLeaf() {
+      return children == null;
+    }
+  }
+
+  /**
+   * Returns a new key array of the subclass, e.g. a {@code long[]}.
+   */
+  abstract Object newKeys(int capacity);
+
+  /**
+   * Returns the index of the key in the first {@code keySize} keys, or
+   * -(insertion point)-1 if it's not found.
+   */
+  abstract int search(Object keys, int keySize, long key);
+
+  abstract long key(Object keys, int index);
+
+  abstract void setKey(Object keys, int index, long key);
+
+  private Node newNode(boolean isLeaf, int capacity) {
+    return new Node(newKeys(capacity), capacity, isLeaf);
+  }
+
+  /**
+   * Grows the arrays of the node if there's no room for {@code keys} keys, up
+   * to {@code MAX_NODE_KEYS}.
+   */
+  private void ensureCapacity(Node node, int keys) {
+    int length = node.values.length;
+    if (keys <= length) {
+      return;
+    }
+    int capacity = Math.min(Math.max(Math.max(length * 2, keys),
+        BTreeMap.INITIAL_NODE_KEYS), MAX_NODE_KEYS);
+    Object newKeys = newKeys(capacity);
+    System.arraycopy(node.keys, 0, newKeys, 0, node.keySize);
+    node.keys = newKeys;
+    node.values = Arrays.copyOf(node.values, capacity);
+    if (!node.isLeaf()) {
+      node.children = Arrays.copyOf(node.children, capacity + 1);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  boolean contains(long key) {
+    Node node = root.orElse(null);
+    while (node != null) {
+      int index = search(node.keys, node.keySize, key);
+      if (index >= 0) {
+        return true;
+      }
+      node = node.isLeaf() ? null : node.children[-(index + 1)];
+    }
+    return false;
+  }
+
+  @SuppressWarnings("unchecked")
+  V lookup(long key) {
+    Node node = root.orElse(null);
+    while (node != null) {
+      int index = search(node.keys, node.keySize, key);
+      if (index >= 0) {
+        return (V) node.values[index];
+      }
+      node = node.isLeaf() ? null : node.children[-(index + 1)];
+    }
+    return null;
+  }
+
+  V insert(long key, V value) {
+    // create empty btree
+    if (!root.isPresent()) {
+      root = Optional.of(newNode(true, BTreeMap.INITIAL_NODE_KEYS));
+      modCount++;
+    }
+
+    // if the root is full
+    if (root.get().keySize == MAX_NODE_KEYS) {
+      Node newRoot = newNode(false, BTreeMap.INITIAL_NODE_KEYS);
+      newRoot.children[0] = root.get();
+      root = Optional.of(newRoot);
+      splitFullChild(newRoot, 0);
+      modCount++;
+    }
+
+    return insertNonFull(root.get(), key, value);
+  }
+
+  @SuppressWarnings("unchecked")
+  private V insertNonFull(Node node, long key, V value) {
+    while (true) {
+      int index = search(node.keys, node.keySize, key);
+      if (index >= 0) {
+        V old = (V) node.values[index];
+        node.values[index] = value;
+        return old;
+      }
+      // insertion point
+      index = -(index + 1);
+
+      if (node.isLeaf()) {
+        ensureCapacity(node, node.keySize + 1);
+        System.arraycopy(node.keys, index, node.keys, index + 1,
+            node.keySize - index);
+        System.arraycopy(node.values, index, node.values, index + 1,
+            node.keySize - index);
+        setKey(node.keys, index, key);
+        node.values[index] = value;
+        node.keySize++;
+
+        size++;
+        modCount++;
+        return null;
+      }
+
+      // if the child is full
+      if (node.children[index].keySize == MAX_NODE_KEYS) {
+        splitFullChild(node, index);
+        // the median key moved up from the child may be the key itself
+        long median = key(node.keys, index);
+        if (key == median) {
+          V old = (V) node.values[index];
+          node.values[index] = value;
+          return old;
+        } else if (key > median) {
+          index++;
+        }
+      }
+      node = node.children[index];
+    }
+  }
+
+  /**
+   * Split {@code parent.children[index]}.
+   */
+  private void splitFullChild(Node parent, int index) {
+    Node child = parent.children[index];
+    assert child.keySize == MAX_NODE_KEYS : "the child node should be full";
+
+    // move the later half to newNode, whose arrays are just large enough.
+    // child.keys[MIN_NODE_KEYS] is the median
+    int moved = MAX_NODE_KEYS - MIN_NODE_KEYS - 1;
+    Node newNode = newNode(child.isLeaf(), moved);
+    System.arraycopy(child.keys, MIN_NODE_KEYS + 1, newNode.keys, 0, moved);
+    System.arraycopy(child.values, MIN_NODE_KEYS + 1, newNode.values, 0,
+        moved);
+    if (!child.isLeaf()) {
+      System.arraycopy(child.children, MIN_NODE_DEGREE, newNode.children, 0,
+          MAX_NODE_DEGREE - MIN_NODE_DEGREE);
+      Arrays.fill(child.children, MIN_NODE_DEGREE, MAX_NODE_DEGREE, null);
+    }
+    newNode.keySize = moved;
+
+    // shift children and keys of the parent right, and move the median up
+    ensureCapacity(parent, parent.keySize + 1);
+    System.arraycopy(parent.children, index + 1, parent.children, index + 2,
+        parent.keySize - index);
+    parent.children[index + 1] = newNode;
+    System.arraycopy(parent.keys, index, parent.keys, index + 1,
+        parent.keySize - index);
+    System.arraycopy(parent.values, index, parent.values, index + 1,
+        parent.keySize - index);
+    System.arraycopy(child.keys, MIN_NODE_KEYS, parent.keys, index, 1);
+    parent.values[index] = child.values[MIN_NODE_KEYS];
+    parent.keySize++;
+
+    // release values moved out of the child
+    Arrays.fill(child.values, MIN_NODE_KEYS, MAX_NODE_KEYS, null);
+    child.keySize = MIN_NODE_KEYS;
+  }
+
+  /**
+   * Removes the mapping of the key in a single descent.
+   *
+   * @return the previous value of the key, or {@code null} if there was no
+   * mapping for the key
+   */
+  @SuppressWarnings("unchecked")
+  V delete(long key) {
+    if (!root.isPresent()) {
+      return null;
+    }
+    Node rootNode = root.get();
+    Object removed = delete(rootNode, key);
+    // the descent may merge the children of the root even if the key is absent
+    if (rootNode.keySize == 0) {
+      root = rootNode.isLeaf() ? Optional.empty()
+          : Optional.of(rootNode.children[0]);
+    }
+    if (removed == ABSENT) {
+      return null;
+    }
+    size--;
+    modCount++;
+    return (V) removed;
+  }
+
+  /**
+   * Deletes the key from the subtree of {@code node}, which has more than
+   * {@code MIN_NODE_KEYS} keys unless it's the root.
+   *
+   * @return the value of the key, or {@link #ABSENT}
+   */
+  private Object delete(Node node, long key) {
+    while (true) {
+      int index = search(node.keys, node.keySize, key);
+      if (node.isLeaf()) {
+        if (index < 0) {
+          return ABSENT;
+        }
+        Object removed = node.values[index];
+        removeKey(node, index);
+        return removed;
+      }
+
+      if (index < 0) {
+        node = childToDescend(node, -(index + 1));
+        continue;
+      }
+
+      // replace the key with its predecessor or successor, which is in a leaf
+      Object removed = node.values[index];
+      if (node.children[index].keySize > MIN_NODE_KEYS) {
+        Node leaf = node.children[index];
+        while (!leaf.isLeaf()) {
+          leaf = childToDescend(leaf, leaf.keySize);
+        }
+        moveUp(leaf, leaf.keySize - 1, node, index);
+        return removed;
+      }
+      if (node.children[index + 1].keySize > MIN_NODE_KEYS) {
+        Node leaf = node.children[index + 1];
+        while (!leaf.isLeaf()) {
+          leaf = childToDescend(leaf, 0);
+        }
+        moveUp(leaf, 0, node, index);
+        return removed;
+      }
+      // otherwise the key moves down to the merged child
+      node = merge(node, index);
+    }
+  }
+
+  // replaces a key of the ancestor with a key removed from the leaf
+  private void moveUp(Node leaf, int from, Node ancestor, int to) {
+    System.arraycopy(leaf.keys, from, ancestor.keys, to, 1);
+    ancestor.values[to] = leaf.values[from];
+    removeKey(leaf, from);
+  }
+
+  private void removeKey(Node leaf, int index) {
+    int moved = leaf.keySize - index - 1;
+    System.arraycopy(leaf.keys, index + 1, leaf.keys, index, moved);
+    System.arraycopy(leaf.values, index + 1, leaf.values, index, moved);
+    leaf.keySize--;
+    leaf.values[leaf.keySize] = null;
+  }
+
+  /**
+   * Makes sure {@code parent.children[index]} has more than
+   * {@code MIN_NODE_KEYS} keys, and returns the child which now covers the
+   * same keys. It's the child itself, or its left sibling if they're merged.
+   */
+  private Node childToDescend(Node parent, int index) {
+    if (parent.children[index].keySize > MIN_NODE_KEYS) {
+      return parent.children[index];
+    }
+    if (index > 0 && parent.children[index - 1].keySize > MIN_NODE_KEYS) {
+      borrowFromLeft(parent, index);
+      return parent.children[index];
+    }
+    if (index < parent.keySize
+        && parent.children[index + 1].keySize > MIN_NODE_KEYS) {
+      borrowFromRight(parent, index);
+      return parent.children[index];
+    }
+    return index < parent.keySize ? merge(parent, index)
+        : merge(parent, index - 1);
+  }
+
+  /**
+   * Moves the separator {@code parent.keys[index - 1]} down to the front of
+   * {@code parent.children[index]}, and the last key of the left sibling up
+   * to its place.
+   */
+  private void borrowFromLeft(Node parent, int index) {
+    Node child = parent.children[index];
+    Node left = parent.children[index - 1];
+    ensureCapacity(child, child.keySize + 1);
+
+    System.arraycopy(child.keys, 0, child.keys, 1, child.keySize);
+    System.arraycopy(child.values, 0, child.values, 1, child.keySize);
+    System.arraycopy(parent.keys, index - 1, child.keys, 0, 1);
+    child.values[0] = parent.values[index - 1];
+    System.arraycopy(left.keys, left.keySize - 1, parent.keys, index - 1, 1);
+    parent.values[index - 1] = left.values[left.keySize - 1];
+    left.values[left.keySize - 1] = null;
+    if (!child.isLeaf()) {
+      System.arraycopy(child.children, 0, child.children, 1,
+          child.keySize + 1);
+      child.children[0] = left.children[left.keySize];
+      left.children[left.keySize] = null;
+    }
+    child.keySize++;
+    left.keySize--;
+    modCount++;
+  }
+
+  /**
+   * Moves the separator {@code parent.keys[index]} down to the end of
+   * {@code parent.children[index]}, and the first key of the right sibling up
+   * to its place.
+   */
+  private void borrowFromRight(Node parent, int index) {
+    Node child = parent.children[index];
+    Node right = parent.children[index + 1];
+    ensureCapacity(child, child.keySize + 1);
+
+    System.arraycopy(parent.keys, index, child.keys, child.keySize, 1);
+    child.values[child.keySize] = parent.values[index];
+    System.arraycopy(right.keys, 0, parent.keys, index, 1);
+    parent.values[index] = right.values[0];
+    System.arraycopy(right.keys, 1, right.keys, 0, right.keySize - 1);
+    System.arraycopy(right.values, 1, right.values, 0, right.keySize - 1);
+    right.values[right.keySize - 1] = null;
+    if (!child.isLeaf()) {
+      child.children[child.keySize + 1] = right.children[0];
+      System.arraycopy(right.children, 1, right.children, 0, right.keySize);
+      right.children[right.keySize] = null;
+    }
+    child.keySize++;
+    right.keySize--;
+    modCount++;
+  }
+
+  /**
+   * Merges {@code parent.children[index + 1]} and the separator
+   * {@code parent.keys[index]} into {@code parent.children[index]}. Both
+   * children have {@code MIN_NODE_KEYS} keys, so the merged child is full.
+   *
+   * @return the merged child
+   */
+  private Node merge(Node parent, int index) {
+    Node left = parent.children[index];
+    Node right = parent.children[index + 1];
+    assert left.keySize == MIN_NODE_KEYS && right.keySize == MIN_NODE_KEYS;
+    ensureCapacity(left, MAX_NODE_KEYS);
+
+    System.arraycopy(parent.keys, index, left.keys, MIN_NODE_KEYS, 1);
+    left.values[MIN_NODE_KEYS] = parent.values[index];
+    System.arraycopy(right.keys, 0, left.keys, MIN_NODE_KEYS + 1,
+        right.keySize);
+    System.arraycopy(right.values, 0, left.values, MIN_NODE_KEYS + 1,
+        right.keySize);
+    if (!left.isLeaf()) {
+      System.arraycopy(right.children, 0, left.children, MIN_NODE_DEGREE,
+          right.keySize + 1);
+    }
+    left.keySize = MAX_NODE_KEYS;
+
+    // remove the separator and the right child from the parent
+    int moved = parent.keySize - index - 1;
+    System.arraycopy(parent.keys, index + 1, parent.keys, index, moved);
+    System.arraycopy(parent.values, index + 1, parent.values, index, moved);
+    System.arraycopy(parent.children, index + 2, parent.children, index + 1,
+        moved);
+    parent.keySize--;
+    parent.values[parent.keySize] = null;
+    parent.children[parent.keySize + 1] = null;
+    modCount++;
+    return left;
+  }
+
+  public void clear() {
+    root = Optional.empty();
+    size = 0;
+    modCount++;
+  }
+
+  /**
+   * @throws NoSuchElementException if the map is empty
+   */
+  long first() {
+    Node node = root.orElseThrow(NoSuchElementException::new);
+    while (!node.isLeaf()) {
+      node = node.children[0];
+    }
+    return key(node.keys, 0);
+  }
+
+  /**
+   * @throws NoSuchElementException if the map is empty
+   */
+  long last() {
+    Node node = root.orElseThrow(NoSuchElementException::new);
+    while (!node.isLeaf()) {
+      node = node.children[node.keySize];
+    }
+    return key(node.keys, node.keySize - 1);
+  }
+
+  /**
+   * Returns the number of levels of the tree, 0 if the map is empty.
+   */
+  @VisibleForTesting int height() {
+    int height = 0;
+    Node node = root.orElse(null);
+    while (node != null) {
+      height++;
+      node = node.isLeaf() ? null : node.children[0];
+    }
+    return height;
+  }
+
+  /**
+   * Checks that every node but the root is at least half full, all leaves
+   * are at the same depth, keys are in ascending order and the size is
+   * right.
+   *
+   * @throws IllegalStateException if the tree is invalid
+   */
+  @VisibleForTesting void checkInvariants() {
+    if (root.isPresent()) {
+      checkNodes(root.get(), height(), true);
+    }
+    Position position = new Position();
+    position.first();
+    int count = 0;
+    long previous = 0;
+    for (; position.next(); count++) {
+      long key = position.currentKey();
+      Preconditions.checkState(count == 0 || previous < key,
+          "keys are not in ascending order: %s", key);
+      previous = key;
+    }
+    Preconditions.checkState(count == size, "size: %s", size);
+  }
+
+  private void checkNodes(Node node, int height, boolean isRoot) {
+    Preconditions.checkState(isRoot || node.keySize >= MIN_NODE_KEYS,
+        "underflow: %s keys", node.keySize);
+    Preconditions.checkState(node.keySize <= node.values.length);
+    Preconditions.checkState(node.isLeaf() == (height == 1), "unbalanced");
+    if (!node.isLeaf()) {
+      for (int i = 0; i <= node.keySize; i++) {
+        checkNodes(node.children[i], height - 1, false);
+      }
+    }
+  }
+
+  /**
+   * A position of a mapping, which visits mappings in key order without
+   * creating any objects. It's fail-fast like the iterators of
+   * {@link BTreeMap}. Subclasses add the key of their type.
+   */
+  class Position {
+    // the top level holds a key index, and each ancestor holds a child index
+    private final Node[] path;
+
+    private final int[] indexes;
+
+    // -1 if there's no current mapping
+    private int depth = -1;
+
+    // next() moves the cursor except for the first call
+    private boolean started = false;
+
+    private final int expectedModCount = modCount;
+
+    Position() {
+      int height = height();
+      this.path = new Node[height];
+      this.indexes = new int[height];
+    }
+
+    /**
+     * Moves to the next mapping.
+     *
+     * @return false if there are no more mappings
+     * @throws ConcurrentModificationException if the map is structurally
+     *                                         modified after the cursor is
+     *                                         created
+     */
+    public boolean next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!started) {
+        started = true;
+      } else if (depth >= 0) {
+        advance();
+      }
+      return depth >= 0;
+    }
+
+    /**
+     * @throws IllegalStateException if the cursor is not on a mapping
+     */
+    long currentKey() {
+      Preconditions.checkState(started && depth >= 0);
+      return key(path[depth].keys, indexes[depth]);
+    }
+
+    /**
+     * @throws IllegalStateException if the cursor is not on a mapping
+     */
+    @SuppressWarnings("unchecked")
+    public V value() {
+      Preconditions.checkState(started && depth >= 0);
+      return (V) path[depth].values[indexes[depth]];
+    }
+
+    void first() {
+      if (root.isPresent()) {
+        pushLeftmost(root.get());
+        normalize();
+      }
+    }
+
+    void seek(long key) {
+      Node node = root.orElse(null);
+      while (node != null) {
+        int index = search(node.keys, node.keySize, key);
+        if (index >= 0) {
+          push(node, index);
+          return;
+        }
+        // insertion point is the child index, or the key index at the leaf
+        push(node, -(index + 1));
+        if (node.isLeaf()) {
+          normalize();
+          return;
+        }
+        node = node.children[-(index + 1)];
+      }
+    }
+
+    private void advance() {
+      Node node = path[depth];
+      int index = indexes[depth];
+      indexes[depth] = index + 1;
+      if (node.isLeaf()) {
+        normalize();
+      } else {
+        // the successor is the leftmost key of the right subtree
+        pushLeftmost(node.children[index + 1]);
+      }
+    }
+
+    private void push(Node node, int index) {
+      depth++;
+      path[depth] = node;
+      indexes[depth] = index;
+    }
+
+    private void pushLeftmost(Node node) {
+      while (true) {
+        push(node, 0);
+        if (node.isLeaf()) {
+          return;
+        }
+        node = node.children[0];
+      }
+    }
+
+    // climb up while the current node is exhausted
+    private void normalize() {
+      while (depth >= 0 && indexes[depth] >= path[depth].keySize) {
+        depth--;
+      }
+    }
+  }
+}
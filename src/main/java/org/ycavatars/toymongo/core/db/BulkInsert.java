@@ -0,0 +1,118 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts a stream of newline-delimited JSON documents in batches, e.g. the
+ * body of a bulk insert request. Documents are parsed as the stream is read,
+ * and a batch is inserted once it has {@code batchSize} documents or
+ * {@link #MAX_BATCH_BYTES}, so memory use is bounded by the batch, not by the
+ * stream.
+ * <p>
+ * Each batch is durable once it's reported. If the stream is malformed, the
+ * batches before the error stay inserted.
+ *
+ * @author ycavatars
+ */
+public class BulkInsert {
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  /**
+   * A batch of large documents is inserted before it has
+   * {@code batchSize} documents.
+   */
+  public static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  /**
+   * Receives the progress of a bulk insert.
+   */
+  @FunctionalInterface
+  public interface Listener {
+
+    /**
+     * Called after each batch is durable.
+     *
+     * @param batch     the number of the batch, from 1
+     * @param documents the number of documents of the batch
+     * @param total     the number of documents inserted so far
+     */
+    void inserted(int batch, int documents, long total) throws IOException;
+  }
+
+  private final DocumentCollection collection;
+
+  private final int batchSize;
+
+  private int batches = 0;
+
+  private long total = 0;
+
+  /**
+   * @param collection
+   * @param batchSize the maximum number of documents of a batch
+   */
+  public BulkInsert(DocumentCollection collection, int batchSize) {
+    Preconditions.checkArgument(batchSize > 0, "batchSize: %s", batchSize);
+    this.collection = Preconditions.checkNotNull(collection);
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Inserts every document of the stream, which is not closed.
+   *
+   * @param in       JSON objects separated by whitespace, e.g. newlines
+   * @param listener
+   * @return the number of documents inserted
+   * @throws com.fasterxml.jackson.core.JsonParseException if a document is
+   *                                                       malformed
+   * @throws IOException
+   */
+  public long load(InputStream in, Listener listener) throws IOException {
+    try (JsonParser parser = FACTORY.createParser(in)) {
+      parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+      List<Document> batch = new ArrayList<>();
+      int bytes = 0;
+      while (parser.nextToken() != null) {
+        Document document = DocumentJson.read(parser);
+        batch.add(document);
+        bytes += document.length();
+        if (batch.size() == batchSize || bytes >= MAX_BATCH_BYTES) {
+          insert(batch, listener);
+          batch.clear();
+          bytes = 0;
+        }
+      }
+      if (!batch.isEmpty()) {
+        insert(batch, listener);
+      }
+    }
+    return total;
+  }
+
+  private void insert(List<Document> batch, Listener listener)
+      throws IOException {
+    collection.insert(batch);
+    batches++;
+    total += batch.size();
+    listener.inserted(batches, batch.size(), total);
+  }
+
+  /**
+   * Returns the number of documents inserted so far, e.g. after an error.
+   */
+  public long getTotal() {
+    return total;
+  }
+}
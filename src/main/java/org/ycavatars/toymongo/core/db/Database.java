@@ -0,0 +1,221 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.journal.Journal;
+import org.ycavatars.toymongo.core.journal.JournalRecovery;
+import org.ycavatars.toymongo.core.storage.BufferPool;
+import org.ycavatars.toymongo.core.storage.ExtentStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * The collections of a database, i.e. the extents and index catalogs of a
+ * directory, and the journal they share.
+ * <p>
+ * When a database is opened, the journal is replayed into the extents, the
+ * indexes are rebuilt from the records, and the journal is discarded by a
+ * {@link #checkpoint()}.
+ *
+ * @author ycavatars
+ */
+public class Database implements Closeable {
+
+  static final String JOURNAL_FILE = "journal";
+
+  /**
+   * Names of databases and collections are file names, so dots are not
+   * allowed: {@code <collection>.<n>} is an extent.
+   */
+  static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+  private final String name;
+
+  private final Path directory;
+
+  private final Journal journal;
+
+  private final Optional<BufferPool> indexPool;
+
+  private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+  private volatile long checkpointNanos = System.nanoTime();
+
+  // guarded by this
+  private final Map<String, DocumentCollection> collections = new TreeMap<>();
+
+  /**
+   * Opens a database in {@code directory}, which is created if it doesn't
+   * exist, and recovers its collections.
+   *
+   * @param directory
+   * @param commitInterval see {@link Journal}
+   * @param unit
+   * @throws IOException
+   */
+  public Database(Path directory, long commitInterval, TimeUnit unit)
+      throws IOException {
+    this(directory, commitInterval, Optional.empty(), unit);
+  }
+
+  /**
+   * @param indexPool which pages the single field indexes, see {@link Index}
+   */
+  Database(Path directory, long commitInterval,
+      Optional<BufferPool> indexPool, TimeUnit unit) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.name = directory.getFileName().toString();
+    this.indexPool = indexPool;
+    this.journal = new Journal(directory.resolve(JOURNAL_FILE), commitInterval,
+        unit);
+    try {
+      recover();
+    } catch (IOException | RuntimeException e) {
+      // the journal is kept for the next attempt
+      closeFiles();
+      throw e;
+    }
+  }
+
+  static String checkName(String name) {
+    Preconditions.checkArgument(name != null && NAME.matcher(name).matches(),
+        "bad name: %s", name);
+    return name;
+  }
+
+  private void recover() throws IOException {
+    Set<String> names = new HashSet<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+        "*{.0," + DocumentCollection.CATALOG_SUFFIX + "}")) {
+      for (Path file : stream) {
+        String fileName = file.getFileName().toString();
+        names.add(fileName.substring(0, fileName.lastIndexOf('.')));
+      }
+    }
+    // collections which are created by the journal only
+    journal.replay(entry -> names.add(entry.getNamespace()));
+
+    JournalRecovery recovery = new JournalRecovery();
+    for (String collection : names) {
+      DocumentCollection opened = open(collection);
+      recovery.collection(collection, opened.store());
+    }
+    recovery.recover(journal);
+    for (DocumentCollection collection : collections.values()) {
+      collection.open();
+    }
+    checkpoint();
+  }
+
+  private synchronized DocumentCollection open(String collection)
+      throws IOException {
+    DocumentCollection opened = new DocumentCollection(collection, directory,
+        new ExtentStore(directory, collection), journal,
+        checkpointLock.readLock(), indexPool);
+    collections.put(collection, opened);
+    return opened;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the collection, which is created if it doesn't exist.
+   *
+   * @throws IllegalArgumentException if the name is not valid
+   */
+  public synchronized DocumentCollection collection(String name)
+      throws IOException {
+    DocumentCollection collection = collections.get(checkName(name));
+    return collection != null ? collection : open(name);
+  }
+
+  public synchronized Optional<DocumentCollection> getCollection(String name) {
+    return Optional.ofNullable(collections.get(name));
+  }
+
+  /**
+   * Returns the names of the collections in ascending order.
+   */
+  public synchronized List<String> collectionNames() {
+    return new ArrayList<>(collections.keySet());
+  }
+
+  /**
+   * Forces the extents of every collection and discards the journal. Writers
+   * wait until the checkpoint is done.
+   *
+   * @throws IOException
+   */
+  public void checkpoint() throws IOException {
+    checkpointLock.writeLock().lock();
+    try {
+      for (DocumentCollection collection : collections()) {
+        collection.store().force();
+      }
+      journal.truncate();
+      checkpointNanos = System.nanoTime();
+    } finally {
+      checkpointLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the {@link System#nanoTime()} of the last checkpoint.
+   */
+  long lastCheckpointNanos() {
+    return checkpointNanos;
+  }
+
+  /**
+   * Returns the size of the journal in bytes, i.e. what the next checkpoint
+   * discards, and what the next recovery replays.
+   */
+  public long journalSize() {
+    return journal.size();
+  }
+
+  /**
+   * Returns the opened collections, i.e. every collection of the database.
+   */
+  public synchronized List<DocumentCollection> collections() {
+    return new ArrayList<>(collections.values());
+  }
+
+  /**
+   * Checkpoints the database and closes its files.
+   */
+  @Override public void close() throws IOException {
+    try {
+      checkpoint();
+    } finally {
+      closeFiles();
+    }
+  }
+
+  private void closeFiles() throws IOException {
+    journal.close();
+    for (DocumentCollection collection : collections()) {
+      collection.close();
+    }
+  }
+
+  @Override public String toString() {
+    return "Database(" + name + ")";
+  }
+}
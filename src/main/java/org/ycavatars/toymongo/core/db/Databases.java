@@ -0,0 +1,252 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.ycavatars.toymongo.core.storage.BufferPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The databases of a data directory, one subdirectory each. A database is
+ * opened, i.e. recovered, when it's used for the first time.
+ * <p>
+ * A background thread checkpoints every opened database whose journal has
+ * grown to the checkpoint size, or which hasn't been checkpointed for the
+ * checkpoint interval, so the journal, and the replay of the next recovery,
+ * stay bounded. It's not the commit thread of the journals, which writers
+ * wait for while a checkpoint waits for them.
+ * <p>
+ * Given a {@link BufferPool}, the single field indexes of every database are
+ * paged by it, so they share its memory, see {@link Index}.
+ *
+ * @author ycavatars
+ */
+public class Databases implements Closeable {
+
+  public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 60 * 1000;
+
+  public static final long DEFAULT_CHECKPOINT_SIZE = 64 * 1024 * 1024;
+
+  public static final long DEFAULT_INDEX_POOL_MEMORY = 64 * 1024 * 1024;
+
+  // how often the journal sizes are checked, at most
+  private static final long CHECKPOINT_POLL_NANOS =
+      TimeUnit.SECONDS.toNanos(1);
+
+  private final Path directory;
+
+  private final long commitInterval;
+
+  private final TimeUnit unit;
+
+  private final long checkpointIntervalNanos;
+
+  private final long checkpointSize;
+
+  private final ScheduledExecutorService checkpointer;
+
+  private final Optional<BufferPool> indexPool;
+
+  // guarded by this
+  private final Map<String, Database> opened = new HashMap<>();
+
+  private boolean closed = false;
+
+  /**
+   * Opens the databases without background checkpoints: journals are only
+   * discarded when databases are opened and closed.
+   *
+   * @param directory      the data directory, which is created if it doesn't
+   *                       exist
+   * @param commitInterval the commit interval of the journals
+   * @param unit
+   * @throws IOException
+   */
+  public Databases(Path directory, long commitInterval, TimeUnit unit)
+      throws IOException {
+    this(directory, commitInterval, 0, 0, unit);
+  }
+
+  /**
+   * @param directory          the data directory, which is created if it
+   *                           doesn't exist
+   * @param commitInterval     the commit interval of the journals
+   * @param checkpointInterval the longest time between checkpoints of a
+   *                           database with a journal, or 0 to checkpoint
+   *                           by size only
+   * @param checkpointSize     the journal size in bytes which triggers a
+   *                           checkpoint, or 0 to checkpoint by time only
+   * @param unit               the unit of both intervals
+   * @throws IOException
+   */
+  public Databases(Path directory, long commitInterval,
+      long checkpointInterval, long checkpointSize, TimeUnit unit)
+      throws IOException {
+    this(directory, commitInterval, checkpointInterval, checkpointSize,
+        Optional.empty(), unit);
+  }
+
+  /**
+   * @param indexPool which pages the single field indexes of every database
+   */
+  public Databases(Path directory, long commitInterval,
+      long checkpointInterval, long checkpointSize, BufferPool indexPool,
+      TimeUnit unit) throws IOException {
+    this(directory, commitInterval, checkpointInterval, checkpointSize,
+        Optional.of(indexPool), unit);
+  }
+
+  private Databases(Path directory, long commitInterval,
+      long checkpointInterval, long checkpointSize,
+      Optional<BufferPool> indexPool, TimeUnit unit) throws IOException {
+    Preconditions.checkArgument(checkpointInterval >= 0,
+        "checkpointInterval: %s", checkpointInterval);
+    Preconditions.checkArgument(checkpointSize >= 0, "checkpointSize: %s",
+        checkpointSize);
+    this.directory = Files.createDirectories(directory);
+    this.commitInterval = commitInterval;
+    this.unit = Preconditions.checkNotNull(unit);
+    this.checkpointIntervalNanos = unit.toNanos(checkpointInterval);
+    this.checkpointSize = checkpointSize;
+    this.indexPool = indexPool;
+    if (checkpointInterval == 0 && checkpointSize == 0) {
+      this.checkpointer = null;
+    } else {
+      this.checkpointer = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("toymongo-checkpoint")
+              .setDaemon(true).build());
+      long period = checkpointInterval == 0 ? CHECKPOINT_POLL_NANOS
+          : Math.min(checkpointIntervalNanos, CHECKPOINT_POLL_NANOS);
+      checkpointer.scheduleWithFixedDelay(this::checkpoint, period, period,
+          TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Returns the database, which is created if it doesn't exist.
+   *
+   * @throws IllegalArgumentException if the name is not valid
+   */
+  public synchronized Database database(String name) throws IOException {
+    Preconditions.checkState(!closed, "closed");
+    Database database = opened.get(Database.checkName(name));
+    if (database == null) {
+      database = new Database(directory.resolve(name), commitInterval,
+          indexPool, unit);
+      opened.put(name, database);
+    }
+    return database;
+  }
+
+  /**
+   * Returns the database if it exists.
+   */
+  public synchronized Optional<Database> getDatabase(String name)
+      throws IOException {
+    if (!Database.NAME.matcher(name).matches()
+        || !Files.isDirectory(directory.resolve(name))) {
+      return Optional.empty();
+    }
+    return Optional.of(database(name));
+  }
+
+  /**
+   * Returns the pool of the paged indexes, if there's one.
+   */
+  public Optional<BufferPool> indexPool() {
+    return indexPool;
+  }
+
+  /**
+   * Returns the databases which have been opened, without opening the
+   * others, e.g. to report their metrics.
+   */
+  public synchronized List<Database> opened() {
+    return new ArrayList<>(opened.values());
+  }
+
+  /**
+   * Returns the names of the databases in ascending order.
+   */
+  public List<String> names() throws IOException {
+    List<String> names = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+        Files::isDirectory)) {
+      for (Path database : stream) {
+        names.add(database.getFileName().toString());
+      }
+    }
+    names.sort(null);
+    return names;
+  }
+
+  /**
+   * Checkpoints the opened databases whose journal has reached the
+   * checkpoint size, or whose last checkpoint is older than the checkpoint
+   * interval. A failed checkpoint keeps the journal, and is retried.
+   *
+   * @return the number of databases checkpointed
+   */
+  @VisibleForTesting int checkpoint() {
+    int checkpoints = 0;
+    for (Database database : opened()) {
+      long size = database.journalSize();
+      if (size == 0) {
+        continue;
+      }
+      if ((checkpointSize > 0 && size >= checkpointSize)
+          || (checkpointIntervalNanos > 0 && System.nanoTime()
+          - database.lastCheckpointNanos() >= checkpointIntervalNanos)) {
+        try {
+          database.checkpoint();
+          checkpoints++;
+        } catch (IOException | RuntimeException e) {
+          // the next run retries, and the journal still recovers the writes
+        }
+      }
+    }
+    return checkpoints;
+  }
+
+  @Override public void close() throws IOException {
+    // a checkpoint never runs on a closed database
+    if (checkpointer != null) {
+      checkpointer.shutdown();
+      try {
+        checkpointer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+    synchronized (this) {
+      closed = true;
+      IOException failure = null;
+      for (Database database : opened.values()) {
+        try {
+          database.close();
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+      opened.clear();
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+}
@@ -0,0 +1,578 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.journal.Journal;
+import org.ycavatars.toymongo.core.journal.JournalEntry;
+import org.ycavatars.toymongo.core.storage.BufferPool;
+import org.ycavatars.toymongo.core.storage.ExtentReader;
+import org.ycavatars.toymongo.core.storage.ExtentStore;
+import org.ycavatars.toymongo.core.storage.RecordId;
+import org.ycavatars.toymongo.core.storage.RecordSlice;
+import org.ycavatars.toymongo.core.storage.RecordVisitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * The documents of a collection, stored as records of an {@link ExtentStore},
+ * and its {@link Index}es, which are rebuilt from the records when the
+ * database is opened. Single field indexes are paged by the index pool of the
+ * database if it has one, see {@link Index}, and the others are kept on the
+ * heap. Inserts are journaled by the {@link Journal} of the database.
+ * <p>
+ * Reads of records run concurrently with inserts. Indexes are guarded by a
+ * read-write lock, and built in the background while inserts go on.
+ *
+ * @author ycavatars
+ */
+public class DocumentCollection implements Closeable {
+
+  static final String CATALOG_SUFFIX = ".indexes";
+
+  // <collection>.index-<n>.pages is the page file of an index
+  private static final String PAGES_PREFIX = ".index-";
+
+  private static final String PAGES_SUFFIX = ".pages";
+
+  /**
+   * The memory of the keys sorted by an index build before they're spilled
+   * to a run file.
+   */
+  public static final long DEFAULT_BUILD_MEMORY = 64 * 1024 * 1024;
+
+  private final String name;
+
+  private final Path directory;
+
+  private final ExtentStore store;
+
+  private final ExtentReader reader;
+
+  private final Journal journal;
+
+  // held for reading by writers, so a checkpoint sees no half-journaled write
+  private final Lock checkpointLock;
+
+  private final Optional<BufferPool> indexPool;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // by the paths of their fields
+  private final Map<List<FieldPath>, Index> indexes = new LinkedHashMap<>();
+
+  private final AtomicLong count = new AtomicLong();
+
+  // the number of indexes which became ready
+  private int indexVersion = 0;
+
+  // the number of page files of indexes
+  private int pageFiles = 0;
+
+  DocumentCollection(String name, Path directory, ExtentStore store,
+      Journal journal, Lock checkpointLock, Optional<BufferPool> indexPool) {
+    this.name = name;
+    this.directory = directory;
+    this.store = store;
+    this.reader = new ExtentReader(store);
+    this.journal = journal;
+    this.checkpointLock = checkpointLock;
+    this.indexPool = indexPool;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Inserts documents and waits until they're durable. The records are
+   * reserved, i.e. written but not visible, until the journal is forced, and
+   * then published, so no reader sees a document which isn't acknowledged,
+   * and a crash before that leaves nothing behind. Each index is updated
+   * once per batch afterwards: its keys are sorted and put in order.
+   * <p>
+   * If the batch fails, none of its documents is inserted: the reserved
+   * records, including the ones published before a publish failed, are
+   * hidden and freed, after a delete is journaled for each of them in case
+   * the inserts reach the journal anyway.
+   *
+   * @param documents
+   * @return the ids of the new records, in the order of {@code documents}
+   * @throws IllegalArgumentException if a document is too large
+   * @throws IOException
+   */
+  public List<RecordId> insert(List<Document> documents) throws IOException {
+    List<RecordId> ids = new ArrayList<>(documents.size());
+    int published = 0;
+    // a checkpoint waits until the records are published, since it discards
+    // the journal
+    checkpointLock.lock();
+    try {
+      List<JournalEntry> entries = new ArrayList<>(documents.size());
+      for (Document document : documents) {
+        RecordId id = store.reserve(document.buffer());
+        ids.add(id);
+        entries.add(JournalEntry.insert(name, id, document.buffer()));
+      }
+      Journal.await(journal.append(entries));
+      for (int i = 0; i < documents.size(); i++) {
+        store.publish(ids.get(i), documents.get(i).buffer().remaining());
+        published++;
+      }
+    } catch (IOException | RuntimeException e) {
+      release(ids, published, e);
+      throw e;
+    } finally {
+      checkpointLock.unlock();
+    }
+
+    lock.writeLock().lock();
+    try {
+      for (Index index : indexes.values()) {
+        List<IndexKey> keys = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+          keys.add(index.key(documents.get(i), ids.get(i)));
+        }
+        Collections.sort(keys);
+        index.putSorted(keys);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    count.addAndGet(documents.size());
+    return ids;
+  }
+
+  // frees the records of a failed insert, whose failure is suppressed by
+  // errors of the cleanup; the first ones may be published already, so
+  // they're deleted instead
+  private void release(List<RecordId> ids, int published,
+      Exception failure) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    List<JournalEntry> deletes = new ArrayList<>(ids.size());
+    for (RecordId id : ids) {
+      deletes.add(JournalEntry.delete(name, id));
+    }
+    try {
+      // not waited for: if the journal failed, so do the deletes, and the
+      // inserts aren't durable either
+      journal.append(deletes);
+    } catch (RuntimeException e) {
+      failure.addSuppressed(e);
+    }
+    for (int i = 0; i < ids.size(); i++) {
+      try {
+        if (i < published) {
+          store.delete(ids.get(i));
+        } else {
+          store.release(ids.get(i));
+        }
+      } catch (IOException | RuntimeException e) {
+        failure.addSuppressed(e);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of documents.
+   */
+  public long count() {
+    return count.get();
+  }
+
+  /**
+   * Returns the document of a record, which is copied to the heap, so it
+   * stays valid. Queries read records with {@link #read(RecordId)} instead.
+   *
+   * @throws IllegalArgumentException if there's no such record
+   */
+  public Document get(RecordId id) throws IOException {
+    return Document.wrap(store.read(id));
+  }
+
+  /**
+   * Reads a record without copying it, see {@link ExtentReader#read(RecordId)}.
+   * A document of its data is only valid until the record is closed.
+   *
+   * @throws IllegalArgumentException if there's no such record
+   */
+  public RecordSlice read(RecordId id) throws IOException {
+    return reader.read(id);
+  }
+
+  /**
+   * Visits every record in {@link RecordId} order, see
+   * {@link ExtentReader#scan(RecordVisitor)}.
+   */
+  public void scan(RecordVisitor visitor) throws IOException {
+    reader.scan(visitor);
+  }
+
+  /**
+   * Visits every record from {@code from}, see
+   * {@link ExtentReader#scan(RecordId, RecordVisitor)}.
+   */
+  public void scan(RecordId from, RecordVisitor visitor) throws IOException {
+    reader.scan(from, visitor);
+  }
+
+  /**
+   * Visits the records from {@code from} until {@code to}, see
+   * {@link ExtentReader#scan(RecordId, RecordId, RecordVisitor)}.
+   */
+  public void scan(RecordId from, RecordId to, RecordVisitor visitor)
+      throws IOException {
+    reader.scan(from, to, visitor);
+  }
+
+  /**
+   * Splits the records from {@code from} into ranges of about {@code bytes},
+   * see {@link ExtentReader#split(RecordId, long)}.
+   */
+  public List<RecordId> split(RecordId from, long bytes) throws IOException {
+    return reader.split(from, bytes);
+  }
+
+  /**
+   * Visits the keys of an index from {@code from} to {@code to}, both
+   * inclusive. Inserts wait until the scan is done, so the visitor should stop
+   * after a batch.
+   *
+   * @return false if the visitor stopped the scan
+   * @throws IllegalArgumentException if there's no index of the fields
+   */
+  public boolean scanIndex(List<FieldPath> paths, IndexKey from, IndexKey to,
+      IndexVisitor visitor) throws IOException {
+    lock.readLock().lock();
+    try {
+      return index(paths).scan(from, to, visitor);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Creates an index of a field, see {@link #createIndex(List)}.
+   */
+  public Index createIndex(FieldPath path) throws IOException {
+    return createIndex(Collections.singletonList(path));
+  }
+
+  /**
+   * Creates an index of one or more fields, unless it exists, and waits until
+   * it's built, see {@link #createIndex(List, Executor, long)}.
+   *
+   * @param paths the paths of the indexed fields, in the order of the keys
+   * @return the index
+   * @throws IllegalArgumentException if there's no path, or a duplicate one
+   * @throws IOException              if the build failed
+   */
+  public Index createIndex(List<FieldPath> paths) throws IOException {
+    Index index = createIndex(paths, Runnable::run, DEFAULT_BUILD_MEMORY);
+    index.getBuild().await();
+    return index;
+  }
+
+  /**
+   * Creates an index of one or more fields, unless it exists, and builds it
+   * by {@code executor}. The build scans the records into sorted runs of at
+   * most {@code memory} bytes, merges them and loads the tree bottom-up;
+   * inserts don't wait for it, their keys are buffered and put into the tree
+   * before the index is ready. Queries use the index once it's ready, and a
+   * failed build is dropped.
+   *
+   * @param paths    the paths of the indexed fields, in the order of the keys
+   * @param executor runs the build
+   * @param memory   the memory of the keys sorted before they're spilled
+   * @return the index, which may not be ready yet, see
+   * {@link Index#getBuild()}
+   * @throws IllegalArgumentException if there's no path, or a duplicate one
+   */
+  public Index createIndex(List<FieldPath> paths, Executor executor,
+      long memory) {
+    Index index;
+    lock.writeLock().lock();
+    try {
+      index = indexes.get(paths);
+      if (index != null) {
+        return index;
+      }
+      IndexBuild build = new IndexBuild(count.get());
+      index = indexPool.isPresent()
+          ? new Index(paths, build, indexPool.get(), directory.resolve(
+          name + PAGES_PREFIX + pageFiles++ + PAGES_SUFFIX))
+          : new Index(paths, build);
+      indexes.put(index.getPaths(), index);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    Index created = index;
+    try {
+      executor.execute(() -> build(created, memory));
+    } catch (RejectedExecutionException e) {
+      drop(created, e);
+      throw e;
+    }
+    return index;
+  }
+
+  private void build(Index index, long memory) {
+    IndexBuild build = index.getBuild();
+    try (IndexKeySorter sorter = new IndexKeySorter(directory,
+        name + ".index-build-", index.getPaths().size(), memory)) {
+      reader.scan((id, data) -> {
+        sorter.add(index.key(Document.wrap(data), id));
+        build.scanned();
+        build.spilled(sorter.runs());
+        return true;
+      });
+      build.phase(IndexBuild.Phase.LOADING);
+      try {
+        index.load(sorter.sorted());
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+
+      build.phase(IndexBuild.Phase.CATCHING_UP);
+      lock.writeLock().lock();
+      try {
+        index.catchUp();
+        writeCatalog(index);
+        indexVersion++;
+        build.ready();
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } catch (IOException | RuntimeException e) {
+      drop(index, e);
+    }
+  }
+
+  private void drop(Index index, Throwable cause) {
+    lock.writeLock().lock();
+    try {
+      indexes.remove(index.getPaths());
+      index.close();
+    } catch (IOException e) {
+      cause.addSuppressed(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    index.getBuild().failed(cause);
+  }
+
+  public Optional<Index> getIndex(FieldPath path) {
+    return getIndex(Collections.singletonList(path));
+  }
+
+  public Optional<Index> getIndex(List<FieldPath> paths) {
+    lock.readLock().lock();
+    try {
+      return Optional.ofNullable(indexes.get(paths));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the statistics of the index of a field.
+   *
+   * @throws IllegalArgumentException if the field is not indexed
+   */
+  public IndexStatistics statistics(FieldPath path) {
+    return statistics(Collections.singletonList(path));
+  }
+
+  /**
+   * Returns the statistics of an index.
+   *
+   * @throws IllegalArgumentException if there's no index of the fields
+   */
+  public IndexStatistics statistics(List<FieldPath> paths) {
+    lock.readLock().lock();
+    try {
+      return index(paths).statistics();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // the lock must be held
+  private Index index(List<FieldPath> paths) {
+    Index index = indexes.get(paths);
+    Preconditions.checkArgument(index != null, "no index of %s",
+        Index.name(paths));
+    Preconditions.checkArgument(index.isReady(),
+        "the index of %s is not ready", Index.name(paths));
+    return index;
+  }
+
+  /**
+   * Returns a number which changes whenever an index becomes ready, e.g. to
+   * invalidate cached query plans.
+   */
+  public int indexVersion() {
+    lock.readLock().lock();
+    try {
+      return indexVersion;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns every index, including the ones which are being built.
+   */
+  public List<Index> indexes() {
+    lock.readLock().lock();
+    try {
+      return new ArrayList<>(indexes.values());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the metrics of the ready indexes, see {@link IndexMetrics}. The
+   * lock is only held to read a few counters of each index.
+   */
+  public List<IndexMetrics> indexMetrics() {
+    lock.readLock().lock();
+    try {
+      return indexes.values().stream().filter(Index::isReady)
+          .map(Index::metrics).collect(Collectors.toList());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the size of the extent files, see
+   * {@link ExtentStore#storageSize()}.
+   */
+  public long storageSize() {
+    return store.storageSize();
+  }
+
+  /**
+   * Returns the bytes allocated to records, see
+   * {@link ExtentStore#dataSize()}.
+   */
+  public long dataSize() {
+    return store.dataSize();
+  }
+
+  public int extentCount() {
+    return store.extentCount();
+  }
+
+  /**
+   * Returns the records whose field equals {@code value}.
+   *
+   * @throws IllegalArgumentException if the field is not indexed
+   */
+  public List<RecordId> find(FieldPath path, Object value) {
+    lock.readLock().lock();
+    try {
+      return index(Collections.singletonList(path)).find(value);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Counts the records and rebuilds the indexes listed in the catalog when
+   * the database is opened. The page files of the indexes left over by a
+   * crash are deleted.
+   */
+  void open() throws IOException {
+    long[] records = {0};
+    reader.scan((id, data) -> {
+      records[0]++;
+      return true;
+    });
+    count.set(records[0]);
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+        name + PAGES_PREFIX + "*" + PAGES_SUFFIX)) {
+      for (Path pages : stream) {
+        Files.delete(pages);
+      }
+    }
+
+    Path catalog = directory.resolve(name + CATALOG_SUFFIX);
+    if (!Files.exists(catalog)) {
+      return;
+    }
+    for (String name : Files.readAllLines(catalog, StandardCharsets.UTF_8)) {
+      if (!name.isEmpty()) {
+        createIndex(Splitter.on(',').splitToList(name).stream()
+            .map(FieldPath::of).collect(Collectors.toList()));
+      }
+    }
+  }
+
+  // the names of the ready indexes and the added one, one per line, replaced
+  // atomically
+  private void writeCatalog(Index added) throws IOException {
+    Path catalog = directory.resolve(name + CATALOG_SUFFIX);
+    Path temp = directory.resolve(name + CATALOG_SUFFIX + ".tmp");
+    Files.write(temp, indexes.values().stream()
+        .filter(index -> index.isReady() || index == added)
+        .map(Index::getName).collect(Collectors.toList()),
+        StandardCharsets.UTF_8);
+    Files.move(temp, catalog, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  ExtentStore store() {
+    return store;
+  }
+
+  /**
+   * Closes the ready indexes, which deletes their page files, and the
+   * records. The page file of a build which is still running is deleted
+   * when the database is opened again.
+   */
+  @Override public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      for (Index index : indexes.values()) {
+        if (index.isReady()) {
+          index.close();
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    reader.close();
+    store.close();
+  }
+
+  @Override public String toString() {
+    return "DocumentCollection(" + name + ")";
+  }
+}
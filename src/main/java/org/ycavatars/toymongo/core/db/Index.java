@@ -0,0 +1,353 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.ycavatars.toymongo.core.collection.BTreeMap;
+import org.ycavatars.toymongo.core.collection.LookupCounters;
+import org.ycavatars.toymongo.core.collection.PageSerializer;
+import org.ycavatars.toymongo.core.collection.PagedBTreeMap;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.storage.BufferPool;
+import org.ycavatars.toymongo.core.storage.PageFile;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * A secondary index of a {@link DocumentCollection}, which maps the values of
+ * one or more fields to the records which contain them. A compound index is
+ * ordered by its first field, then by the next one, and so on, so it serves
+ * equalities on a prefix of its fields and a range of the next field. A
+ * missing field is indexed as null.
+ * <p>
+ * An index is built in the background, see {@link IndexBuild}: the keys of
+ * inserts go to a side buffer until the tree is loaded, and are put into the
+ * tree before the index is ready. An index is guarded by the lock of its
+ * collection.
+ * <p>
+ * Given a {@link BufferPool}, the tree of a single field index is a
+ * {@link PagedBTreeMap} in a page file of its own, as long as every key has a
+ * fixed-size encoding, see {@link IndexKeySerializer}: e.g. an index of
+ * {@code _id}s or of numbers takes the memory of the pool, shared by every
+ * paged index, instead of the heap. The first key of a string or a document
+ * moves the tree to a {@link BTreeMap} on the heap, and so are the trees of
+ * compound indexes. The page file is not recovered: an index is rebuilt from
+ * the records when its database is opened, and the file is deleted when the
+ * index is closed.
+ *
+ * @author ycavatars
+ */
+public class Index implements Closeable {
+
+  /**
+   * Leaves room in every node for the inserts which follow a build.
+   */
+  private static final float LOAD_FILL_FACTOR = 0.9f;
+
+  private final List<FieldPath> paths;
+
+  /**
+   * Statistics are computed again once this fraction of the keys changed.
+   */
+  static final double STALE_STATISTICS = 0.1;
+
+  private final BTreeMap<IndexKey, RecordId> entries = new BTreeMap<>();
+
+  // the pool and the page file of a paged tree
+  private final Optional<BufferPool> pool;
+
+  private final Path pagesPath;
+
+  private PageFile pagesFile;
+
+  // the tree while it's paged, or null if it's the entries on the heap
+  private PagedBTreeMap<IndexKey, RecordId> pages;
+
+  private final LookupCounters lookups = new LookupCounters();
+
+  private final IndexBuild build;
+
+  // the keys inserted during the build, or null once it's ready
+  private List<IndexKey> pending = new ArrayList<>();
+
+  private IndexStatistics statistics;
+
+  // keys put since the statistics were computed
+  private long changes = 0;
+
+  /**
+   * Creates an index whose tree is on the heap.
+   */
+  Index(List<FieldPath> paths, IndexBuild build) {
+    this(paths, build, Optional.empty(), null);
+  }
+
+  /**
+   * Creates an index whose tree is paged into {@code pagesPath} by
+   * {@code pool} if it has one field, see {@link Index}.
+   */
+  Index(List<FieldPath> paths, IndexBuild build, BufferPool pool,
+      Path pagesPath) {
+    this(paths, build, Optional.of(pool),
+        Preconditions.checkNotNull(pagesPath));
+  }
+
+  private Index(List<FieldPath> paths, IndexBuild build,
+      Optional<BufferPool> pool, Path pagesPath) {
+    Preconditions.checkArgument(!paths.isEmpty(), "no fields");
+    Preconditions.checkArgument(new HashSet<>(paths).size() == paths.size(),
+        "duplicate fields: %s", paths);
+    this.paths = Collections.unmodifiableList(new ArrayList<>(paths));
+    this.build = build;
+    this.pool = paths.size() == 1 ? pool : Optional.empty();
+    this.pagesPath = pagesPath;
+    entries.countLookups(lookups);
+  }
+
+  public IndexBuild getBuild() {
+    return build;
+  }
+
+  /**
+   * Returns true once the index is built, so queries can use it.
+   */
+  public boolean isReady() {
+    return build.getPhase() == IndexBuild.Phase.READY;
+  }
+
+  /**
+   * Returns true if the tree is paged, see {@link Index}.
+   */
+  public boolean isPaged() {
+    return pages != null;
+  }
+
+  // the paged tree or the entries on the heap
+  private NavigableMap<IndexKey, RecordId> tree() {
+    return pages != null ? pages : entries;
+  }
+
+  /**
+   * Returns the paths of the indexed fields, in the order of the keys.
+   */
+  public List<FieldPath> getPaths() {
+    return paths;
+  }
+
+  /**
+   * Returns the name of the index, i.e. its paths separated by commas.
+   */
+  public String getName() {
+    return name(paths);
+  }
+
+  public static String name(List<FieldPath> paths) {
+    return paths.stream().map(FieldPath::toString)
+        .collect(Collectors.joining(","));
+  }
+
+  /**
+   * Returns the key of a document in this index.
+   */
+  IndexKey key(Document document, RecordId id) {
+    if (paths.size() == 1) {
+      return IndexKey.of(document.get(paths.get(0)), id);
+    }
+    List<Object> values = new ArrayList<>(paths.size());
+    for (FieldPath path : paths) {
+      values.add(document.get(path));
+    }
+    return IndexKey.of(values, id);
+  }
+
+  /**
+   * Puts keys in ascending order, so consecutive keys mostly land in the same
+   * or a neighbouring leaf, which is still in the CPU cache. During the build
+   * they're kept in the side buffer.
+   *
+   * @param sorted keys in ascending order
+   */
+  void putSorted(List<IndexKey> sorted) {
+    if (pending != null) {
+      pending.addAll(sorted);
+      return;
+    }
+    for (IndexKey key : sorted) {
+      put(key);
+    }
+    changes += sorted.size();
+  }
+
+  private void put(IndexKey key) {
+    if (pages != null && !IndexKeySerializer.fits(key)) {
+      try {
+        unpage(Collections.emptyIterator());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    tree().put(key, key.getRecordId());
+  }
+
+  /**
+   * Loads the tree from all the keys of a collection, while inserts go to
+   * the side buffer, so the lock of the collection is not needed. A tree on
+   * the heap is loaded bottom-up, and a paged tree by puts in order until a
+   * key doesn't fit in a page.
+   *
+   * @param sorted keys in ascending order
+   * @throws IOException if the page file can't be created
+   */
+  void load(Iterator<IndexKey> sorted) throws IOException {
+    PeekingIterator<IndexKey> keys = Iterators.peekingIterator(
+        Iterators.transform(sorted, key -> {
+          build.loaded();
+          return key;
+        }));
+    if (pool.isPresent()) {
+      // left over by a crash
+      Files.deleteIfExists(pagesPath);
+      pagesFile = new PageFile(pagesPath, pool.get().pageSize());
+      pages = new PagedBTreeMap<>(pool.get(), pagesFile,
+          IndexKeySerializer.INSTANCE, PageSerializer.RECORD_ID);
+      pages.countLookups(lookups);
+      while (keys.hasNext() && IndexKeySerializer.fits(keys.peek())) {
+        IndexKey key = keys.next();
+        pages.put(key, key.getRecordId());
+      }
+      if (keys.hasNext()) {
+        unpage(keys);
+      }
+      return;
+    }
+    entries.bulkLoad(Iterators.transform(keys, Index::entry),
+        LOAD_FILL_FACTOR);
+  }
+
+  private static Map.Entry<IndexKey, RecordId> entry(IndexKey key) {
+    return new SimpleImmutableEntry<>(key, key.getRecordId());
+  }
+
+  /**
+   * Moves the paged tree to the heap, followed by {@code greater} keys, and
+   * deletes the page file.
+   */
+  private void unpage(Iterator<IndexKey> greater) throws IOException {
+    entries.bulkLoad(Iterators.concat(pages.entrySet().iterator(),
+        Iterators.transform(greater, Index::entry)), LOAD_FILL_FACTOR);
+    closePages();
+  }
+
+  private void closePages() throws IOException {
+    pages = null;
+    try {
+      pool.get().truncate(pagesFile);
+    } finally {
+      pagesFile.close();
+      pagesFile = null;
+    }
+    Files.deleteIfExists(pagesPath);
+  }
+
+  /**
+   * Puts the keys of the side buffer into the tree, and the next keys go to
+   * the tree. The lock of the collection must be held. A key may be both
+   * loaded and buffered, if its record was inserted while the records were
+   * scanned; it's only put again.
+   */
+  void catchUp() {
+    Collections.sort(pending);
+    for (IndexKey key : pending) {
+      put(key);
+    }
+    pending = null;
+    statistics = null;
+  }
+
+  /**
+   * Returns the statistics, which are computed again if they're stale. The
+   * lock of the collection must be held.
+   */
+  synchronized IndexStatistics statistics() {
+    if (statistics == null || changes > STALE_STATISTICS * size()) {
+      statistics = IndexStatistics.of(tree().keySet(), paths.size(), size(),
+          pages != null ? pages.height() : entries.height());
+      changes = 0;
+    }
+    return statistics;
+  }
+
+  /**
+   * Returns the metrics of the tree, which take constant time. The lock of
+   * the collection must be held, and the index must be ready, since a build
+   * loads the tree without the lock.
+   */
+  IndexMetrics metrics() {
+    if (pages != null) {
+      return new IndexMetrics(getName(), pages.size(), pages.height(),
+          pages.nodeCount(), pages.fillFactor(), pages.splitCount(),
+          lookups.getLookups(), lookups.getComparisons());
+    }
+    return new IndexMetrics(getName(), entries.size(), entries.height(),
+        entries.nodeCount(), entries.fillFactor(), entries.splitCount(),
+        lookups.getLookups(), lookups.getComparisons());
+  }
+
+  /**
+   * Returns the records whose first field equals {@code value}, in
+   * {@link RecordId} order if this index has one field.
+   */
+  public List<RecordId> find(Object value) {
+    return new ArrayList<>(tree().subMap(IndexKey.lowest(value), true,
+        IndexKey.highest(value), true).values());
+  }
+
+  /**
+   * Visits the keys from {@code from} to {@code to}, both inclusive.
+   *
+   * @return false if the visitor stopped the scan
+   */
+  boolean scan(IndexKey from, IndexKey to, IndexVisitor visitor)
+      throws IOException {
+    for (IndexKey key : tree().subMap(from, true, to, true).keySet()) {
+      if (!visitor.visit(key)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int size() {
+    return tree().size();
+  }
+
+  /**
+   * Deletes the page file of a paged tree. The lock of the collection must
+   * be held, and the index must not be used afterwards.
+   */
+  @Override public void close() throws IOException {
+    if (pagesFile != null) {
+      closePages();
+    }
+  }
+
+  @Override public String toString() {
+    return "Index(" + getName() + ")";
+  }
+}
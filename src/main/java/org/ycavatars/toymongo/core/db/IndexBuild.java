@@ -0,0 +1,158 @@
+package org.ycavatars.toymongo.core.db;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of building an {@link Index} in the background. A build scans
+ * the records into sorted runs, merges the runs into the tree, then applies
+ * the keys of the documents inserted meanwhile, and the index is used by
+ * queries once it's {@link Phase#READY}.
+ *
+ * @author ycavatars
+ */
+public final class IndexBuild {
+
+  public enum Phase {
+    /**
+     * Reads the keys of the records and spills sorted runs.
+     */
+    SCANNING,
+    /**
+     * Merges the runs and loads the tree bottom-up.
+     */
+    LOADING,
+    /**
+     * Puts the keys of the inserts which ran during the build.
+     */
+    CATCHING_UP,
+    READY,
+    FAILED
+  }
+
+  private volatile Phase phase = Phase.SCANNING;
+
+  // the number of records when the build started
+  private final long records;
+
+  private final AtomicLong scanned = new AtomicLong();
+
+  private final AtomicLong loaded = new AtomicLong();
+
+  private volatile int runs = 0;
+
+  private volatile String error;
+
+  private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+  IndexBuild(long records) {
+    this.records = records;
+  }
+
+  public Phase getPhase() {
+    return phase;
+  }
+
+  /**
+   * Returns the number of records of the collection when the build started.
+   */
+  public long getRecords() {
+    return records;
+  }
+
+  public long getScanned() {
+    return scanned.get();
+  }
+
+  /**
+   * Returns the number of keys loaded into the tree so far.
+   */
+  public long getLoaded() {
+    return loaded.get();
+  }
+
+  /**
+   * Returns the number of sorted runs which were spilled to files.
+   */
+  public int getRuns() {
+    return runs;
+  }
+
+  /**
+   * Returns the message of the error of a failed build, or null.
+   */
+  public String getError() {
+    return error;
+  }
+
+  /**
+   * Returns the fraction of the build which is done, from 0 to 1. Scanning
+   * and loading count as half each.
+   */
+  public double getProgress() {
+    if (phase == Phase.READY) {
+      return 1;
+    }
+    if (records == 0) {
+      return 0;
+    }
+    return Math.min(1, (scanned.get() + loaded.get()) / (2.0 * records));
+  }
+
+  /**
+   * Waits until the index is ready.
+   *
+   * @throws IOException if the build failed
+   */
+  public void await() throws IOException {
+    try {
+      done.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  void scanned() {
+    scanned.incrementAndGet();
+  }
+
+  void loaded() {
+    loaded.incrementAndGet();
+  }
+
+  void spilled(int runs) {
+    this.runs = runs;
+  }
+
+  void phase(Phase phase) {
+    this.phase = phase;
+  }
+
+  void ready() {
+    phase = Phase.READY;
+    done.complete(null);
+  }
+
+  void failed(Throwable cause) {
+    error = String.valueOf(cause.getMessage());
+    phase = Phase.FAILED;
+    done.completeExceptionally(cause);
+  }
+
+  @Override public String toString() {
+    return String.format("IndexBuild(%s, %.0f%%)", phase,
+        100 * getProgress());
+  }
+}
@@ -0,0 +1,168 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.Values;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A key of an {@link Index}: the values of the indexed fields and the id of
+ * the record, so records with the same values have distinct keys, in
+ * {@link RecordId} order. Keys are ordered field by field, so the keys of a
+ * compound index with the same leading values are adjacent.
+ *
+ * @author ycavatars
+ */
+public final class IndexKey implements Comparable<IndexKey> {
+
+  private final Object[] values;
+
+  // null for a bound, which sorts before or after every record of the values
+  private final RecordId recordId;
+
+  // -1 or 1 for a bound of the last value, -2 or 2 for a bound of its type
+  private final int bound;
+
+  private IndexKey(Object[] values, RecordId recordId, int bound) {
+    for (int i = 0; i < values.length; i++) {
+      // an embedded document must not keep the buffer of its parent alive
+      if (values[i] instanceof Document) {
+        values[i] = ((Document) values[i]).copy();
+      }
+    }
+    this.values = values;
+    this.recordId = recordId;
+    this.bound = bound;
+  }
+
+  public static IndexKey of(Object value, RecordId recordId) {
+    return new IndexKey(new Object[]{value},
+        Preconditions.checkNotNull(recordId), 0);
+  }
+
+  /**
+   * Returns the key of the values of the fields of a compound index.
+   */
+  public static IndexKey of(List<Object> values, RecordId recordId) {
+    Preconditions.checkArgument(!values.isEmpty(), "no values");
+    return new IndexKey(values.toArray(),
+        Preconditions.checkNotNull(recordId), 0);
+  }
+
+  /**
+   * Returns a key which is less than any key of {@code value}.
+   */
+  public static IndexKey lowest(Object value) {
+    return new IndexKey(new Object[]{value}, null, -1);
+  }
+
+  /**
+   * Returns a key which is greater than any key of {@code value}.
+   */
+  public static IndexKey highest(Object value) {
+    return new IndexKey(new Object[]{value}, null, 1);
+  }
+
+  /**
+   * Returns a key which is less than any key of a value of the same type as
+   * {@code value}, e.g. of any number.
+   */
+  public static IndexKey typeStart(Object value) {
+    return new IndexKey(new Object[]{value}, null, -2);
+  }
+
+  /**
+   * Returns a key which is greater than any key of a value of the same type
+   * as {@code value}.
+   */
+  public static IndexKey typeEnd(Object value) {
+    return new IndexKey(new Object[]{value}, null, 2);
+  }
+
+  /**
+   * Returns this bound of the next fields after the values of the leading
+   * fields of a compound index, e.g. {@code lowest(1).after([5])} is less
+   * than any key whose values start with 5 and 1.
+   */
+  public IndexKey after(List<Object> leading) {
+    Preconditions.checkState(recordId == null, "not a bound: %s", this);
+    Object[] concatenated = new Object[leading.size() + values.length];
+    leading.toArray(concatenated);
+    System.arraycopy(values, 0, concatenated, leading.size(), values.length);
+    return new IndexKey(concatenated, null, bound);
+  }
+
+  /**
+   * Returns the value of the first field.
+   */
+  public Object getValue() {
+    return values[0];
+  }
+
+  /**
+   * Returns the values of the fields, in the order of the index.
+   */
+  public List<Object> getValues() {
+    return Collections.unmodifiableList(Arrays.asList(values));
+  }
+
+  /**
+   * Returns the id of the record, or null if this key is a bound.
+   */
+  public RecordId getRecordId() {
+    return recordId;
+  }
+
+  @Override public int compareTo(IndexKey o) {
+    int common = Math.min(values.length, o.values.length);
+    for (int i = 0; i < common; i++) {
+      // a bound of a type is equal to every value of the type
+      int cmp = isTypeBound(i) || o.isTypeBound(i)
+          ? Values.compareTypes(values[i], o.values[i])
+          : Values.compare(values[i], o.values[i]);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    int cmp = Integer.compare(boundAfter(common), o.boundAfter(common));
+    if (cmp != 0 || recordId == null || o.recordId == null) {
+      return cmp;
+    }
+    return recordId.compareTo(o.recordId);
+  }
+
+  /**
+   * Returns true if this key is a bound of the type of its last value.
+   */
+  boolean isTypeBound() {
+    return Math.abs(bound) == 2;
+  }
+
+  private boolean isTypeBound(int field) {
+    return field == values.length - 1 && isTypeBound();
+  }
+
+  // the order of this key among the keys which start with its first values,
+  // i.e. 0 unless it's a bound of those values
+  private int boundAfter(int fields) {
+    return fields < values.length ? 0 : bound;
+  }
+
+  @Override public boolean equals(Object o) {
+    return o instanceof IndexKey && compareTo((IndexKey) o) == 0;
+  }
+
+  @Override public int hashCode() {
+    return recordId == null ? bound : recordId.hashCode();
+  }
+
+  @Override public String toString() {
+    String value = values.length == 1 ? String.valueOf(values[0])
+        : Arrays.toString(values);
+    return value + "@" + (recordId == null ? bound : recordId);
+  }
+}
@@ -0,0 +1,97 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.collection.PageSerializer;
+import org.ycavatars.toymongo.core.document.FieldType;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the keys of a single field {@link Index} into the pages of a
+ * {@link org.ycavatars.toymongo.core.collection.PagedBTreeMap}: the
+ * {@link FieldType} of the value in a byte, the value in 8 bytes and the
+ * {@link RecordId}. Only values of a fixed size fit, i.e. null, booleans and
+ * numbers; the value of a string or a document has no bound.
+ *
+ * @author ycavatars
+ */
+final class IndexKeySerializer implements PageSerializer<IndexKey> {
+
+  static final IndexKeySerializer INSTANCE = new IndexKeySerializer();
+
+  private static final FieldType[] TYPES = FieldType.values();
+
+  private IndexKeySerializer() {
+  }
+
+  /**
+   * Returns true if the key can be written, i.e. it's the key of a record
+   * and its only value has a fixed size.
+   */
+  static boolean fits(IndexKey key) {
+    if (key.getRecordId() == null || key.getValues().size() != 1) {
+      return false;
+    }
+    Object value = key.getValue();
+    return value == null || value instanceof Boolean
+        || value instanceof Integer || value instanceof Long
+        || value instanceof Double;
+  }
+
+  @Override public int size() {
+    return 1 + 8 + 8;
+  }
+
+  @Override public void write(ByteBuffer page, int offset, IndexKey key) {
+    Preconditions.checkArgument(fits(key), "doesn't fit in a page: %s", key);
+    Object value = key.getValue();
+    FieldType type;
+    long bits = 0;
+    if (value == null) {
+      type = FieldType.NULL;
+    } else if (value instanceof Boolean) {
+      type = (Boolean) value ? FieldType.TRUE : FieldType.FALSE;
+    } else if (value instanceof Integer) {
+      type = FieldType.INT32;
+      bits = (Integer) value;
+    } else if (value instanceof Long) {
+      type = FieldType.INT64;
+      bits = (Long) value;
+    } else {
+      type = FieldType.DOUBLE;
+      bits = Double.doubleToRawLongBits((Double) value);
+    }
+    page.put(offset, (byte) type.ordinal())
+        .putLong(offset + 1, bits)
+        .putLong(offset + 9, key.getRecordId().toLong());
+  }
+
+  @Override public IndexKey read(ByteBuffer page, int offset) {
+    long bits = page.getLong(offset + 1);
+    Object value;
+    switch (TYPES[page.get(offset)]) {
+      case NULL:
+        value = null;
+        break;
+      case FALSE:
+        value = Boolean.FALSE;
+        break;
+      case TRUE:
+        value = Boolean.TRUE;
+        break;
+      case INT32:
+        value = (int) bits;
+        break;
+      case INT64:
+        value = bits;
+        break;
+      case DOUBLE:
+        value = Double.longBitsToDouble(bits);
+        break;
+      default:
+        throw new IllegalStateException("bad key type at " + offset);
+    }
+    return IndexKey.of(value, RecordId.fromLong(page.getLong(offset + 9)));
+  }
+}
@@ -0,0 +1,188 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.Values;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorts the keys of an index build within a memory budget. Keys are added to
+ * a buffer, which is sorted and spilled to a run file whenever it's full; the
+ * keys are then returned in order by a k-way merge of the runs and the last
+ * buffer. A collection which fits in the budget is sorted in memory only.
+ *
+ * @author ycavatars
+ */
+final class IndexKeySorter implements Closeable {
+
+  // the bytes of an IndexKey, its array and its RecordId, roughly
+  private static final int KEY_OVERHEAD = 64;
+
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+  private final Path directory;
+
+  private final String prefix;
+
+  private final int fields;
+
+  private final long memory;
+
+  private final List<IndexKey> buffer = new ArrayList<>();
+
+  // the estimated heap size of the buffer
+  private long bytes = 0;
+
+  private final List<Path> runs = new ArrayList<>();
+
+  private final List<Integer> runSizes = new ArrayList<>();
+
+  private final List<DataInputStream> readers = new ArrayList<>();
+
+  /**
+   * @param directory where the runs are written
+   * @param prefix    of the names of the runs
+   * @param fields    the number of values of a key
+   * @param memory    the maximum estimated size of the buffer in bytes
+   */
+  IndexKeySorter(Path directory, String prefix, int fields, long memory) {
+    Preconditions.checkArgument(memory > 0, "memory: %s", memory);
+    this.directory = directory;
+    this.prefix = prefix;
+    this.fields = fields;
+    this.memory = memory;
+  }
+
+  void add(IndexKey key) throws IOException {
+    buffer.add(key);
+    bytes += footprint(key);
+    if (bytes >= memory) {
+      spill();
+    }
+  }
+
+  /**
+   * Returns the number of runs spilled so far.
+   */
+  int runs() {
+    return runs.size();
+  }
+
+  /**
+   * Returns every key added, in ascending order. The runs are read as the
+   * iterator advances, which throws {@link UncheckedIOException} if a run
+   * can't be read.
+   */
+  Iterator<IndexKey> sorted() throws IOException {
+    Collections.sort(buffer);
+    if (runs.isEmpty()) {
+      return buffer.iterator();
+    }
+    List<Iterator<IndexKey>> sources = new ArrayList<>(runs.size() + 1);
+    for (int i = 0; i < runs.size(); i++) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          Files.newInputStream(runs.get(i)), IO_BUFFER_SIZE));
+      readers.add(in);
+      sources.add(new RunIterator(in, runSizes.get(i)));
+    }
+    sources.add(buffer.iterator());
+    return Iterators.mergeSorted(sources, IndexKey::compareTo);
+  }
+
+  private void spill() throws IOException {
+    Collections.sort(buffer);
+    Path run = Files.createTempFile(directory, prefix, ".run");
+    runs.add(run);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(run), IO_BUFFER_SIZE))) {
+      for (IndexKey key : buffer) {
+        out.writeLong(key.getRecordId().toLong());
+        for (Object value : key.getValues()) {
+          Values.write(value, out);
+        }
+      }
+    }
+    runSizes.add(buffer.size());
+    buffer.clear();
+    bytes = 0;
+  }
+
+  private static long footprint(IndexKey key) {
+    long size = KEY_OVERHEAD;
+    for (Object value : key.getValues()) {
+      if (value instanceof String) {
+        size += 40 + 2 * ((String) value).length();
+      } else if (value instanceof Document) {
+        size += 48 + ((Document) value).length();
+      } else {
+        size += 16;
+      }
+    }
+    return size;
+  }
+
+  // the keys of a run
+  private final class RunIterator implements Iterator<IndexKey> {
+
+    private final DataInputStream in;
+
+    private int remaining;
+
+    RunIterator(DataInputStream in, int size) {
+      this.in = in;
+      this.remaining = size;
+    }
+
+    @Override public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override public IndexKey next() {
+      if (remaining == 0) {
+        throw new NoSuchElementException();
+      }
+      remaining--;
+      try {
+        RecordId id = RecordId.fromLong(in.readLong());
+        Object[] values = new Object[fields];
+        for (int i = 0; i < fields; i++) {
+          values[i] = Values.read(in);
+        }
+        return fields == 1 ? IndexKey.of(values[0], id)
+            : IndexKey.of(Arrays.asList(values), id);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Deletes the runs.
+   */
+  @Override public void close() throws IOException {
+    for (DataInputStream in : readers) {
+      in.close();
+    }
+    for (Path run : runs) {
+      Files.deleteIfExists(run);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,97 @@
+package org.ycavatars.toymongo.core.db;
+
+/**
+ * The shape of the tree of an {@link Index} and the work of its lookups at
+ * one point in time, e.g. to watch how full the nodes are and how many keys
+ * a lookup compares as the index grows. Unlike {@link IndexStatistics}, they
+ * take constant time, since the tree keeps them up to date.
+ *
+ * @author ycavatars
+ */
+public final class IndexMetrics {
+
+  private final String name;
+
+  private final long entries;
+
+  private final int height;
+
+  private final int nodes;
+
+  private final double fillFactor;
+
+  private final long splits;
+
+  private final long lookups;
+
+  private final long comparisons;
+
+  IndexMetrics(String name, long entries, int height, int nodes,
+      double fillFactor, long splits, long lookups, long comparisons) {
+    this.name = name;
+    this.entries = entries;
+    this.height = height;
+    this.nodes = nodes;
+    this.fillFactor = fillFactor;
+    this.splits = splits;
+    this.lookups = lookups;
+    this.comparisons = comparisons;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getEntries() {
+    return entries;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Returns the average number of keys of a node over the maximum.
+   */
+  public double getFillFactor() {
+    return fillFactor;
+  }
+
+  /**
+   * Returns the number of nodes split by inserts since the index was built.
+   */
+  public long getSplits() {
+    return splits;
+  }
+
+  /**
+   * Returns the number of lookups, i.e. descents of the tree by finds, index
+   * scans and inserts.
+   */
+  public long getLookups() {
+    return lookups;
+  }
+
+  public long getComparisons() {
+    return comparisons;
+  }
+
+  /**
+   * Returns the average number of keys compared by a lookup, or 0 if there
+   * was no lookup.
+   */
+  public double getComparisonsPerLookup() {
+    return lookups == 0 ? 0 : (double) comparisons / lookups;
+  }
+
+  @Override public String toString() {
+    return "IndexMetrics(" + name + ", entries: " + entries + ", height: "
+        + height + ", nodes: " + nodes + ", fillFactor: " + fillFactor
+        + ", splits: " + splits + ", lookups: " + lookups + ", comparisons: "
+        + comparisons + ")";
+  }
+}
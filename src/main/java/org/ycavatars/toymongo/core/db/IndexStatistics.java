@@ -0,0 +1,232 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.document.Values;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statistics of an {@link Index} to estimate how many keys a range has: the
+ * number of keys and of distinct values of each prefix of the fields, the
+ * height of the tree, and an equi-depth histogram, i.e. the values at every
+ * {@code 1/BUCKETS} of the keys. Frequent values span whole buckets, so
+ * they're estimated from the histogram; other values are assumed to be
+ * uniformly distributed.
+ *
+ * @author ycavatars
+ */
+public final class IndexStatistics {
+
+  static final int BUCKETS = 64;
+
+  private final long entries;
+
+  // distinct[i] is the number of distinct values of the first i + 1 fields
+  private final long[] distinct;
+
+  private final int height;
+
+  // bounds.get(i) is the values of the key at i * bucketSize, and the last
+  // one is the values of the last key
+  private final List<List<Object>> bounds;
+
+  private final long bucketSize;
+
+  private IndexStatistics(long entries, long[] distinct, int height,
+      List<List<Object>> bounds, long bucketSize) {
+    this.entries = entries;
+    this.distinct = distinct;
+    this.height = height;
+    this.bounds = bounds;
+    this.bucketSize = bucketSize;
+  }
+
+  private long bucketSize(int bucket) {
+    return Math.min(bucketSize, entries - bucket * bucketSize);
+  }
+
+  /**
+   * Computes the statistics from the keys of an index in ascending order.
+   */
+  static IndexStatistics of(Iterable<IndexKey> keys, int fields, int size,
+      int height) {
+    long bucketSize = Math.max(1, (size + BUCKETS - 1) / BUCKETS);
+    List<List<Object>> bounds = new ArrayList<>();
+    long[] distinct = new long[fields];
+    long position = 0;
+    List<Object> last = null;
+    for (IndexKey key : keys) {
+      List<Object> values = key.getValues();
+      // every prefix longer than the common one is new
+      for (int i = last == null ? 0 : common(last, values, fields);
+           i < fields; i++) {
+        distinct[i]++;
+      }
+      if (position % bucketSize == 0) {
+        bounds.add(values);
+      }
+      last = values;
+      position++;
+    }
+    if (position > 0) {
+      bounds.add(last);
+    }
+    return new IndexStatistics(position, distinct, height,
+        Collections.unmodifiableList(bounds), bucketSize);
+  }
+
+  // the number of leading values which are equal, up to fields
+  private static int common(List<Object> a, List<Object> b, int fields) {
+    int i = 0;
+    while (i < fields && Values.compare(a.get(i), b.get(i)) == 0) {
+      i++;
+    }
+    return i;
+  }
+
+  public long getEntries() {
+    return entries;
+  }
+
+  /**
+   * Returns the number of distinct values, i.e. the cardinality.
+   */
+  public long getDistinct() {
+    return distinct[distinct.length - 1];
+  }
+
+  /**
+   * Returns the number of distinct values of the first {@code fields}
+   * fields.
+   */
+  public long getDistinct(int fields) {
+    return distinct[fields - 1];
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the values of the keys at the bounds of the buckets of the
+   * histogram.
+   */
+  public List<List<Object>> getHistogram() {
+    return bounds;
+  }
+
+  /**
+   * Estimates the number of keys whose first field equals {@code value}.
+   */
+  public double estimateEquals(Object value) {
+    return estimateEquals(Collections.singletonList(value));
+  }
+
+  /**
+   * Estimates the number of keys whose first fields equal {@code values}:
+   * the buckets they span if they're frequent, otherwise their share of the
+   * keys of the values which are not frequent.
+   */
+  public double estimateEquals(List<Object> values) {
+    int fields = values.size();
+    Preconditions.checkArgument(fields > 0 && fields <= distinct.length,
+        "%s values of %s fields", fields, distinct.length);
+    List<Object> leading = values.subList(0, fields - 1);
+    Object last = values.get(fields - 1);
+    double frequent = estimateRange(IndexKey.lowest(last).after(leading),
+        IndexKey.highest(last).after(leading), false);
+    if (frequent > 0 || entries == 0) {
+      return frequent;
+    }
+    // the values which span whole buckets, and the keys of those buckets
+    long frequentValues = 0;
+    long frequentKeys = 0;
+    for (int i = 0; i + 1 < bounds.size(); i++) {
+      if (common(bounds.get(i), bounds.get(i + 1), fields) == fields) {
+        if (i == 0 || common(bounds.get(i - 1), bounds.get(i), fields)
+            < fields) {
+          frequentValues++;
+        }
+        frequentKeys += bucketSize(i);
+      }
+    }
+    long others = distinct[fields - 1] - frequentValues;
+    return others <= 0 ? 0 : (double) (entries - frequentKeys) / others;
+  }
+
+  /**
+   * Estimates the number of keys from {@code from} to {@code to}.
+   */
+  public double estimateRange(IndexKey from, IndexKey to) {
+    return estimateRange(from, to, true);
+  }
+
+  // counts the buckets in the range, and parts of the buckets it overlaps if
+  // partial is true
+  private double estimateRange(IndexKey from, IndexKey to, boolean partial) {
+    double rows = 0;
+    for (int i = 0; i + 1 < bounds.size(); i++) {
+      long size = bucketSize(i);
+      List<Object> low = bounds.get(i);
+      List<Object> high = bounds.get(i + 1);
+      IndexKey lowest = bound(low, false);
+      IndexKey highest = bound(high, true);
+      if (highest.compareTo(from) < 0 || lowest.compareTo(to) > 0) {
+        continue;
+      }
+      if (from.compareTo(lowest) <= 0 && to.compareTo(highest) >= 0) {
+        rows += size;
+      } else if (partial) {
+        rows += size * overlap(low, high, from, to);
+      }
+    }
+    return rows;
+  }
+
+  // the key before or after every key of the values
+  private static IndexKey bound(List<Object> values, boolean highest) {
+    Object last = values.get(values.size() - 1);
+    return (highest ? IndexKey.highest(last) : IndexKey.lowest(last))
+        .after(values.subList(0, values.size() - 1));
+  }
+
+  // the fraction of [low, high] in the range, interpolated between the
+  // numbers of the first field where low and high differ
+  private static double overlap(List<Object> low, List<Object> high,
+      IndexKey from, IndexKey to) {
+    int field = common(low, high, low.size() - 1);
+    if (!(low.get(field) instanceof Number)
+        || !(high.get(field) instanceof Number)) {
+      return 0.5;
+    }
+    double l = ((Number) low.get(field)).doubleValue();
+    double h = ((Number) high.get(field)).doubleValue();
+    if (h <= l) {
+      return 1;
+    }
+    double start = Math.max(l, position(from, low, field, l));
+    double end = Math.min(h, position(to, low, field, h));
+    return Math.max(0, Math.min(1, (end - start) / (h - l)));
+  }
+
+  // the number of a bound at field, if it's in the bucket of values, or
+  // otherwise
+  private static double position(IndexKey key, List<Object> values,
+      int field, double otherwise) {
+    List<Object> bound = key.getValues();
+    if (bound.size() <= field || bound.size() == field + 1 && key.isTypeBound()
+        || !(bound.get(field) instanceof Number)
+        || common(bound, values, field) < field) {
+      return otherwise;
+    }
+    return ((Number) bound.get(field)).doubleValue();
+  }
+
+  @Override public String toString() {
+    return "IndexStatistics(entries=" + entries + ", distinct="
+        + Arrays.toString(distinct) + ", height=" + height + ")";
+  }
+}
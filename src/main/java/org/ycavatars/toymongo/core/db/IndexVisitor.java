@@ -0,0 +1,18 @@
+package org.ycavatars.toymongo.core.db;
+
+import java.io.IOException;
+
+/**
+ * Receives keys of an {@link Index} in ascending order.
+ *
+ * @author ycavatars
+ */
+@FunctionalInterface
+public interface IndexVisitor {
+
+  /**
+   * @param key
+   * @return false to stop the scan
+   */
+  boolean visit(IndexKey key) throws IOException;
+}
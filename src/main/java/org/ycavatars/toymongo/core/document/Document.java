@@ -0,0 +1,333 @@
+package org.ycavatars.toymongo.core.document;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only view of a document in the binary format, e.g. a record of an
+ * extent. Fields are read straight from the buffer when they're accessed, so
+ * evaluating a predicate on one field doesn't decode the rest of the document.
+ * <p>
+ * A document is encoded as its length (4 bytes), the number of fields (4
+ * bytes), the fields, and a table of the offsets of the fields at the end. A
+ * field is its {@link FieldType} (1 byte), the length of its name (2 bytes),
+ * the name in UTF-8 and the value. The table of a document is sorted by the
+ * names, so a field is found by a binary search; the table of an array is in
+ * the order of the elements, whose names are empty. Embedded documents and
+ * arrays are returned as views of the same buffer.
+ *
+ * @author ycavatars
+ */
+public final class Document {
+
+  static final int HEADER_SIZE = 8;
+
+  private final ByteBuffer buffer;
+
+  private final boolean array;
+
+  private Document(ByteBuffer buffer, boolean array) {
+    this.buffer = buffer;
+    this.array = array;
+  }
+
+  /**
+   * Returns a view of the document at the position of {@code buffer}. The
+   * bytes are not copied, so they must not change while the view is used.
+   *
+   * @param buffer
+   * @return the document
+   * @throws IllegalArgumentException if the length is out of the buffer
+   */
+  public static Document wrap(ByteBuffer buffer) {
+    return slice(buffer, buffer.position(), false);
+  }
+
+  // a document or an array at the position of buffer
+  static Document wrap(ByteBuffer buffer, boolean array) {
+    return slice(buffer, buffer.position(), array);
+  }
+
+  private static Document slice(ByteBuffer buffer, int offset, boolean array) {
+    int length = buffer.getInt(offset);
+    Preconditions.checkArgument(length >= HEADER_SIZE
+            && offset + length <= buffer.limit(),
+        "bad document length %s at %s", length, offset);
+    ByteBuffer slice = buffer.duplicate();
+    slice.limit(offset + length).position(offset);
+    return new Document(slice.slice(), array);
+  }
+
+  /**
+   * Returns a document which doesn't share the buffer, e.g. to keep an
+   * embedded document without the rest of its parent.
+   */
+  public Document copy() {
+    ByteBuffer copy = ByteBuffer.allocate(length());
+    copy.put(buffer.duplicate()).flip();
+    return new Document(copy, array);
+  }
+
+  /**
+   * Returns a read-only buffer of the encoded document.
+   */
+  public ByteBuffer buffer() {
+    return buffer.asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns the number of bytes of the encoded document.
+   */
+  public int length() {
+    return buffer.limit();
+  }
+
+  /**
+   * Returns the number of fields, or elements of an array.
+   */
+  public int size() {
+    return buffer.getInt(4);
+  }
+
+  public boolean isArray() {
+    return array;
+  }
+
+  // the offset of the field at index of the table
+  private int fieldAt(int index) {
+    return buffer.getInt(buffer.limit() - 4 * (size() - index));
+  }
+
+  /**
+   * Returns the offset of the first field named {@code name}, or -1.
+   */
+  private int find(byte[] name) {
+    int low = 0;
+    int high = size() - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int field = fieldAt(mid);
+      int cmp = compareName(field, name);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else {
+        if (cmp == 0) {
+          found = field;
+        }
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  // compares the name of a field to name as unsigned bytes
+  private int compareName(int field, byte[] name) {
+    int length = buffer.getShort(field + 1);
+    int start = field + 3;
+    for (int i = 0; i < Math.min(length, name.length); i++) {
+      int cmp = (buffer.get(start + i) & 0xff) - (name[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return length - name.length;
+  }
+
+  // the offset of the field named by the segment of the path, or -1
+  private int find(FieldPath path, int segment) {
+    if (!array) {
+      return find(path.names[segment]);
+    }
+    int index = path.indexes[segment];
+    return index >= 0 && index < size() ? fieldAt(index) : -1;
+  }
+
+  // the document which contains the last segment of the path, or null
+  private Document parent(FieldPath path) {
+    Document document = this;
+    for (int i = 0; i < path.length() - 1; i++) {
+      int field = document.find(path, i);
+      if (field < 0) {
+        return null;
+      }
+      FieldType type = document.typeAt(field);
+      if (type != FieldType.DOCUMENT && type != FieldType.ARRAY) {
+        return null;
+      }
+      document = slice(document.buffer, document.valueOffset(field),
+          type == FieldType.ARRAY);
+    }
+    return document;
+  }
+
+  FieldType typeAt(int field) {
+    return FieldType.of(buffer.get(field));
+  }
+
+  private int valueOffset(int field) {
+    return field + 3 + buffer.getShort(field + 1);
+  }
+
+  // the offset after the field
+  int end(int field) {
+    int value = valueOffset(field);
+    FieldType type = typeAt(field);
+    if (type.size >= 0) {
+      return value + type.size;
+    }
+    return value + buffer.getInt(value) + (type == FieldType.STRING ? 4 : 0);
+  }
+
+  Object valueAt(int field) {
+    int value = valueOffset(field);
+    switch (typeAt(field)) {
+      case NULL:
+        return null;
+      case FALSE:
+        return Boolean.FALSE;
+      case TRUE:
+        return Boolean.TRUE;
+      case INT32:
+        return buffer.getInt(value);
+      case INT64:
+        return buffer.getLong(value);
+      case DOUBLE:
+        return buffer.getDouble(value);
+      case STRING:
+        return string(value + 4, buffer.getInt(value));
+      case DOCUMENT:
+        return slice(buffer, value, false);
+      case ARRAY:
+        return slice(buffer, value, true);
+      default:
+        throw new AssertionError(typeAt(field));
+    }
+  }
+
+  private String string(int offset, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(offset);
+    slice.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public boolean contains(String path) {
+    return type(FieldPath.of(path)) != null;
+  }
+
+  /**
+   * Returns the type of the field, or null if there's no such field.
+   */
+  public FieldType type(FieldPath path) {
+    Document parent = parent(path);
+    if (parent == null) {
+      return null;
+    }
+    int field = parent.find(path, path.length() - 1);
+    return field < 0 ? null : parent.typeAt(field);
+  }
+
+  public Object get(String path) {
+    return get(FieldPath.of(path));
+  }
+
+  /**
+   * Decodes the value of the field only. Embedded documents and arrays are
+   * returned as {@link Document}s.
+   *
+   * @param path
+   * @return the value, or null if the value is null or there's no such field
+   */
+  public Object get(FieldPath path) {
+    Document parent = parent(path);
+    if (parent == null) {
+      return null;
+    }
+    int field = parent.find(path, path.length() - 1);
+    return field < 0 ? null : parent.valueAt(field);
+  }
+
+  /**
+   * Returns the numeric value of the field as a double, or null if it's not a
+   * number.
+   */
+  public Double getNumber(FieldPath path) {
+    Object value = get(path);
+    return value instanceof Number ? ((Number) value).doubleValue() : null;
+  }
+
+  /**
+   * Returns the value of a field, or an element of an array, by its position
+   * in the document.
+   */
+  public Object get(int index) {
+    return valueAt(fieldOffset(index));
+  }
+
+  /**
+   * Returns the name of a field by its position in the document.
+   */
+  public String name(int index) {
+    return nameAt(fieldOffset(index));
+  }
+
+  String nameAt(int field) {
+    return string(field + 3, buffer.getShort(field + 1));
+  }
+
+  public FieldType type(int index) {
+    return typeAt(fieldOffset(index));
+  }
+
+  /**
+   * Returns the names of the fields in their order in the document.
+   */
+  public List<String> names() {
+    List<String> names = new ArrayList<>(size());
+    for (int i = 0, field = HEADER_SIZE; i < size(); i++) {
+      names.add(nameAt(field));
+      field = end(field);
+    }
+    return names;
+  }
+
+  /**
+   * Returns the offset of the first field, or the end of the fields. The
+   * fields are walked in order by {@link #end(int)}.
+   */
+  int firstField() {
+    return HEADER_SIZE;
+  }
+
+  // fields are walked from the start, unless the table is in order
+  private int fieldOffset(int index) {
+    Preconditions.checkElementIndex(index, size());
+    if (array) {
+      return fieldAt(index);
+    }
+    int field = firstField();
+    for (int i = 0; i < index; i++) {
+      field = end(field);
+    }
+    return field;
+  }
+
+  @Override public boolean equals(Object o) {
+    return o instanceof Document && array == ((Document) o).array
+        && buffer.equals(((Document) o).buffer);
+  }
+
+  @Override public int hashCode() {
+    return buffer.hashCode();
+  }
+
+  @Override public String toString() {
+    return DocumentJson.toJson(this);
+  }
+}
@@ -0,0 +1,447 @@
+package org.ycavatars.toymongo.core.document;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Preconditions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts documents between JSON and the binary format of {@link Document}
+ * with the streaming API of Jackson, so no tree of the JSON is built on
+ * either side. JSON is only meant for requests and responses; documents are
+ * stored, scanned and filtered in the binary format.
+ *
+ * @author ycavatars
+ */
+public final class DocumentJson {
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private DocumentJson() {
+  }
+
+  /**
+   * Encodes a JSON object.
+   *
+   * @throws IllegalArgumentException if {@code json} isn't an object
+   */
+  public static Document parse(String json) {
+    try (JsonParser parser = FACTORY.createParser(json)) {
+      return read(parser);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("bad document: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Encodes the next JSON object of the parser, and leaves the parser at its
+   * end.
+   *
+   * @param parser at the start of the object, or before it
+   * @return the document
+   * @throws JsonParseException if the next value isn't an object
+   * @throws IOException
+   */
+  public static Document read(JsonParser parser) throws IOException {
+    JsonToken token = parser.getCurrentToken() == null
+        || parser.getCurrentToken() == JsonToken.END_OBJECT
+        || parser.getCurrentToken() == JsonToken.END_ARRAY
+        ? parser.nextToken() : parser.getCurrentToken();
+    if (token != JsonToken.START_OBJECT) {
+      throw new JsonParseException("a document must be an object, not "
+          + token, parser.getCurrentLocation());
+    }
+    Output output = new Output(256);
+    writeDocument(parser, output, false);
+    ByteBuffer buffer = ByteBuffer.wrap(output.bytes, 0, output.size);
+    return Document.wrap(buffer);
+  }
+
+  private static final class Field implements Comparable<Field> {
+    final byte[] name;
+
+    final int offset;
+
+    Field(byte[] name, int offset) {
+      this.name = name;
+      this.offset = offset;
+    }
+
+    @Override public int compareTo(Field o) {
+      for (int i = 0; i < Math.min(name.length, o.name.length); i++) {
+        int cmp = (name[i] & 0xff) - (o.name[i] & 0xff);
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return name.length - o.name.length;
+    }
+  }
+
+  // the parser is at the start of an object or an array
+  private static void writeDocument(JsonParser parser, Output output,
+      boolean array) throws IOException {
+    int start = output.size;
+    output.putInt(0).putInt(0);
+    List<Field> fields = new ArrayList<>();
+    JsonToken end = array ? JsonToken.END_ARRAY : JsonToken.END_OBJECT;
+    JsonToken token;
+    while ((token = parser.nextToken()) != end) {
+      byte[] name = new byte[0];
+      if (!array) {
+        name = parser.getCurrentName().getBytes(StandardCharsets.UTF_8);
+        Preconditions.checkArgument(name.length <= Short.MAX_VALUE,
+            "the name is too long: %s", parser.getCurrentName());
+        token = parser.nextToken();
+      }
+      fields.add(new Field(name, output.size - start));
+      writeField(parser, token, name, output);
+    }
+
+    if (!array) {
+      // stable, so the first of duplicate names is found first
+      Collections.sort(fields);
+    }
+    for (Field field : fields) {
+      output.putInt(field.offset);
+    }
+    output.putInt(start, output.size - start);
+    output.putInt(start + 4, fields.size());
+  }
+
+  private static void writeField(JsonParser parser, JsonToken token,
+      byte[] name, Output output) throws IOException {
+    int typeOffset = output.size;
+    output.put((byte) 0).putShort((short) name.length).put(name);
+    FieldType type;
+    switch (token) {
+      case VALUE_NULL:
+        type = FieldType.NULL;
+        break;
+      case VALUE_FALSE:
+        type = FieldType.FALSE;
+        break;
+      case VALUE_TRUE:
+        type = FieldType.TRUE;
+        break;
+      case VALUE_NUMBER_INT:
+        switch (parser.getNumberType()) {
+          case INT:
+            type = FieldType.INT32;
+            output.putInt(parser.getIntValue());
+            break;
+          case LONG:
+            type = FieldType.INT64;
+            output.putLong(parser.getLongValue());
+            break;
+          default:
+            type = FieldType.DOUBLE;
+            output.putDouble(parser.getDoubleValue());
+        }
+        break;
+      case VALUE_NUMBER_FLOAT:
+        type = FieldType.DOUBLE;
+        output.putDouble(parser.getDoubleValue());
+        break;
+      case VALUE_STRING:
+        type = FieldType.STRING;
+        byte[] bytes = parser.getText().getBytes(StandardCharsets.UTF_8);
+        output.putInt(bytes.length).put(bytes);
+        break;
+      case START_OBJECT:
+        type = FieldType.DOCUMENT;
+        writeDocument(parser, output, false);
+        break;
+      case START_ARRAY:
+        type = FieldType.ARRAY;
+        writeDocument(parser, output, true);
+        break;
+      default:
+        throw new JsonParseException("unexpected " + token,
+            parser.getCurrentLocation());
+    }
+    output.bytes[typeOffset] = type.code();
+  }
+
+  /**
+   * Encodes a document of the values of some paths, e.g. of the fields of an
+   * index key: {@code of([a.b, c], [1, 2])} is {@code {"a":{"b":1},"c":2}}.
+   * A path into a value which is already in the document, e.g. {@code a.b}
+   * after {@code a}, is skipped.
+   *
+   * @param paths  paths without array indexes
+   * @param values the values of the paths
+   * @return the document
+   */
+  public static Document of(List<FieldPath> paths, List<Object> values) {
+    Preconditions.checkArgument(paths.size() == values.size(),
+        "%s paths, %s values", paths.size(), values.size());
+    Map<String, Object> root = new LinkedHashMap<>();
+    for (int i = 0; i < paths.size(); i++) {
+      put(root, paths.get(i), 0, values.get(i));
+    }
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    try {
+      try (JsonGenerator generator = FACTORY.createGenerator(json)) {
+        writeTree(root, generator);
+      }
+      try (JsonParser parser = FACTORY.createParser(json.toByteArray())) {
+        return read(parser);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // a tree of names, whose inner nodes are maps and leaves are values
+  @SuppressWarnings("unchecked")
+  private static void put(Map<String, Object> node, FieldPath path,
+      int depth, Object value) {
+    String name = path.segment(depth);
+    if (depth == path.length() - 1) {
+      node.put(name, value);
+      return;
+    }
+    Object child = node.get(name);
+    if (node.containsKey(name) && !(child instanceof Map)) {
+      return;
+    }
+    if (child == null) {
+      child = new LinkedHashMap<String, Object>();
+      node.put(name, child);
+    }
+    put((Map<String, Object>) child, path, depth + 1, value);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void writeTree(Map<String, Object> node,
+      JsonGenerator generator) throws IOException {
+    generator.writeStartObject();
+    for (Map.Entry<String, Object> entry : node.entrySet()) {
+      generator.writeFieldName(entry.getKey());
+      if (entry.getValue() instanceof Map) {
+        writeTree((Map<String, Object>) entry.getValue(), generator);
+      } else {
+        writeObject(entry.getValue(), generator);
+      }
+    }
+    generator.writeEndObject();
+  }
+
+  private static void writeObject(Object value, JsonGenerator generator)
+      throws IOException {
+    if (value == null) {
+      generator.writeNull();
+    } else if (value instanceof Integer) {
+      generator.writeNumber((Integer) value);
+    } else if (value instanceof Long) {
+      generator.writeNumber((Long) value);
+    } else if (value instanceof Number) {
+      generator.writeNumber(((Number) value).doubleValue());
+    } else if (value instanceof String) {
+      generator.writeString((String) value);
+    } else if (value instanceof Boolean) {
+      generator.writeBoolean((Boolean) value);
+    } else if (value instanceof Document) {
+      write((Document) value, generator);
+    } else {
+      throw new IllegalArgumentException("not a document value: " + value);
+    }
+  }
+
+  public static String toJson(Document document) {
+    StringWriter writer = new StringWriter();
+    try (JsonGenerator generator = FACTORY.createGenerator(writer)) {
+      write(document, generator);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return writer.toString();
+  }
+
+  /**
+   * Writes the document as a JSON object.
+   *
+   * @param document
+   * @param generator
+   * @throws IOException
+   */
+  public static void write(Document document, JsonGenerator generator)
+      throws IOException {
+    writeDocument(document, generator, null, 0);
+  }
+
+  /**
+   * Writes the fields of the projection only, in their order in the document.
+   * A path selects a field of an embedded document, e.g. {@code address.city}
+   * writes {@code {"address": {"city": ...}}}.
+   *
+   * @param document
+   * @param generator
+   * @param projection paths of the fields to write
+   * @throws IOException
+   */
+  public static void write(Document document, JsonGenerator generator,
+      Collection<FieldPath> projection) throws IOException {
+    writeDocument(document, generator, new ArrayList<>(projection), 0);
+  }
+
+  // paths is null to write all fields; depth is the segment of paths to match
+  private static void writeDocument(Document document,
+      JsonGenerator generator, List<FieldPath> paths, int depth)
+      throws IOException {
+    if (document.isArray()) {
+      generator.writeStartArray();
+    } else {
+      generator.writeStartObject();
+    }
+    int field = document.firstField();
+    for (int i = 0; i < document.size(); i++, field = document.end(field)) {
+      List<FieldPath> selected = paths;
+      if (paths != null) {
+        selected = select(document, field, i, paths, depth);
+        if (selected != null && (selected.isEmpty()
+            || !isDocument(document.typeAt(field)))) {
+          continue;
+        }
+      }
+      if (!document.isArray()) {
+        generator.writeFieldName(document.nameAt(field));
+      }
+      writeValue(document, field, generator, selected, depth + 1);
+    }
+    if (document.isArray()) {
+      generator.writeEndArray();
+    } else {
+      generator.writeEndObject();
+    }
+  }
+
+  private static boolean isDocument(FieldType type) {
+    return type == FieldType.DOCUMENT || type == FieldType.ARRAY;
+  }
+
+  // returns the paths which continue into the field, or null for the whole
+  private static List<FieldPath> select(Document document, int field,
+      int index, List<FieldPath> paths, int depth) {
+    List<FieldPath> selected = new ArrayList<>();
+    byte[] name = document.isArray() ? null
+        : document.nameAt(field).getBytes(StandardCharsets.UTF_8);
+    for (FieldPath path : paths) {
+      boolean matches = name == null ? path.indexes[depth] == index
+          : Arrays.equals(path.names[depth], name);
+      if (matches) {
+        if (path.length() == depth + 1) {
+          return null;
+        }
+        selected.add(path);
+      }
+    }
+    return selected;
+  }
+
+  private static void writeValue(Document document, int field,
+      JsonGenerator generator, List<FieldPath> paths, int depth)
+      throws IOException {
+    Object value = document.valueAt(field);
+    switch (document.typeAt(field)) {
+      case NULL:
+        generator.writeNull();
+        break;
+      case FALSE:
+      case TRUE:
+        generator.writeBoolean((Boolean) value);
+        break;
+      case INT32:
+        generator.writeNumber((Integer) value);
+        break;
+      case INT64:
+        generator.writeNumber((Long) value);
+        break;
+      case DOUBLE:
+        generator.writeNumber((Double) value);
+        break;
+      case STRING:
+        generator.writeString((String) value);
+        break;
+      case DOCUMENT:
+      case ARRAY:
+        writeDocument((Document) value, generator, paths, depth);
+        break;
+      default:
+        throw new AssertionError(document.typeAt(field));
+    }
+  }
+
+  /**
+   * A growable big-endian byte array.
+   */
+  private static final class Output {
+    byte[] bytes;
+
+    int size;
+
+    Output(int capacity) {
+      bytes = new byte[capacity];
+    }
+
+    private ByteBuffer reserve(int length) {
+      if (size + length > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(bytes, size, length);
+      size += length;
+      return buffer;
+    }
+
+    Output put(byte b) {
+      reserve(1).put(b);
+      return this;
+    }
+
+    Output put(byte[] b) {
+      reserve(b.length).put(b);
+      return this;
+    }
+
+    Output putShort(short s) {
+      reserve(2).putShort(s);
+      return this;
+    }
+
+    Output putInt(int i) {
+      reserve(4).putInt(i);
+      return this;
+    }
+
+    Output putLong(long l) {
+      reserve(8).putLong(l);
+      return this;
+    }
+
+    Output putDouble(double d) {
+      reserve(8).putDouble(d);
+      return this;
+    }
+
+    void putInt(int offset, int i) {
+      ByteBuffer.wrap(bytes).putInt(offset, i);
+    }
+  }
+}
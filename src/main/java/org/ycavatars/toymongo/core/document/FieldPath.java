@@ -0,0 +1,83 @@
+package org.ycavatars.toymongo.core.document;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A dotted path to a field, e.g. {@code address.city} or {@code tags.0}. The
+ * names are encoded once, so a path can be looked up in many documents, e.g.
+ * during a scan, without encoding them again.
+ *
+ * @author ycavatars
+ */
+public final class FieldPath {
+
+  private final String path;
+
+  final byte[][] names;
+
+  // the array index of each segment, or -1 if it's not a number
+  final int[] indexes;
+
+  private FieldPath(String path) {
+    this.path = path;
+    List<String> segments = Splitter.on('.').splitToList(path);
+    names = new byte[segments.size()][];
+    indexes = new int[segments.size()];
+    for (int i = 0; i < segments.size(); i++) {
+      String segment = segments.get(i);
+      Preconditions.checkArgument(!segment.isEmpty(), "bad path: %s", path);
+      names[i] = segment.getBytes(StandardCharsets.UTF_8);
+      indexes[i] = index(segment);
+    }
+  }
+
+  public static FieldPath of(String path) {
+    return new FieldPath(Preconditions.checkNotNull(path));
+  }
+
+  private static int index(String segment) {
+    if (segment.length() > 9 || !segment.chars().allMatch(Character::isDigit)) {
+      return -1;
+    }
+    return Integer.parseInt(segment);
+  }
+
+  public int length() {
+    return names.length;
+  }
+
+  /**
+   * Returns the name of the segment at {@code index}.
+   */
+  public String segment(int index) {
+    return new String(names[index], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns true if a segment is an index of an array, e.g. {@code tags.0}.
+   */
+  public boolean isPositional() {
+    for (int index : indexes) {
+      if (index >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override public boolean equals(Object o) {
+    return o instanceof FieldPath && path.equals(((FieldPath) o).path);
+  }
+
+  @Override public int hashCode() {
+    return path.hashCode();
+  }
+
+  @Override public String toString() {
+    return path;
+  }
+}
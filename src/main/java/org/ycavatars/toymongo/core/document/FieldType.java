@@ -0,0 +1,48 @@
+package org.ycavatars.toymongo.core.document;
+
+/**
+ * Types of values in a {@link Document}, and the size of their encoding.
+ *
+ * @author ycavatars
+ */
+public enum FieldType {
+  NULL(0),
+  FALSE(0),
+  TRUE(0),
+  INT32(4),
+  INT64(8),
+  DOUBLE(8),
+  /**
+   * The length in bytes (4 bytes) and UTF-8 bytes.
+   */
+  STRING(-1),
+  /**
+   * An embedded document, which is prefixed by its length.
+   */
+  DOCUMENT(-1),
+  /**
+   * An embedded document whose fields have no names.
+   */
+  ARRAY(-1);
+
+  private static final FieldType[] TYPES = values();
+
+  // the size of the value, or -1 if it's prefixed by its length
+  final int size;
+
+  FieldType(int size) {
+    this.size = size;
+  }
+
+  byte code() {
+    return (byte) ordinal();
+  }
+
+  static FieldType of(byte code) {
+    return TYPES[code];
+  }
+
+  public boolean isNumber() {
+    return this == INT32 || this == INT64 || this == DOUBLE;
+  }
+}
@@ -0,0 +1,151 @@
+package org.ycavatars.toymongo.core.document;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+/**
+ * The order of values of different types, which is used by indexes and
+ * sorts: null, numbers, strings, documents, arrays, then booleans. Numbers of
+ * different types are compared by their values.
+ *
+ * @author ycavatars
+ */
+public final class Values {
+
+  /**
+   * Compares two values of a {@link Document}, which may be null.
+   */
+  public static final Comparator<Object> ORDER = Values::compare;
+
+  private Values() {
+  }
+
+  private static int rank(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof Number) {
+      return 1;
+    }
+    if (value instanceof String) {
+      return 2;
+    }
+    if (value instanceof Document) {
+      return ((Document) value).isArray() ? 4 : 3;
+    }
+    if (value instanceof Boolean) {
+      return 5;
+    }
+    throw new IllegalArgumentException("not a document value: " + value);
+  }
+
+  /**
+   * Compares the types of two values only, e.g. every number is less than
+   * every string.
+   */
+  public static int compareTypes(Object a, Object b) {
+    return Integer.compare(rank(a), rank(b));
+  }
+
+  public static int compare(Object a, Object b) {
+    int cmp = Integer.compare(rank(a), rank(b));
+    if (cmp != 0 || a == null) {
+      return cmp;
+    }
+    if (a instanceof Number) {
+      return compareNumbers((Number) a, (Number) b);
+    }
+    if (a instanceof String) {
+      return ((String) a).compareTo((String) b);
+    }
+    if (a instanceof Document) {
+      return ((Document) a).buffer().compareTo(((Document) b).buffer());
+    }
+    return Boolean.compare((Boolean) a, (Boolean) b);
+  }
+
+  private static int compareNumbers(Number a, Number b) {
+    boolean integral = !(a instanceof Double) && !(b instanceof Double);
+    return integral ? Long.compare(a.longValue(), b.longValue())
+        : Double.compare(a.doubleValue(), b.doubleValue());
+  }
+
+  /**
+   * Writes a value of a {@link Document} as its {@link FieldType} and its
+   * encoding, e.g. to spill index keys to a file.
+   *
+   * @see #read(DataInput)
+   */
+  public static void write(Object value, DataOutput out) throws IOException {
+    if (value == null) {
+      out.writeByte(FieldType.NULL.code());
+    } else if (value instanceof Boolean) {
+      out.writeByte(((Boolean) value ? FieldType.TRUE : FieldType.FALSE)
+          .code());
+    } else if (value instanceof Integer) {
+      out.writeByte(FieldType.INT32.code());
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(FieldType.INT64.code());
+      out.writeLong((Long) value);
+    } else if (value instanceof Number) {
+      out.writeByte(FieldType.DOUBLE.code());
+      out.writeDouble(((Number) value).doubleValue());
+    } else if (value instanceof String) {
+      byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+      out.writeByte(FieldType.STRING.code());
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    } else if (value instanceof Document) {
+      Document document = (Document) value;
+      ByteBuffer buffer = document.buffer();
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      out.writeByte((document.isArray() ? FieldType.ARRAY
+          : FieldType.DOCUMENT).code());
+      out.write(bytes);
+    } else {
+      throw new IllegalArgumentException("not a document value: " + value);
+    }
+  }
+
+  /**
+   * Reads a value written by {@link #write(Object, DataOutput)}.
+   */
+  public static Object read(DataInput in) throws IOException {
+    FieldType type = FieldType.of(in.readByte());
+    switch (type) {
+      case NULL:
+        return null;
+      case FALSE:
+        return Boolean.FALSE;
+      case TRUE:
+        return Boolean.TRUE;
+      case INT32:
+        return in.readInt();
+      case INT64:
+        return in.readLong();
+      case DOUBLE:
+        return in.readDouble();
+      case STRING:
+        byte[] string = new byte[in.readInt()];
+        in.readFully(string);
+        return new String(string, StandardCharsets.UTF_8);
+      case DOCUMENT:
+      case ARRAY:
+        // the encoding starts with its length
+        int length = in.readInt();
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length);
+        in.readFully(buffer.array(), 4, length - 4);
+        buffer.rewind();
+        return Document.wrap(buffer, type == FieldType.ARRAY);
+      default:
+        throw new AssertionError(type);
+    }
+  }
+}
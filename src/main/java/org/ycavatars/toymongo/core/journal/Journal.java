@@ -0,0 +1,400 @@
+package org.ycavatars.toymongo.core.journal;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of {@link JournalEntry}s, written before the extents
+ * they describe, so those can be forced lazily and rebuilt by
+ * {@link #replay(JournalVisitor)} after a crash.
+ * <p>
+ * Writers don't force the file themselves. A commit thread writes every
+ * pending entry at once and forces the file once, i.e. concurrent writers
+ * share a single flush. The commit interval makes the first pending entry
+ * wait for more writers, which only pays off if forcing is slow. An entry is
+ * durable when its future completes.
+ * <p>
+ * Each entry is framed by its length and its CRC32. A torn write at the end
+ * of the file is truncated when the journal is opened.
+ *
+ * @author ycavatars
+ */
+public class Journal implements Closeable {
+
+  /**
+   * Entries appended while the last batch is forced already share the next
+   * flush, so writers don't wait any longer by default.
+   */
+  public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 0;
+
+  static final int FRAME_HEADER_SIZE = 8;
+
+  /**
+   * Pending entries of this many bytes are committed without waiting for the
+   * rest of the commit interval.
+   */
+  static final int MAX_BATCH_SIZE = 4 * 1024 * 1024;
+
+  private final Path file;
+
+  private final FileChannel channel;
+
+  private final long commitIntervalNanos;
+
+  private final Thread committer;
+
+  private final Object lock = new Object();
+
+  // guarded by lock
+  private List<ByteBuffer> pendingFrames = new ArrayList<>();
+
+  private List<CompletableFuture<Void>> pendingFutures = new ArrayList<>();
+
+  private int pendingSize;
+
+  private boolean writing;
+
+  private boolean closed;
+
+  private IOException failure;
+
+  private long position;
+
+  // the end of the forced entries
+  private volatile long durablePosition;
+
+  private volatile long syncCount;
+
+  /**
+   * Opens the journal with {@link #DEFAULT_COMMIT_INTERVAL_MILLIS}.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public Journal(Path file) throws IOException {
+    this(file, DEFAULT_COMMIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Opens or creates the journal.
+   *
+   * @param file           the journal file
+   * @param commitInterval how long the first pending entry waits for others;
+   *                       0 only batches entries appended during the last
+   *                       flush
+   * @param unit
+   * @throws IOException
+   */
+  public Journal(Path file, long commitInterval, TimeUnit unit)
+      throws IOException {
+    Preconditions.checkArgument(commitInterval >= 0, "commitInterval: %s",
+        commitInterval);
+    this.file = Preconditions.checkNotNull(file);
+    this.commitIntervalNanos = unit.toNanos(commitInterval);
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      position = readFrames(channel.size(), entry -> {
+      });
+      if (position < channel.size()) {
+        // a torn write
+        channel.truncate(position);
+        channel.force(false);
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    durablePosition = position;
+    committer = new Thread(this::commitLoop, "journal-commit " + file);
+    committer.setDaemon(true);
+    committer.start();
+  }
+
+  /**
+   * Appends an entry, and returns immediately.
+   *
+   * @param entry
+   * @return a future which completes when the entry is durable, or completes
+   * exceptionally with the {@link IOException} of the write
+   */
+  public CompletableFuture<Void> append(JournalEntry entry) {
+    return append(Collections.singletonList(entry));
+  }
+
+  /**
+   * Appends entries next to each other, e.g. a record and its index keys.
+   *
+   * @param entries
+   * @return a future which completes when all entries are durable
+   */
+  public CompletableFuture<Void> append(List<JournalEntry> entries) {
+    List<ByteBuffer> frames = new ArrayList<>(entries.size());
+    int size = 0;
+    for (JournalEntry entry : entries) {
+      ByteBuffer frame = frame(entry.encode());
+      frames.add(frame);
+      size += frame.remaining();
+    }
+
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    synchronized (lock) {
+      Preconditions.checkState(!closed, "the journal is closed");
+      if (failure != null) {
+        future.completeExceptionally(failure);
+        return future;
+      }
+      pendingFrames.addAll(frames);
+      pendingFutures.add(future);
+      pendingSize += size;
+      lock.notifyAll();
+    }
+    return future;
+  }
+
+  /**
+   * Appends entries and waits until they're durable.
+   *
+   * @param entries
+   * @throws IOException if the journal can't be written
+   */
+  public void commit(JournalEntry... entries) throws IOException {
+    await(append(Arrays.asList(entries)));
+  }
+
+  /**
+   * Waits until the entries of a future from {@link #append(List)} are
+   * durable.
+   *
+   * @param future
+   * @throws IOException if the journal can't be written
+   */
+  public static void await(CompletableFuture<Void> future) throws IOException {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static ByteBuffer frame(ByteBuffer payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload.duplicate());
+    ByteBuffer frame =
+        ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.remaining());
+    frame.putInt(payload.remaining()).putInt((int) crc.getValue())
+        .put(payload);
+    frame.flip();
+    return frame;
+  }
+
+  private void commitLoop() {
+    while (true) {
+      List<ByteBuffer> frames;
+      List<CompletableFuture<Void>> futures;
+      synchronized (lock) {
+        try {
+          while (pendingFrames.isEmpty() && !closed) {
+            lock.wait();
+          }
+          if (pendingFrames.isEmpty()) {
+            return;
+          }
+          long deadline = System.nanoTime() + commitIntervalNanos;
+          long remaining;
+          while (!closed && pendingSize < MAX_BATCH_SIZE
+              && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+          }
+        } catch (InterruptedException e) {
+          failure = new InterruptedIOException("the commit thread stopped");
+          fail(pendingFutures, failure);
+          return;
+        }
+        frames = pendingFrames;
+        futures = pendingFutures;
+        pendingFrames = new ArrayList<>();
+        pendingFutures = new ArrayList<>();
+        pendingSize = 0;
+        writing = true;
+      }
+
+      IOException error = null;
+      try {
+        write(frames);
+      } catch (IOException e) {
+        error = e;
+      }
+
+      synchronized (lock) {
+        writing = false;
+        if (error != null) {
+          // the end of the file is unknown, so no more entries are accepted
+          failure = error;
+          fail(pendingFutures, error);
+          pendingFrames.clear();
+          pendingFutures.clear();
+        }
+        lock.notifyAll();
+      }
+      if (error == null) {
+        futures.forEach(future -> future.complete(null));
+      } else {
+        fail(futures, error);
+      }
+    }
+  }
+
+  private void write(List<ByteBuffer> frames) throws IOException {
+    long end = position;
+    ByteBuffer[] buffers = frames.toArray(new ByteBuffer[frames.size()]);
+    channel.position(end);
+    int offset = 0;
+    while (offset < buffers.length) {
+      end += channel.write(buffers, offset, buffers.length - offset);
+      while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+        offset++;
+      }
+    }
+    channel.force(false);
+    position = end;
+    durablePosition = end;
+    syncCount++;
+  }
+
+  private static void fail(List<CompletableFuture<Void>> futures,
+      IOException error) {
+    futures.forEach(future -> future.completeExceptionally(error));
+  }
+
+  /**
+   * Visits the durable entries in the order they were appended, e.g. to
+   * recover extents and indexes when the database starts.
+   *
+   * @param visitor
+   * @return the number of entries
+   * @throws IOException
+   */
+  public int replay(JournalVisitor visitor) throws IOException {
+    int[] count = new int[1];
+    readFrames(durablePosition, entry -> {
+      visitor.visit(entry);
+      count[0]++;
+    });
+    return count[0];
+  }
+
+  // returns the end of the last valid frame before end
+  private long readFrames(long end, JournalVisitor visitor)
+      throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+    long offset = 0;
+    while (offset + FRAME_HEADER_SIZE <= end) {
+      header.clear();
+      readFully(header, offset);
+      int length = header.getInt(0);
+      if (length <= 0 || offset + FRAME_HEADER_SIZE + length > end) {
+        break;
+      }
+      ByteBuffer payload = ByteBuffer.allocate(length);
+      readFully(payload, offset + FRAME_HEADER_SIZE);
+      payload.flip();
+      CRC32 crc = new CRC32();
+      crc.update(payload.duplicate());
+      if ((int) crc.getValue() != header.getInt(4)) {
+        break;
+      }
+      visitor.visit(JournalEntry.decode(payload));
+      offset += FRAME_HEADER_SIZE + length;
+    }
+    return offset;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException(file + " at " + position);
+      }
+    }
+  }
+
+  /**
+   * Discards all entries, once the extents and indexes they describe are
+   * durable without the journal. Writers must be blocked meanwhile, otherwise
+   * entries appended concurrently may be lost.
+   *
+   * @throws IOException
+   */
+  public void truncate() throws IOException {
+    synchronized (lock) {
+      try {
+        while (writing || !pendingFrames.isEmpty()) {
+          lock.wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      channel.truncate(0);
+      channel.force(false);
+      position = 0;
+      durablePosition = 0;
+    }
+  }
+
+  /**
+   * Returns the size of the durable entries in bytes.
+   */
+  public long size() {
+    return durablePosition;
+  }
+
+  @VisibleForTesting long syncCount() {
+    return syncCount;
+  }
+
+  /**
+   * Commits pending entries and closes the file.
+   */
+  @Override public void close() throws IOException {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      lock.notifyAll();
+    }
+    try {
+      committer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    channel.close();
+  }
+}
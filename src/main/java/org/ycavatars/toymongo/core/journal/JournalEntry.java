@@ -0,0 +1,112 @@
+package org.ycavatars.toymongo.core.journal;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An operation in the {@link Journal}: a record inserted to or deleted from a
+ * collection. Indexes are not journaled, since they're rebuilt from the
+ * records when a database is opened.
+ * <p>
+ * Encoded as the type (1 byte), the length of the namespace (2 bytes), the
+ * namespace in UTF-8, the packed record id (8 bytes), the length of the data
+ * (4 bytes) and the data.
+ *
+ * @author ycavatars
+ */
+public final class JournalEntry {
+
+  public enum Type {
+    /**
+     * The data is the record inserted to the collection.
+     */
+    INSERT,
+    /**
+     * The record is deleted from the collection, and the data is empty.
+     */
+    DELETE
+  }
+
+  private final Type type;
+
+  private final String namespace;
+
+  private final RecordId recordId;
+
+  private final ByteBuffer data;
+
+  private JournalEntry(Type type, String namespace, RecordId recordId,
+      ByteBuffer data) {
+    this.type = type;
+    this.namespace = Preconditions.checkNotNull(namespace);
+    this.recordId = Preconditions.checkNotNull(recordId);
+    this.data = data.asReadOnlyBuffer();
+  }
+
+  public static JournalEntry insert(String collection, RecordId recordId,
+      ByteBuffer record) {
+    return new JournalEntry(Type.INSERT, collection, recordId, record);
+  }
+
+  public static JournalEntry delete(String collection, RecordId recordId) {
+    return new JournalEntry(Type.DELETE, collection, recordId,
+        ByteBuffer.allocate(0));
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Returns the name of the collection.
+   */
+  public String getNamespace() {
+    return namespace;
+  }
+
+  public RecordId getRecordId() {
+    return recordId;
+  }
+
+  /**
+   * Returns a new read-only view of the record.
+   */
+  public ByteBuffer getData() {
+    return data.duplicate();
+  }
+
+  ByteBuffer encode() {
+    byte[] name = namespace.getBytes(StandardCharsets.UTF_8);
+    Preconditions.checkArgument(name.length <= Short.MAX_VALUE,
+        "namespace is too long: %s", namespace);
+    ByteBuffer buffer = ByteBuffer.allocate(
+        1 + 2 + name.length + 8 + 4 + data.remaining());
+    buffer.put((byte) type.ordinal())
+        .putShort((short) name.length)
+        .put(name)
+        .putLong(recordId.toLong())
+        .putInt(data.remaining())
+        .put(data.duplicate());
+    buffer.flip();
+    return buffer;
+  }
+
+  static JournalEntry decode(ByteBuffer buffer) {
+    Type type = Type.values()[buffer.get()];
+    byte[] name = new byte[buffer.getShort()];
+    buffer.get(name);
+    RecordId recordId = RecordId.fromLong(buffer.getLong());
+    byte[] data = new byte[buffer.getInt()];
+    buffer.get(data);
+    return new JournalEntry(type, new String(name, StandardCharsets.UTF_8),
+        recordId, ByteBuffer.wrap(data));
+  }
+
+  @Override public String toString() {
+    return type + " " + namespace + " " + recordId + " ("
+        + data.remaining() + " bytes)";
+  }
+}
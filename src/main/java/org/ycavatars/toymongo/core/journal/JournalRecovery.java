@@ -0,0 +1,61 @@
+package org.ycavatars.toymongo.core.journal;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.storage.ExtentStore;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replays a {@link Journal} into the extents of collections. Every collection
+ * of the journal must be registered before {@link #recover(Journal)}.
+ * <p>
+ * Redoing an entry is idempotent, so it doesn't matter whether the original
+ * write reached the extent before the crash.
+ *
+ * @author ycavatars
+ */
+public class JournalRecovery implements JournalVisitor {
+
+  private final Map<String, ExtentStore> collections = new HashMap<>();
+
+  public JournalRecovery collection(String name, ExtentStore store) {
+    collections.put(Preconditions.checkNotNull(name),
+        Preconditions.checkNotNull(store));
+    return this;
+  }
+
+  /**
+   * Redoes every durable entry of the journal.
+   *
+   * @param journal
+   * @return the number of entries
+   * @throws IllegalStateException if a collection of the journal is not
+   *                               registered
+   * @throws IOException
+   */
+  public int recover(Journal journal) throws IOException {
+    return journal.replay(this);
+  }
+
+  @Override public void visit(JournalEntry entry) throws IOException {
+    switch (entry.getType()) {
+      case INSERT:
+        collection(entry).redoInsert(entry.getRecordId(), entry.getData());
+        break;
+      case DELETE:
+        collection(entry).redoDelete(entry.getRecordId());
+        break;
+      default:
+        throw new AssertionError(entry.getType());
+    }
+  }
+
+  private ExtentStore collection(JournalEntry entry) {
+    ExtentStore store = collections.get(entry.getNamespace());
+    Preconditions.checkState(store != null, "unknown collection: %s",
+        entry.getNamespace());
+    return store;
+  }
+}
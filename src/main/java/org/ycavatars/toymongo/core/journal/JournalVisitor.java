@@ -0,0 +1,14 @@
+package org.ycavatars.toymongo.core.journal;
+
+import java.io.IOException;
+
+/**
+ * Receives entries of a {@link Journal} in the order they were appended.
+ *
+ * @author ycavatars
+ */
+@FunctionalInterface
+public interface JournalVisitor {
+
+  void visit(JournalEntry entry) throws IOException;
+}
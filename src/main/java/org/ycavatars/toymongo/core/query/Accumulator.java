@@ -0,0 +1,257 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.document.Values;
+
+import java.util.Optional;
+
+/**
+ * A field of the documents of a {@code $group} stage, e.g.
+ * {@code {"total": {"$sum": "$amount"}}}, which is computed from the
+ * documents of each group. The operand is a {@code "$path"} of the input
+ * documents, or a constant, e.g. {@code {"$sum": 1}} counts the documents.
+ * <p>
+ * The state of a group has {@link #SLOTS} values per accumulator, which are
+ * plain document values, so a partial state can be spilled to a file and
+ * merged with the state of the same group later.
+ *
+ * @author ycavatars
+ */
+final class Accumulator {
+
+  /**
+   * The number of values of the state of an accumulator.
+   */
+  static final int SLOTS = 2;
+
+  enum Operator {
+    /**
+     * The sum of the numbers, which are integral until a double is added or
+     * the sum overflows. Other values are ignored.
+     */
+    SUM,
+    /**
+     * The average of the numbers, or null if there's none.
+     */
+    AVG,
+    /**
+     * The lowest value which is not null.
+     */
+    MIN,
+    /**
+     * The highest value which is not null.
+     */
+    MAX,
+    /**
+     * The number of documents; the operand is ignored.
+     */
+    COUNT,
+    /**
+     * The value of the first document.
+     */
+    FIRST,
+    /**
+     * The value of the last document.
+     */
+    LAST
+  }
+
+  private final String name;
+
+  private final Operator operator;
+
+  // null if the operand is a constant
+  private final FieldPath path;
+
+  private final Object constant;
+
+  private Accumulator(String name, Operator operator, FieldPath path,
+      Object constant) {
+    this.name = name;
+    this.operator = operator;
+    this.path = path;
+    this.constant = constant;
+  }
+
+  /**
+   * @param name the name of the field, which is not dotted
+   * @param spec a document of an operator and its operand, e.g.
+   *             {@code {"$avg": "$age"}}
+   * @return the accumulator
+   * @throws IllegalArgumentException if the operator is not supported
+   */
+  static Accumulator of(String name, Object spec) {
+    Preconditions.checkArgument(!name.contains(".") && !name.startsWith("$"),
+        "bad field name: %s", name);
+    Preconditions.checkArgument(spec instanceof Document
+            && !((Document) spec).isArray() && ((Document) spec).size() == 1,
+        "%s must be a document of one operator: %s", name, spec);
+    Document document = (Document) spec;
+    String operator = document.name(0);
+    Preconditions.checkArgument(operator.startsWith("$"),
+        "not an accumulator: %s", operator);
+    Operator parsed;
+    try {
+      parsed = Operator.valueOf(operator.substring(1).toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("unsupported accumulator: "
+          + operator);
+    }
+    Object operand = document.get(0);
+    if (operand instanceof Document) {
+      operand = ((Document) operand).copy();
+    }
+    return new Accumulator(name, parsed, path(operand).orElse(null), operand);
+  }
+
+  /**
+   * Returns the path of an operand like {@code "$address.city"}.
+   */
+  static Optional<FieldPath> path(Object operand) {
+    if (operand instanceof String && ((String) operand).startsWith("$")) {
+      return Optional.of(FieldPath.of(((String) operand).substring(1)));
+    }
+    return Optional.empty();
+  }
+
+  String getName() {
+    return name;
+  }
+
+  Operator getOperator() {
+    return operator;
+  }
+
+  /**
+   * Adds a document to the state of its group, which starts at
+   * {@code offset}.
+   */
+  void add(Object[] state, int offset, Document document) {
+    Object value = path != null ? document.get(path) : constant;
+    if (value instanceof Document) {
+      // the state must not keep the buffer of the input alive
+      value = ((Document) value).copy();
+    }
+    switch (operator) {
+      case SUM:
+        if (value instanceof Number) {
+          state[offset] = sum((Number) state[offset], (Number) value);
+        }
+        break;
+      case AVG:
+        if (value instanceof Number) {
+          state[offset] = sum((Number) state[offset],
+              ((Number) value).doubleValue());
+          state[offset + 1] = sum((Number) state[offset + 1], 1L);
+        }
+        break;
+      case MIN:
+      case MAX:
+        extreme(state, offset, value);
+        break;
+      case COUNT:
+        state[offset] = sum((Number) state[offset], 1L);
+        break;
+      case FIRST:
+        if (state[offset + 1] == null) {
+          state[offset] = value;
+          state[offset + 1] = Boolean.TRUE;
+        }
+        break;
+      case LAST:
+        state[offset] = value;
+        state[offset + 1] = Boolean.TRUE;
+        break;
+      default:
+        throw new AssertionError(operator);
+    }
+  }
+
+  /**
+   * Merges the partial state of a group into its state, both at
+   * {@code offset}. The other state is of later documents.
+   */
+  void merge(Object[] state, Object[] other, int offset) {
+    switch (operator) {
+      case SUM:
+      case COUNT:
+        if (other[offset] != null) {
+          state[offset] = sum((Number) state[offset], (Number) other[offset]);
+        }
+        break;
+      case AVG:
+        if (other[offset] != null) {
+          state[offset] = sum((Number) state[offset], (Number) other[offset]);
+          state[offset + 1] = sum((Number) state[offset + 1],
+              (Number) other[offset + 1]);
+        }
+        break;
+      case MIN:
+      case MAX:
+        extreme(state, offset, other[offset]);
+        break;
+      case FIRST:
+        if (state[offset + 1] == null && other[offset + 1] != null) {
+          state[offset] = other[offset];
+          state[offset + 1] = Boolean.TRUE;
+        }
+        break;
+      case LAST:
+        if (other[offset + 1] != null) {
+          state[offset] = other[offset];
+          state[offset + 1] = Boolean.TRUE;
+        }
+        break;
+      default:
+        throw new AssertionError(operator);
+    }
+  }
+
+  /**
+   * Returns the value of the field of a group.
+   */
+  Object result(Object[] state, int offset) {
+    switch (operator) {
+      case SUM:
+      case COUNT:
+        return state[offset] == null ? 0 : state[offset];
+      case AVG:
+        return state[offset] == null ? null
+            : ((Number) state[offset]).doubleValue()
+            / ((Number) state[offset + 1]).longValue();
+      default:
+        return state[offset];
+    }
+  }
+
+  private void extreme(Object[] state, int offset, Object value) {
+    if (value == null) {
+      return;
+    }
+    if (state[offset] == null) {
+      state[offset] = value;
+      return;
+    }
+    int cmp = Values.compare(value, state[offset]);
+    if (operator == Operator.MIN ? cmp < 0 : cmp > 0) {
+      state[offset] = value;
+    }
+  }
+
+  // an integral sum stays a long until it overflows
+  private static Number sum(Number sum, Number value) {
+    if (sum == null) {
+      return value instanceof Integer ? Long.valueOf(value.longValue()) : value;
+    }
+    if (sum instanceof Double || value instanceof Double) {
+      return sum.doubleValue() + value.doubleValue();
+    }
+    try {
+      return Math.addExact(sum.longValue(), value.longValue());
+    } catch (ArithmeticException e) {
+      return sum.doubleValue() + value.doubleValue();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+
+/**
+ * The position of a query in a collection, which returns the matching
+ * documents batch by batch. A cursor holds no lock or buffer between batches:
+ * it keeps where the next batch starts, i.e. the first record or index key
+ * not returned yet, and the next batch resumes the scan from there. A sorted
+ * cursor is the exception, it keeps its sorted runs until it's closed.
+ * <p>
+ * Batches of a cursor are serialized.
+ *
+ * @author ycavatars
+ */
+public abstract class Cursor implements Closeable {
+
+  protected final DocumentCollection collection;
+
+  protected final Filter filter;
+
+  private final Optional<Collection<FieldPath>> projection;
+
+  private boolean exhausted = false;
+
+  // the documents left before the limit
+  private long remaining = Long.MAX_VALUE;
+
+  private volatile long lastUsedNanos = System.nanoTime();
+
+  protected Cursor(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection) {
+    this.collection = Preconditions.checkNotNull(collection);
+    this.filter = Preconditions.checkNotNull(filter);
+    this.projection = Preconditions.checkNotNull(projection);
+  }
+
+  /**
+   * Opens a cursor of the documents which match the filter, by the cheapest
+   * plan of {@link QueryPlanner}, which is not cached.
+   *
+   * @param collection
+   * @param filter
+   * @param projection the fields to return, or empty for all of them
+   * @return the cursor, before the first batch
+   */
+  public static Cursor open(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection) {
+    return QueryPlanner.cheapest(QueryPlanner.candidates(collection, filter,
+        projection)).open(collection, filter, projection);
+  }
+
+  /**
+   * Limits the number of documents of all the batches, so no batch looks
+   * further than the limit.
+   *
+   * @param limit the maximum number of documents
+   * @return this cursor
+   */
+  public synchronized Cursor limit(long limit) {
+    Preconditions.checkArgument(limit >= 0, "limit: %s", limit);
+    remaining = limit;
+    exhausted |= limit == 0;
+    return this;
+  }
+
+  /**
+   * Visits the next batch of documents.
+   *
+   * @param batchSize the maximum number of documents
+   * @param visitor
+   * @return the number of documents visited
+   * @throws IOException
+   */
+  public final synchronized int next(int batchSize, DocumentVisitor visitor)
+      throws IOException {
+    Preconditions.checkArgument(batchSize > 0, "batchSize: %s", batchSize);
+    lastUsedNanos = System.nanoTime();
+    if (exhausted) {
+      return 0;
+    }
+    int[] count = {0};
+    exhausted = !advance((int) Math.min(batchSize, remaining),
+        (id, document) -> {
+          count[0]++;
+          visitor.visit(id, document);
+        });
+    remaining -= count[0];
+    exhausted |= remaining == 0;
+    if (exhausted) {
+      close();
+    }
+    lastUsedNanos = System.nanoTime();
+    return count[0];
+  }
+
+  /**
+   * Visits up to {@code batchSize} matching documents from the position of
+   * the cursor, and moves the position after them.
+   *
+   * @return false if there are no more documents
+   */
+  abstract boolean advance(int batchSize, DocumentVisitor visitor)
+      throws IOException;
+
+  /**
+   * Returns true if every document has been returned, so the cursor can be
+   * dropped.
+   */
+  public synchronized boolean isExhausted() {
+    return exhausted;
+  }
+
+  /**
+   * Releases what the cursor keeps between batches, e.g. the files of a sort.
+   * A cursor is closed once it's exhausted.
+   */
+  @Override public void close() throws IOException {
+  }
+
+  public DocumentCollection getCollection() {
+    return collection;
+  }
+
+  public Optional<Collection<FieldPath>> getProjection() {
+    return projection.map(Collections::unmodifiableCollection);
+  }
+
+  long lastUsedNanos() {
+    return lastUsedNanos;
+  }
+}
@@ -0,0 +1,117 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the open cursors of clients between batches, by ids which can't be
+ * guessed. A cursor which isn't used for the timeout is dropped by a
+ * background thread, so cursors abandoned by clients are reclaimed. Dropped
+ * cursors are closed.
+ *
+ * @author ycavatars
+ */
+public class CursorManager implements Closeable {
+
+  public static final long DEFAULT_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+  private final ConcurrentMap<String, Cursor> cursors =
+      new ConcurrentHashMap<>();
+
+  private final long timeoutNanos;
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final ScheduledExecutorService reaper;
+
+  /**
+   * @param timeout how long a cursor can be idle
+   * @param unit
+   */
+  public CursorManager(long timeout, TimeUnit unit) {
+    Preconditions.checkArgument(timeout > 0, "timeout: %s", timeout);
+    this.timeoutNanos = unit.toNanos(timeout);
+    this.reaper = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("cursor-reaper")
+            .setDaemon(true).build());
+    long period = Math.max(1, timeoutNanos / 2);
+    reaper.scheduleWithFixedDelay(this::reap, period, period,
+        TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Keeps a cursor until it's removed or times out.
+   *
+   * @return the id of the cursor
+   */
+  public String register(Cursor cursor) {
+    Preconditions.checkNotNull(cursor);
+    String id;
+    do {
+      id = Long.toHexString(random.nextLong());
+    } while (cursors.putIfAbsent(id, cursor) != null);
+    return id;
+  }
+
+  public Optional<Cursor> get(String id) {
+    return Optional.ofNullable(cursors.get(id));
+  }
+
+  public void remove(String id) {
+    Cursor cursor = cursors.remove(id);
+    if (cursor != null) {
+      close(cursor);
+    }
+  }
+
+  public int size() {
+    return cursors.size();
+  }
+
+  /**
+   * Drops the cursors idle for longer than the timeout.
+   *
+   * @return the number of cursors dropped
+   */
+  @VisibleForTesting int reap() {
+    long now = System.nanoTime();
+    int reaped = 0;
+    Iterator<Map.Entry<String, Cursor>> it = cursors.entrySet().iterator();
+    while (it.hasNext()) {
+      Cursor cursor = it.next().getValue();
+      if (now - cursor.lastUsedNanos() > timeoutNanos) {
+        it.remove();
+        close(cursor);
+        reaped++;
+      }
+    }
+    return reaped;
+  }
+
+  private static void close(Cursor cursor) {
+    try {
+      cursor.close();
+    } catch (IOException e) {
+      // the cursor is dropped anyway
+    }
+  }
+
+  @Override public void close() {
+    reaper.shutdownNow();
+    cursors.values().forEach(CursorManager::close);
+    cursors.clear();
+  }
+}
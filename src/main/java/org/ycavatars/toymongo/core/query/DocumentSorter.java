@@ -0,0 +1,66 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Sorts the documents of cursors within a memory budget per sort. A sort with
+ * a limit keeps the first documents in a heap; otherwise the documents are
+ * sorted in runs which are spilled to files, and merged as they're returned.
+ *
+ * @author ycavatars
+ */
+public class DocumentSorter {
+
+  /**
+   * The memory of the documents of a sort before they're spilled.
+   */
+  public static final long DEFAULT_MEMORY = 32 * 1024 * 1024;
+
+  private final Path directory;
+
+  private final long memory;
+
+  /**
+   * @param directory where the runs are written
+   * @param memory    the maximum estimated size of the documents of a sort
+   *                  in memory, in bytes
+   */
+  public DocumentSorter(Path directory, long memory) {
+    Preconditions.checkArgument(memory > 0, "memory: %s", memory);
+    this.directory = Preconditions.checkNotNull(directory);
+    this.memory = memory;
+  }
+
+  /**
+   * Returns a cursor of the documents of {@code input} in {@code order}. The
+   * first batch reads every document of the input, which must not have a
+   * projection, so the sort fields are present.
+   *
+   * @param input      a cursor before its first batch
+   * @param order
+   * @param limit      the number of documents returned, or 0 for all of them;
+   *                   the cursor has to be limited to it too
+   * @param projection the fields to return, or empty for all of them
+   * @return the cursor
+   */
+  public Cursor sort(Cursor input, SortOrder order, long limit,
+      Optional<Collection<FieldPath>> projection) {
+    Preconditions.checkArgument(!input.getProjection().isPresent(),
+        "the input of a sort has a projection");
+    Preconditions.checkArgument(limit >= 0, "limit: %s", limit);
+    return new SortCursor(this, input, order, limit, projection);
+  }
+
+  Path getDirectory() {
+    return directory;
+  }
+
+  long getMemory() {
+    return memory;
+  }
+}
@@ -0,0 +1,21 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.IOException;
+
+/**
+ * Receives the documents of a {@link Cursor}.
+ *
+ * @author ycavatars
+ */
+@FunctionalInterface
+public interface DocumentVisitor {
+
+  /**
+   * @param id       the id of the record
+   * @param document which is only valid during the call
+   */
+  void visit(RecordId id, Document document) throws IOException;
+}
@@ -0,0 +1,44 @@
+package org.ycavatars.toymongo.core.query;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The plan chosen for a filter, and every candidate plan with its estimated
+ * cost.
+ *
+ * @author ycavatars
+ */
+public final class Explanation {
+
+  private final Plan plan;
+
+  private final boolean cached;
+
+  private final List<Plan> candidates;
+
+  Explanation(Plan plan, boolean cached, List<Plan> candidates) {
+    this.plan = plan;
+    this.cached = cached;
+    this.candidates = Collections.unmodifiableList(candidates);
+  }
+
+  public Plan getPlan() {
+    return plan;
+  }
+
+  /**
+   * Returns true if the plan was cached for the shape of the filter.
+   */
+  public boolean isCached() {
+    return cached;
+  }
+
+  public List<Plan> getCandidates() {
+    return candidates;
+  }
+
+  @Override public String toString() {
+    return plan + (cached ? " (cached)" : "") + " of " + candidates;
+  }
+}
@@ -0,0 +1,89 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * A conjunction of {@link Predicate}s on fields, e.g.
+ * {@code {"address.city": "London", "age": {"$gte": 30}}}. A null value
+ * matches a missing field too.
+ *
+ * @author ycavatars
+ */
+public final class Filter {
+
+  private static final Filter ALL = new Filter(Collections.emptyList());
+
+  private final List<Predicate> predicates;
+
+  private Filter(List<Predicate> predicates) {
+    this.predicates = predicates;
+  }
+
+  /**
+   * Returns a filter which matches every document.
+   */
+  public static Filter all() {
+    return ALL;
+  }
+
+  /**
+   * @param filter a document of dotted paths and their conditions
+   * @return the filter
+   * @throws IllegalArgumentException if an operator is not supported
+   */
+  public static Filter of(Document filter) {
+    List<Predicate> predicates = new ArrayList<>();
+    for (int i = 0; i < filter.size(); i++) {
+      String name = filter.name(i);
+      Preconditions.checkArgument(!name.startsWith("$"),
+          "unsupported operator: %s", name);
+      predicates.add(Predicate.parse(FieldPath.of(name), filter.get(i)));
+    }
+    return new Filter(Collections.unmodifiableList(predicates));
+  }
+
+  /**
+   * Returns the predicates, in the order of the filter.
+   */
+  public List<Predicate> predicates() {
+    return predicates;
+  }
+
+  /**
+   * Returns the first predicate on {@code path}.
+   */
+  public Optional<Predicate> predicate(FieldPath path) {
+    return predicates.stream().filter(p -> p.getPath().equals(path))
+        .findFirst();
+  }
+
+  public boolean matches(Document document) {
+    for (Predicate predicate : predicates) {
+      if (!predicate.matches(document)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the shape of the filter, i.e. the shapes of its predicates in
+   * order, which is the same for filters which differ in values only.
+   */
+  public String shape() {
+    return predicates.stream().map(Predicate::shape).sorted()
+        .collect(Collectors.joining(","));
+  }
+
+  @Override public String toString() {
+    return predicates.toString();
+  }
+}
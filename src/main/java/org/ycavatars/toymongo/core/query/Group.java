@@ -0,0 +1,219 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.document.Values;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The specification of a {@code $group} stage, e.g.
+ * {@code {"_id": "$city", "total": {"$sum": "$amount"}}}: documents with the
+ * same {@code _id} are in the same group, and each group is returned as a
+ * document of its {@code _id} and its {@link Accumulator}s. The {@code _id}
+ * is a {@code "$path"}, a constant, e.g. null for a single group, or a
+ * document of them, e.g. {@code {"city": "$city", "year": "$year"}}.
+ * <p>
+ * The key of a group is the encoding of the values of its {@code _id}, and
+ * integral numbers are encoded as longs, so values which are equal by
+ * {@link Values#compare(Object, Object)} have equal keys.
+ *
+ * @author ycavatars
+ */
+final class Group {
+
+  private static final FieldPath ID = FieldPath.of("_id");
+
+  private static final HashFunction HASH = Hashing.murmur3_32();
+
+  // the names of the fields of a document _id, or null
+  private final List<FieldPath> idNames;
+
+  // the paths of the values of the _id, or null for a constant
+  private final FieldPath[] idPaths;
+
+  private final Object[] idConstants;
+
+  private final List<Accumulator> accumulators;
+
+  private final List<FieldPath> fields;
+
+  private Group(List<FieldPath> idNames, FieldPath[] idPaths,
+      Object[] idConstants, List<Accumulator> accumulators) {
+    this.idNames = idNames;
+    this.idPaths = idPaths;
+    this.idConstants = idConstants;
+    this.accumulators = accumulators;
+    List<FieldPath> fields = new ArrayList<>(accumulators.size() + 1);
+    fields.add(ID);
+    for (Accumulator accumulator : accumulators) {
+      fields.add(FieldPath.of(accumulator.getName()));
+    }
+    this.fields = Collections.unmodifiableList(fields);
+  }
+
+  /**
+   * @param spec the document of the stage
+   * @return the group
+   * @throws IllegalArgumentException if there's no {@code _id}, or an
+   *                                  accumulator is not supported
+   */
+  static Group of(Document spec) {
+    Preconditions.checkArgument(spec.contains("_id"), "$group has no _id");
+    Object id = spec.get("_id");
+    List<Object> operands = new ArrayList<>();
+    List<FieldPath> idNames = null;
+    if (id instanceof Document && !((Document) id).isArray()) {
+      Document document = (Document) id;
+      Preconditions.checkArgument(document.size() > 0, "empty _id");
+      idNames = new ArrayList<>(document.size());
+      for (int i = 0; i < document.size(); i++) {
+        String name = document.name(i);
+        Preconditions.checkArgument(!name.contains(".")
+            && !name.startsWith("$"), "bad field name of _id: %s", name);
+        idNames.add(FieldPath.of(name));
+        operands.add(document.get(i));
+      }
+    } else {
+      operands.add(id);
+    }
+    FieldPath[] idPaths = new FieldPath[operands.size()];
+    Object[] idConstants = new Object[operands.size()];
+    for (int i = 0; i < operands.size(); i++) {
+      Object operand = operands.get(i);
+      idPaths[i] = Accumulator.path(operand).orElse(null);
+      idConstants[i] = operand instanceof Document
+          ? ((Document) operand).copy() : operand;
+    }
+    List<Accumulator> accumulators = new ArrayList<>();
+    Set<String> names = new HashSet<>();
+    for (int i = 0; i < spec.size(); i++) {
+      String name = spec.name(i);
+      Preconditions.checkArgument(names.add(name), "duplicate field: %s",
+          name);
+      if (!name.equals("_id")) {
+        accumulators.add(Accumulator.of(name, spec.get(i)));
+      }
+    }
+    return new Group(idNames == null ? null
+        : Collections.unmodifiableList(idNames), idPaths, idConstants,
+        Collections.unmodifiableList(accumulators));
+  }
+
+  /**
+   * Returns the number of values of the state of a group.
+   */
+  int slots() {
+    return accumulators.size() * Accumulator.SLOTS;
+  }
+
+  /**
+   * Writes the key of the group of a document to {@code out}, which is
+   * reset first.
+   */
+  void key(Document document, KeyBuffer out) {
+    out.reset();
+    try {
+      for (int i = 0; i < idPaths.length; i++) {
+        Object value = idPaths[i] != null ? document.get(idPaths[i])
+            : idConstants[i];
+        Values.write(normalize(value), out.data);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // an integral number is encoded as a long, whatever its type
+  private static Object normalize(Object value) {
+    if (value instanceof Integer) {
+      return ((Integer) value).longValue();
+    }
+    if (value instanceof Double) {
+      double number = (Double) value;
+      if (number == Math.rint(number) && Math.abs(number) < 0x1p63) {
+        return (long) number;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Returns the hash of a key, whose bits are used both to choose the slot
+   * of the group in a {@link GroupTable} and its partition once it's
+   * spilled.
+   */
+  static int hash(byte[] key, int length) {
+    return HASH.hashBytes(key, 0, length).asInt();
+  }
+
+  /**
+   * Adds a document to the state of its group.
+   */
+  void add(Object[] state, Document document) {
+    for (int i = 0; i < accumulators.size(); i++) {
+      accumulators.get(i).add(state, i * Accumulator.SLOTS, document);
+    }
+  }
+
+  /**
+   * Merges the partial state of a group, of later documents, into its
+   * state.
+   */
+  void merge(Object[] state, Object[] other) {
+    for (int i = 0; i < accumulators.size(); i++) {
+      accumulators.get(i).merge(state, other, i * Accumulator.SLOTS);
+    }
+  }
+
+  /**
+   * Returns the document of a group.
+   */
+  Document document(byte[] key, Object[] state) {
+    List<Object> ids = new ArrayList<>(idPaths.length);
+    try (DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(key))) {
+      for (int i = 0; i < idPaths.length; i++) {
+        ids.add(Values.read(in));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    List<Object> values = new ArrayList<>(fields.size());
+    values.add(idNames == null ? ids.get(0) : DocumentJson.of(idNames, ids));
+    for (int i = 0; i < accumulators.size(); i++) {
+      values.add(accumulators.get(i).result(state, i * Accumulator.SLOTS));
+    }
+    return DocumentJson.of(fields, values);
+  }
+
+  /**
+   * A buffer of the key of a group, which is reused for every document.
+   */
+  static final class KeyBuffer extends ByteArrayOutputStream {
+
+    final DataOutputStream data = new DataOutputStream(this);
+
+    byte[] bytes() {
+      return buf;
+    }
+
+    int length() {
+      return count;
+    }
+  }
+}
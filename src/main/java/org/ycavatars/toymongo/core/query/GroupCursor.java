@@ -0,0 +1,237 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.ycavatars.toymongo.core.document.Values;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+
+/**
+ * A cursor of the groups of the documents of another cursor. The first batch
+ * reads the whole input into a {@link GroupTable}; whenever the table
+ * outgrows the memory of the stage, its partial states are spilled to
+ * {@link #PARTITIONS} partition files by the hash of their keys, and the
+ * table is cleared. A partition has the groups of its hashes only, so the
+ * partitions are merged one at a time, and a partition which still doesn't
+ * fit is partitioned again by the next bits of the hashes.
+ * <p>
+ * Groups are returned in the order they're first seen, unless they were
+ * spilled. The ids of the documents are their positions, since they're not
+ * records.
+ *
+ * @author ycavatars
+ */
+class GroupCursor extends Cursor {
+
+  /**
+   * The number of partitions of a spill.
+   */
+  static final int PARTITIONS = 16;
+
+  // the bits of the hash which choose the partition of a spill
+  private static final int PARTITION_BITS = 4;
+
+  // the number of times a partition can be partitioned again
+  private static final int MAX_LEVEL = Integer.SIZE / PARTITION_BITS - 1;
+
+  // the documents read from the input at a time
+  private static final int INPUT_BATCH_SIZE = 1000;
+
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+  private final Cursor input;
+
+  private final Group group;
+
+  private final Path directory;
+
+  private final long memory;
+
+  private final Group.KeyBuffer key = new Group.KeyBuffer();
+
+  // the groups of the input, or of the partition being returned
+  private GroupTable table;
+
+  // the next group of the table to return
+  private int next;
+
+  private long returned;
+
+  // the spilled partitions which have not been merged yet
+  private final Deque<Partition> partitions = new ArrayDeque<>();
+
+  // the partitions of the current spill, which are being written
+  private Partition[] spilling;
+
+  private int spillLevel;
+
+  GroupCursor(Cursor input, Group group, Path directory, long memory) {
+    super(input.getCollection(), Filter.all(), Optional.empty());
+    this.input = input;
+    this.group = group;
+    this.directory = directory;
+    this.memory = memory;
+  }
+
+  private static final class Partition {
+
+    final Path file;
+
+    // the level of the spill, which chooses the bits of the hashes
+    final int level;
+
+    final DataOutputStream out;
+
+    long groups;
+
+    Partition(Path file, int level) throws IOException {
+      this.file = file;
+      this.level = level;
+      this.out = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(file), IO_BUFFER_SIZE));
+    }
+  }
+
+  @Override boolean advance(int batchSize, DocumentVisitor visitor)
+      throws IOException {
+    try {
+      if (table == null) {
+        aggregate();
+      }
+      int visited = 0;
+      while (visited < batchSize) {
+        if (next < table.size()) {
+          visitor.visit(RecordId.fromLong(returned++),
+              group.document(table.key(next), table.state(next)));
+          next++;
+          visited++;
+        } else if (!partitions.isEmpty()) {
+          merge(partitions.pop());
+        } else {
+          return false;
+        }
+      }
+      return next < table.size() || !partitions.isEmpty();
+    } catch (UncheckedIOException e) {
+      close();
+      throw e.getCause();
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  // groups the whole input
+  private void aggregate() throws IOException {
+    table = new GroupTable(group.slots());
+    while (!input.isExhausted()) {
+      input.next(INPUT_BATCH_SIZE, (id, document) -> {
+        group.key(document, key);
+        int hash = Group.hash(key.bytes(), key.length());
+        group.add(table.state(key.bytes(), key.length(), hash), document);
+        if (table.bytes() >= memory) {
+          spill(0);
+        }
+      });
+    }
+    finish();
+  }
+
+  // merges the partial states of a partition
+  private void merge(Partition partition) throws IOException {
+    table.clear();
+    next = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(partition.file), IO_BUFFER_SIZE))) {
+      Object[] state = new Object[group.slots()];
+      for (long i = 0; i < partition.groups; i++) {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        for (int slot = 0; slot < state.length; slot++) {
+          state[slot] = Values.read(in);
+        }
+        group.merge(table.state(bytes, bytes.length,
+            Group.hash(bytes, bytes.length)), state);
+        if (table.bytes() >= memory && partition.level < MAX_LEVEL) {
+          spill(partition.level + 1);
+        }
+      }
+    }
+    Files.delete(partition.file);
+    finish();
+  }
+
+  // spills the table to the partitions of a level by the hashes of the keys
+  private void spill(int level) throws IOException {
+    if (spilling == null) {
+      spilling = new Partition[PARTITIONS];
+      spillLevel = level;
+    }
+    int shift = Integer.SIZE - PARTITION_BITS * (level + 1);
+    for (int g = 0; g < table.size(); g++) {
+      int index = (table.hash(g) >>> shift) & (PARTITIONS - 1);
+      if (spilling[index] == null) {
+        spilling[index] = new Partition(Files.createTempFile(directory,
+            "toymongo-group-", ".run"), level);
+      }
+      Partition partition = spilling[index];
+      byte[] bytes = table.key(g);
+      partition.out.writeInt(bytes.length);
+      partition.out.write(bytes);
+      for (Object value : table.state(g)) {
+        Values.write(value, partition.out);
+      }
+      partition.groups++;
+    }
+    table.clear();
+  }
+
+  // spills the rest of the table if the groups have been spilled, so the
+  // partitions have every group of their hashes
+  private void finish() throws IOException {
+    if (spilling == null) {
+      return;
+    }
+    spill(spillLevel);
+    for (Partition partition : spilling) {
+      if (partition != null) {
+        partition.out.close();
+        partitions.push(partition);
+      }
+    }
+    spilling = null;
+  }
+
+  /**
+   * Deletes the partitions.
+   */
+  @Override public synchronized void close() throws IOException {
+    if (spilling != null) {
+      for (Partition partition : spilling) {
+        if (partition != null) {
+          partition.out.close();
+          partitions.push(partition);
+        }
+      }
+      spilling = null;
+    }
+    for (Partition partition : partitions) {
+      Files.deleteIfExists(partition.file);
+    }
+    partitions.clear();
+    if (table == null) {
+      table = new GroupTable(group.slots());
+    }
+    table.clear();
+    input.close();
+  }
+}
@@ -0,0 +1,159 @@
+package org.ycavatars.toymongo.core.query;
+
+import java.util.Arrays;
+
+/**
+ * The groups of a {@code $group} stage in memory: a hash table with open
+ * addressing and linear probing, whose slots are the numbers of the groups,
+ * so a lookup compares the hashes in an array of ints before it compares a
+ * key. The keys and the states of the groups are kept in arrays in the order
+ * the groups were added, which is the order they're returned in.
+ * <p>
+ * A key is the encoding of the values of the {@code _id} of a group, so
+ * equal keys have equal bytes.
+ *
+ * @author ycavatars
+ */
+final class GroupTable {
+
+  // the bytes of a group besides its key and state, roughly
+  private static final int GROUP_OVERHEAD = 64;
+
+  // the bytes of a value of a state, roughly
+  private static final int SLOT_SIZE = 16;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final int slots;
+
+  // the numbers of the groups by hash, -1 if the slot is empty; the table is
+  // at most half full
+  private int[] table = empty(INITIAL_CAPACITY);
+
+  private int[] hashes = new int[INITIAL_CAPACITY / 2];
+
+  private byte[][] keys = new byte[INITIAL_CAPACITY / 2][];
+
+  private Object[][] states = new Object[INITIAL_CAPACITY / 2][];
+
+  private int size;
+
+  private long bytes;
+
+  /**
+   * @param slots the number of values of the state of a group
+   */
+  GroupTable(int slots) {
+    this.slots = slots;
+  }
+
+  private static int[] empty(int capacity) {
+    int[] table = new int[capacity];
+    Arrays.fill(table, -1);
+    return table;
+  }
+
+  /**
+   * Returns the state of the group of a key, which is added if it's new.
+   *
+   * @param key    the bytes of the key, which are copied if the group is new
+   * @param length the length of the key
+   * @param hash   the hash of the key
+   */
+  Object[] state(byte[] key, int length, int hash) {
+    if (size == keys.length) {
+      grow();
+    }
+    int mask = table.length - 1;
+    for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+      int group = table[slot];
+      if (group < 0) {
+        table[slot] = add(Arrays.copyOf(key, length), hash);
+        return states[table[slot]];
+      }
+      if (hashes[group] == hash && equals(keys[group], key, length)) {
+        return states[group];
+      }
+    }
+  }
+
+  private int add(byte[] key, int hash) {
+    hashes[size] = hash;
+    keys[size] = key;
+    states[size] = new Object[slots];
+    bytes += GROUP_OVERHEAD + key.length + slots * SLOT_SIZE;
+    return size++;
+  }
+
+  private void grow() {
+    int capacity = keys.length * 2;
+    hashes = Arrays.copyOf(hashes, capacity);
+    keys = Arrays.copyOf(keys, capacity);
+    states = Arrays.copyOf(states, capacity);
+    table = empty(capacity * 2);
+    int mask = table.length - 1;
+    for (int group = 0; group < size; group++) {
+      int slot = mix(hashes[group]) & mask;
+      while (table[slot] >= 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = group;
+    }
+  }
+
+  // spreads the hash, whose high bits are the same in a spilled partition
+  private static int mix(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean equals(byte[] a, byte[] b, int length) {
+    if (a.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (a[i] != b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the key of a group, by its number.
+   */
+  byte[] key(int group) {
+    return keys[group];
+  }
+
+  int hash(int group) {
+    return hashes[group];
+  }
+
+  Object[] state(int group) {
+    return states[group];
+  }
+
+  /**
+   * Returns the estimated size of the groups in memory, in bytes.
+   */
+  long bytes() {
+    return bytes + table.length * 4L;
+  }
+
+  /**
+   * Removes every group.
+   */
+  void clear() {
+    table = empty(INITIAL_CAPACITY);
+    hashes = new int[INITIAL_CAPACITY / 2];
+    keys = new byte[INITIAL_CAPACITY / 2][];
+    states = new Object[INITIAL_CAPACITY / 2][];
+    size = 0;
+    bytes = 0;
+  }
+}
@@ -0,0 +1,145 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.IndexKey;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.storage.RecordSlice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A cursor which walks the keys of an index in a range, and fetches and
+ * filters their records.
+ * <p>
+ * If the index covers the query, i.e. the filter and the projection only have
+ * fields of the index, the filter is evaluated on the keys and documents are
+ * built from them, so no record is read. A document whose projected field is
+ * null is fetched anyway, since a missing field is indexed as null too.
+ *
+ * @author ycavatars
+ */
+class IndexCursor extends Cursor {
+
+  private static final Document EMPTY = DocumentJson.parse("{}");
+
+  private final List<FieldPath> index;
+
+  // the first key which has not been visited
+  private IndexKey position;
+
+  private final IndexKey end;
+
+  private final boolean covered;
+
+  // if covered, the fields of the keys which the predicates and the
+  // projection are on
+  private final int[] filtered;
+
+  private final List<FieldPath> projected;
+
+  private final int[] returned;
+
+  IndexCursor(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection, IndexRange range,
+      boolean covered) {
+    super(collection, filter, projection);
+    this.index = range.getIndex();
+    this.position = range.from();
+    this.end = range.to();
+    this.covered = covered;
+    this.filtered = covered ? fields(filter.predicates().stream()
+        .map(Predicate::getPath).toArray(FieldPath[]::new)) : null;
+    this.projected = covered ? new ArrayList<>(projection.get()) : null;
+    this.returned = covered
+        ? fields(projected.toArray(new FieldPath[0])) : null;
+  }
+
+  private int[] fields(FieldPath[] paths) {
+    int[] fields = new int[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      fields[i] = index.indexOf(paths[i]);
+      if (fields[i] < 0) {
+        throw new IllegalArgumentException(paths[i] + " is not in the index "
+            + index);
+      }
+    }
+    return fields;
+  }
+
+  @Override boolean advance(int batchSize, DocumentVisitor visitor)
+      throws IOException {
+    int[] visited = {0};
+    return !collection.scanIndex(index, position, end, key -> {
+      if (visited[0] == batchSize) {
+        position = key;
+        return false;
+      }
+      if (covered) {
+        if (matches(key)) {
+          Optional<Document> document = document(key);
+          if (document.isPresent()) {
+            visitor.visit(key.getRecordId(), document.get());
+          } else {
+            fetch(key, Filter.all(), visitor);
+          }
+          visited[0]++;
+        }
+        return true;
+      }
+      if (fetch(key, filter, visitor)) {
+        visited[0]++;
+      }
+      return true;
+    });
+  }
+
+  /**
+   * Visits the document of a key if it matches {@code filter}. The record is
+   * read without copying it, and released after the visit.
+   *
+   * @return true if the document is visited
+   */
+  private boolean fetch(IndexKey key, Filter filter, DocumentVisitor visitor)
+      throws IOException {
+    try (RecordSlice record = collection.read(key.getRecordId())) {
+      Document document = Document.wrap(record.data());
+      if (!filter.matches(document)) {
+        return false;
+      }
+      visitor.visit(key.getRecordId(), document);
+      return true;
+    }
+  }
+
+  private boolean matches(IndexKey key) {
+    List<Predicate> predicates = filter.predicates();
+    for (int i = 0; i < predicates.size(); i++) {
+      if (!predicates.get(i).matches(key.getValues().get(filtered[i]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // the document built from the key, or empty if it has to be fetched
+  private Optional<Document> document(IndexKey key) {
+    if (returned.length == 0) {
+      return Optional.of(EMPTY);
+    }
+    List<Object> values = new ArrayList<>(returned.length);
+    for (int field : returned) {
+      Object value = key.getValues().get(field);
+      if (value == null) {
+        return Optional.empty();
+      }
+      values.add(value);
+    }
+    return Optional.of(DocumentJson.of(projected, values));
+  }
+}
@@ -0,0 +1,136 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.ycavatars.toymongo.core.db.IndexKey;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The keys of an index which a {@link Filter} may match: equalities on the
+ * leading fields of the index, then at most one range of the next field,
+ * e.g. {@code {"a": 1, "b": {"$gt": 2}}} in an index of a, b and c. Which
+ * predicates are used depends on the shape of the filter only.
+ *
+ * @author ycavatars
+ */
+final class IndexRange {
+
+  private final List<FieldPath> index;
+
+  // in the order of the fields of the index
+  private final List<Predicate> predicates;
+
+  private IndexRange(List<FieldPath> index, List<Predicate> predicates) {
+    this.index = index;
+    this.predicates = predicates;
+  }
+
+  /**
+   * Returns the range of the index for the filter, or empty if the filter
+   * has no predicate on the first field.
+   */
+  static Optional<IndexRange> of(List<FieldPath> index, Filter filter) {
+    List<Predicate> predicates = new ArrayList<>();
+    for (FieldPath path : index) {
+      Optional<Predicate> predicate = filter.predicate(path);
+      if (!predicate.isPresent()) {
+        break;
+      }
+      predicates.add(predicate.get());
+      if (!predicate.get().isEquality()) {
+        break;
+      }
+    }
+    if (predicates.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of(new IndexRange(index,
+        Collections.unmodifiableList(predicates)));
+  }
+
+  /**
+   * Returns the range of every key of the index, e.g. to walk the index for
+   * the order of its keys.
+   */
+  static IndexRange all(List<FieldPath> index) {
+    return new IndexRange(index, Collections.emptyList());
+  }
+
+  /**
+   * Returns the paths of the fields of the index.
+   */
+  List<FieldPath> getIndex() {
+    return index;
+  }
+
+  /**
+   * Returns the predicates of the range, in the order of the fields.
+   */
+  List<Predicate> getPredicates() {
+    return predicates;
+  }
+
+  /**
+   * Returns true if every predicate of the range is an equality, and there's
+   * at least one.
+   */
+  boolean isEquality() {
+    return !predicates.isEmpty()
+        && predicates.get(predicates.size() - 1).isEquality();
+  }
+
+  /**
+   * Returns the values of the equalities on the leading fields.
+   */
+  List<Object> equalities() {
+    List<Object> values = new ArrayList<>(predicates.size());
+    for (Predicate predicate : predicates) {
+      if (predicate.isEquality()) {
+        values.add(predicate.getValue());
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns the first key of the index in the range.
+   */
+  IndexKey from() {
+    if (predicates.isEmpty()) {
+      // null is the lowest type
+      return IndexKey.typeStart(null);
+    }
+    return last().from().after(leading());
+  }
+
+  /**
+   * Returns the last key of the index in the range.
+   */
+  IndexKey to() {
+    if (predicates.isEmpty()) {
+      // booleans are the highest type
+      return IndexKey.typeEnd(Boolean.TRUE);
+    }
+    return last().to().after(leading());
+  }
+
+  private Predicate last() {
+    return predicates.get(predicates.size() - 1);
+  }
+
+  // the values of the predicates before the last one, which are equalities
+  private List<Object> leading() {
+    List<Object> values = new ArrayList<>(predicates.size() - 1);
+    for (Predicate predicate : predicates.subList(0, predicates.size() - 1)) {
+      values.add(predicate.getValue());
+    }
+    return values;
+  }
+
+  @Override public String toString() {
+    return index + predicates.toString();
+  }
+}
@@ -0,0 +1,82 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.IndexKey;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.storage.RecordId;
+import org.ycavatars.toymongo.core.storage.RecordSlice;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A cursor which intersects the ranges of two indexes: the record ids of the
+ * smaller range are hashed by the first batch and kept until the cursor is
+ * dropped, and the keys of the other range are walked and fetched only if
+ * their records are in both ranges.
+ *
+ * @author ycavatars
+ */
+class IntersectionCursor extends Cursor {
+
+  private final List<FieldPath> index;
+
+  private IndexKey position;
+
+  private final IndexKey end;
+
+  private final IndexRange hashed;
+
+  private Set<RecordId> ids;
+
+  /**
+   * @param streamed the range of the index which is walked
+   * @param hashed   the range whose record ids are hashed
+   */
+  IntersectionCursor(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection, IndexRange streamed,
+      IndexRange hashed) {
+    super(collection, filter, projection);
+    this.index = streamed.getIndex();
+    this.position = streamed.from();
+    this.end = streamed.to();
+    this.hashed = hashed;
+  }
+
+  @Override boolean advance(int batchSize, DocumentVisitor visitor)
+      throws IOException {
+    if (ids == null) {
+      Set<RecordId> hashedIds = new HashSet<>();
+      collection.scanIndex(hashed.getIndex(), hashed.from(), hashed.to(),
+          key -> {
+            hashedIds.add(key.getRecordId());
+            return true;
+          });
+      ids = hashedIds;
+    }
+    int[] visited = {0};
+    return !collection.scanIndex(index, position, end, key -> {
+      if (!ids.contains(key.getRecordId())) {
+        return true;
+      }
+      if (visited[0] == batchSize) {
+        position = key;
+        return false;
+      }
+      // the record is read without copying it, and released after the visit
+      try (RecordSlice record = collection.read(key.getRecordId())) {
+        Document document = Document.wrap(record.data());
+        if (filter.matches(document)) {
+          visitor.visit(key.getRecordId(), document);
+          visited[0]++;
+        }
+      }
+      return true;
+    });
+  }
+}
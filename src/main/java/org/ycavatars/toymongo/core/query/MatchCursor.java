@@ -0,0 +1,40 @@
+package org.ycavatars.toymongo.core.query;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * A cursor of the documents of another cursor which match a filter, for a
+ * {@code $match} stage which can't be run by a plan, e.g. after a
+ * {@code $group}. Documents are filtered as they're read, batch by batch.
+ *
+ * @author ycavatars
+ */
+class MatchCursor extends Cursor {
+
+  private final Cursor input;
+
+  MatchCursor(Cursor input, Filter filter) {
+    super(input.getCollection(), filter, Optional.empty());
+    this.input = input;
+  }
+
+  @Override boolean advance(int batchSize, DocumentVisitor visitor)
+      throws IOException {
+    int[] visited = {0};
+    // a document is read only if the batch has room for it
+    while (visited[0] < batchSize && !input.isExhausted()) {
+      input.next(batchSize - visited[0], (id, document) -> {
+        if (filter.matches(document)) {
+          visitor.visit(id, document);
+          visited[0]++;
+        }
+      });
+    }
+    return !input.isExhausted();
+  }
+
+  @Override public void close() throws IOException {
+    input.close();
+  }
+}
@@ -0,0 +1,192 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.storage.RecordId;
+import org.ycavatars.toymongo.core.storage.RecordVisitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A cursor which scans ranges of records in parallel. The first batch splits
+ * the collection into ranges of a {@link ParallelScanner}; each batch then
+ * filters a window of consecutive ranges, one task per range, and merges the
+ * matches of the ranges in order, so documents are returned in
+ * {@link RecordId} order like {@link ScanCursor}.
+ * <p>
+ * A task stops once its range has enough matches for the batch, or once the
+ * ranges before it have, so a batch doesn't scan much further than a serial
+ * scan would.
+ *
+ * @author ycavatars
+ */
+class ParallelScanCursor extends Cursor {
+
+  private final ParallelScanner scanner;
+
+  // the start of each range, split by the first batch
+  private List<RecordId> starts;
+
+  // the range which contains the position
+  private int range = 0;
+
+  // the first record which has not been visited
+  private RecordId position = new RecordId(0, 0);
+
+  ParallelScanCursor(ParallelScanner scanner, DocumentCollection collection,
+      Filter filter, Optional<Collection<FieldPath>> projection) {
+    super(collection, filter, projection);
+    this.scanner = scanner;
+  }
+
+  @Override boolean advance(int batchSize, DocumentVisitor visitor)
+      throws IOException {
+    if (starts == null) {
+      starts = collection.split(position, scanner.getRangeSize());
+    }
+    int visited = 0;
+    while (range < starts.size()) {
+      int count = Math.min(scanner.getParallelism(), starts.size() - range);
+      // the rest of the batch, and the first document of the next one
+      Window window = new Window(count, batchSize - visited + 1);
+      if (count == 1) {
+        window.scan(0);
+      } else {
+        try {
+          scanner.invoke(new Task(window, 0, count));
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+      }
+      for (int i = 0; i < count; i++) {
+        for (Match match : window.matches.get(i)) {
+          if (visited == batchSize) {
+            position = match.id;
+            range += i;
+            return true;
+          }
+          visitor.visit(match.id, match.document);
+          visited++;
+        }
+      }
+      range += count;
+      if (range < starts.size()) {
+        position = starts.get(range);
+      }
+    }
+    return false;
+  }
+
+  private static final class Match {
+
+    final RecordId id;
+
+    final Document document;
+
+    Match(RecordId id, Document document) {
+      this.id = id;
+      this.document = document;
+    }
+  }
+
+  // the ranges of a batch which are scanned at the same time
+  private final class Window {
+
+    private final int count;
+
+    private final int needed;
+
+    // the matches of each range
+    private final List<List<Match>> matches;
+
+    private final boolean[] done;
+
+    // the ranges after this one are not needed
+    private volatile int cutoff = Integer.MAX_VALUE;
+
+    Window(int count, int needed) {
+      this.count = count;
+      this.needed = needed;
+      this.matches = new ArrayList<>(Collections.nCopies(count,
+          Collections.emptyList()));
+      this.done = new boolean[count];
+    }
+
+    // filters the records of the i-th range of the window
+    void scan(int i) throws IOException {
+      int index = range + i;
+      List<Match> found = new ArrayList<>();
+      RecordVisitor matcher = (id, data) -> {
+        if (i > cutoff) {
+          return false;
+        }
+        Document document = Document.wrap(data);
+        if (!filter.matches(document)) {
+          return true;
+        }
+        // the data is only valid during the call
+        found.add(new Match(id, document.copy()));
+        return found.size() < needed;
+      };
+      RecordId from = i == 0 ? position : starts.get(index);
+      if (index + 1 < starts.size()) {
+        collection.scan(from, starts.get(index + 1), matcher);
+      } else {
+        collection.scan(from, matcher);
+      }
+      finish(i, found);
+    }
+
+    private synchronized void finish(int i, List<Match> found) {
+      matches.set(i, found);
+      done[i] = true;
+      int total = 0;
+      for (int j = 0; j < count && done[j]; j++) {
+        total += matches.get(j).size();
+        if (total >= needed) {
+          cutoff = Math.min(cutoff, j);
+          return;
+        }
+      }
+    }
+  }
+
+  // scans the ranges from lo until hi of a window, forking halves
+  private static final class Task extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Window window;
+
+    private final int lo;
+
+    private final int hi;
+
+    Task(Window window, int lo, int hi) {
+      this.window = window;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override protected void compute() {
+      if (hi - lo > 1) {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new Task(window, lo, mid), new Task(window, mid, hi));
+        return;
+      }
+      try {
+        window.scan(lo);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
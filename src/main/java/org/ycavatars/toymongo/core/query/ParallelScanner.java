@@ -0,0 +1,81 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Runs collection scans on a bounded {@link ForkJoinPool}. A scan is split
+ * into ranges of records, which are filtered by tasks of the pool; each query
+ * runs at most {@code parallelism} tasks at a time, so one scan can't take
+ * every thread of the pool from the other requests.
+ *
+ * @author ycavatars
+ */
+public class ParallelScanner implements Closeable {
+
+  /**
+   * The size of a range of records. Smaller collections are scanned by the
+   * thread of the query.
+   */
+  public static final long DEFAULT_RANGE_SIZE = 4 * 1024 * 1024;
+
+  private final ForkJoinPool pool;
+
+  private final int parallelism;
+
+  private final long rangeSize;
+
+  /**
+   * @param threads     the threads of the pool
+   * @param parallelism the maximum number of tasks of a query at a time
+   * @param rangeSize   the size of a range of records of a task
+   */
+  public ParallelScanner(int threads, int parallelism, long rangeSize) {
+    Preconditions.checkArgument(threads > 0, "threads: %s", threads);
+    Preconditions.checkArgument(parallelism > 0, "parallelism: %s",
+        parallelism);
+    Preconditions.checkArgument(rangeSize > 0, "rangeSize: %s", rangeSize);
+    this.pool = new ForkJoinPool(threads, p -> {
+      ForkJoinWorkerThread thread =
+          ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+      thread.setName("toymongo-scan-" + thread.getPoolIndex());
+      return thread;
+    }, null, false);
+    this.parallelism = parallelism;
+    this.rangeSize = rangeSize;
+  }
+
+  /**
+   * Opens a cursor which scans the collection in parallel, and returns the
+   * matching documents in {@link org.ycavatars.toymongo.core.storage.RecordId}
+   * order, like a serial scan.
+   */
+  public Cursor open(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection) {
+    return new ParallelScanCursor(this, collection, filter, projection);
+  }
+
+  int getParallelism() {
+    return parallelism;
+  }
+
+  long getRangeSize() {
+    return rangeSize;
+  }
+
+  <T> T invoke(ForkJoinTask<T> task) {
+    return pool.invoke(task);
+  }
+
+  @Override public void close() {
+    pool.shutdownNow();
+  }
+}
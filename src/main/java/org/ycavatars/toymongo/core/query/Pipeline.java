@@ -0,0 +1,205 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * An aggregation pipeline, e.g.
+ * {@code [{"$match": {"year": 2014}}, {"$group": {"_id": "$city",
+ * "total": {"$sum": "$amount"}}}, {"$sort": {"total": -1}},
+ * {"$limit": 10}]}, whose stages are run by a chain of cursors, so documents
+ * stream through the stages batch by batch:
+ * <ul>
+ * <li>{@code $match} filters documents. The filter of the first stage is run
+ * by the plan of {@link QueryPlanner}, so it walks a range of an index if
+ * it's cheaper than a scan;</li>
+ * <li>{@code $project} keeps the fields whose value is 1 or true;</li>
+ * <li>{@code $group} groups documents in a hash table, see
+ * {@link GroupCursor};</li>
+ * <li>{@code $sort} sorts documents like a {@link DocumentSorter}, in a heap
+ * if the next stage is a {@code $limit}. A sort of the documents of the
+ * collection, before or right after the first {@code $match}, is run by an
+ * index instead if {@link QueryPlanner#ordered} finds one;</li>
+ * <li>{@code $limit} stops the previous stages once they've returned enough
+ * documents.</li>
+ * </ul>
+ * {@code $group} and {@code $sort} read their whole input in the first
+ * batch, within the memory of the {@link DocumentSorter}, and spill to its
+ * directory.
+ *
+ * @author ycavatars
+ */
+public final class Pipeline {
+
+  private final List<Stage> stages;
+
+  private Pipeline(List<Stage> stages) {
+    this.stages = stages;
+  }
+
+  private enum Operator {
+    MATCH, PROJECT, GROUP, SORT, LIMIT
+  }
+
+  private static final class Stage {
+
+    final Operator operator;
+
+    // a Filter, a list of paths, a Group, a SortOrder or a limit
+    final Object spec;
+
+    Stage(Operator operator, Object spec) {
+      this.operator = operator;
+      this.spec = spec;
+    }
+  }
+
+  /**
+   * @param stages an array of stages, each a document of one operator and
+   *               its specification
+   * @return the pipeline
+   * @throws IllegalArgumentException if a stage is not supported
+   */
+  public static Pipeline of(Document stages) {
+    Preconditions.checkArgument(stages.isArray(),
+        "a pipeline must be an array of stages");
+    List<Stage> parsed = new ArrayList<>(stages.size());
+    for (int i = 0; i < stages.size(); i++) {
+      Object stage = stages.get(i);
+      Preconditions.checkArgument(stage instanceof Document
+              && !((Document) stage).isArray()
+              && ((Document) stage).size() == 1,
+          "a stage must be a document of one operator: %s", stage);
+      Document document = (Document) stage;
+      parsed.add(stage(document.name(0), document.get(0)));
+    }
+    return new Pipeline(Collections.unmodifiableList(parsed));
+  }
+
+  private static Stage stage(String name, Object spec) {
+    Operator operator;
+    try {
+      Preconditions.checkArgument(name.startsWith("$"));
+      operator = Operator.valueOf(name.substring(1).toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("unsupported stage: " + name);
+    }
+    if (operator == Operator.LIMIT) {
+      Preconditions.checkArgument(spec instanceof Number
+              && ((Number) spec).doubleValue() == ((Number) spec).longValue()
+              && ((Number) spec).longValue() > 0,
+          "$limit must be a positive integer: %s", spec);
+      return new Stage(operator, ((Number) spec).longValue());
+    }
+    Preconditions.checkArgument(spec instanceof Document
+        && !((Document) spec).isArray(), "%s must be a document: %s", name,
+        spec);
+    Document document = ((Document) spec).copy();
+    switch (operator) {
+      case MATCH:
+        return new Stage(operator, Filter.of(document));
+      case PROJECT:
+        return new Stage(operator, fields(document));
+      case GROUP:
+        return new Stage(operator, Group.of(document));
+      case SORT:
+        return new Stage(operator, SortOrder.of(document));
+      default:
+        throw new AssertionError(operator);
+    }
+  }
+
+  private static List<FieldPath> fields(Document projection) {
+    List<FieldPath> fields = new ArrayList<>(projection.size());
+    for (int i = 0; i < projection.size(); i++) {
+      Object included = projection.get(i);
+      Preconditions.checkArgument(Boolean.TRUE.equals(included)
+              || included instanceof Number
+              && ((Number) included).doubleValue() == 1,
+          "only inclusions are supported: %s", projection.name(i));
+      fields.add(FieldPath.of(projection.name(i)));
+    }
+    return Collections.unmodifiableList(fields);
+  }
+
+  /**
+   * Opens a cursor of the documents of the last stage.
+   *
+   * @param collection
+   * @param planner    plans the first {@code $match}, and an index for the
+   *                   first {@code $sort}
+   * @param scanner    runs a collection scan if it's present
+   * @param sorter     runs {@code $sort}, and its memory and directory are
+   *                   used by {@code $group} too
+   * @return the cursor, before the first batch
+   */
+  @SuppressWarnings("unchecked")
+  public Cursor open(DocumentCollection collection, QueryPlanner planner,
+      Optional<ParallelScanner> scanner, DocumentSorter sorter) {
+    int next = 0;
+    Filter filter = Filter.all();
+    if (next < stages.size() && stages.get(next).operator == Operator.MATCH) {
+      filter = (Filter) stages.get(next++).spec;
+    }
+    Optional<Plan> ordered = Optional.empty();
+    if (next < stages.size() && stages.get(next).operator == Operator.SORT) {
+      ordered = planner.ordered(collection, filter,
+          (SortOrder) stages.get(next).spec, limit(next + 1) > 0);
+    }
+    Cursor cursor;
+    if (ordered.isPresent()) {
+      // the documents are in order already
+      cursor = ordered.get().open(collection, filter, Optional.empty());
+      next++;
+    } else {
+      cursor = planner.plan(collection, filter)
+          .open(collection, filter, Optional.empty(), scanner);
+    }
+    // the limit of the cursor, which a $limit can only lower
+    long limited = 0;
+    for (int i = next; i < stages.size(); i++) {
+      Stage stage = stages.get(i);
+      switch (stage.operator) {
+        case MATCH:
+          cursor = new MatchCursor(cursor, (Filter) stage.spec);
+          break;
+        case PROJECT:
+          cursor = new ProjectCursor(cursor,
+              (Collection<FieldPath>) stage.spec);
+          break;
+        case GROUP:
+          cursor = new GroupCursor(cursor, (Group) stage.spec,
+              sorter.getDirectory(), sorter.getMemory());
+          break;
+        case SORT:
+          cursor = sorter.sort(cursor, (SortOrder) stage.spec, limit(i + 1),
+              Optional.empty());
+          break;
+        case LIMIT:
+          long limit = (Long) stage.spec;
+          limited = limited > 0 ? Math.min(limited, limit) : limit;
+          cursor.limit(limited);
+          // a $limit right after this one limits the same cursor
+          continue;
+        default:
+          throw new AssertionError(stage.operator);
+      }
+      limited = 0;
+    }
+    return cursor;
+  }
+
+  // the limit of the stage, or 0 if it's not a $limit
+  private long limit(int stage) {
+    return stage < stages.size() && stages.get(stage).operator == Operator.LIMIT
+        ? (Long) stages.get(stage).spec : 0;
+  }
+}
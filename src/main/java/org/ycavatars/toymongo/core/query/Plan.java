@@ -0,0 +1,164 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * How a {@link Filter} is executed, and its estimated cost. A plan depends on
+ * the shape of the filter and the fields of the projection only, so it can
+ * be reused by filters of the same shape with other values.
+ *
+ * @author ycavatars
+ */
+public final class Plan {
+
+  public enum Kind {
+    /**
+     * Scans every record.
+     */
+    COLLECTION_SCAN,
+    /**
+     * Walks the range of one index.
+     */
+    INDEX_SCAN,
+    /**
+     * Walks the range of the first index, and skips the records which are
+     * not in the range of the second one.
+     */
+    INDEX_INTERSECTION,
+    /**
+     * Walks every key of one index, for the order of its keys.
+     */
+    INDEX_ORDER
+  }
+
+  /**
+   * The number of documents counted at a time by
+   * {@link #count(DocumentCollection, Filter)}.
+   */
+  private static final int COUNT_BATCH_SIZE = 1000;
+
+  private final Kind kind;
+
+  private final List<List<FieldPath>> indexes;
+
+  private final double rows;
+
+  private final double cost;
+
+  private final boolean covered;
+
+  Plan(Kind kind, List<List<FieldPath>> indexes, double rows, double cost,
+      boolean covered) {
+    this.kind = Preconditions.checkNotNull(kind);
+    this.indexes = Collections.unmodifiableList(indexes);
+    this.rows = rows;
+    this.cost = cost;
+    this.covered = covered;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * Returns the paths of the fields of the indexes used by the plan, in the
+   * order they're used.
+   */
+  public List<List<FieldPath>> getIndexes() {
+    return indexes;
+  }
+
+  /**
+   * Returns true if the index has every field of the filter and the
+   * projection, so the plan reads keys only.
+   */
+  public boolean isCovered() {
+    return covered;
+  }
+
+  /**
+   * Returns the estimated number of keys or records read.
+   */
+  public double getRows() {
+    return rows;
+  }
+
+  /**
+   * Returns the estimated cost, in units of reading one record sequentially.
+   */
+  public double getCost() {
+    return cost;
+  }
+
+  /**
+   * Opens a cursor which executes this plan for {@code filter}, which must
+   * have the shape this plan was chosen for, and the same projection.
+   */
+  public Cursor open(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection) {
+    return open(collection, filter, projection, Optional.empty());
+  }
+
+  /**
+   * Opens a cursor like {@link #open(DocumentCollection, Filter, Optional)};
+   * a collection scan is run by {@code scanner} if it's present.
+   */
+  public Cursor open(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection,
+      Optional<ParallelScanner> scanner) {
+    switch (kind) {
+      case COLLECTION_SCAN:
+        return scanner.isPresent()
+            ? scanner.get().open(collection, filter, projection)
+            : new ScanCursor(collection, filter, projection);
+      case INDEX_SCAN:
+        return new IndexCursor(collection, filter, projection,
+            range(filter, indexes.get(0)), covered);
+      case INDEX_INTERSECTION:
+        return new IntersectionCursor(collection, filter, projection,
+            range(filter, indexes.get(0)), range(filter, indexes.get(1)));
+      case INDEX_ORDER:
+        return new IndexCursor(collection, filter, projection,
+            IndexRange.all(indexes.get(0)), covered);
+      default:
+        throw new AssertionError(kind);
+    }
+  }
+
+  /**
+   * Counts the documents which match {@code filter} without returning them.
+   * A covered plan counts the keys of the index, so no record is read.
+   *
+   * @throws IOException
+   */
+  public long count(DocumentCollection collection, Filter filter)
+      throws IOException {
+    Cursor cursor = open(collection, filter,
+        Optional.of(Collections.emptyList()));
+    long count = 0;
+    while (!cursor.isExhausted()) {
+      count += cursor.next(COUNT_BATCH_SIZE, (id, document) -> {
+      });
+    }
+    return count;
+  }
+
+  private static IndexRange range(Filter filter, List<FieldPath> index) {
+    return IndexRange.of(index, filter).orElseThrow(() ->
+        new IllegalArgumentException("no predicate on " + index.get(0)));
+  }
+
+  @Override public String toString() {
+    return kind + (indexes.isEmpty() ? "" : indexes.toString())
+        + (covered ? "(covered)" : "")
+        + String.format("(rows=%.1f, cost=%.1f)", rows, cost);
+  }
+}
@@ -0,0 +1,226 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.db.IndexKey;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.document.Values;
+
+import java.util.Optional;
+
+/**
+ * A condition on one field: an equality, or a range of values of the same
+ * type as its bounds, e.g. {@code {"$gte": 30, "$lt": 40}} matches numbers
+ * only.
+ *
+ * @author ycavatars
+ */
+public final class Predicate {
+
+  private final FieldPath path;
+
+  private final boolean equality;
+
+  // the value of an equality, or a value of the type of a range
+  private final Object value;
+
+  private final Optional<Object> lower;
+
+  private final boolean lowerInclusive;
+
+  private final Optional<Object> upper;
+
+  private final boolean upperInclusive;
+
+  private Predicate(FieldPath path, boolean equality, Object value,
+      Optional<Object> lower, boolean lowerInclusive, Optional<Object> upper,
+      boolean upperInclusive) {
+    this.path = path;
+    this.equality = equality;
+    this.value = value;
+    this.lower = lower;
+    this.lowerInclusive = lowerInclusive;
+    this.upper = upper;
+    this.upperInclusive = upperInclusive;
+  }
+
+  public static Predicate equal(FieldPath path, Object value) {
+    return new Predicate(path, true, value, Optional.empty(), true,
+        Optional.empty(), true);
+  }
+
+  /**
+   * Parses a value of a filter, which is either a value to equal or a
+   * document of operators: {@code $eq}, {@code $gt}, {@code $gte},
+   * {@code $lt} and {@code $lte}.
+   *
+   * @throws IllegalArgumentException if an operator is not supported, or the
+   *                                  bounds of a range have different types
+   */
+  static Predicate parse(FieldPath path, Object value) {
+    if (!(value instanceof Document) || ((Document) value).isArray()
+        || ((Document) value).size() == 0
+        || !((Document) value).name(0).startsWith("$")) {
+      return equal(path, value);
+    }
+    Document operators = (Document) value;
+    Predicate predicate = null;
+    for (int i = 0; i < operators.size(); i++) {
+      String operator = operators.name(i);
+      Object operand = operators.get(i);
+      Predicate next;
+      switch (operator) {
+        case "$eq":
+          next = equal(path, operand);
+          break;
+        case "$gt":
+        case "$gte":
+          next = new Predicate(path, false, operand, Optional.of(operand),
+              operator.equals("$gte"), Optional.empty(), true);
+          break;
+        case "$lt":
+        case "$lte":
+          next = new Predicate(path, false, operand, Optional.empty(), true,
+              Optional.of(operand), operator.equals("$lte"));
+          break;
+        default:
+          throw new IllegalArgumentException("unsupported operator: "
+              + operator);
+      }
+      predicate = predicate == null ? next : predicate.and(next);
+    }
+    return predicate;
+  }
+
+  /**
+   * Returns the intersection with the condition of another operator on the
+   * same field, which is an equality or a range. The bounds of both are
+   * intersected, and the value of an equality is matched against them, e.g.
+   * {@code {"$gt": 10, "$eq": 5, "$lt": 20}} matches nothing.
+   */
+  private Predicate and(Predicate o) {
+    if (o.equality) {
+      if (!equality) {
+        // the value must be in the range
+        return new Predicate(path, true, o.value, lower, lowerInclusive,
+            upper, upperInclusive);
+      }
+      if (Values.compare(value, o.value) == 0) {
+        return this;
+      }
+      // a range of the other value only, which the value is not in
+      o = new Predicate(path, false, o.value, Optional.of(o.value), true,
+          Optional.of(o.value), true);
+    }
+    // the type of the range, if this has one
+    Optional<Object> type = equality
+        ? (lower.isPresent() ? lower : upper) : Optional.of(value);
+    Preconditions.checkArgument(!type.isPresent()
+            || Values.compareTypes(type.get(), o.value) == 0,
+        "the bounds of %s have different types", path);
+    Optional<Object> newLower = lower;
+    boolean newLowerInclusive = lowerInclusive;
+    if (o.lower.isPresent() && (!lower.isPresent()
+        || Values.compare(o.lower.get(), lower.get()) >= 0)) {
+      newLowerInclusive = o.lowerInclusive && (!lower.isPresent()
+          || Values.compare(o.lower.get(), lower.get()) > 0 || lowerInclusive);
+      newLower = o.lower;
+    }
+    Optional<Object> newUpper = upper;
+    boolean newUpperInclusive = upperInclusive;
+    if (o.upper.isPresent() && (!upper.isPresent()
+        || Values.compare(o.upper.get(), upper.get()) <= 0)) {
+      newUpperInclusive = o.upperInclusive && (!upper.isPresent()
+          || Values.compare(o.upper.get(), upper.get()) < 0 || upperInclusive);
+      newUpper = o.upper;
+    }
+    return new Predicate(path, equality, value, newLower, newLowerInclusive,
+        newUpper, newUpperInclusive);
+  }
+
+  public FieldPath getPath() {
+    return path;
+  }
+
+  public boolean isEquality() {
+    return equality;
+  }
+
+  /**
+   * Returns the value of an equality.
+   */
+  public Object getValue() {
+    return value;
+  }
+
+  public boolean matches(Document document) {
+    return matches(document.get(path));
+  }
+
+  public boolean matches(Object field) {
+    if (equality ? Values.compare(field, value) != 0
+        : Values.compareTypes(field, value) != 0) {
+      return false;
+    }
+    if (lower.isPresent()) {
+      int cmp = Values.compare(field, lower.get());
+      if (Values.compareTypes(field, lower.get()) != 0
+          || cmp < 0 || cmp == 0 && !lowerInclusive) {
+        return false;
+      }
+    }
+    if (upper.isPresent()) {
+      int cmp = Values.compare(field, upper.get());
+      if (Values.compareTypes(field, upper.get()) != 0
+          || cmp > 0 || cmp == 0 && !upperInclusive) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the first key of an index in the range.
+   */
+  public IndexKey from() {
+    if (equality) {
+      return IndexKey.lowest(value);
+    }
+    if (!lower.isPresent()) {
+      return IndexKey.typeStart(value);
+    }
+    return lowerInclusive ? IndexKey.lowest(lower.get())
+        : IndexKey.highest(lower.get());
+  }
+
+  /**
+   * Returns the last key of an index in the range.
+   */
+  public IndexKey to() {
+    if (equality) {
+      return IndexKey.highest(value);
+    }
+    if (!upper.isPresent()) {
+      return IndexKey.typeEnd(value);
+    }
+    return upperInclusive ? IndexKey.highest(upper.get())
+        : IndexKey.lowest(upper.get());
+  }
+
+  /**
+   * Returns the shape of the predicate, i.e. its field and kind without its
+   * values, e.g. {@code age:range}.
+   */
+  public String shape() {
+    return path + (equality ? ":eq" : ":range");
+  }
+
+  @Override public String toString() {
+    if (equality && !lower.isPresent() && !upper.isPresent()) {
+      return path + " == " + value;
+    }
+    return path + " in " + (lower.isPresent() ? (lowerInclusive ? "[" : "(")
+        + lower.get() : "(") + ", " + (upper.isPresent() ? upper.get()
+        + (upperInclusive ? "]" : ")") : ")");
+  }
+}
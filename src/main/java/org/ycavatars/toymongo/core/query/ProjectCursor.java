@@ -0,0 +1,60 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A cursor of the fields of the documents of another cursor, for a
+ * {@code $project} stage. Unlike the projection of a cursor, which is applied
+ * when documents are written, the documents are rebuilt with the fields
+ * only, so the next stages don't see the others. A missing field is left
+ * out.
+ *
+ * @author ycavatars
+ */
+class ProjectCursor extends Cursor {
+
+  private final Cursor input;
+
+  private final List<FieldPath> fields;
+
+  /**
+   * @param fields paths without array indexes
+   */
+  ProjectCursor(Cursor input, Collection<FieldPath> fields) {
+    super(input.getCollection(), Filter.all(), Optional.empty());
+    for (FieldPath field : fields) {
+      Preconditions.checkArgument(!field.isPositional(),
+          "can't project an array index: %s", field);
+    }
+    this.input = input;
+    this.fields = new ArrayList<>(fields);
+  }
+
+  @Override boolean advance(int batchSize, DocumentVisitor visitor)
+      throws IOException {
+    input.next(batchSize, (id, document) -> {
+      List<FieldPath> paths = new ArrayList<>(fields.size());
+      List<Object> values = new ArrayList<>(fields.size());
+      for (FieldPath field : fields) {
+        if (document.type(field) != null) {
+          paths.add(field);
+          values.add(document.get(field));
+        }
+      }
+      visitor.visit(id, DocumentJson.of(paths, values));
+    });
+    return !input.isExhausted();
+  }
+
+  @Override public void close() throws IOException {
+    input.close();
+  }
+}
@@ -0,0 +1,308 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.Index;
+import org.ycavatars.toymongo.core.db.IndexStatistics;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Chooses the cheapest {@link Plan} of a filter: a collection scan, a scan of
+ * the range of one index, or the intersection of the ranges of two indexes.
+ * The number of keys and records each plan reads is estimated from the
+ * {@link IndexStatistics} of the indexes, and costs are in units of reading a
+ * record sequentially. A scan of an index which covers the filter and the
+ * projection reads no record.
+ * <p>
+ * The chosen plan is cached by the shape of the filter, i.e. its paths and
+ * kinds of predicates, and the fields of the projection, until an index of
+ * the collection is created.
+ *
+ * @author ycavatars
+ */
+public class QueryPlanner {
+
+  public static final int DEFAULT_CACHE_SIZE = 1024;
+
+  static final double SCAN_COST = 1;
+
+  /**
+   * The cost of a record read by its id, which is a random read.
+   */
+  static final double FETCH_COST = 2;
+
+  static final double KEY_COST = 0.1;
+
+  /**
+   * The cost of a node visited by a lookup.
+   */
+  static final double SEEK_COST = 1;
+
+  private static final Optional<Collection<FieldPath>> NO_FIELDS =
+      Optional.of(Collections.emptyList());
+
+  private final Cache<Shape, Plan> cache;
+
+  public QueryPlanner(int cacheSize) {
+    this.cache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+  }
+
+  /**
+   * Returns the plan of a filter whose documents are returned whole, see
+   * {@link #plan(DocumentCollection, Filter, Optional)}.
+   */
+  public Plan plan(DocumentCollection collection, Filter filter) {
+    return plan(collection, filter, Optional.empty());
+  }
+
+  /**
+   * Returns the cached plan of the shape of the filter and the projection, or
+   * chooses and caches the cheapest one.
+   *
+   * @param projection the fields to return, or empty for all of them
+   */
+  public Plan plan(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection) {
+    Shape shape = new Shape(collection, filter, projection);
+    Plan plan = cache.getIfPresent(shape);
+    if (plan == null) {
+      plan = cheapest(candidates(collection, filter, projection));
+      cache.put(shape, plan);
+    }
+    return plan;
+  }
+
+  public Explanation explain(DocumentCollection collection, Filter filter) {
+    return explain(collection, filter, Optional.empty());
+  }
+
+  /**
+   * Returns the plan {@link #plan(DocumentCollection, Filter, Optional)}
+   * would execute, and the costs of every candidate for the values of this
+   * filter.
+   */
+  public Explanation explain(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection) {
+    List<Plan> candidates = candidates(collection, filter, projection);
+    Plan cached = cache.getIfPresent(new Shape(collection, filter,
+        projection));
+    return new Explanation(cached != null ? cached : cheapest(candidates),
+        cached != null, candidates);
+  }
+
+  /**
+   * Counts the documents which match the filter: the documents of the
+   * collection if the filter is empty, otherwise by a plan which returns no
+   * field, so an index of the fields of the filter reads no record.
+   *
+   * @throws IOException
+   */
+  public long count(DocumentCollection collection, Filter filter)
+      throws IOException {
+    if (filter.predicates().isEmpty()) {
+      return collection.count();
+    }
+    return plan(collection, filter, NO_FIELDS).count(collection, filter);
+  }
+
+  /**
+   * Returns a plan which returns the documents of the filter in
+   * {@code order}, so they don't have to be sorted: the plan walks an index
+   * whose fields after the equalities of the filter start with the fields of
+   * the order. Unless the documents are limited, the plan must not cost more
+   * than the cheapest plan of the filter, whose documents would be sorted;
+   * so the whole index is only walked, fetching every record, for a limit.
+   * Indexes are walked forwards, so only ascending orders are supported.
+   *
+   * @param limited true if only the first documents are read
+   * @return the cheapest such plan, or empty if there's none
+   */
+  public Optional<Plan> ordered(DocumentCollection collection, Filter filter,
+      SortOrder order, boolean limited) {
+    if (!order.isAscending()) {
+      return Optional.empty();
+    }
+    double count = collection.count();
+    List<Plan> plans = new ArrayList<>();
+    for (Index index : collection.indexes()) {
+      if (!index.isReady()) {
+        continue;
+      }
+      List<FieldPath> paths = index.getPaths();
+      Optional<IndexRange> range = IndexRange.of(paths, filter);
+      int equalities = range.map(r -> r.equalities().size()).orElse(0);
+      if (paths.size() < equalities + order.getPaths().size()
+          || !paths.subList(equalities, equalities + order.getPaths().size())
+          .equals(order.getPaths())) {
+        continue;
+      }
+      IndexStatistics statistics = collection.statistics(paths);
+      double height = statistics.getHeight() * SEEK_COST;
+      if (range.isPresent()) {
+        double estimate = range.get().isEquality()
+            ? statistics.estimateEquals(range.get().equalities())
+            : statistics.estimateRange(range.get().from(), range.get().to());
+        plans.add(new Plan(Plan.Kind.INDEX_SCAN,
+            Collections.singletonList(paths), estimate,
+            height + estimate * (KEY_COST + FETCH_COST), false));
+      } else if (limited) {
+        plans.add(new Plan(Plan.Kind.INDEX_ORDER,
+            Collections.singletonList(paths), count,
+            height + count * (KEY_COST + FETCH_COST), false));
+      }
+    }
+    if (plans.isEmpty()) {
+      return Optional.empty();
+    }
+    Plan ordered = cheapest(plans);
+    Plan best = cheapest(candidates(collection, filter, Optional.empty()));
+    if (!limited && ordered.getCost() > best.getCost()) {
+      return Optional.empty();
+    }
+    return Optional.of(ordered);
+  }
+
+  static Plan cheapest(List<Plan> candidates) {
+    return Collections.min(candidates, Comparator.comparing(Plan::getCost));
+  }
+
+  /**
+   * Returns every plan of the filter with its estimated cost, the collection
+   * scan first.
+   */
+  static List<Plan> candidates(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection) {
+    double count = collection.count();
+    List<Plan> plans = new ArrayList<>();
+    plans.add(new Plan(Plan.Kind.COLLECTION_SCAN, Collections.emptyList(),
+        count, count * SCAN_COST, false));
+
+    List<IndexRange> ranges = new ArrayList<>();
+    List<Double> keys = new ArrayList<>();
+    List<Integer> heights = new ArrayList<>();
+    for (Index index : collection.indexes()) {
+      Optional<IndexRange> range = IndexRange.of(index.getPaths(), filter);
+      // an index which is being built is not used yet
+      if (!range.isPresent() || !index.isReady()) {
+        continue;
+      }
+      IndexStatistics statistics = collection.statistics(index.getPaths());
+      double estimate = range.get().isEquality()
+          ? statistics.estimateEquals(range.get().equalities())
+          : statistics.estimateRange(range.get().from(), range.get().to());
+      boolean covered = covers(index.getPaths(), filter, projection);
+      ranges.add(range.get());
+      keys.add(estimate);
+      heights.add(statistics.getHeight());
+      plans.add(new Plan(Plan.Kind.INDEX_SCAN,
+          Collections.singletonList(index.getPaths()), estimate,
+          statistics.getHeight() * SEEK_COST
+              + estimate * (KEY_COST + (covered ? 0 : FETCH_COST)), covered));
+    }
+    for (int i = 0; i < ranges.size(); i++) {
+      for (int j = i + 1; j < ranges.size(); j++) {
+        if (!disjoint(ranges.get(i), ranges.get(j))) {
+          // the ranges are not independent
+          continue;
+        }
+        // hashes the smaller range and walks the larger one
+        int walked = keys.get(i) >= keys.get(j) ? i : j;
+        int hashed = walked == i ? j : i;
+        double both = count == 0 ? 0 : keys.get(i) * keys.get(j) / count;
+        plans.add(new Plan(Plan.Kind.INDEX_INTERSECTION, Arrays.asList(
+            ranges.get(walked).getIndex(), ranges.get(hashed).getIndex()),
+            both, (heights.get(i) + heights.get(j)) * SEEK_COST
+            + (keys.get(i) + keys.get(j)) * KEY_COST + both * FETCH_COST,
+            false));
+      }
+    }
+    return plans;
+  }
+
+  // true if the index has every field of the filter and the projection, so
+  // documents can be built from its keys
+  private static boolean covers(List<FieldPath> index, Filter filter,
+      Optional<Collection<FieldPath>> projection) {
+    if (!projection.isPresent()) {
+      return false;
+    }
+    for (FieldPath path : projection.get()) {
+      if (!index.contains(path) || path.isPositional()) {
+        return false;
+      }
+    }
+    for (Predicate predicate : filter.predicates()) {
+      if (!index.contains(predicate.getPath())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // true if the ranges have no predicate on the same field
+  private static boolean disjoint(IndexRange a, IndexRange b) {
+    for (Predicate predicate : a.getPredicates()) {
+      if (b.getIndex().subList(0, b.getPredicates().size())
+          .contains(predicate.getPath())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of cached plans.
+   */
+  public long cacheSize() {
+    return cache.size();
+  }
+
+  private static final class Shape {
+
+    private final DocumentCollection collection;
+
+    private final int indexVersion;
+
+    private final String filter;
+
+    // the sorted paths of the projection, or null for every field
+    private final List<String> projection;
+
+    Shape(DocumentCollection collection, Filter filter,
+        Optional<Collection<FieldPath>> projection) {
+      this.collection = collection;
+      this.indexVersion = collection.indexVersion();
+      this.filter = filter.shape();
+      this.projection = projection.map(paths -> paths.stream()
+          .map(FieldPath::toString).sorted().collect(Collectors.toList()))
+          .orElse(null);
+    }
+
+    @Override public boolean equals(Object o) {
+      if (!(o instanceof Shape)) {
+        return false;
+      }
+      Shape shape = (Shape) o;
+      return collection == shape.collection
+          && indexVersion == shape.indexVersion && filter.equals(shape.filter)
+          && Objects.equal(projection, shape.projection);
+    }
+
+    @Override public int hashCode() {
+      return Objects.hashCode(System.identityHashCode(collection),
+          indexVersion, filter, projection);
+    }
+  }
+}
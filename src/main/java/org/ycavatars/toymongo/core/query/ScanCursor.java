@@ -0,0 +1,48 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * A cursor which scans the records of a collection in {@link RecordId} order
+ * and filters them.
+ *
+ * @author ycavatars
+ */
+class ScanCursor extends Cursor {
+
+  // the first record which has not been visited
+  private RecordId position = new RecordId(0, 0);
+
+  ScanCursor(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection) {
+    super(collection, filter, projection);
+  }
+
+  @Override boolean advance(int batchSize, DocumentVisitor visitor)
+      throws IOException {
+    int[] visited = {0};
+    boolean[] more = {false};
+    collection.scan(position, (id, data) -> {
+      Document document = Document.wrap(data);
+      if (!filter.matches(document)) {
+        return true;
+      }
+      if (visited[0] == batchSize) {
+        position = id;
+        more[0] = true;
+        return false;
+      }
+      visitor.visit(id, document);
+      visited[0]++;
+      return true;
+    });
+    return more[0];
+  }
+}
@@ -0,0 +1,239 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.collect.Iterators;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+/**
+ * A cursor which sorts the documents of another cursor. The first batch reads
+ * the whole input:
+ * <ul>
+ * <li>with a limit, the first documents are kept in a heap of the limit, so
+ * the others are compared and dropped without being copied;</li>
+ * <li>otherwise, or if the heap outgrows the memory of the sort, documents
+ * are buffered, and the buffer is sorted and spilled to a run file whenever
+ * it's full.</li>
+ * </ul>
+ * The runs and the last buffer are then merged lazily, so the first batch is
+ * returned as soon as the merge starts, and the next batches resume it. Equal
+ * documents are returned in {@link RecordId} order.
+ *
+ * @author ycavatars
+ */
+class SortCursor extends Cursor {
+
+  // the bytes of a buffered document besides its encoding, roughly
+  private static final int DOCUMENT_OVERHEAD = 64;
+
+  // the documents read from the input at a time
+  private static final int INPUT_BATCH_SIZE = 1000;
+
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+  private final DocumentSorter sorter;
+
+  private final Cursor input;
+
+  private final long limit;
+
+  private final Comparator<Sorted> order;
+
+  private final List<Path> runs = new ArrayList<>();
+
+  private final List<DataInputStream> readers = new ArrayList<>();
+
+  // the merge, once the input is read
+  private Iterator<Sorted> sorted;
+
+  SortCursor(DocumentSorter sorter, Cursor input, SortOrder order, long limit,
+      Optional<Collection<FieldPath>> projection) {
+    super(input.getCollection(), input.filter, projection);
+    this.sorter = sorter;
+    this.input = input;
+    this.limit = limit;
+    this.order = Comparator.<Sorted, Document>comparing(s -> s.document, order)
+        .thenComparing(s -> s.id);
+  }
+
+  private static final class Sorted {
+
+    final RecordId id;
+
+    final Document document;
+
+    Sorted(RecordId id, Document document) {
+      this.id = id;
+      this.document = document;
+    }
+  }
+
+  @Override boolean advance(int batchSize, DocumentVisitor visitor)
+      throws IOException {
+    try {
+      if (sorted == null) {
+        sorted = sort();
+      }
+      for (int i = 0; i < batchSize && sorted.hasNext(); i++) {
+        Sorted next = sorted.next();
+        visitor.visit(next.id, next.document);
+      }
+      return sorted.hasNext();
+    } catch (UncheckedIOException e) {
+      close();
+      throw e.getCause();
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  // reads the whole input, and returns its documents in order
+  private Iterator<Sorted> sort() throws IOException {
+    // the first documents of the limit, until they outgrow the memory
+    PriorityQueue<Sorted> heap = new PriorityQueue<>(
+        (int) Math.max(1, Math.min(limit, INPUT_BATCH_SIZE)),
+        order.reversed());
+    boolean[] top = {limit > 0};
+    List<Sorted> buffer = new ArrayList<>();
+    long[] bytes = {0};
+    while (!input.isExhausted()) {
+      input.next(INPUT_BATCH_SIZE, (id, document) -> {
+        if (top[0]) {
+          if (heap.size() == limit) {
+            if (order.compare(new Sorted(id, document), heap.peek()) >= 0) {
+              return;
+            }
+            bytes[0] -= footprint(heap.poll().document);
+          }
+          heap.add(new Sorted(id, document.copy()));
+          bytes[0] += footprint(document);
+          if (bytes[0] < sorter.getMemory()) {
+            return;
+          }
+          // the limit is too large, every document is sorted instead
+          buffer.addAll(heap);
+          heap.clear();
+          top[0] = false;
+        } else {
+          buffer.add(new Sorted(id, document.copy()));
+          bytes[0] += footprint(document);
+        }
+        if (bytes[0] >= sorter.getMemory()) {
+          spill(buffer);
+          bytes[0] = 0;
+        }
+      });
+    }
+    if (top[0]) {
+      buffer.addAll(heap);
+    }
+    buffer.sort(order);
+    if (runs.isEmpty()) {
+      return buffer.iterator();
+    }
+    List<Iterator<Sorted>> sources = new ArrayList<>(runs.size() + 1);
+    for (Path run : runs) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          Files.newInputStream(run), IO_BUFFER_SIZE));
+      readers.add(in);
+      sources.add(new RunIterator(in, in.readInt()));
+    }
+    sources.add(buffer.iterator());
+    return Iterators.mergeSorted(sources, order);
+  }
+
+  private void spill(List<Sorted> buffer) throws IOException {
+    buffer.sort(order);
+    Path run = Files.createTempFile(sorter.getDirectory(), "toymongo-sort-",
+        ".run");
+    runs.add(run);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(run), IO_BUFFER_SIZE))) {
+      out.writeInt(buffer.size());
+      for (Sorted sorted : buffer) {
+        out.writeLong(sorted.id.toLong());
+        ByteBuffer bytes = sorted.document.buffer();
+        byte[] data = new byte[bytes.remaining()];
+        bytes.get(data);
+        out.write(data);
+      }
+    }
+    buffer.clear();
+  }
+
+  private static long footprint(Document document) {
+    return DOCUMENT_OVERHEAD + document.length();
+  }
+
+  // the documents of a run
+  private static final class RunIterator implements Iterator<Sorted> {
+
+    private final DataInputStream in;
+
+    private int remaining;
+
+    RunIterator(DataInputStream in, int size) {
+      this.in = in;
+      this.remaining = size;
+    }
+
+    @Override public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override public Sorted next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      remaining--;
+      try {
+        RecordId id = RecordId.fromLong(in.readLong());
+        // a document starts with its length
+        int length = in.readInt();
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length);
+        in.readFully(buffer.array(), 4, length - 4);
+        buffer.rewind();
+        return new Sorted(id, Document.wrap(buffer));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Deletes the runs.
+   */
+  @Override public synchronized void close() throws IOException {
+    for (DataInputStream in : readers) {
+      in.close();
+    }
+    readers.clear();
+    for (Path run : runs) {
+      Files.deleteIfExists(run);
+    }
+    runs.clear();
+    sorted = Collections.emptyIterator();
+    input.close();
+  }
+}
@@ -0,0 +1,92 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.base.Preconditions;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.document.Values;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The order of a sort, e.g. {@code {"age": -1, "name": 1}}: documents are
+ * compared by the first field, in descending order if its direction is -1,
+ * then by the next one, and so on. Values are compared by {@link Values}, and
+ * a missing field sorts as null.
+ *
+ * @author ycavatars
+ */
+public final class SortOrder implements Comparator<Document> {
+
+  private final List<FieldPath> paths;
+
+  // 1 or -1 per path
+  private final int[] directions;
+
+  private SortOrder(List<FieldPath> paths, int[] directions) {
+    this.paths = paths;
+    this.directions = directions;
+  }
+
+  /**
+   * @param order a document of dotted paths and directions, 1 or -1
+   * @return the order
+   * @throws IllegalArgumentException if there's no path, or a direction is not
+   *                                  1 or -1
+   */
+  public static SortOrder of(Document order) {
+    Preconditions.checkArgument(order.size() > 0, "no sort fields");
+    List<FieldPath> paths = new ArrayList<>(order.size());
+    int[] directions = new int[order.size()];
+    for (int i = 0; i < order.size(); i++) {
+      Object direction = order.get(i);
+      Preconditions.checkArgument(direction instanceof Number
+              && Math.abs(((Number) direction).doubleValue()) == 1,
+          "the direction of %s must be 1 or -1: %s", order.name(i), direction);
+      paths.add(FieldPath.of(order.name(i)));
+      directions[i] = ((Number) direction).intValue();
+    }
+    return new SortOrder(Collections.unmodifiableList(paths), directions);
+  }
+
+  /**
+   * Returns the paths of the sort fields, in the order they're compared.
+   */
+  public List<FieldPath> getPaths() {
+    return paths;
+  }
+
+  /**
+   * Returns true if every direction is 1, so an index walked forwards is in
+   * this order.
+   */
+  boolean isAscending() {
+    for (int direction : directions) {
+      if (direction < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override public int compare(Document a, Document b) {
+    for (int i = 0; i < paths.size(); i++) {
+      int cmp = Values.compare(a.get(paths.get(i)), b.get(paths.get(i)));
+      if (cmp != 0) {
+        return directions[i] * cmp;
+      }
+    }
+    return 0;
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < paths.size(); i++) {
+      builder.append(i == 0 ? "" : ",").append(paths.get(i))
+          .append(directions[i] > 0 ? "" : " desc");
+    }
+    return builder.toString();
+  }
+}
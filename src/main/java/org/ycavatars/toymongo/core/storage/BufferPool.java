@@ -0,0 +1,264 @@
+package org.ycavatars.toymongo.core.storage;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Caches pages of {@link PageFile}s in a fixed number of frames, so the
+ * memory of paged indexes is bounded by the budget of the pool instead of the
+ * heap. One pool is shared by all files of the same page size.
+ * <p>
+ * A page is pinned while it's used, and unpinned when the {@link Page} is
+ * closed. When all frames are taken, the CLOCK hand evicts the first unpinned
+ * page which isn't referenced since the hand passed it last time; a dirty page
+ * is written back first. Hot pages are referenced again before the hand comes
+ * back, so they stay resident while cold pages are paged out.
+ * <p>
+ * The pool is thread-safe, and page I/O is done under its lock. Pages
+ * themselves are not locked.
+ *
+ * @author ycavatars
+ */
+public class BufferPool {
+
+  public static final int DEFAULT_PAGE_SIZE = 8 * 1024;
+
+  private final int pageSize;
+
+  private final Page[] frames;
+
+  // frames are created on demand
+  private int frameCount;
+
+  private int hand;
+
+  // discarded frames
+  private final Deque<Page> free = new ArrayDeque<>();
+
+  // file id << 32 | page id
+  private final Map<Long, Page> pages = new HashMap<>();
+
+  private long hitCount;
+
+  private long missCount;
+
+  private long evictionCount;
+
+  private long writeCount;
+
+  /**
+   * @param memoryBudget the total size of frames in bytes
+   * @param pageSize     the page size of all files in the pool
+   * @throws IllegalArgumentException if the budget is less than 4 pages
+   */
+  public BufferPool(long memoryBudget, int pageSize) {
+    Preconditions.checkArgument(pageSize > 0, "pageSize: %s", pageSize);
+    long frames = memoryBudget / pageSize;
+    Preconditions.checkArgument(frames >= 4 && frames <= Integer.MAX_VALUE,
+        "memoryBudget: %s", memoryBudget);
+    this.pageSize = pageSize;
+    this.frames = new Page[(int) frames];
+  }
+
+  /**
+   * Pins a page, reading it from the file if it's not resident.
+   *
+   * @param file
+   * @param pageId
+   * @return the pinned page, which has to be closed
+   * @throws IllegalArgumentException if the file has no such page
+   * @throws IllegalStateException    if all frames are pinned
+   * @throws IOException
+   */
+  public synchronized Page pin(PageFile file, int pageId) throws IOException {
+    Page page = pages.get(key(file, pageId));
+    if (page != null) {
+      hitCount++;
+    } else {
+      Preconditions.checkArgument(pageId >= 0 && pageId < file.pageCount(),
+          "no page %s in %s", pageId, file);
+      missCount++;
+      page = frame(file);
+      try {
+        file.read(pageId, page.buffer);
+      } catch (IOException | RuntimeException e) {
+        // the frame holds no page, so it's not evicted but reused
+        free.push(page);
+        throw e;
+      }
+      assign(page, file, pageId);
+    }
+    page.pinCount++;
+    page.referenced = true;
+    return page;
+  }
+
+  /**
+   * Appends a page to the file, and pins it. The page is filled with zeros
+   * and dirty.
+   *
+   * @param file
+   * @return the pinned page, which has to be closed
+   * @throws IllegalStateException if all frames are pinned
+   * @throws IOException
+   */
+  public synchronized Page allocate(PageFile file) throws IOException {
+    Page page = frame(file);
+    Arrays.fill(page.buffer.array(), (byte) 0);
+    assign(page, file, file.allocate());
+    page.dirty = true;
+    page.pinCount++;
+    page.referenced = true;
+    return page;
+  }
+
+  private void assign(Page page, PageFile file, int pageId) {
+    page.file = file;
+    page.pageId = pageId;
+    page.dirty = false;
+    pages.put(key(file, pageId), page);
+  }
+
+  // returns an empty frame
+  private Page frame(PageFile file) throws IOException {
+    Preconditions.checkArgument(file.pageSize() == pageSize,
+        "the page size of %s is not %s", file, pageSize);
+    if (!free.isEmpty()) {
+      return free.pop();
+    }
+    if (frameCount < frames.length) {
+      frames[frameCount] = new Page(this, pageSize);
+      return frames[frameCount++];
+    }
+    // every page is passed at most twice: once to clear its reference
+    for (int i = 0; i < 2 * frames.length; i++) {
+      Page page = frames[hand];
+      hand = (hand + 1) % frames.length;
+      if (page.pinCount > 0) {
+        continue;
+      }
+      if (page.referenced) {
+        page.referenced = false;
+        continue;
+      }
+      evict(page);
+      return page;
+    }
+    throw new IllegalStateException("all " + frames.length
+        + " pages are pinned");
+  }
+
+  private void evict(Page page) throws IOException {
+    writeBack(page);
+    pages.remove(key(page.file, page.pageId));
+    page.file = null;
+    evictionCount++;
+  }
+
+  private void writeBack(Page page) throws IOException {
+    if (page.dirty) {
+      page.file.write(page.pageId, page.buffer);
+      page.dirty = false;
+      writeCount++;
+    }
+  }
+
+  synchronized void markDirty(Page page) {
+    Preconditions.checkState(page.pinCount > 0, "the page is not pinned");
+    page.dirty = true;
+  }
+
+  synchronized void unpin(Page page) {
+    Preconditions.checkState(page.pinCount > 0, "the page is not pinned");
+    page.pinCount--;
+  }
+
+  /**
+   * Writes back the dirty pages of a file, and forces the file.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public synchronized void flush(PageFile file) throws IOException {
+    for (int i = 0; i < frameCount; i++) {
+      if (frames[i].file == file) {
+        writeBack(frames[i]);
+      }
+    }
+    file.force();
+  }
+
+  /**
+   * Drops the pages of a file without writing them back, and truncates the
+   * file.
+   *
+   * @param file
+   * @throws IllegalStateException if a page of the file is pinned
+   * @throws IOException
+   */
+  public synchronized void truncate(PageFile file) throws IOException {
+    for (Iterator<Page> it = pages.values().iterator(); it.hasNext(); ) {
+      Page page = it.next();
+      if (page.file == file) {
+        Preconditions.checkState(page.pinCount == 0, "page %s is pinned",
+            page.pageId);
+        it.remove();
+        page.file = null;
+        page.dirty = false;
+        free.push(page);
+      }
+    }
+    file.truncate();
+  }
+
+  private static long key(PageFile file, int pageId) {
+    return (long) file.id << 32 | pageId;
+  }
+
+  public int pageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Returns the maximum number of resident pages.
+   */
+  public int capacity() {
+    return frames.length;
+  }
+
+  public synchronized int residentCount() {
+    return pages.size();
+  }
+
+  /**
+   * Returns how many pins found the page resident.
+   */
+  public synchronized long hitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns how many pins read the page from its file.
+   */
+  public synchronized long missCount() {
+    return missCount;
+  }
+
+  public synchronized long evictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns how many dirty pages were written back.
+   */
+  public synchronized long writeCount() {
+    return writeCount;
+  }
+}
@@ -0,0 +1,58 @@
+package org.ycavatars.toymongo.core.storage;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reuses direct buffers, because allocating and freeing them is much more
+ * expensive than heap buffers. Capacities are powers of two, and at most
+ * {@code maxPooled} buffers of each capacity are kept.
+ *
+ * @author ycavatars
+ */
+final class DirectBufferPool {
+
+  // pools[i] contains buffers of 2^i bytes
+  private final List<Queue<ByteBuffer>> pools = new ArrayList<>();
+
+  private final int maxPooled;
+
+  DirectBufferPool(int maxPooled) {
+    this.maxPooled = maxPooled;
+    for (int i = 0; i < Integer.SIZE; i++) {
+      pools.add(new ConcurrentLinkedQueue<>());
+    }
+  }
+
+  /**
+   * Returns a cleared buffer whose limit is {@code size}.
+   */
+  ByteBuffer acquire(int size) {
+    Preconditions.checkArgument(size >= 0 && size <= 1 << 30, "size: %s", size);
+    int capacity = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    ByteBuffer buffer =
+        pools.get(Integer.numberOfTrailingZeros(capacity)).poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(capacity);
+    }
+    buffer.clear().limit(size);
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer from {@link #acquire(int)} to the pool. The buffer must
+   * not be used any more.
+   */
+  void release(ByteBuffer buffer) {
+    Queue<ByteBuffer> pool =
+        pools.get(Integer.numberOfTrailingZeros(buffer.capacity()));
+    if (pool.size() < maxPooled) {
+      pool.offer(buffer);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package org.ycavatars.toymongo.core.storage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A fixed-size file which contains records. The file is preallocated when the
+ * extent is created, and records are appended at {@code tail}. All reads and
+ * writes are positioned, so they don't share the channel position.
+ *
+ * @author ycavatars
+ */
+final class Extent implements Closeable {
+
+  final int id;
+
+  final Path file;
+
+  final int size;
+
+  final FileChannel channel;
+
+  /**
+   * The offset of the unallocated space. Only changed by the owning
+   * {@link ExtentStore}, and read by scans without the lock.
+   */
+  volatile int tail;
+
+  private Extent(int id, Path file, int size, FileChannel channel) {
+    this.id = id;
+    this.file = file;
+    this.size = size;
+    this.channel = channel;
+  }
+
+  /**
+   * Creates the file and fills it with zeros up to {@code size} bytes.
+   */
+  static Extent create(int id, Path file, int size) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ByteBuffer zeros = ByteBuffer.allocate(Math.min(size, 64 * 1024));
+    for (int position = 0; position < size; position += zeros.capacity()) {
+      zeros.clear();
+      zeros.limit(Math.min(zeros.capacity(), size - position));
+      writeFully(channel, zeros, position);
+    }
+    channel.force(false);
+    return new Extent(id, file, size, channel);
+  }
+
+  /**
+   * Opens an existing extent. The caller finds the tail by scanning headers.
+   */
+  static Extent open(int id, Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    return new Extent(id, file, (int) channel.size(), channel);
+  }
+
+  void read(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException(file + " at " + position);
+      }
+      position += read;
+    }
+  }
+
+  void write(ByteBuffer buffer, long position) throws IOException {
+    writeFully(channel, buffer, position);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer,
+      long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  @Override public void close() throws IOException {
+    channel.close();
+  }
+}
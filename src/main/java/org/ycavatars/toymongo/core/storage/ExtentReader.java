@@ -0,0 +1,320 @@
+package org.ycavatars.toymongo.core.storage;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.ycavatars.toymongo.core.storage.ExtentStore.DELETED;
+import static org.ycavatars.toymongo.core.storage.ExtentStore.HEADER_SIZE;
+
+/**
+ * Reads records of an {@link ExtentStore} without copying them to the heap.
+ * Extents are preallocated, so each of them is mapped once as a whole, and a
+ * record is a read-only slice of the mapping. File systems which can't map
+ * files, e.g. jimfs, fall back to positioned reads into pooled direct buffers.
+ * <p>
+ * Writes of the store are visible to the reader. The reader is thread-safe.
+ *
+ * @author ycavatars
+ */
+public class ExtentReader implements Closeable {
+
+  /**
+   * How many bytes of a record are read at first if extents are not mapped.
+   * Most records fit, so the header and the data are read at once.
+   */
+  static final int INITIAL_READ_SIZE = 512;
+
+  /**
+   * Scans read extents by chunks of this size if extents are not mapped.
+   */
+  static final int SCAN_CHUNK_SIZE = 1024 * 1024;
+
+  // the end of every scan which has no end
+  private static final RecordId END =
+      new RecordId(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+  private final ExtentStore store;
+
+  private final DirectBufferPool pool = new DirectBufferPool(64);
+
+  // mappings[i] is the mapping of the extent i, or null if not mapped yet
+  private volatile MappedByteBuffer[] mappings = new MappedByteBuffer[0];
+
+  private volatile boolean mappable = true;
+
+  public ExtentReader(ExtentStore store) {
+    this.store = Preconditions.checkNotNull(store);
+  }
+
+  /**
+   * Returns the record which has to be closed after use, so its buffer can be
+   * reused.
+   *
+   * @param id
+   * @return the record
+   * @throws IllegalArgumentException if there's no such record, or it's deleted
+   * @throws IOException
+   */
+  public RecordSlice read(RecordId id) throws IOException {
+    Extent extent = store.extent(id.getExtentId());
+    int offset = id.getOffset();
+    Preconditions.checkArgument(offset + HEADER_SIZE <= extent.size,
+        "no record at %s", id);
+
+    Optional<MappedByteBuffer> mapping = mapping(extent);
+    if (mapping.isPresent()) {
+      checkRecord(id, mapping.get().getInt(offset),
+          mapping.get().getInt(offset + 4));
+      return new RecordSlice(id, slice(mapping.get(), offset),
+          Optional.empty(), pool);
+    }
+
+    ByteBuffer buffer = pool.acquire(
+        Math.min(INITIAL_READ_SIZE, extent.size - offset));
+    try {
+      extent.read(buffer, offset);
+      int length = buffer.getInt(4);
+      checkRecord(id, buffer.getInt(0), length);
+      if (HEADER_SIZE + length > buffer.limit()) {
+        pool.release(buffer);
+        buffer = pool.acquire(HEADER_SIZE + length);
+        extent.read(buffer, offset);
+      }
+    } catch (IOException | RuntimeException e) {
+      pool.release(buffer);
+      throw e;
+    }
+    return new RecordSlice(id, slice(buffer, 0), Optional.of(buffer), pool);
+  }
+
+  private static void checkRecord(RecordId id, int allocated, int length) {
+    Preconditions.checkArgument(allocated > 0 && length >= 0,
+        "no record at %s", id);
+  }
+
+  /**
+   * Visits every record in {@link RecordId} order. Records inserted during the
+   * scan may not be visited.
+   *
+   * @param visitor
+   * @throws IOException
+   */
+  public void scan(RecordVisitor visitor) throws IOException {
+    scan(new RecordId(0, 0), visitor);
+  }
+
+  /**
+   * Visits every record from {@code from} in {@link RecordId} order, e.g. to
+   * resume a scan stopped by the visitor at {@code from}. Records inserted
+   * during the scan may not be visited.
+   *
+   * @param from      the first record, or the start of an extent
+   * @param visitor
+   * @throws IOException
+   */
+  public void scan(RecordId from, RecordVisitor visitor) throws IOException {
+    scan(from, END, visitor);
+  }
+
+  /**
+   * Visits the records from {@code from} until {@code to} in
+   * {@link RecordId} order, e.g. one of the ranges of {@link #split}.
+   *
+   * @param from    the first record, or the start of an extent
+   * @param to      the record after the last one, or the start of an extent
+   * @param visitor
+   * @throws IOException
+   */
+  public void scan(RecordId from, RecordId to, RecordVisitor visitor)
+      throws IOException {
+    int last = Math.min(store.extentCount() - 1, to.getExtentId());
+    for (int i = from.getExtentId(); i <= last; i++) {
+      Extent extent = store.extent(i);
+      int start = i == from.getExtentId() ? from.getOffset() : 0;
+      int end = i == to.getExtentId() ? to.getOffset() : Integer.MAX_VALUE;
+      Optional<MappedByteBuffer> mapping = mapping(extent);
+      boolean more = mapping.isPresent()
+          ? scanMapping(extent, mapping.get(), start, end, visitor)
+          : scanChunks(extent, start, end, visitor);
+      if (!more) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Splits the records from {@code from} into ranges of about {@code bytes}
+   * each, e.g. to scan them in parallel. Only the headers of the records are
+   * read. A range ends where the next one starts, and the last one ends at
+   * the end of the store, so it includes records inserted later.
+   *
+   * @param from  the first record, or the start of an extent
+   * @param bytes the size of a range
+   * @return the start of each range, {@code from} first
+   * @throws IOException
+   */
+  public List<RecordId> split(RecordId from, long bytes) throws IOException {
+    Preconditions.checkArgument(bytes > 0, "bytes: %s", bytes);
+    List<RecordId> starts = new ArrayList<>();
+    starts.add(from);
+    long size = 0;
+    ByteBuffer header = pool.acquire(HEADER_SIZE);
+    try {
+      for (int i = from.getExtentId(); i < store.extentCount(); i++) {
+        Extent extent = store.extent(i);
+        Optional<MappedByteBuffer> mapping = mapping(extent);
+        int tail = extent.tail;
+        int offset = i == from.getExtentId() ? from.getOffset() : 0;
+        while (offset + HEADER_SIZE <= tail) {
+          int allocated;
+          if (mapping.isPresent()) {
+            allocated = mapping.get().getInt(offset);
+          } else {
+            header.clear();
+            extent.read(header, offset);
+            allocated = header.getInt(0);
+          }
+          if (allocated == 0) {
+            break;
+          }
+          if (size >= bytes) {
+            starts.add(new RecordId(i, offset));
+            size = 0;
+          }
+          size += allocated;
+          offset += allocated;
+        }
+      }
+    } finally {
+      pool.release(header);
+    }
+    return starts;
+  }
+
+  // visits the records from start until end, which is a record or the tail
+  private boolean scanMapping(Extent extent, ByteBuffer mapping, int start,
+      int end, RecordVisitor visitor) throws IOException {
+    int tail = Math.min(extent.tail, end);
+    for (int offset = start; offset < tail; ) {
+      int allocated = mapping.getInt(offset);
+      if (allocated == 0) {
+        // being inserted
+        return true;
+      }
+      if (mapping.getInt(offset + 4) != DELETED && !visitor.visit(
+          new RecordId(extent.id, offset), slice(mapping, offset))) {
+        return false;
+      }
+      offset += allocated;
+    }
+    return true;
+  }
+
+  private boolean scanChunks(Extent extent, int start, int end,
+      RecordVisitor visitor) throws IOException {
+    int tail = Math.min(extent.tail, end);
+    ByteBuffer chunk = pool.acquire(SCAN_CHUNK_SIZE);
+    try {
+      // the offset of the chunk in the extent, always at a record header
+      int chunkOffset = start;
+      while (chunkOffset < tail) {
+        chunk.clear().limit(Math.min(SCAN_CHUNK_SIZE, tail - chunkOffset));
+        extent.read(chunk, chunkOffset);
+
+        int position = 0;
+        while (position + HEADER_SIZE <= chunk.limit()) {
+          int allocated = chunk.getInt(position);
+          int length = chunk.getInt(position + 4);
+          if (allocated == 0) {
+            return true;
+          }
+          if (length != DELETED) {
+            if (position + HEADER_SIZE + length > chunk.limit()) {
+              // read the record again from the start of the next chunk
+              break;
+            }
+            RecordId id = new RecordId(extent.id, chunkOffset + position);
+            if (!visitor.visit(id, slice(chunk, position))) {
+              return false;
+            }
+          }
+          position += allocated;
+        }
+
+        if (position == 0) {
+          // the record is larger than a chunk
+          RecordId id = new RecordId(extent.id, chunkOffset);
+          try (RecordSlice record = read(id)) {
+            if (!visitor.visit(id, record.data())) {
+              return false;
+            }
+          }
+          position = chunk.getInt(0);
+        }
+        chunkOffset += position;
+      }
+      return true;
+    } finally {
+      pool.release(chunk);
+    }
+  }
+
+  // returns a read-only slice of the data of the record at offset
+  private static ByteBuffer slice(ByteBuffer buffer, int offset) {
+    int length = buffer.getInt(offset + 4);
+    ByteBuffer data = buffer.duplicate();
+    data.limit(offset + HEADER_SIZE + length).position(offset + HEADER_SIZE);
+    return data.slice().asReadOnlyBuffer();
+  }
+
+  private Optional<MappedByteBuffer> mapping(Extent extent) throws IOException {
+    MappedByteBuffer[] mappings = this.mappings;
+    if (extent.id < mappings.length && mappings[extent.id] != null) {
+      return Optional.of(mappings[extent.id]);
+    }
+    return mappable ? map(extent) : Optional.empty();
+  }
+
+  private synchronized Optional<MappedByteBuffer> map(Extent extent)
+      throws IOException {
+    if (extent.id < mappings.length && mappings[extent.id] != null) {
+      return Optional.of(mappings[extent.id]);
+    }
+    MappedByteBuffer mapping;
+    try {
+      mapping = extent.channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          extent.size);
+    } catch (UnsupportedOperationException e) {
+      mappable = false;
+      return Optional.empty();
+    }
+    MappedByteBuffer[] copy = Arrays.copyOf(mappings,
+        Math.max(mappings.length, extent.id + 1));
+    copy[extent.id] = mapping;
+    mappings = copy;
+    return Optional.of(mapping);
+  }
+
+  @VisibleForTesting boolean isMapped() {
+    return mappable && mappings.length > 0;
+  }
+
+  /**
+   * Drops the mappings. They're unmapped when they're garbage collected, so
+   * records read from them must not be used any more.
+   */
+  @Override public synchronized void close() {
+    mappings = new MappedByteBuffer[0];
+    mappable = false;
+  }
+}
@@ -0,0 +1,443 @@
+package org.ycavatars.toymongo.core.storage;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stores the records of a collection in extents, i.e. preallocated files of
+ * the same size named {@code <collection>.<extentId>} in a directory. The
+ * directory can be on any file system, e.g. jimfs.
+ * <p>
+ * Each record starts with a header: the allocated size of the record and the
+ * length of its data, or -1 if the record is deleted. The allocated size is a
+ * power of two, so a deleted record can be reused by any record of the same
+ * size class. New records go to a free record of their size class first, and
+ * are otherwise appended to the last extent. A new extent is created when the
+ * last one is full. Free lists are kept in memory, and rebuilt from headers
+ * when the store is opened.
+ * <p>
+ * Reads can run concurrently. Inserts and deletes are serialized.
+ *
+ * @author ycavatars
+ */
+public class ExtentStore implements Closeable {
+
+  static final int HEADER_SIZE = 8;
+
+  /**
+   * The allocated size of the smallest record, including its header.
+   */
+  static final int MIN_RECORD_SIZE = 32;
+
+  public static final int DEFAULT_EXTENT_SIZE = 16 * 1024 * 1024;
+
+  static final int DELETED = -1;
+
+  private final Path directory;
+
+  private final String collection;
+
+  private final int extentSize;
+
+  // extents.get(i).id == i
+  private final List<Extent> extents = new CopyOnWriteArrayList<>();
+
+  // freeLists[i] contains deleted records of 2^i bytes
+  private final List<Deque<RecordId>> freeLists = new ArrayList<>();
+
+  /**
+   * Opens the extents of {@code collection} in {@code directory}, using
+   * {@link #DEFAULT_EXTENT_SIZE} for new extents.
+   *
+   * @param directory
+   * @param collection
+   * @throws IOException
+   */
+  public ExtentStore(Path directory, String collection) throws IOException {
+    this(directory, collection, DEFAULT_EXTENT_SIZE);
+  }
+
+  /**
+   * Opens the extents of {@code collection} in {@code directory}.
+   *
+   * @param directory  which contains extent files
+   * @param collection the name of the collection
+   * @param extentSize the size of new extents in bytes
+   * @throws IOException
+   */
+  public ExtentStore(Path directory, String collection, int extentSize)
+      throws IOException {
+    Preconditions.checkArgument(extentSize >= MIN_RECORD_SIZE,
+        "extentSize: %s", extentSize);
+    this.directory = Preconditions.checkNotNull(directory);
+    this.collection = Preconditions.checkNotNull(collection);
+    this.extentSize = extentSize;
+    for (int i = 0; i < Integer.SIZE; i++) {
+      freeLists.add(new ArrayDeque<>());
+    }
+    openExtents();
+  }
+
+  private void openExtents() throws IOException {
+    SortedMap<Integer, Path> files = new TreeMap<>();
+    String prefix = collection + ".";
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+        collection + ".*")) {
+      for (Path file : stream) {
+        String suffix =
+            file.getFileName().toString().substring(prefix.length());
+        if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+          files.put(Integer.parseInt(suffix), file);
+        }
+      }
+    }
+    for (Map.Entry<Integer, Path> file : files.entrySet()) {
+      Preconditions.checkState(file.getKey() == extents.size(),
+          "missing extent %s of %s", extents.size(), collection);
+      Extent extent = Extent.open(file.getKey(), file.getValue());
+      extents.add(extent);
+      scan(extent);
+    }
+  }
+
+  // finds the tail and deleted records of an extent
+  private void scan(Extent extent) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    int offset = 0;
+    while (offset + HEADER_SIZE <= extent.size) {
+      header.clear();
+      extent.read(header, offset);
+      int allocated = header.getInt(0);
+      if (allocated == 0) {
+        // preallocated space is filled with zeros
+        break;
+      }
+      if (header.getInt(4) == DELETED) {
+        freeList(allocated).push(new RecordId(extent.id, offset));
+      }
+      offset += allocated;
+    }
+    extent.tail = offset;
+  }
+
+  /**
+   * Stores the remaining bytes of {@code data} as a new record. The position
+   * of {@code data} is not changed.
+   *
+   * @param data
+   * @return the id of the new record
+   * @throws IllegalArgumentException if the record is larger than
+   *                                  {@link #maxRecordSize()}
+   * @throws IOException
+   */
+  public synchronized RecordId insert(ByteBuffer data) throws IOException {
+    RecordId id = reserve(data);
+    publish(id, data.remaining());
+    return id;
+  }
+
+  /**
+   * Stores the remaining bytes of {@code data} as a new record which is not
+   * visible yet: its header says it's deleted until it's
+   * {@link #publish(RecordId, int) published}, so reads and scans skip it,
+   * and it's freed when the store is opened again. A writer reserves its
+   * records, makes its journal durable, and then publishes them, so a crash
+   * never leaves a record which wasn't acknowledged.
+   *
+   * @param data
+   * @return the id of the new record
+   * @throws IllegalArgumentException if the record is larger than
+   *                                  {@link #maxRecordSize()}
+   * @throws IOException
+   */
+  public synchronized RecordId reserve(ByteBuffer data) throws IOException {
+    int length = data.remaining();
+    Preconditions.checkArgument(length <= maxRecordSize(),
+        "the record is too large: %s bytes", length);
+    int allocated = allocatedSize(length);
+
+    RecordId id = freeList(allocated).poll();
+    if (id == null) {
+      id = append(allocated);
+    }
+    write(extents.get(id.getExtentId()), id.getOffset(), allocated, DELETED,
+        data);
+    return id;
+  }
+
+  /**
+   * Makes a reserved record visible.
+   *
+   * @param id     the id returned by {@link #reserve(ByteBuffer)}
+   * @param length the length of its data
+   * @throws IOException
+   */
+  public void publish(RecordId id, int length) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(4);
+    header.putInt(length).flip();
+    extent(id).write(header, id.getOffset() + 4);
+  }
+
+  /**
+   * Frees a reserved record which is not published, e.g. because its journal
+   * entry failed.
+   *
+   * @param id the id returned by {@link #reserve(ByteBuffer)}
+   * @throws IOException
+   */
+  public synchronized void release(RecordId id) throws IOException {
+    Extent extent = extent(id);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    extent.read(header, id.getOffset());
+    Preconditions.checkArgument(header.getInt(4) == DELETED,
+        "the record is published: %s", id);
+    freeList(header.getInt(0)).push(id);
+  }
+
+  private static void write(Extent extent, int offset, int allocated,
+      int length, ByteBuffer data) throws IOException {
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + data.remaining());
+    record.putInt(allocated).putInt(length).put(data.duplicate());
+    record.flip();
+    extent.write(record, offset);
+  }
+
+  /**
+   * Stores a record at {@code id} again while the journal is replayed, so the
+   * record is the same whether the original insert reached the extent or not.
+   * Missing extents are created. Space skipped at the tail, i.e. records
+   * allocated but never journaled, is freed.
+   *
+   * @param id   the id returned by the original insert
+   * @param data
+   * @throws IOException
+   */
+  public synchronized void redoInsert(RecordId id, ByteBuffer data)
+      throws IOException {
+    int allocated = allocatedSize(data.remaining());
+    while (extents.size() <= id.getExtentId()) {
+      int extentId = extents.size();
+      extents.add(Extent.create(extentId,
+          directory.resolve(collection + "." + extentId), extentSize));
+    }
+    Extent extent = extents.get(id.getExtentId());
+    int offset = id.getOffset();
+    Preconditions.checkArgument(offset + allocated <= extent.size,
+        "no record at %s", id);
+
+    if (offset >= extent.tail) {
+      free(extent, extent.tail, offset);
+      extent.tail = offset + allocated;
+    } else {
+      claim(extent, offset, offset + allocated);
+    }
+    write(extent, offset, allocated, data.remaining(), data);
+  }
+
+  // removes [from, to) from the deleted record which contains it, if any
+  private void claim(Extent extent, int from, int to) throws IOException {
+    for (int i = 0; i < freeLists.size(); i++) {
+      Iterator<RecordId> it = freeLists.get(i).iterator();
+      while (it.hasNext()) {
+        RecordId free = it.next();
+        int start = free.getOffset();
+        int end = start + (1 << i);
+        if (free.getExtentId() == extent.id && start <= from && to <= end) {
+          it.remove();
+          free(extent, start, from);
+          free(extent, to, end);
+          return;
+        }
+      }
+    }
+  }
+
+  // marks [from, to) as deleted records of power of two sizes
+  private void free(Extent extent, int from, int to) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (from < to) {
+      int allocated = Integer.highestOneBit(to - from);
+      header.clear();
+      header.putInt(allocated).putInt(DELETED).flip();
+      extent.write(header, from);
+      freeList(allocated).push(new RecordId(extent.id, from));
+      from += allocated;
+    }
+  }
+
+  /**
+   * Deletes a record again while the journal is replayed. Does nothing if the
+   * record is already deleted.
+   *
+   * @param id
+   * @throws IllegalArgumentException if there's no such record
+   * @throws IOException
+   */
+  public synchronized void redoDelete(RecordId id) throws IOException {
+    Extent extent = extent(id);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    extent.read(header, id.getOffset());
+    if (header.getInt(4) != DELETED) {
+      delete(id);
+    }
+  }
+
+  /**
+   * Forces all writes of the extents to the storage device. Once forced, the
+   * records no longer need the journal.
+   *
+   * @throws IOException
+   */
+  public void force() throws IOException {
+    for (Extent extent : extents) {
+      extent.channel.force(false);
+    }
+  }
+
+  // allocates space at the tail of the last extent
+  private RecordId append(int allocated) throws IOException {
+    Extent last = extents.isEmpty() ? null : extents.get(extents.size() - 1);
+    if (last == null || last.tail + allocated > last.size) {
+      int id = extents.size();
+      last = Extent.create(id, directory.resolve(collection + "." + id),
+          extentSize);
+      extents.add(last);
+    }
+    RecordId id = new RecordId(last.id, last.tail);
+    last.tail += allocated;
+    return id;
+  }
+
+  /**
+   * Returns the data of a record.
+   *
+   * @param id
+   * @return a buffer which contains the data of the record only
+   * @throws IllegalArgumentException if there's no such record, or it's deleted
+   * @throws IOException
+   */
+  public ByteBuffer read(RecordId id) throws IOException {
+    Extent extent = extent(id);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    extent.read(header, id.getOffset());
+    int length = header.getInt(4);
+    Preconditions.checkArgument(header.getInt(0) > 0 && length >= 0,
+        "no record at %s", id);
+
+    ByteBuffer data = ByteBuffer.allocate(length);
+    extent.read(data, id.getOffset() + HEADER_SIZE);
+    data.flip();
+    return data;
+  }
+
+  /**
+   * Marks a record as deleted, so its space can be reused by a new record of
+   * the same size class.
+   *
+   * @param id
+   * @throws IllegalArgumentException if there's no such record, or it's already
+   *                                  deleted
+   * @throws IOException
+   */
+  public synchronized void delete(RecordId id) throws IOException {
+    Extent extent = extent(id);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    extent.read(header, id.getOffset());
+    int allocated = header.getInt(0);
+    Preconditions.checkArgument(allocated > 0 && header.getInt(4) != DELETED,
+        "no record at %s", id);
+
+    header.clear();
+    header.putInt(allocated).putInt(DELETED).flip();
+    extent.write(header, id.getOffset());
+    freeList(allocated).push(id);
+  }
+
+  /**
+   * @throws IllegalArgumentException if there's no such extent
+   */
+  Extent extent(int extentId) {
+    Preconditions.checkArgument(extentId < extents.size(), "no extent %s",
+        extentId);
+    return extents.get(extentId);
+  }
+
+  private Extent extent(RecordId id) {
+    Preconditions.checkArgument(id.getExtentId() < extents.size(),
+        "no extent for %s", id);
+    Extent extent = extents.get(id.getExtentId());
+    Preconditions.checkArgument(id.getOffset() + HEADER_SIZE <= extent.size,
+        "no record at %s", id);
+    return extent;
+  }
+
+  private Deque<RecordId> freeList(int allocated) {
+    return freeLists.get(Integer.numberOfTrailingZeros(allocated));
+  }
+
+  /**
+   * Returns the smallest power of two which holds the header and the data.
+   */
+  static int allocatedSize(int length) {
+    int size = Math.max(HEADER_SIZE + length, MIN_RECORD_SIZE);
+    return Integer.highestOneBit(size - 1) << 1;
+  }
+
+  /**
+   * Returns the maximum length of the data of a record.
+   */
+  public int maxRecordSize() {
+    return Integer.highestOneBit(extentSize) - HEADER_SIZE;
+  }
+
+  public int extentCount() {
+    return extents.size();
+  }
+
+  /**
+   * Returns the size of the extent files, which are preallocated. Like
+   * {@link #dataSize()}, it doesn't wait for inserts.
+   */
+  public long storageSize() {
+    long size = 0;
+    for (Extent extent : extents) {
+      size += extent.size;
+    }
+    return size;
+  }
+
+  /**
+   * Returns the bytes allocated to records, including their headers and the
+   * records which are deleted.
+   */
+  public long dataSize() {
+    long size = 0;
+    for (Extent extent : extents) {
+      size += extent.tail;
+    }
+    return size;
+  }
+
+  @VisibleForTesting synchronized int freeRecordCount() {
+    int count = 0;
+    for (Deque<RecordId> freeList : freeLists) {
+      count += freeList.size();
+    }
+    return count;
+  }
+
+  @Override public synchronized void close() throws IOException {
+    for (Extent extent : extents) {
+      extent.close();
+    }
+  }
+}
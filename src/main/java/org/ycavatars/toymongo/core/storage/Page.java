@@ -0,0 +1,63 @@
+package org.ycavatars.toymongo.core.storage;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A page pinned in a {@link BufferPool}. It must be closed to unpin it, and
+ * must not be used afterwards, because the frame is reused for other pages.
+ *
+ * @author ycavatars
+ */
+public final class Page implements AutoCloseable {
+
+  private final BufferPool pool;
+
+  final ByteBuffer buffer;
+
+  // the following fields are guarded by the pool
+
+  PageFile file;
+
+  int pageId;
+
+  int pinCount;
+
+  boolean dirty;
+
+  // set when the page is pinned, cleared by the clock hand
+  boolean referenced;
+
+  Page(BufferPool pool, int pageSize) {
+    this.pool = pool;
+    this.buffer = ByteBuffer.allocate(pageSize);
+  }
+
+  public int getId() {
+    return pageId;
+  }
+
+  /**
+   * Returns the content of the page, a heap buffer whose position is 0 and
+   * limit is the page size. Use absolute gets and puts only.
+   */
+  public ByteBuffer buffer() {
+    Preconditions.checkState(pinCount > 0, "the page is not pinned");
+    return buffer;
+  }
+
+  /**
+   * Marks the page as modified, so it's written back before it's evicted.
+   */
+  public void markDirty() {
+    pool.markDirty(this);
+  }
+
+  /**
+   * Unpins the page.
+   */
+  @Override public void close() {
+    pool.unpin(this);
+  }
+}
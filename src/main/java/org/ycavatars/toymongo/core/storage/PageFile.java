@@ -0,0 +1,131 @@
+package org.ycavatars.toymongo.core.storage;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A file of fixed-size pages, which are read and written through a
+ * {@link BufferPool}. Pages are numbered from 0, and new pages are appended.
+ * A page which is allocated but not written back yet reads as zeros.
+ *
+ * @author ycavatars
+ */
+public final class PageFile implements Closeable {
+
+  private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+  /**
+   * Identifies the file in buffer pools.
+   */
+  final int id = NEXT_ID.getAndIncrement();
+
+  private final Path file;
+
+  private final int pageSize;
+
+  private final FileChannel channel;
+
+  private int pageCount;
+
+  /**
+   * Opens or creates a page file.
+   *
+   * @param file
+   * @param pageSize the size of a page in bytes
+   * @throws IOException
+   */
+  public PageFile(Path file, int pageSize) throws IOException {
+    Preconditions.checkArgument(pageSize > 0, "pageSize: %s", pageSize);
+    this.file = Preconditions.checkNotNull(file);
+    this.pageSize = pageSize;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long size = channel.size();
+    if (size % pageSize != 0) {
+      channel.close();
+      throw new IllegalArgumentException(file + " has a partial page");
+    }
+    pageCount = (int) (size / pageSize);
+  }
+
+  public int pageSize() {
+    return pageSize;
+  }
+
+  public synchronized int pageCount() {
+    return pageCount;
+  }
+
+  /**
+   * Returns the id of a new page at the end of the file.
+   */
+  synchronized int allocate() {
+    return pageCount++;
+  }
+
+  void read(int pageId, ByteBuffer buffer) throws IOException {
+    checkPage(pageId);
+    buffer.clear();
+    long position = (long) pageId * pageSize;
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        // allocated, but never written
+        while (buffer.hasRemaining()) {
+          buffer.put((byte) 0);
+        }
+      }
+    }
+    buffer.clear();
+  }
+
+  void write(int pageId, ByteBuffer buffer) throws IOException {
+    checkPage(pageId);
+    ByteBuffer page = buffer.duplicate();
+    page.clear();
+    long position = (long) pageId * pageSize;
+    while (page.hasRemaining()) {
+      channel.write(page, position + page.position());
+    }
+  }
+
+  private void checkPage(int pageId) {
+    Preconditions.checkArgument(pageId >= 0 && pageId < pageCount(),
+        "no page %s in %s", pageId, file);
+  }
+
+  /**
+   * Drops all pages. Pages of the file must be discarded from buffer pools
+   * first.
+   *
+   * @throws IOException
+   */
+  synchronized void truncate() throws IOException {
+    channel.truncate(0);
+    pageCount = 0;
+  }
+
+  /**
+   * Forces written pages to the storage device.
+   *
+   * @throws IOException
+   */
+  public void force() throws IOException {
+    channel.force(false);
+  }
+
+  @Override public void close() throws IOException {
+    channel.close();
+  }
+
+  @Override public String toString() {
+    return file.toString();
+  }
+}
@@ -0,0 +1,79 @@
+package org.ycavatars.toymongo.core.storage;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The position of a record, i.e. the extent which contains the record and the
+ * offset of its header in the extent. Record ids are ordered by position, so
+ * visiting records in this order reads extents sequentially.
+ * <p>
+ * A record id is small enough to be stored as the value of an index, or packed
+ * into a {@code long} by {@link #toLong()}.
+ *
+ * @author ycavatars
+ */
+public final class RecordId implements Comparable<RecordId> {
+
+  private final int extentId;
+
+  private final int offset;
+
+  /**
+   * @param extentId
+   * @param offset
+   * @throws IllegalArgumentException if {@code extentId} or {@code offset} is
+   *                                  negative
+   */
+  public RecordId(int extentId, int offset) {
+    Preconditions.checkArgument(extentId >= 0, "extentId: %s", extentId);
+    Preconditions.checkArgument(offset >= 0, "offset: %s", offset);
+    this.extentId = extentId;
+    this.offset = offset;
+  }
+
+  /**
+   * Unpacks a record id packed by {@link #toLong()}.
+   */
+  public static RecordId fromLong(long packed) {
+    return new RecordId((int) (packed >>> 32), (int) packed);
+  }
+
+  public int getExtentId() {
+    return extentId;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * Returns the extent id in the high 32 bits and the offset in the low 32
+   * bits, so packed ids are ordered the same as record ids.
+   */
+  public long toLong() {
+    return ((long) extentId << 32) | offset;
+  }
+
+  @Override public int compareTo(RecordId o) {
+    return Long.compare(toLong(), o.toLong());
+  }
+
+  @Override public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RecordId)) {
+      return false;
+    }
+    RecordId that = (RecordId) o;
+    return extentId == that.extentId && offset == that.offset;
+  }
+
+  @Override public int hashCode() {
+    return 31 * extentId + offset;
+  }
+
+  @Override public String toString() {
+    return extentId + ":" + offset;
+  }
+}
@@ -0,0 +1,68 @@
+package org.ycavatars.toymongo.core.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Optional;
+
+/**
+ * The data of a record read by {@link ExtentReader}. The data is a read-only
+ * slice of a mapped extent or of a pooled direct buffer, so it's only valid
+ * until the record is closed.
+ *
+ * @author ycavatars
+ */
+public final class RecordSlice implements AutoCloseable {
+
+  private final RecordId id;
+
+  private final ByteBuffer data;
+
+  // the pooled buffer which contains data, empty if data is mapped
+  private Optional<ByteBuffer> pooled;
+
+  private final DirectBufferPool pool;
+
+  RecordSlice(RecordId id, ByteBuffer data, Optional<ByteBuffer> pooled,
+      DirectBufferPool pool) {
+    this.id = id;
+    this.data = data;
+    this.pooled = pooled;
+    this.pool = pool;
+  }
+
+  public RecordId getId() {
+    return id;
+  }
+
+  /**
+   * Returns a new read-only view of the data, so callers don't share its
+   * position.
+   */
+  public ByteBuffer data() {
+    return data.duplicate();
+  }
+
+  /**
+   * Writes all the data to {@code channel} without copying it to a byte array.
+   *
+   * @return the number of bytes written
+   */
+  public int writeTo(WritableByteChannel channel) throws IOException {
+    ByteBuffer buffer = data();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    return data.remaining();
+  }
+
+  /**
+   * Releases the buffer of the data.
+   */
+  @Override public void close() {
+    if (pooled.isPresent()) {
+      pool.release(pooled.get());
+      pooled = Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package org.ycavatars.toymongo.core.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives records of a scan in {@link RecordId} order.
+ *
+ * @author ycavatars
+ */
+@FunctionalInterface
+public interface RecordVisitor {
+
+  /**
+   * @param id   the id of the record
+   * @param data a read-only slice of the data, which is only valid during the
+   *             call
+   * @return false to stop the scan
+   */
+  boolean visit(RecordId id, ByteBuffer data) throws IOException;
+}
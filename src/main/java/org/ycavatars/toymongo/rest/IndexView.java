@@ -0,0 +1,50 @@
+package org.ycavatars.toymongo.rest;
+
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.Index;
+import org.ycavatars.toymongo.core.db.IndexBuild;
+import org.ycavatars.toymongo.core.db.IndexStatistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The JSON view of an index, the progress of its build and, once it's ready,
+ * its statistics.
+ *
+ * @author ycavatars
+ */
+public final class IndexView {
+
+  private IndexView() {
+  }
+
+  public static Map<String, Object> of(DocumentCollection collection,
+      Index index) {
+    Map<String, Object> view = new LinkedHashMap<>();
+    view.put("key", index.getName());
+    view.put("ready", index.isReady());
+    view.put("build", build(index.getBuild()));
+    if (index.isReady()) {
+      IndexStatistics statistics = collection.statistics(index.getPaths());
+      view.put("entries", statistics.getEntries());
+      view.put("distinct", statistics.getDistinct());
+      view.put("height", statistics.getHeight());
+    }
+    return view;
+  }
+
+  private static Map<String, Object> build(IndexBuild build) {
+    Map<String, Object> view = new LinkedHashMap<>();
+    view.put("phase", build.getPhase().name());
+    view.put("progress", build.getProgress());
+    view.put("records", build.getRecords());
+    view.put("scanned", build.getScanned());
+    view.put("loaded", build.getLoaded());
+    view.put("runs", build.getRuns());
+    if (build.getError() != null) {
+      view.put("error", build.getError());
+    }
+    return view;
+  }
+}
@@ -0,0 +1,133 @@
+package org.ycavatars.toymongo.rest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.reader.MetricReader;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.ycavatars.toymongo.core.db.Databases;
+import org.ycavatars.toymongo.core.journal.Journal;
+import org.ycavatars.toymongo.core.query.CursorManager;
+import org.ycavatars.toymongo.core.query.DocumentSorter;
+import org.ycavatars.toymongo.core.query.ParallelScanner;
+import org.ycavatars.toymongo.core.query.QueryPlanner;
+import org.ycavatars.toymongo.core.storage.BufferPool;
+import org.ycavatars.toymongo.rest.metrics.ActionMetrics;
+import org.ycavatars.toymongo.rest.metrics.StorageMetrics;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The storage, cursors, query planner, sorts, scan and index build threads, and the metrics
+ * shared by actions.
+ * Actions import this configuration, so each of them can also run on its own.
+ *
+ * @author ycavatars
+ */
+@Configuration
+public class StorageConfiguration {
+
+  /**
+   * @param checkpointInterval the longest time between checkpoints of a
+   *                           database, or 0 to checkpoint by size only
+   * @param checkpointSize     the journal size which triggers a checkpoint,
+   *                           or 0 to checkpoint by time only
+   * @param indexPoolMemory    the memory of the buffer pool shared by the
+   *                           paged indexes, or 0 to keep every index on the
+   *                           heap
+   */
+  @Bean(destroyMethod = "close")
+  public Databases databases(
+      @Value("${toymongo.data-dir:data}") String directory,
+      @Value("${toymongo.journal.commit-interval-ms:"
+          + Journal.DEFAULT_COMMIT_INTERVAL_MILLIS + "}") long commitInterval,
+      @Value("${toymongo.journal.checkpoint-interval-ms:"
+          + Databases.DEFAULT_CHECKPOINT_INTERVAL_MILLIS + "}")
+      long checkpointInterval,
+      @Value("${toymongo.journal.checkpoint-size:"
+          + Databases.DEFAULT_CHECKPOINT_SIZE + "}") long checkpointSize,
+      @Value("${toymongo.index.buffer-pool-memory:"
+          + Databases.DEFAULT_INDEX_POOL_MEMORY + "}") long indexPoolMemory)
+      throws IOException {
+    if (indexPoolMemory == 0) {
+      return new Databases(Paths.get(directory), commitInterval,
+          checkpointInterval, checkpointSize, TimeUnit.MILLISECONDS);
+    }
+    return new Databases(Paths.get(directory), commitInterval,
+        checkpointInterval, checkpointSize, new BufferPool(indexPoolMemory,
+        BufferPool.DEFAULT_PAGE_SIZE), TimeUnit.MILLISECONDS);
+  }
+
+  @Bean(destroyMethod = "close")
+  public CursorManager cursors(@Value("${toymongo.cursor.timeout-ms:"
+      + CursorManager.DEFAULT_TIMEOUT_MILLIS + "}") long timeout) {
+    return new CursorManager(timeout, TimeUnit.MILLISECONDS);
+  }
+
+  @Bean
+  public QueryPlanner planner(@Value("${toymongo.planner.cache-size:"
+      + QueryPlanner.DEFAULT_CACHE_SIZE + "}") int cacheSize) {
+    return new QueryPlanner(cacheSize);
+  }
+
+  /**
+   * @param threads     the threads of every parallel scan, by default one per
+   *                    processor
+   * @param parallelism the threads of one scan, by default half of them
+   */
+  @Bean(destroyMethod = "close")
+  public ParallelScanner scanner(
+      @Value("${toymongo.scan.threads:0}") int threads,
+      @Value("${toymongo.scan.parallelism:0}") int parallelism,
+      @Value("${toymongo.scan.range-size:"
+          + ParallelScanner.DEFAULT_RANGE_SIZE + "}") long rangeSize) {
+    int pool = threads > 0 ? threads
+        : Runtime.getRuntime().availableProcessors();
+    return new ParallelScanner(pool,
+        parallelism > 0 ? parallelism : Math.max(1, pool / 2), rangeSize);
+  }
+
+  /**
+   * @param directory where sorts spill their runs, by default the temporary
+   *                  directory of the JVM
+   * @param memory    the memory of the documents of one sort
+   */
+  @Bean
+  public DocumentSorter sorter(
+      @Value("${toymongo.sort.temp-dir:${java.io.tmpdir}}") String directory,
+      @Value("${toymongo.sort.memory:" + DocumentSorter.DEFAULT_MEMORY + "}")
+      long memory) {
+    return new DocumentSorter(Paths.get(directory), memory);
+  }
+
+  /**
+   * Builds indexes in the background, one at a time by default, so builds
+   * don't compete with queries for every processor.
+   */
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService indexBuilds(
+      @Value("${toymongo.index.build-threads:1}") int threads) {
+    return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+        .setNameFormat("toymongo-index-build-%d").setDaemon(true).build());
+  }
+
+  @Bean
+  public ActionMetrics actionMetrics() {
+    return new ActionMetrics();
+  }
+
+  /**
+   * Replaces the default metrics of the actuator with the same ones plus the
+   * metrics of the actions and the storage, see {@link StorageMetrics}.
+   */
+  @Bean
+  public PublicMetrics publicMetrics(MetricReader reader, Databases databases,
+      ActionMetrics actions) {
+    return new StorageMetrics(reader, databases, actions);
+  }
+}
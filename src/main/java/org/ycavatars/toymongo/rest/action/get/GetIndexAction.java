@@ -1,8 +1,22 @@
 package org.ycavatars.toymongo.rest.action.get;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.ycavatars.toymongo.core.db.Databases;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.Index;
+import org.ycavatars.toymongo.rest.IndexView;
+import org.ycavatars.toymongo.rest.StorageConfiguration;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
 
 /**
  * GetIndex controller.
@@ -11,6 +25,34 @@ import org.springframework.web.bind.annotation.RestController;
  */
 @RestController
 @EnableAutoConfiguration
-@RequestMapping(value = "/databases/{databaseName}/collections/{collectionName}/indexes/{indexId}")
+@Import(StorageConfiguration.class)
+@RequestMapping(value = "/databases/{databaseName}/collections/{collectionName}/indexes/{indexId:.+}")
 public class GetIndexAction {
+
+  @Autowired
+  private Databases databases;
+
+  /**
+   * Returns the index whose name is {@code indexId}, i.e. its paths separated
+   * by commas, with the progress of its build, and its statistics once it's
+   * ready.
+   */
+  @RequestMapping(method = RequestMethod.GET)
+  public Map<String, Object> getIndex(
+      @PathVariable("databaseName") String databaseName,
+      @PathVariable("collectionName") String collectionName,
+      @PathVariable("indexId") String indexId,
+      HttpServletResponse response) throws IOException {
+    Optional<DocumentCollection> collection = databases
+        .getDatabase(databaseName)
+        .flatMap(database -> database.getCollection(collectionName));
+    Optional<Index> index = collection.flatMap(c -> c.indexes().stream()
+        .filter(i -> i.getName().equals(indexId)).findFirst());
+    if (!index.isPresent()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND,
+          "no index " + indexId);
+      return null;
+    }
+    return IndexView.of(collection.get(), index.get());
+  }
 }
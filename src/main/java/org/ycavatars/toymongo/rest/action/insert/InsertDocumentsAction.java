@@ -1,8 +1,31 @@
 package org.ycavatars.toymongo.rest.action.insert;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.ycavatars.toymongo.core.db.BulkInsert;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.Databases;
+import org.ycavatars.toymongo.rest.StorageConfiguration;
+import org.ycavatars.toymongo.rest.metrics.ActionMetrics;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * InsertMultipleDocuments controller.
@@ -11,7 +34,89 @@ import org.springframework.web.bind.annotation.RestController;
  */
 @RestController
 @EnableAutoConfiguration
+@Import(StorageConfiguration.class)
 @RequestMapping(value = "/databases/{databaseName}/collections/{collectionName}/documents" +
     "/insertAll")
 public class InsertDocumentsAction {
+
+  static final String NDJSON = "application/x-ndjson";
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  @Autowired
+  private Databases databases;
+
+  @Autowired
+  private ActionMetrics metrics;
+
+  @Value("${toymongo.insert.batch-size:" + BulkInsert.DEFAULT_BATCH_SIZE + "}")
+  private int defaultBatchSize;
+
+  /**
+   * Inserts the newline-delimited JSON documents of the request body, which is
+   * parsed as it's received instead of being bound to a list, so a body of any
+   * size is inserted with the memory of a batch. A line of progress is
+   * written and flushed after each batch, e.g.
+   * {@code {"batch":3,"inserted":1000,"total":3000}}, and an error is
+   * reported as the last line.
+   */
+  @RequestMapping(method = RequestMethod.POST)
+  public void insertAll(@PathVariable("databaseName") String databaseName,
+      @PathVariable("collectionName") String collectionName,
+      @RequestParam(value = "batchSize", required = false) Integer batchSize,
+      HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    long start = System.nanoTime();
+    boolean failed = false;
+    try {
+      DocumentCollection collection =
+          databases.database(databaseName).collection(collectionName);
+      BulkInsert insert = new BulkInsert(collection,
+          batchSize == null ? defaultBatchSize : batchSize);
+
+      response.setContentType(NDJSON);
+      try (JsonGenerator generator =
+               FACTORY.createGenerator(response.getOutputStream())) {
+        generator.setRootValueSeparator(null);
+        try {
+          insert.load(request.getInputStream(), (batch, documents, total) -> {
+            generator.writeStartObject();
+            generator.writeNumberField("batch", batch);
+            generator.writeNumberField("inserted", documents);
+            generator.writeNumberField("total", total);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            generator.flush();
+          });
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+          // the status may be sent already
+          failed = true;
+          if (!response.isCommitted()) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+          }
+          generator.writeStartObject();
+          generator.writeStringField("error", e.getMessage());
+          generator.writeNumberField("total", insert.getTotal());
+          generator.writeEndObject();
+          generator.writeRaw('\n');
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      failed = true;
+      throw e;
+    } finally {
+      metrics.record(ActionMetrics.Action.INSERT, start, failed
+          || response.getStatus() >= HttpServletResponse.SC_BAD_REQUEST);
+    }
+  }
+
+  /**
+   * A bad database or collection name, or batch size, is rejected before
+   * the body is read.
+   */
+  @ExceptionHandler(IllegalArgumentException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  public Map<String, Object> badRequest(IllegalArgumentException e) {
+    return Collections.singletonMap("error", e.getMessage());
+  }
 }
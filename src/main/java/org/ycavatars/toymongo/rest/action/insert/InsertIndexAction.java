@@ -1,8 +1,35 @@
 package org.ycavatars.toymongo.rest.action.insert;
 
+import com.google.common.base.Preconditions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.ycavatars.toymongo.core.db.Databases;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.Index;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.rest.IndexView;
+import org.ycavatars.toymongo.rest.StorageConfiguration;
+import org.ycavatars.toymongo.rest.metrics.ActionMetrics;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * InsertIndex controller.
@@ -11,6 +38,80 @@ import org.springframework.web.bind.annotation.RestController;
  */
 @RestController
 @EnableAutoConfiguration
+@Import(StorageConfiguration.class)
 @RequestMapping(value = "/databases/{databaseName}/collections/{collectionName}/indexes")
 public class InsertIndexAction {
+
+  @Autowired
+  private Databases databases;
+
+  @Autowired
+  private ExecutorService indexBuilds;
+
+  @Autowired
+  private ActionMetrics metrics;
+
+  @Value("${toymongo.index.build-memory:"
+      + DocumentCollection.DEFAULT_BUILD_MEMORY + "}")
+  private long buildMemory;
+
+  /**
+   * Creates an index of the field {@code key} of the body, e.g.
+   * {@code {"key": "address.city"}}, or a compound index of an array of
+   * fields, e.g. {@code {"key": ["address.city", "age"]}}, unless it exists.
+   * The index is built in the background, and inserts go on meanwhile; the
+   * response is 202 with the progress of the build until the index is ready,
+   * which {@code GET .../indexes/{index}} reports too.
+   */
+  @RequestMapping(method = RequestMethod.POST)
+  public Map<String, Object> createIndex(
+      @PathVariable("databaseName") String databaseName,
+      @PathVariable("collectionName") String collectionName,
+      @RequestBody String body, HttpServletResponse response)
+      throws IOException {
+    long start = System.nanoTime();
+    boolean failed = false;
+    try {
+      Document spec = DocumentJson.parse(body);
+      List<FieldPath> paths = paths(spec.get("key"));
+      DocumentCollection collection =
+          databases.database(databaseName).collection(collectionName);
+      Index index = collection.createIndex(paths, indexBuilds, buildMemory);
+      Map<String, Object> view = IndexView.of(collection, index);
+      if (!index.isReady()) {
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+      }
+      return view;
+    } catch (IOException | RuntimeException e) {
+      failed = true;
+      throw e;
+    } finally {
+      metrics.record(ActionMetrics.Action.CREATE_INDEX, start, failed
+          || response.getStatus() >= HttpServletResponse.SC_BAD_REQUEST);
+    }
+  }
+
+  // a path, or an array of paths
+  private static List<FieldPath> paths(Object key) {
+    if (key instanceof String) {
+      return Collections.singletonList(FieldPath.of((String) key));
+    }
+    Preconditions.checkArgument(key instanceof Document
+            && ((Document) key).isArray() && ((Document) key).size() > 0,
+        "the key must be a path or an array of paths: %s", key);
+    Document array = (Document) key;
+    List<FieldPath> paths = new ArrayList<>(array.size());
+    for (int i = 0; i < array.size(); i++) {
+      Preconditions.checkArgument(array.get(i) instanceof String,
+          "the key must be a path or an array of paths: %s", key);
+      paths.add(FieldPath.of((String) array.get(i)));
+    }
+    return paths;
+  }
+
+  @ExceptionHandler(IllegalArgumentException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  public Map<String, Object> badRequest(IllegalArgumentException e) {
+    return Collections.singletonMap("error", e.getMessage());
+  }
 }
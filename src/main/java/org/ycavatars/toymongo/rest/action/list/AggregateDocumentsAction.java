@@ -0,0 +1,96 @@
+package org.ycavatars.toymongo.rest.action.list;
+
+import com.google.common.base.Preconditions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.ycavatars.toymongo.core.db.Databases;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.query.Cursor;
+import org.ycavatars.toymongo.core.query.CursorManager;
+import org.ycavatars.toymongo.core.query.DocumentSorter;
+import org.ycavatars.toymongo.core.query.ParallelScanner;
+import org.ycavatars.toymongo.core.query.Pipeline;
+import org.ycavatars.toymongo.core.query.QueryPlanner;
+import org.ycavatars.toymongo.rest.StorageConfiguration;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * AggregateDocuments controller.
+ *
+ * @author ycavatars
+ */
+@RestController
+@EnableAutoConfiguration
+@Import(StorageConfiguration.class)
+@RequestMapping(value = "/databases/{databaseName}/collections/{collectionName}/documents" +
+    "/aggregate")
+public class AggregateDocumentsAction {
+
+  @Autowired
+  private Databases databases;
+
+  @Autowired
+  private CursorManager cursors;
+
+  @Autowired
+  private QueryPlanner planner;
+
+  @Autowired
+  private ParallelScanner scanner;
+
+  @Autowired
+  private DocumentSorter sorter;
+
+  /**
+   * Runs the aggregation pipeline of the body, e.g.
+   * {@code {"pipeline": [{"$match": {"year": 2014}}, {"$group": {"_id":
+   * "$city", "total": {"$sum": "$amount"}}}]}}, and returns the first batch
+   * of its documents like {@link FindDocumentsAction}, whose {@code cursor}
+   * parameter returns the next batches. See {@link Pipeline} for the stages.
+   *
+   * @param batchSize the maximum number of documents of the first batch
+   */
+  @RequestMapping(method = RequestMethod.POST)
+  public void aggregate(@PathVariable("databaseName") String databaseName,
+      @PathVariable("collectionName") String collectionName,
+      @RequestParam(value = "batchSize", required = false) Integer batchSize,
+      @RequestBody String body, HttpServletResponse response)
+      throws IOException {
+    int size = batchSize == null ? FindDocumentsAction.DEFAULT_BATCH_SIZE
+        : batchSize;
+    Preconditions.checkArgument(size > 0, "batchSize must be positive");
+    Object stages = DocumentJson.parse(body).get("pipeline");
+    Preconditions.checkArgument(stages instanceof Document,
+        "the pipeline must be an array of stages: %s", stages);
+    Pipeline pipeline = Pipeline.of((Document) stages);
+    Optional<DocumentCollection> collection = databases
+        .getDatabase(databaseName)
+        .flatMap(database -> database.getCollection(collectionName));
+    Optional<Cursor> cursor = collection.map(c -> pipeline.open(c, planner,
+        Optional.of(scanner), sorter));
+    FindDocumentsAction.write(cursors, cursor, size, null, response);
+  }
+
+  @ExceptionHandler(IllegalArgumentException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  public Map<String, Object> badRequest(IllegalArgumentException e) {
+    return Collections.singletonMap("error", e.getMessage());
+  }
+}
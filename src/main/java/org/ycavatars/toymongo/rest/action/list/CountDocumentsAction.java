@@ -0,0 +1,73 @@
+package org.ycavatars.toymongo.rest.action.list;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.ycavatars.toymongo.core.db.Databases;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.query.Filter;
+import org.ycavatars.toymongo.core.query.QueryPlanner;
+import org.ycavatars.toymongo.rest.StorageConfiguration;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * CountDocuments controller.
+ *
+ * @author ycavatars
+ */
+@RestController
+@EnableAutoConfiguration
+@Import(StorageConfiguration.class)
+@RequestMapping(value = "/databases/{databaseName}/collections/{collectionName}/documents" +
+    "/count")
+public class CountDocumentsAction {
+
+  @Autowired
+  private Databases databases;
+
+  @Autowired
+  private QueryPlanner planner;
+
+  /**
+   * Returns the number of documents which match {@code filter} as
+   * {@code {"count": n}}. If an index has every field of the filter, its keys
+   * are counted and no document is read.
+   *
+   * @param filter a JSON object of paths and values or ranges, see
+   *               {@link FindDocumentsAction}
+   */
+  @RequestMapping(method = RequestMethod.GET)
+  public Map<String, Object> count(
+      @PathVariable("databaseName") String databaseName,
+      @PathVariable("collectionName") String collectionName,
+      @RequestParam(value = "filter", required = false) String filter)
+      throws IOException {
+    Filter parsed = FindDocumentsAction.filter(filter);
+    Optional<DocumentCollection> collection = databases
+        .getDatabase(databaseName)
+        .flatMap(database -> database.getCollection(collectionName));
+    long count = 0;
+    if (collection.isPresent()) {
+      count = planner.count(collection.get(), parsed);
+    }
+    return Collections.singletonMap("count", count);
+  }
+
+  @ExceptionHandler(IllegalArgumentException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  public Map<String, Object> badRequest(IllegalArgumentException e) {
+    return Collections.singletonMap("error", e.getMessage());
+  }
+}
@@ -1,8 +1,39 @@
 package org.ycavatars.toymongo.rest.action.list;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Splitter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.ycavatars.toymongo.core.db.Databases;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.Index;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.query.Cursor;
+import org.ycavatars.toymongo.core.query.CursorManager;
+import org.ycavatars.toymongo.core.query.DocumentSorter;
+import org.ycavatars.toymongo.core.query.Explanation;
+import org.ycavatars.toymongo.core.query.Filter;
+import org.ycavatars.toymongo.core.query.ParallelScanner;
+import org.ycavatars.toymongo.core.query.Plan;
+import org.ycavatars.toymongo.core.query.QueryPlanner;
+import org.ycavatars.toymongo.core.query.SortOrder;
+import org.ycavatars.toymongo.rest.StorageConfiguration;
+import org.ycavatars.toymongo.rest.metrics.ActionMetrics;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 /**
  * FindDocuments Controller.
@@ -11,6 +42,238 @@ import org.springframework.web.bind.annotation.RestController;
  */
 @RestController
 @EnableAutoConfiguration
+@Import(StorageConfiguration.class)
 @RequestMapping(value = "/databases/{databaseName}/collections/{collectionName}/documents")
 public class FindDocumentsAction {
+
+  static final int DEFAULT_BATCH_SIZE = 101;
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  @Autowired
+  private Databases databases;
+
+  @Autowired
+  private CursorManager cursors;
+
+  @Autowired
+  private QueryPlanner planner;
+
+  @Autowired
+  private ParallelScanner scanner;
+
+  @Autowired
+  private DocumentSorter sorter;
+
+  @Autowired
+  private ActionMetrics metrics;
+
+  /**
+   * Returns the first batch of the documents which match {@code filter}, or
+   * the next batch of {@code cursor}, as
+   * {@code {"documents": [...], "cursor": "..."}}. The cursor is null once
+   * every document has been returned; otherwise it's passed back to get the
+   * next batch, until it's idle for the cursor timeout.
+   * <p>
+   * Documents are written to the response as they're read, so the response
+   * is chunked and its first byte doesn't wait for the whole batch.
+   *
+   * @param filter     a JSON object of paths and values, e.g.
+   *                   {@code {"address.city":"London"}}
+   * @param projection comma-separated paths of the fields to return
+   * @param sort       a JSON object of paths and directions, e.g.
+   *                   {@code {"age":-1,"name":1}}; the first batch sorts
+   *                   every match, within the memory of a sort, and the next
+   *                   batches continue the merge of its runs
+   * @param batchSize  the maximum number of documents of this batch
+   * @param limit      the maximum number of documents of the cursor, or 0
+   *                   for every document; a scan stops reading once it has
+   *                   enough
+   * @param cursorId   the cursor of a previous batch
+   * @param explain    returns the plan of the filter and the projection, and
+   *                   the estimated costs of every candidate plan, instead of
+   *                   documents
+   */
+  @RequestMapping(method = RequestMethod.GET)
+  public void find(@PathVariable("databaseName") String databaseName,
+      @PathVariable("collectionName") String collectionName,
+      @RequestParam(value = "filter", required = false) String filter,
+      @RequestParam(value = "projection", required = false) String projection,
+      @RequestParam(value = "sort", required = false) String sort,
+      @RequestParam(value = "batchSize", required = false) Integer batchSize,
+      @RequestParam(value = "limit", defaultValue = "0") long limit,
+      @RequestParam(value = "cursor", required = false) String cursorId,
+      @RequestParam(value = "explain", defaultValue = "false") boolean explain,
+      HttpServletResponse response) throws IOException {
+    long start = System.nanoTime();
+    boolean failed = false;
+    try {
+      int size = batchSize == null ? DEFAULT_BATCH_SIZE : batchSize;
+      if (size <= 0) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "batchSize must be positive");
+        return;
+      }
+      if (limit < 0) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "limit must not be negative");
+        return;
+      }
+      Optional<DocumentCollection> collection = databases
+          .getDatabase(databaseName)
+          .flatMap(database -> database.getCollection(collectionName));
+
+      Optional<Cursor> cursor;
+      if (cursorId != null) {
+        cursor = cursors.get(cursorId).filter(c -> collection.isPresent()
+            && c.getCollection() == collection.get());
+        if (!cursor.isPresent()) {
+          response.sendError(HttpServletResponse.SC_NOT_FOUND,
+              "no cursor " + cursorId);
+          return;
+        }
+      } else {
+        try {
+          Filter parsed = filter(filter);
+          Optional<Collection<FieldPath>> fields = projection(projection);
+          if (explain) {
+            explain(collection, parsed, fields, response);
+            return;
+          }
+          Optional<SortOrder> order = Optional.ofNullable(sort)
+              .map(json -> SortOrder.of(DocumentJson.parse(json)));
+          cursor = collection.map(c -> open(c, parsed, fields, order, limit));
+          if (cursor.isPresent() && limit > 0) {
+            cursor.get().limit(limit);
+          }
+        } catch (IllegalArgumentException e) {
+          response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+              e.getMessage());
+          return;
+        }
+      }
+
+      write(cursors, cursor, size, cursorId, response);
+    } catch (IOException | RuntimeException e) {
+      failed = true;
+      throw e;
+    } finally {
+      metrics.record(ActionMetrics.Action.FIND, start, failed
+          || response.getStatus() >= HttpServletResponse.SC_BAD_REQUEST);
+    }
+  }
+
+  /**
+   * Writes the next batch of a cursor as
+   * {@code {"documents": [...], "cursor": "..."}}, and registers the cursor
+   * if it has more documents, or removes it once it's exhausted.
+   *
+   * @param cursorId the id of the cursor, or null if it's not registered yet
+   */
+  static void write(CursorManager cursors, Optional<Cursor> cursor, int size,
+      String cursorId, HttpServletResponse response) throws IOException {
+    response.setContentType("application/json");
+    try (JsonGenerator generator =
+             FACTORY.createGenerator(response.getOutputStream())) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("documents");
+      if (cursor.isPresent()) {
+        Optional<Collection<FieldPath>> fields = cursor.get().getProjection();
+        cursor.get().next(size, (id, document) -> {
+          if (fields.isPresent()) {
+            DocumentJson.write(document, generator, fields.get());
+          } else {
+            DocumentJson.write(document, generator);
+          }
+          if (!response.isCommitted()) {
+            // sends the headers and the first document at once
+            generator.flush();
+            response.flushBuffer();
+          }
+        });
+      }
+      generator.writeEndArray();
+      generator.writeStringField("cursor", register(cursors, cursor, cursorId));
+      generator.writeEndObject();
+    }
+  }
+
+  private Cursor open(DocumentCollection collection, Filter filter,
+      Optional<Collection<FieldPath>> projection, Optional<SortOrder> order,
+      long limit) {
+    if (!order.isPresent()) {
+      return planner.plan(collection, filter, projection)
+          .open(collection, filter, projection, Optional.of(scanner));
+    }
+    // the sort compares whole documents, and projects them afterwards
+    Cursor input = planner.plan(collection, filter, Optional.empty())
+        .open(collection, filter, Optional.empty(), Optional.of(scanner));
+    return sorter.sort(input, order.get(), limit, projection);
+  }
+
+  private void explain(Optional<DocumentCollection> collection, Filter filter,
+      Optional<Collection<FieldPath>> projection, HttpServletResponse response)
+      throws IOException {
+    if (!collection.isPresent()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "no collection");
+      return;
+    }
+    Explanation explanation = planner.explain(collection.get(), filter,
+        projection);
+    response.setContentType("application/json");
+    try (JsonGenerator generator =
+             FACTORY.createGenerator(response.getOutputStream())) {
+      generator.writeStartObject();
+      generator.writeFieldName("plan");
+      write(explanation.getPlan(), generator);
+      generator.writeBooleanField("cached", explanation.isCached());
+      generator.writeArrayFieldStart("candidates");
+      for (Plan plan : explanation.getCandidates()) {
+        write(plan, generator);
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+  }
+
+  private static void write(Plan plan, JsonGenerator generator)
+      throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("kind", plan.getKind().name());
+    generator.writeArrayFieldStart("indexes");
+    for (List<FieldPath> index : plan.getIndexes()) {
+      generator.writeString(Index.name(index));
+    }
+    generator.writeEndArray();
+    generator.writeBooleanField("covered", plan.isCovered());
+    generator.writeNumberField("rows", plan.getRows());
+    generator.writeNumberField("cost", plan.getCost());
+    generator.writeEndObject();
+  }
+
+  static Filter filter(String filter) {
+    return filter == null ? Filter.all()
+        : Filter.of(DocumentJson.parse(filter));
+  }
+
+  private static Optional<Collection<FieldPath>> projection(String projection) {
+    if (projection == null) {
+      return Optional.empty();
+    }
+    return Optional.of(Splitter.on(',').trimResults().omitEmptyStrings()
+        .splitToList(projection).stream().map(FieldPath::of)
+        .collect(Collectors.toList()));
+  }
+
+  // returns the id of the cursor if it has more documents, otherwise null
+  private static String register(CursorManager cursors,
+      Optional<Cursor> cursor, String cursorId) {
+    if (!cursor.isPresent() || cursor.get().isExhausted()) {
+      if (cursorId != null) {
+        cursors.remove(cursorId);
+      }
+      return null;
+    }
+    return cursorId != null ? cursorId : cursors.register(cursor.get());
+  }
 }
@@ -1,8 +1,23 @@
 package org.ycavatars.toymongo.rest.action.list;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.ycavatars.toymongo.core.db.Databases;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.rest.IndexView;
+import org.ycavatars.toymongo.rest.StorageConfiguration;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 /**
  * ListIndexes controller.
@@ -11,6 +26,30 @@ import org.springframework.web.bind.annotation.RestController;
  */
 @RestController
 @EnableAutoConfiguration
+@Import(StorageConfiguration.class)
 @RequestMapping(value = "/databases/{databaseName}/collections/{collectionName}/indexes")
 public class ListIndexAction {
+
+  @Autowired
+  private Databases databases;
+
+  /**
+   * Lists the indexes of the collection with their statistics, which the
+   * query planner uses.
+   */
+  @RequestMapping(method = RequestMethod.GET)
+  public List<Map<String, Object>> listIndexes(
+      @PathVariable("databaseName") String databaseName,
+      @PathVariable("collectionName") String collectionName)
+      throws IOException {
+    Optional<DocumentCollection> collection = databases
+        .getDatabase(databaseName)
+        .flatMap(database -> database.getCollection(collectionName));
+    if (!collection.isPresent()) {
+      return Collections.emptyList();
+    }
+    return collection.get().indexes().stream()
+        .map(index -> IndexView.of(collection.get(), index))
+        .collect(Collectors.toList());
+  }
 }
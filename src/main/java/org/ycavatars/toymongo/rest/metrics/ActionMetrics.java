@@ -0,0 +1,93 @@
+package org.ycavatars.toymongo.rest.metrics;
+
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the requests of the actions on the hot path, their errors, and a
+ * {@link LatencyHistogram} of their latencies. Recording takes no lock, so
+ * requests don't wait for each other or for the metrics endpoint.
+ *
+ * @author ycavatars
+ */
+public class ActionMetrics {
+
+  private static final double NANOS_PER_MILLI =
+      TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * The actions which are measured, and the names of their metrics.
+   */
+  public enum Action {
+    INSERT("insert"), FIND("find"), CREATE_INDEX("createIndex");
+
+    private final String metric;
+
+    Action(String metric) {
+      this.metric = metric;
+    }
+  }
+
+  private static final class Counters {
+
+    final LongAdder errors = new LongAdder();
+
+    final LatencyHistogram latencies = new LatencyHistogram();
+  }
+
+  // created up front, so recording never changes the map
+  private final Map<Action, Counters> counters = new EnumMap<>(Action.class);
+
+  public ActionMetrics() {
+    for (Action action : Action.values()) {
+      counters.put(action, new Counters());
+    }
+  }
+
+  /**
+   * Records a request which started at {@code start}.
+   *
+   * @param action
+   * @param start  the {@link System#nanoTime()} when the request started
+   * @param failed whether the request failed, i.e. threw or wasn't
+   *               successful
+   */
+  public void record(Action action, long start, boolean failed) {
+    Counters counters = this.counters.get(action);
+    counters.latencies.record(System.nanoTime() - start);
+    if (failed) {
+      counters.errors.increment();
+    }
+  }
+
+  /**
+   * Adds the metrics of every action, e.g.
+   * {@code toymongo.actions.find.count}, {@code .errors}, and the mean,
+   * 50th, 95th, 99th percentile and maximum latencies in milliseconds, e.g.
+   * {@code toymongo.actions.find.latency.p99}.
+   */
+  public void addTo(Collection<Metric<?>> metrics) {
+    for (Map.Entry<Action, Counters> entry : counters.entrySet()) {
+      String prefix = "toymongo.actions." + entry.getKey().metric + ".";
+      LatencyHistogram latencies = entry.getValue().latencies;
+      metrics.add(new Metric<>(prefix + "count", latencies.count()));
+      metrics.add(new Metric<>(prefix + "errors",
+          entry.getValue().errors.sum()));
+      metrics.add(new Metric<>(prefix + "latency.mean",
+          latencies.mean() / NANOS_PER_MILLI));
+      metrics.add(new Metric<>(prefix + "latency.p50",
+          latencies.percentile(50) / NANOS_PER_MILLI));
+      metrics.add(new Metric<>(prefix + "latency.p95",
+          latencies.percentile(95) / NANOS_PER_MILLI));
+      metrics.add(new Metric<>(prefix + "latency.p99",
+          latencies.percentile(99) / NANOS_PER_MILLI));
+      metrics.add(new Metric<>(prefix + "latency.max",
+          latencies.max() / NANOS_PER_MILLI));
+    }
+  }
+}
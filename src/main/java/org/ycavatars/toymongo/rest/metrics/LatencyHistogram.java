@@ -0,0 +1,120 @@
+package org.ycavatars.toymongo.rest.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds with log-linear buckets, like
+ * HdrHistogram: every power of two is split into {@link #SUB_BUCKETS} / 2
+ * buckets of the same width, so a value is recorded within 1/32 of itself,
+ * from 1 ns up to {@code Long.MAX_VALUE}, in fewer than 2K buckets.
+ * <p>
+ * Recording adds to one bucket of an {@link AtomicLongArray} and to striped
+ * counters, without a lock, so threads only contend when they record the
+ * same latency at the same time. Percentiles are read without stopping the
+ * writers, so they may miss the values being recorded.
+ *
+ * @author ycavatars
+ */
+final class LatencyHistogram {
+
+  // the bits of a value which choose its bucket
+  private static final int SUB_BUCKET_BITS = 6;
+
+  /**
+   * Values below this are recorded exactly.
+   */
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private static final int HALF = SUB_BUCKETS / 2;
+
+  private final AtomicLongArray counts =
+      new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder sum = new LongAdder();
+
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Returns the bucket of a value. A value of 2^h or more, and less than
+   * 2^(h+1), is shifted right until its top bits are between
+   * {@code HALF} and {@code SUB_BUCKETS}, which are its bucket within the
+   * buckets of the shift.
+   */
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return shift * HALF + (int) (value >>> shift);
+  }
+
+  /**
+   * Returns the greatest value of a bucket.
+   */
+  static long highest(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / HALF - 1;
+    long top = index - shift * HALF;
+    return ((top + 1) << shift) - 1;
+  }
+
+  /**
+   * @param nanos a latency, which is recorded as 0 if it's negative
+   */
+  void record(long nanos) {
+    nanos = Math.max(0, nanos);
+    counts.incrementAndGet(index(nanos));
+    count.increment();
+    sum.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  long count() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the mean latency in nanoseconds, or 0 if there's none.
+   */
+  double mean() {
+    long count = count();
+    return count == 0 ? 0 : (double) sum.sum() / count;
+  }
+
+  long max() {
+    return max.get();
+  }
+
+  /**
+   * Returns a latency which {@code percentile} percent of the latencies are
+   * not greater than, within the precision of the buckets, or 0 if there's
+   * none.
+   *
+   * @param percentile between 0 and 100
+   */
+  long percentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100,
+        "percentile: %s", percentile);
+    long total = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      total += counts.get(i);
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length() && total > 0; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highest(i), max());
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,92 @@
+package org.ycavatars.toymongo.rest.metrics;
+
+import org.springframework.boot.actuate.endpoint.VanillaPublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.actuate.metrics.reader.MetricReader;
+import org.ycavatars.toymongo.core.db.Database;
+import org.ycavatars.toymongo.core.db.Databases;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.IndexMetrics;
+import org.ycavatars.toymongo.core.storage.BufferPool;
+
+import java.util.Collection;
+
+/**
+ * The metrics of the actuator endpoint {@code /metrics}: the default ones,
+ * i.e. memory, threads, garbage collection and the counters of requests, the
+ * metrics of the {@link ActionMetrics actions}, the {@code hits},
+ * {@code misses}, {@code evictions}, {@code writes}, {@code resident} and
+ * {@code capacity} of the {@link BufferPool} of the paged indexes, if there's
+ * one, as {@code toymongo.indexPool.hits} and so on, and for every collection
+ * of the opened databases, e.g. {@code toymongo.test.users.}:
+ * <ul>
+ * <li>{@code documents}, {@code extents}, {@code storageSize} and
+ * {@code dataSize}, see {@link DocumentCollection#dataSize()};</li>
+ * <li>{@code indexes.<name>.entries}, {@code .height}, {@code .nodes},
+ * {@code .fillFactor}, {@code .splits}, {@code .lookups} and
+ * {@code .comparisonsPerLookup} of every ready index, see
+ * {@link IndexMetrics}.</li>
+ * </ul>
+ * Everything is read from counters which are kept up to date, so the
+ * endpoint never walks an index, and only holds the lock of a collection to
+ * read the counters of its indexes.
+ *
+ * @author ycavatars
+ */
+public class StorageMetrics extends VanillaPublicMetrics {
+
+  private final Databases databases;
+
+  private final ActionMetrics actions;
+
+  public StorageMetrics(MetricReader reader, Databases databases,
+      ActionMetrics actions) {
+    super(reader);
+    this.databases = databases;
+    this.actions = actions;
+  }
+
+  @Override protected void addMetrics(Collection<Metric<?>> metrics) {
+    super.addMetrics(metrics);
+    actions.addTo(metrics);
+    if (databases.indexPool().isPresent()) {
+      add(metrics, "toymongo.indexPool.", databases.indexPool().get());
+    }
+    for (Database database : databases.opened()) {
+      for (DocumentCollection collection : database.collections()) {
+        add(metrics, "toymongo." + database.getName() + "."
+            + collection.getName() + ".", collection);
+      }
+    }
+  }
+
+  private static void add(Collection<Metric<?>> metrics, String prefix,
+      BufferPool pool) {
+    metrics.add(new Metric<>(prefix + "hits", pool.hitCount()));
+    metrics.add(new Metric<>(prefix + "misses", pool.missCount()));
+    metrics.add(new Metric<>(prefix + "evictions", pool.evictionCount()));
+    metrics.add(new Metric<>(prefix + "writes", pool.writeCount()));
+    metrics.add(new Metric<>(prefix + "resident", pool.residentCount()));
+    metrics.add(new Metric<>(prefix + "capacity", pool.capacity()));
+  }
+
+  private static void add(Collection<Metric<?>> metrics, String prefix,
+      DocumentCollection collection) {
+    metrics.add(new Metric<>(prefix + "documents", collection.count()));
+    metrics.add(new Metric<>(prefix + "extents", collection.extentCount()));
+    metrics.add(new Metric<>(prefix + "storageSize",
+        collection.storageSize()));
+    metrics.add(new Metric<>(prefix + "dataSize", collection.dataSize()));
+    for (IndexMetrics index : collection.indexMetrics()) {
+      String name = prefix + "indexes." + index.getName() + ".";
+      metrics.add(new Metric<>(name + "entries", index.getEntries()));
+      metrics.add(new Metric<>(name + "height", index.getHeight()));
+      metrics.add(new Metric<>(name + "nodes", index.getNodes()));
+      metrics.add(new Metric<>(name + "fillFactor", index.getFillFactor()));
+      metrics.add(new Metric<>(name + "splits", index.getSplits()));
+      metrics.add(new Metric<>(name + "lookups", index.getLookups()));
+      metrics.add(new Metric<>(name + "comparisonsPerLookup",
+          index.getComparisonsPerLookup()));
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package org.ycavatars.toymongo.core.collection;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * @author ycavatars
+ */
+public class TestBPlusTreeMap {
+
+  @Test
+  public void testPut_splitLeavesAndInternalNodes() {
+    BPlusTreeMap<Integer, String> map = new BPlusTreeMap<>();
+    int size = BPlusTreeMap.MAX_NODE_KEYS * BPlusTreeMap.MAX_NODE_DEGREE;
+    for (int i = 0; i < size; i++) {
+      Assert.assertNull(map.put(i, "value" + i));
+    }
+    for (int i = 0; i < size; i += 3) {
+      Assert.assertEquals("value" + i, map.put(i, "new" + i));
+    }
+
+    Assert.assertEquals(size, map.size());
+    Assert.assertEquals(3, map.height());
+    for (int i = 0; i < size; i++) {
+      Assert.assertEquals((i % 3 == 0 ? "new" : "value") + i, map.get(i));
+    }
+    Assert.assertNull(map.get(size));
+    Assert.assertFalse(map.containsKey(-1));
+  }
+
+  @Test
+  public void testLeafLinks_scanBothDirections() {
+    BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    Random random = new Random(3);
+    for (int i = 0; i < BPlusTreeMap.MAX_NODE_KEYS * 30; i++) {
+      int key = random.nextInt();
+      map.put(key, i);
+      expected.put(key, i);
+    }
+
+    Assert.assertTrue(map.leafCount() > 30);
+    Assert.assertEquals(Lists.newArrayList(expected.entrySet()),
+        Lists.newArrayList(map.entrySet()));
+    Assert.assertEquals(Lists.newArrayList(expected.descendingMap().entrySet()),
+        Lists.newArrayList(map.descendingMap().entrySet()));
+    Assert.assertEquals(expected, map);
+  }
+
+  @Test
+  public void testNavigation_sameAsTreeMap() {
+    BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    for (int i = 0; i < BPlusTreeMap.MAX_NODE_KEYS * 10; i++) {
+      map.put(i * 2, i);
+      expected.put(i * 2, i);
+    }
+
+    for (int key = -3; key < BPlusTreeMap.MAX_NODE_KEYS * 20 + 3; key++) {
+      Assert.assertEquals(expected.lowerEntry(key), map.lowerEntry(key));
+      Assert.assertEquals(expected.floorEntry(key), map.floorEntry(key));
+      Assert.assertEquals(expected.ceilingEntry(key), map.ceilingEntry(key));
+      Assert.assertEquals(expected.higherEntry(key), map.higherEntry(key));
+    }
+    Assert.assertEquals(expected.firstEntry(), map.firstEntry());
+    Assert.assertEquals(expected.lastEntry(), map.lastEntry());
+
+    Random random = new Random(5);
+    for (int i = 0; i < 100; i++) {
+      int from = random.nextInt(BPlusTreeMap.MAX_NODE_KEYS * 20);
+      int to = from + random.nextInt(BPlusTreeMap.MAX_NODE_KEYS * 3);
+      boolean fromInclusive = random.nextBoolean();
+      boolean toInclusive = random.nextBoolean();
+      NavigableMap<Integer, Integer> sub =
+          map.subMap(from, fromInclusive, to, toInclusive);
+      NavigableMap<Integer, Integer> expectedSub =
+          expected.subMap(from, fromInclusive, to, toInclusive);
+      Assert.assertEquals(Lists.newArrayList(expectedSub.entrySet()),
+          Lists.newArrayList(sub.entrySet()));
+      Assert.assertEquals(Lists.newArrayList(expectedSub.descendingKeySet()),
+          Lists.newArrayList(sub.descendingKeySet()));
+    }
+  }
+
+  @Test
+  public void testRemove_sameAsTreeMap() {
+    BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    Random random = new Random(9);
+    int range = BPlusTreeMap.MAX_NODE_KEYS * 60;
+    for (int i = 0; i < 300000; i++) {
+      int key = random.nextInt(range);
+      if (random.nextInt(3) == 0) {
+        Assert.assertEquals(expected.remove(key), map.remove(key));
+      } else {
+        Assert.assertEquals(expected.put(key, i), map.put(key, i));
+      }
+    }
+    Assert.assertEquals(expected.size(), map.size());
+    Assert.assertEquals(expected, map);
+    Assert.assertEquals(Lists.newArrayList(expected.descendingKeySet()),
+        Lists.newArrayList(map.descendingKeySet()));
+
+    // remove everything through the iterator
+    Iterator<Map.Entry<Integer, Integer>> iterator = map.entrySet().iterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertEquals(0, map.height());
+    Assert.assertEquals(0, map.leafCount());
+  }
+
+  @Test
+  public void testRemove_shrinkHeight() {
+    BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>();
+    int size = BPlusTreeMap.MAX_NODE_KEYS * BPlusTreeMap.MAX_NODE_DEGREE;
+    for (int i = 0; i < size; i++) {
+      map.put(i, i);
+    }
+    Assert.assertEquals(3, map.height());
+
+    map.headMap(size - 10).clear();
+    Assert.assertEquals(10, map.size());
+    Assert.assertEquals(1, map.height());
+    Assert.assertEquals(1, map.leafCount());
+    Assert.assertEquals(Integer.valueOf(size - 10), map.firstKey());
+  }
+
+  @Test
+  public void testIterator_failFast() {
+    BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>();
+    for (int i = 0; i < 10; i++) {
+      map.put(i, i);
+    }
+    Iterator<Integer> iterator = map.keySet().iterator();
+    iterator.next();
+    map.remove(5);
+    try {
+      iterator.next();
+      Assert.fail();
+    } catch (ConcurrentModificationException e) {
+    }
+  }
+
+  @Test
+  public void testIterator_failFastWithBound() {
+    BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>();
+    for (int i = 0; i < 200; i++) {
+      map.put(i, i);
+    }
+    Iterator<Integer> iterator = map.headMap(100).keySet().iterator();
+    for (int i = 0; i < 200; i++) {
+      map.remove(i);
+    }
+    try {
+      iterator.hasNext();
+      Assert.fail();
+    } catch (ConcurrentModificationException e) {
+    }
+  }
+
+  @Test
+  public void testComparator() {
+    BPlusTreeMap<String, Integer> map =
+        new BPlusTreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    map.put("b", 1);
+    map.put("A", 2);
+    map.put("B", 3);
+
+    Assert.assertEquals(2, map.size());
+    Assert.assertEquals(Integer.valueOf(3), map.get("b"));
+    Assert.assertEquals("A", map.firstKey());
+  }
+}
@@ -1,6 +1,7 @@
 package org.ycavatars.toymongo.core.collection;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Lists;
 import org.junit.Assert;
 import org.junit.Test;
@@ -117,4 +118,763 @@ public class TestBtreeMap {
       Assert.assertEquals("svalue" + i, map.get("skey" + i));
     }
   }
+
+  @Test
+  public void testPut_replaceExistingKey() {
+    BTreeMap<String, String> map = new BTreeMap<>();
+    int size = BTreeMap.MAX_NODE_KEYS * 3;
+    for (int i = 0; i < size; i++) {
+      Assert.assertNull(map.put("key" + i, "value" + i));
+    }
+    // keys are in both internal and leaf nodes now
+    for (int i = 0; i < size; i++) {
+      Assert.assertEquals("value" + i, map.put("key" + i, "new" + i));
+    }
+
+    Assert.assertEquals(size, map.size());
+    for (int i = 0; i < size; i++) {
+      Assert.assertEquals("new" + i, map.get("key" + i));
+    }
+  }
+
+  @Test
+  public void testGet_usingComparator() {
+    BTreeMap<Integer, String> map = new BTreeMap<>(Comparator.reverseOrder());
+    int size = BTreeMap.MAX_NODE_KEYS * 3;
+    for (int i = 0; i < size; i++) {
+      map.put(i, "value" + i);
+    }
+
+    Assert.assertEquals(size, map.size());
+    for (int i = 0; i < size; i++) {
+      Assert.assertEquals("value" + i, map.get(i));
+      Assert.assertTrue(map.containsKey(i));
+    }
+    Assert.assertNull(map.get(-1));
+    Assert.assertFalse(map.containsKey(size));
+
+    // iterate in the comparator order
+    Iterator<Map.Entry<Integer, String>> iterator = map.entrySet().iterator();
+    for (int i = size - 1; i >= 0; i--) {
+      Assert.assertEquals(Integer.valueOf(i), iterator.next().getKey());
+    }
+    Assert.assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testGet_binarySearchInNode() {
+    CountingComparator comparator = new CountingComparator();
+    BTreeMap<Integer, Integer> map = new BTreeMap<>(comparator);
+    // the tree won't be higher than three levels
+    int size = BTreeMap.MAX_NODE_KEYS * BTreeMap.MAX_NODE_DEGREE / 2;
+    for (int i = 0; i < size; i++) {
+      map.put(i, i);
+    }
+
+    // ceil(log2(MAX_NODE_KEYS + 1)) comparisons per level at most
+    int perLevel = 32 - Integer.numberOfLeadingZeros(BTreeMap.MAX_NODE_KEYS);
+    int height = 3;
+    for (int i = 0; i < size; i += 997) {
+      comparator.count = 0;
+      Assert.assertEquals(Integer.valueOf(i), map.get(i));
+      Assert.assertTrue("comparisons: " + comparator.count,
+          comparator.count <= perLevel * height);
+    }
+
+    comparator.count = 0;
+    map.put(size, size);
+    // put may split a full child and compare with the median key once more
+    Assert.assertTrue("comparisons: " + comparator.count,
+        comparator.count <= (perLevel + 1) * height);
+  }
+
+  @Test
+  public void testEntryIterator_emptyMap() {
+    BTreeMap<String, String> map = new BTreeMap<>();
+    Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+    Assert.assertFalse(iterator.hasNext());
+    Assert.assertFalse(map.entryIterator("a", true).hasNext());
+  }
+
+  @Test
+  public void testEntryIterator_fromKey() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    int size = BTreeMap.MAX_NODE_KEYS * 5;
+    // even keys only
+    for (int i = 0; i < size; i++) {
+      map.put(i * 2, i);
+    }
+    Assert.assertEquals(2, map.height());
+
+    for (int from = -1; from <= size * 2; from += 37) {
+      int expected = from < 0 ? 0 : (from + 1) / 2 * 2;
+      Iterator<Map.Entry<Integer, Integer>> inclusive =
+          map.entryIterator(from, true);
+      for (int key = expected; key < size * 2; key += 2) {
+        Assert.assertEquals(Integer.valueOf(key), inclusive.next().getKey());
+      }
+      Assert.assertFalse(inclusive.hasNext());
+    }
+
+    // every key may be in an internal node or a leaf
+    for (int i = 0; i < size; i++) {
+      Iterator<Map.Entry<Integer, Integer>> exclusive =
+          map.entryIterator(i * 2, false);
+      if (i == size - 1) {
+        Assert.assertFalse(exclusive.hasNext());
+      } else {
+        Assert.assertEquals(Integer.valueOf(i * 2 + 2), exclusive.next().getKey());
+      }
+    }
+  }
+
+  @Test
+  public void testEntryIterator_failFast() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    for (int i = 0; i < 10; i++) {
+      map.put(i, i);
+    }
+    Iterator<Map.Entry<Integer, Integer>> iterator = map.entrySet().iterator();
+    iterator.next();
+
+    // replacing a value isn't a structural modification
+    map.put(5, 50);
+    iterator.next();
+
+    map.put(10, 10);
+    try {
+      iterator.next();
+      Assert.fail();
+    } catch (ConcurrentModificationException e) {
+    }
+  }
+
+  @Test
+  public void testNavigation_sameAsTreeMap() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    Random random = new Random(7);
+    for (int i = 0; i < BTreeMap.MAX_NODE_KEYS * 20; i++) {
+      int key = random.nextInt(100000) * 2;
+      map.put(key, i);
+      expected.put(key, i);
+    }
+
+    for (int key = -3; key < 200003; key += 7) {
+      Assert.assertEquals(expected.lowerEntry(key), map.lowerEntry(key));
+      Assert.assertEquals(expected.floorEntry(key), map.floorEntry(key));
+      Assert.assertEquals(expected.ceilingEntry(key), map.ceilingEntry(key));
+      Assert.assertEquals(expected.higherEntry(key), map.higherEntry(key));
+      Assert.assertEquals(expected.lowerKey(key), map.lowerKey(key));
+      Assert.assertEquals(expected.higherKey(key), map.higherKey(key));
+    }
+    // existing keys are in internal nodes or leaves
+    for (Integer key : expected.keySet()) {
+      Assert.assertEquals(expected.lowerKey(key), map.lowerKey(key));
+      Assert.assertEquals(key, map.floorKey(key));
+      Assert.assertEquals(key, map.ceilingKey(key));
+      Assert.assertEquals(expected.higherKey(key), map.higherKey(key));
+    }
+    Assert.assertEquals(expected.firstEntry(), map.firstEntry());
+    Assert.assertEquals(expected.lastEntry(), map.lastEntry());
+    Assert.assertEquals(expected.firstKey(), map.firstKey());
+    Assert.assertEquals(expected.lastKey(), map.lastKey());
+
+    Assert.assertEquals(expected, map);
+    Assert.assertEquals(expected.hashCode(), map.hashCode());
+    Assert.assertEquals(Lists.newArrayList(expected.descendingMap().entrySet()),
+        Lists.newArrayList(map.descendingMap().entrySet()));
+    Assert.assertEquals(Lists.newArrayList(expected.descendingKeySet()),
+        Lists.newArrayList(map.descendingKeySet()));
+  }
+
+  @Test
+  public void testNavigation_emptyMap() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    Assert.assertNull(map.firstEntry());
+    Assert.assertNull(map.lastEntry());
+    Assert.assertNull(map.floorKey(1));
+    Assert.assertNull(map.ceilingKey(1));
+    Assert.assertTrue(map.descendingMap().isEmpty());
+    try {
+      map.firstKey();
+      Assert.fail();
+    } catch (NoSuchElementException e) {
+    }
+  }
+
+  @Test
+  public void testSubMap_sameAsTreeMap() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    for (int i = 0; i < BTreeMap.MAX_NODE_KEYS * 10; i++) {
+      map.put(i * 2, i);
+      expected.put(i * 2, i);
+    }
+
+    Random random = new Random(11);
+    for (int i = 0; i < 200; i++) {
+      int from = random.nextInt(BTreeMap.MAX_NODE_KEYS * 20 + 10) - 5;
+      int to = from + random.nextInt(BTreeMap.MAX_NODE_KEYS * 4);
+      boolean fromInclusive = random.nextBoolean();
+      boolean toInclusive = random.nextBoolean();
+
+      NavigableMap<Integer, Integer> sub =
+          map.subMap(from, fromInclusive, to, toInclusive);
+      NavigableMap<Integer, Integer> expectedSub =
+          expected.subMap(from, fromInclusive, to, toInclusive);
+      assertSameMap(expectedSub, sub);
+      assertSameMap(expectedSub.descendingMap(), sub.descendingMap());
+      assertSameMap(expected.headMap(to, toInclusive),
+          map.headMap(to, toInclusive));
+      assertSameMap(expected.tailMap(from, fromInclusive).descendingMap(),
+          map.tailMap(from, fromInclusive).descendingMap());
+
+      // nested views
+      int mid = from + (to - from) / 2;
+      assertSameMap(expectedSub.descendingMap().headMap(mid, true),
+          sub.descendingMap().headMap(mid, true));
+      assertSameMap(expectedSub.tailMap(mid, false).descendingMap(),
+          sub.tailMap(mid, false).descendingMap());
+    }
+  }
+
+  @Test
+  public void testSubMap_outOfRange() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    NavigableMap<Integer, Integer> sub = map.subMap(10, true, 20, false);
+    sub.put(10, 10);
+    Assert.assertEquals(Integer.valueOf(10), map.get(10));
+    Assert.assertNull(sub.get(20));
+
+    try {
+      sub.put(20, 20);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      sub.subMap(5, 15);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      map.subMap(20, 10);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testSubMap_logarithmicComparisons() {
+    CountingComparator comparator = new CountingComparator();
+    BTreeMap<Integer, Integer> map = new BTreeMap<>(comparator);
+    int size = BTreeMap.MAX_NODE_KEYS * 100;
+    for (int i = 0; i < size; i++) {
+      map.put(i, i);
+    }
+
+    // $gt 5000 and $lt 5100
+    comparator.count = 0;
+    int count = 0;
+    for (Map.Entry<Integer, Integer> e :
+        map.subMap(5000, false, 5100, false).entrySet()) {
+      count++;
+    }
+    Assert.assertEquals(99, count);
+    // a descent, and a bound check for each returned entry plus the last one
+    int perLevel = 32 - Integer.numberOfLeadingZeros(BTreeMap.MAX_NODE_KEYS);
+    Assert.assertTrue("comparisons: " + comparator.count,
+        comparator.count <= perLevel * map.height() + 2 * (count + 1) + 4);
+  }
+
+  @Test
+  public void testSnapshot_unchangedByLaterWrites() {
+    BTreeMap<Integer, String> map = new BTreeMap<>();
+    TreeMap<Integer, String> expected = new TreeMap<>();
+    int size = BTreeMap.MAX_NODE_KEYS * 5;
+    for (int i = 0; i < size; i += 2) {
+      map.put(i, "value" + i);
+      expected.put(i, "value" + i);
+    }
+    NavigableMap<Integer, String> snapshot = map.snapshot();
+
+    // new keys split nodes, old keys replace values
+    for (int i = 0; i < size * 2; i++) {
+      map.put(i, "new" + i);
+    }
+    Assert.assertEquals(size * 2, map.size());
+    Assert.assertEquals("new0", map.get(0));
+    assertSameMap(expected, snapshot);
+    Assert.assertEquals(expected, snapshot);
+    Assert.assertEquals(Lists.newArrayList(expected.descendingKeySet()),
+        Lists.newArrayList(snapshot.descendingKeySet()));
+
+    // a second snapshot sees the first round of writes only
+    NavigableMap<Integer, String> second = map.snapshot();
+    map.put(-1, "new-1");
+    Assert.assertEquals(size * 2, second.size());
+    Assert.assertNull(second.get(-1));
+    Assert.assertEquals("new1", second.get(1));
+    Assert.assertEquals(expected.size(), snapshot.size());
+  }
+
+  @Test
+  public void testSnapshot_iterateWhileWriting() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    for (int i = 0; i < BTreeMap.MAX_NODE_KEYS * 3; i++) {
+      map.put(i, i);
+    }
+    NavigableMap<Integer, Integer> snapshot = map.snapshot();
+
+    int expectedKey = 0;
+    for (Map.Entry<Integer, Integer> entry : snapshot.entrySet()) {
+      Assert.assertEquals(Integer.valueOf(expectedKey), entry.getKey());
+      Assert.assertEquals(Integer.valueOf(expectedKey), entry.getValue());
+      map.put(entry.getKey(), -entry.getValue());
+      map.put(-expectedKey - 1, 0);
+      expectedKey++;
+    }
+    Assert.assertEquals(BTreeMap.MAX_NODE_KEYS * 3, expectedKey);
+    Assert.assertEquals(BTreeMap.MAX_NODE_KEYS * 6, map.size());
+  }
+
+  @Test
+  public void testSnapshot_unmodifiable() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    NavigableMap<Integer, Integer> empty = map.snapshot();
+    map.put(1, 1);
+    Assert.assertTrue(empty.isEmpty());
+    Assert.assertNull(empty.firstEntry());
+
+    NavigableMap<Integer, Integer> snapshot = map.snapshot();
+    try {
+      snapshot.put(2, 2);
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      snapshot.firstEntry().setValue(2);
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    Assert.assertEquals(Integer.valueOf(1), map.get(1));
+  }
+
+  @Test
+  public void testNodeArrays_growWithKeys() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    map.put(0, 0);
+    Assert.assertEquals(BTreeMap.INITIAL_NODE_KEYS, map.capacity());
+    for (int i = 1; i < 100; i++) {
+      map.put(i, i);
+    }
+    // doubled from the initial capacity, not allocated at the maximum degree
+    Assert.assertTrue(map.capacity() < 200);
+
+    for (int i = 100; i < BTreeMap.MAX_NODE_KEYS * 10; i++) {
+      map.put(i, i);
+    }
+    Assert.assertEquals(2, map.height());
+    Assert.assertTrue(map.capacity() <= BTreeMap.MAX_NODE_KEYS * 20);
+  }
+
+  @Test
+  public void testIterator_failFastOnSplit() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    // the root has one key, and its right leaf is full
+    int size = BTreeMap.MAX_NODE_KEYS + BTreeMap.MIN_NODE_KEYS + 1;
+    for (int i = 0; i < size; i++) {
+      map.put(i, i);
+    }
+    Iterator<Integer> iterator = map.tailMap(size - 10).keySet().iterator();
+    iterator.next();
+
+    // the key is the median of the right leaf, so putting it splits the leaf
+    // without adding a key
+    Assert.assertEquals(Integer.valueOf(BTreeMap.MAX_NODE_KEYS),
+        map.put(BTreeMap.MAX_NODE_KEYS, -1));
+    Assert.assertEquals(size, map.size());
+    try {
+      iterator.next();
+      Assert.fail();
+    } catch (ConcurrentModificationException e) {
+    }
+  }
+
+  @Test
+  public void testBulkLoad_sameAsTreeMap() {
+    int[] sizes = {0, 1, BTreeMap.MIN_NODE_KEYS, BTreeMap.MAX_NODE_KEYS,
+        BTreeMap.MAX_NODE_KEYS + 1, 2 * BTreeMap.MIN_NODE_KEYS + 1,
+        BTreeMap.MAX_NODE_KEYS * 7 + 3,
+        BTreeMap.MAX_NODE_KEYS * BTreeMap.MAX_NODE_DEGREE + 1};
+    float[] fillFactors = {0.5f, 0.7f, 0.9f, 1f};
+    for (int size : sizes) {
+      TreeMap<Integer, Integer> expected = new TreeMap<>();
+      for (int i = 0; i < size; i++) {
+        expected.put(i * 2, i);
+      }
+      for (float fillFactor : fillFactors) {
+        BTreeMap<Integer, Integer> map = new BTreeMap<>();
+        map.bulkLoad(expected.entrySet().iterator(), fillFactor);
+        map.checkInvariants();
+        Assert.assertEquals(expected, map);
+        assertSameMap(expected, map);
+        Assert.assertEquals(expected.floorEntry(size), map.floorEntry(size));
+
+        // the tree stays valid after splitting bulk loaded nodes
+        TreeMap<Integer, Integer> copy = new TreeMap<>(expected);
+        for (int i = -1; i < 3000; i += 2) {
+          Assert.assertEquals(copy.put(i, i), map.put(i, i));
+        }
+        map.checkInvariants();
+        Assert.assertEquals(copy, map);
+      }
+    }
+  }
+
+  @Test
+  public void testPut_smallNodes() {
+    // nodes have room for 5 keys, fewer than a new node
+    BTreeMap<Integer, Integer> map = new BTreeMap<>(Optional.empty(), 3);
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    for (int i = 0; i < 200; i++) {
+      int key = i * 7919 % 200;
+      Assert.assertEquals(expected.put(key, i), map.put(key, i));
+      map.checkInvariants();
+    }
+    assertSameMap(expected, map);
+    Assert.assertTrue(map.height() > 2);
+  }
+
+  @Test
+  public void testBulkLoad_everySizeOfSmallNodes() {
+    // the last nodes of several levels are merged or rebalanced
+    for (int size = 0; size < 400; size++) {
+      TreeMap<Integer, Integer> expected = new TreeMap<>();
+      for (int i = 0; i < size; i++) {
+        expected.put(i, i);
+      }
+      for (float fillFactor : new float[]{0.5f, 0.8f, 1f}) {
+        BTreeMap<Integer, Integer> map = new BTreeMap<>(Optional.empty(), 3);
+        map.bulkLoad(expected, fillFactor);
+        map.checkInvariants();
+        assertSameMap(expected, map);
+      }
+    }
+  }
+
+  @Test
+  public void testBulkLoad_fillFactor() {
+    TreeMap<Integer, Integer> sorted = new TreeMap<>();
+    int size = BTreeMap.MAX_NODE_KEYS * 200;
+    for (int i = 0; i < size; i++) {
+      sorted.put(i, i);
+    }
+    BTreeMap<Integer, Integer> full = new BTreeMap<>();
+    full.bulkLoad(sorted.entrySet().iterator(), 1f);
+    BTreeMap<Integer, Integer> half = new BTreeMap<>();
+    half.bulkLoad(sorted, 0.5f);
+    BTreeMap<Integer, Integer> inserted = new BTreeMap<>();
+    for (int i = 0; i < size; i++) {
+      inserted.put(i, i);
+    }
+
+    Assert.assertEquals(2, full.height());
+    Assert.assertEquals(201, full.nodeCount());
+    // a separator follows each node of 500 keys
+    Assert.assertEquals(size / 501 + 1, half.nodeCount());
+    Assert.assertEquals(0.5, half.fillFactor(), 0.01);
+    Assert.assertEquals(1, full.fillFactor(), 0.01);
+    Assert.assertTrue(full.nodeCount() < inserted.nodeCount());
+    Assert.assertEquals(inserted, full);
+    Assert.assertEquals(inserted, half);
+  }
+
+  @Test
+  public void testBulkLoad_invalidArguments() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    List<Map.Entry<Integer, Integer>> unsorted = Lists.newArrayList(
+        new AbstractMap.SimpleEntry<>(2, 2), new AbstractMap.SimpleEntry<>(1, 1));
+    try {
+      map.bulkLoad(unsorted.iterator(), 1f);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+    }
+    Assert.assertTrue(map.isEmpty());
+    try {
+      map.bulkLoad(Collections.<Map.Entry<Integer, Integer>>emptyIterator(),
+          0.3f);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+    }
+
+    map.put(1, 1);
+    try {
+      map.bulkLoad(Collections.<Map.Entry<Integer, Integer>>emptyIterator(),
+          1f);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  @Test
+  public void testPutAll_bulkLoadSortedMap() {
+    TreeMap<String, Integer> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for (int i = 0; i < BTreeMap.MAX_NODE_KEYS * 20; i++) {
+      sorted.put("key" + i, i);
+    }
+    BTreeMap<String, Integer> map = new BTreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    map.putAll(sorted);
+    map.checkInvariants();
+    Assert.assertEquals(sorted, map);
+    // bulk loaded nodes are 90% full, inserted nodes are at most 75% full
+    // on average
+    Assert.assertTrue(map.nodeCount() <= 20 / 0.9 + 2);
+    Assert.assertEquals(Integer.valueOf(7), map.get("KEY7"));
+
+    // a different order is put one by one
+    BTreeMap<String, Integer> natural = new BTreeMap<>(sorted);
+    natural.checkInvariants();
+    Assert.assertEquals(sorted.size(), natural.size());
+    Assert.assertNull(natural.get("KEY7"));
+
+    // not empty
+    map.putAll(ImmutableSortedMap.of("a", 1, "z", 2));
+    map.checkInvariants();
+    Assert.assertEquals(sorted.size() + 2, map.size());
+  }
+
+  @Test
+  public void testRemove_sameAsTreeMap() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    Random random = new Random(13);
+    int range = BTreeMap.MAX_NODE_KEYS * 40;
+    for (int i = 0; i < 300000; i++) {
+      int key = random.nextInt(range);
+      if (random.nextInt(3) == 0) {
+        Assert.assertEquals(expected.remove(key), map.remove(key));
+      } else {
+        Assert.assertEquals(expected.put(key, i), map.put(key, i));
+      }
+      if (i % 50000 == 0) {
+        map.checkInvariants();
+      }
+    }
+    map.checkInvariants();
+    Assert.assertEquals(expected, map);
+    assertSameMap(expected.descendingMap(), map.descendingMap());
+    Assert.assertNull(map.remove(-1));
+
+    for (Integer key : expected.keySet()) {
+      Assert.assertNotNull(map.remove(key));
+    }
+    map.checkInvariants();
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertEquals(0, map.height());
+    Assert.assertEquals(0, map.nodeCount());
+  }
+
+  @Test
+  public void testRemove_ninetyPercent() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    int size = BTreeMap.MAX_NODE_KEYS * BTreeMap.MAX_NODE_DEGREE;
+    List<Integer> keys = Lists.newArrayListWithCapacity(size);
+    for (int i = 0; i < size; i++) {
+      map.put(i, i);
+      keys.add(i);
+    }
+    Assert.assertEquals(3, map.height());
+    int nodeCount = map.nodeCount();
+
+    Collections.shuffle(keys, new Random(17));
+    int removed = size / 10 * 9;
+    for (int i = 0; i < removed; i++) {
+      Assert.assertEquals(keys.get(i), map.remove(keys.get(i)));
+    }
+    map.checkInvariants();
+    int live = size - removed;
+    Assert.assertEquals(live, map.size());
+    // every node but the root keeps at least MIN_NODE_KEYS keys
+    Assert.assertTrue("nodes: " + map.nodeCount(),
+        map.nodeCount() <= live / BTreeMap.MIN_NODE_KEYS + 1);
+    Assert.assertTrue(map.nodeCount() < nodeCount / 5);
+    Assert.assertEquals(2, map.height());
+    for (int i = removed; i < size; i++) {
+      Assert.assertEquals(keys.get(i), map.get(keys.get(i)));
+    }
+    Assert.assertNull(map.get(keys.get(0)));
+  }
+
+  @Test
+  public void testIterator_remove() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    for (int i = 0; i < BTreeMap.MAX_NODE_KEYS * 10; i++) {
+      map.put(i, i);
+      expected.put(i, i);
+    }
+
+    // remove odd keys ascending, then multiples of 4 descending
+    Iterator<Map.Entry<Integer, Integer>> iterator = map.entrySet().iterator();
+    Iterator<Map.Entry<Integer, Integer>> expectedIterator =
+        expected.entrySet().iterator();
+    while (expectedIterator.hasNext()) {
+      Map.Entry<Integer, Integer> entry = expectedIterator.next();
+      Assert.assertEquals(entry, iterator.next());
+      if (entry.getKey() % 2 == 1) {
+        expectedIterator.remove();
+        iterator.remove();
+      }
+    }
+    Assert.assertFalse(iterator.hasNext());
+    Iterator<Integer> keys = map.descendingKeySet().iterator();
+    Iterator<Integer> expectedKeys = expected.descendingKeySet().iterator();
+    while (expectedKeys.hasNext()) {
+      Integer key = expectedKeys.next();
+      Assert.assertEquals(key, keys.next());
+      if (key % 4 == 0) {
+        expectedKeys.remove();
+        keys.remove();
+      }
+    }
+    Assert.assertFalse(keys.hasNext());
+    map.checkInvariants();
+    Assert.assertEquals(expected, map);
+
+    try {
+      keys.remove();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+    }
+
+    // views remove through the map
+    map.subMap(100, 5000).clear();
+    expected.subMap(100, 5000).clear();
+    Assert.assertEquals(expected.pollFirstEntry(), map.pollFirstEntry());
+    Assert.assertEquals(expected.pollLastEntry(), map.pollLastEntry());
+    Assert.assertTrue(map.entrySet().remove(
+        new AbstractMap.SimpleEntry<>(5002, 5002)));
+    expected.remove(5002);
+    map.checkInvariants();
+    Assert.assertEquals(expected, map);
+  }
+
+  @Test
+  public void testSnapshot_unchangedByRemove() {
+    BTreeMap<Integer, Integer> map = new BTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    for (int i = 0; i < BTreeMap.MAX_NODE_KEYS * 10; i++) {
+      map.put(i, i);
+      expected.put(i, i);
+    }
+    NavigableMap<Integer, Integer> snapshot = map.snapshot();
+    for (int i = 0; i < BTreeMap.MAX_NODE_KEYS * 10; i += 3) {
+      map.remove(i);
+    }
+    map.checkInvariants();
+    Assert.assertEquals(expected, snapshot);
+    Assert.assertEquals(BTreeMap.MAX_NODE_KEYS * 10 / 3 * 2, map.size());
+  }
+
+  @Test
+  public void testMinDegree_sameAsTreeMap() {
+    for (int minDegree : new int[]{3, 4, 17}) {
+      BTreeMap<Integer, Integer> map = new BTreeMap<>(Optional.empty(),
+          minDegree);
+      TreeMap<Integer, Integer> expected = new TreeMap<>();
+      Random random = new Random(minDegree);
+      for (int i = 0; i < 20000; i++) {
+        int key = random.nextInt(5000);
+        if (random.nextInt(3) == 0) {
+          Assert.assertEquals(expected.remove(key), map.remove(key));
+        } else {
+          Assert.assertEquals(expected.put(key, i), map.put(key, i));
+        }
+      }
+      map.checkInvariants();
+      assertSameMap(expected, map);
+      assertSameMap(expected, map.snapshot());
+      // a smaller degree makes a taller tree
+      Assert.assertTrue(map.height() >= 3);
+
+      BTreeMap<Integer, Integer> loaded = new BTreeMap<>(Optional.empty(),
+          minDegree);
+      loaded.putAll(expected);
+      loaded.checkInvariants();
+      assertSameMap(expected, loaded);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMinDegree_tooSmall() {
+    new BTreeMap<Integer, Integer>(Optional.empty(), 2);
+  }
+
+  @Test
+  public void testStatistics() {
+    CountingComparator comparator = new CountingComparator();
+    BTreeMap<Integer, Integer> map = new BTreeMap<>(Optional.of(comparator),
+        4);
+    LookupCounters counters = new LookupCounters();
+    map.countLookups(counters);
+    Assert.assertEquals(0, map.nodeCount());
+    Assert.assertEquals(0, map.fillFactor(), 0);
+    Assert.assertEquals(0, counters.comparisonsPerLookup(), 0);
+
+    for (int i = 0; i < 1000; i++) {
+      map.put(i, i);
+    }
+    map.checkInvariants();
+    Assert.assertEquals(1000, counters.getLookups());
+    Assert.assertTrue(map.splitCount() > 1000 / 7);
+    // a split adds a node, and so does each new root
+    Assert.assertEquals(map.splitCount() + map.height(), map.nodeCount());
+    Assert.assertEquals(1000.0 / map.nodeCount() / 7, map.fillFactor(), 1e-9);
+
+    comparator.count = 0;
+    long comparisons = counters.getComparisons();
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertEquals(i, (int) map.get(i));
+    }
+    Assert.assertEquals(2000, counters.getLookups());
+    Assert.assertEquals(comparator.count,
+        counters.getComparisons() - comparisons);
+    Assert.assertEquals(map.subMap(10, 20).size(), 10);
+    Assert.assertEquals(2001, counters.getLookups());
+
+    for (int i = 0; i < 1000; i += 2) {
+      map.remove(i);
+    }
+    map.checkInvariants();
+    // the entry is found and deleted in a single descent
+    Assert.assertEquals(2501, counters.getLookups());
+    for (int i = 0; i < 1000; i += 2) {
+      Assert.assertNull(map.remove(i));
+    }
+    map.checkInvariants();
+    Assert.assertEquals(500, map.size());
+    Assert.assertEquals(3001, counters.getLookups());
+    map.clear();
+    Assert.assertEquals(0, map.nodeCount());
+  }
+
+  private static <K, V> void assertSameMap(NavigableMap<K, V> expected,
+      NavigableMap<K, V> actual) {
+    Assert.assertEquals(Lists.newArrayList(expected.entrySet()),
+        Lists.newArrayList(actual.entrySet()));
+    Assert.assertEquals(expected.size(), actual.size());
+    Assert.assertEquals(expected.isEmpty(), actual.isEmpty());
+    Assert.assertEquals(expected.firstEntry(), actual.firstEntry());
+    Assert.assertEquals(expected.lastEntry(), actual.lastEntry());
+  }
+
+  private static class CountingComparator implements Comparator<Integer> {
+    int count = 0;
+
+    @Override public int compare(Integer o1, Integer o2) {
+      count++;
+      return o1.compareTo(o2);
+    }
+  }
 }
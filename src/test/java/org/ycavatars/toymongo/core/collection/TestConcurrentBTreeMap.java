@@ -0,0 +1,246 @@
+package org.ycavatars.toymongo.core.collection;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author ycavatars
+ */
+public class TestConcurrentBTreeMap {
+
+  private static final int THREADS = 8;
+
+  @Test
+  public void testSingleThread_sameAsTreeMap() {
+    ConcurrentBTreeMap<Integer, Integer> map = new ConcurrentBTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    Random random = new Random(1);
+    for (int i = 0; i < 200000; i++) {
+      int key = random.nextInt(20000);
+      switch (random.nextInt(4)) {
+        case 0:
+          Assert.assertEquals(expected.remove(key), map.remove(key));
+          break;
+        case 1:
+          Assert.assertEquals(expected.putIfAbsent(key, i), map.putIfAbsent(key, i));
+          break;
+        default:
+          Assert.assertEquals(expected.put(key, i), map.put(key, i));
+      }
+    }
+    Assert.assertTrue(map.height() > 2);
+    Assert.assertEquals(expected.size(), map.size());
+    Assert.assertEquals(expected, map);
+    Assert.assertEquals(Lists.newArrayList(expected.descendingMap().entrySet()),
+        Lists.newArrayList(map.descendingMap().entrySet()));
+
+    for (int key = -1; key <= 20000; key++) {
+      Assert.assertEquals(expected.lowerEntry(key), map.lowerEntry(key));
+      Assert.assertEquals(expected.floorEntry(key), map.floorEntry(key));
+      Assert.assertEquals(expected.ceilingEntry(key), map.ceilingEntry(key));
+      Assert.assertEquals(expected.higherEntry(key), map.higherEntry(key));
+    }
+
+    ConcurrentNavigableMap<Integer, Integer> sub = map.subMap(100, 5000);
+    Assert.assertEquals(expected.subMap(100, 5000), sub);
+    Assert.assertEquals(Lists.newArrayList(expected.subMap(100, true, 5000, false).descendingKeySet()),
+        Lists.newArrayList(sub.descendingKeySet()));
+  }
+
+  @Test
+  public void testRemoveAll_emptyLeaves() {
+    ConcurrentBTreeMap<Integer, Integer> map = new ConcurrentBTreeMap<>();
+    for (int i = 0; i < 10000; i++) {
+      map.put(i, i);
+    }
+    map.subMap(0, 9990).clear();
+    map.remove(9999);
+
+    Assert.assertEquals(9, map.size());
+    Assert.assertEquals(Integer.valueOf(9990), map.firstKey());
+    Assert.assertEquals(Integer.valueOf(9998), map.lastKey());
+    Assert.assertEquals(Integer.valueOf(9998), map.floorKey(20000));
+    Assert.assertNull(map.lowerKey(9990));
+
+    map.clear();
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertNull(map.lastEntry());
+    Assert.assertFalse(map.keySet().iterator().hasNext());
+  }
+
+  @Test
+  public void testConcurrentPut_disjointKeys() throws Exception {
+    ConcurrentBTreeMap<Integer, Integer> map = new ConcurrentBTreeMap<>();
+    int perThread = 50000;
+    runConcurrently(thread -> {
+      // interleave the keys of threads, so they split the same nodes
+      for (int i = 0; i < perThread; i++) {
+        int key = i * THREADS + thread;
+        Assert.assertNull(map.put(key, key));
+      }
+    });
+
+    Assert.assertEquals(perThread * THREADS, map.size());
+    int expected = 0;
+    for (Map.Entry<Integer, Integer> e : map.entrySet()) {
+      Assert.assertEquals(Integer.valueOf(expected), e.getKey());
+      Assert.assertEquals(e.getKey(), e.getValue());
+      expected++;
+    }
+    Assert.assertEquals(perThread * THREADS, expected);
+  }
+
+  @Test
+  public void testConcurrentPutIfAbsent_oneWinnerPerKey() throws Exception {
+    ConcurrentBTreeMap<Integer, Integer> map = new ConcurrentBTreeMap<>();
+    int keys = 100000;
+    AtomicInteger wins = new AtomicInteger();
+    runConcurrently(thread -> {
+      for (int i = 0; i < keys; i++) {
+        if (map.putIfAbsent(i, thread) == null) {
+          wins.incrementAndGet();
+        }
+      }
+    });
+
+    Assert.assertEquals(keys, wins.get());
+    Assert.assertEquals(keys, map.size());
+  }
+
+  /**
+   * Every thread owns the keys congruent to its id, and checks each result
+   * against its own sequential model. Nodes are shared by all threads, so a
+   * lost or duplicated key caused by a split shows up as a wrong result.
+   */
+  @Test
+  public void testConcurrentMixedOperations_perKeyLinearizable() throws Exception {
+    ConcurrentBTreeMap<Integer, Integer> map = new ConcurrentBTreeMap<>();
+    List<TreeMap<Integer, Integer>> models = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      models.add(new TreeMap<>());
+    }
+
+    runConcurrently(thread -> {
+      TreeMap<Integer, Integer> model = models.get(thread);
+      Random random = new Random(thread);
+      for (int i = 0; i < 100000; i++) {
+        int key = random.nextInt(5000) * THREADS + thread;
+        switch (random.nextInt(5)) {
+          case 0:
+            Assert.assertEquals(model.remove(key), map.remove(key));
+            break;
+          case 1:
+            Assert.assertEquals(model.putIfAbsent(key, i), map.putIfAbsent(key, i));
+            break;
+          case 2:
+            Assert.assertEquals(model.get(key), map.get(key));
+            break;
+          default:
+            Assert.assertEquals(model.put(key, i), map.put(key, i));
+        }
+      }
+    });
+
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    models.forEach(expected::putAll);
+    Assert.assertEquals(expected, map);
+    Assert.assertEquals(expected.size(), map.size());
+  }
+
+  @Test
+  public void testConcurrentReaders_neverSeeUnsortedOrLostKeys() throws Exception {
+    ConcurrentBTreeMap<Integer, Integer> map = new ConcurrentBTreeMap<>();
+    // keys which are never removed
+    for (int i = 0; i < 100000; i += 100) {
+      map.put(i, i);
+    }
+
+    AtomicBoolean done = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    List<Future<?>> readers = new ArrayList<>();
+    for (int t = 0; t < THREADS / 2; t++) {
+      readers.add(executor.submit(() -> {
+        while (!done.get()) {
+          int previous = -1;
+          int stable = 0;
+          for (Integer key : map.keySet()) {
+            Assert.assertTrue(key > previous);
+            previous = key;
+            if (key % 100 == 0) {
+              stable++;
+            }
+          }
+          Assert.assertEquals(1000, stable);
+          for (int i = 0; i < 100000; i += 100) {
+            Assert.assertEquals(Integer.valueOf(i), map.get(i));
+          }
+        }
+        return null;
+      }));
+    }
+    List<Future<?>> writers = new ArrayList<>();
+    for (int t = 0; t < THREADS / 2; t++) {
+      int thread = t;
+      writers.add(executor.submit(() -> {
+        Random random = new Random(thread);
+        for (int i = 0; i < 200000; i++) {
+          int key = random.nextInt(100000);
+          if (key % 100 == 0) {
+            continue;
+          }
+          if (random.nextBoolean()) {
+            map.put(key, key);
+          } else {
+            map.remove(key);
+          }
+        }
+        return null;
+      }));
+    }
+
+    for (Future<?> writer : writers) {
+      writer.get();
+    }
+    done.set(true);
+    for (Future<?> reader : readers) {
+      reader.get();
+    }
+    executor.shutdown();
+  }
+
+  private interface Task {
+    void run(int thread) throws Exception;
+  }
+
+  private static void runConcurrently(Task task) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    CyclicBarrier barrier = new CyclicBarrier(THREADS);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      int thread = t;
+      futures.add(executor.submit(() -> {
+        barrier.await();
+        task.run(thread);
+        return null;
+      }));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get(60, TimeUnit.SECONDS);
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof AssertionError) {
+        throw (AssertionError) e.getCause();
+      }
+      throw e;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
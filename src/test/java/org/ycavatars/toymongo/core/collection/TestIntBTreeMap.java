@@ -0,0 +1,75 @@
+package org.ycavatars.toymongo.core.collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * @author ycavatars
+ */
+public class TestIntBTreeMap {
+
+  @Test
+  public void testPut_sameAsTreeMap() {
+    IntBTreeMap<String> map = new IntBTreeMap<>();
+    TreeMap<Integer, String> expected = new TreeMap<>();
+    Random random = new Random(11);
+    for (int i = 0; i < IntBTreeMap.MAX_NODE_KEYS * 50; i++) {
+      int key = random.nextInt(IntBTreeMap.MAX_NODE_KEYS * 40) - 100;
+      Assert.assertEquals(expected.put(key, "value" + i),
+          map.put(key, "value" + i));
+    }
+
+    Assert.assertEquals(expected.size(), map.size());
+    Assert.assertTrue(map.height() >= 2);
+    for (int key = -101; key < IntBTreeMap.MAX_NODE_KEYS * 40; key++) {
+      Assert.assertEquals(expected.get(key), map.get(key));
+      Assert.assertEquals(expected.containsKey(key), map.containsKey(key));
+    }
+    Assert.assertEquals(expected.firstKey().intValue(), map.firstKey());
+    Assert.assertEquals(expected.lastKey().intValue(), map.lastKey());
+
+    IntBTreeMap<String>.Cursor cursor = map.cursor(0);
+    for (Map.Entry<Integer, String> entry : expected.tailMap(0).entrySet()) {
+      Assert.assertTrue(cursor.next());
+      Assert.assertEquals(entry.getKey().intValue(), cursor.key());
+      Assert.assertEquals(entry.getValue(), cursor.value());
+    }
+    Assert.assertFalse(cursor.next());
+
+    map.clear();
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertFalse(map.cursor().next());
+  }
+
+  @Test
+  public void testRemove_sameAsTreeMap() {
+    IntBTreeMap<Integer> map = new IntBTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    Random random = new Random(17);
+    int count = IntBTreeMap.MAX_NODE_KEYS * 60;
+    for (int i = 0; i < count; i++) {
+      int key = random.nextInt(count) - count / 2;
+      Assert.assertEquals(expected.put(key, key), map.put(key, key));
+    }
+    map.checkInvariants();
+    for (int i = 0; i < count * 2; i++) {
+      int key = random.nextInt(count + 10) - count / 2 - 5;
+      Assert.assertEquals(expected.remove(key), map.remove(key));
+      if (i % 10_000 == 0) {
+        map.checkInvariants();
+      }
+    }
+    map.checkInvariants();
+    Assert.assertEquals(expected.size(), map.size());
+
+    IntBTreeMap<Integer>.Cursor cursor = map.cursor();
+    for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+      Assert.assertTrue(cursor.next());
+      Assert.assertEquals(entry.getKey().intValue(), cursor.key());
+      Assert.assertEquals(entry.getValue(), cursor.value());
+    }
+    Assert.assertFalse(cursor.next());
+  }
+}
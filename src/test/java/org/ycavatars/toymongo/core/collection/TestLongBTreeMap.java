@@ -0,0 +1,144 @@
+package org.ycavatars.toymongo.core.collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * @author ycavatars
+ */
+public class TestLongBTreeMap {
+
+  @Test
+  public void testPut_sameAsTreeMap() {
+    LongBTreeMap<String> map = new LongBTreeMap<>();
+    TreeMap<Long, String> expected = new TreeMap<>();
+    Random random = new Random(7);
+    for (int i = 0; i < LongBTreeMap.MAX_NODE_KEYS * 50; i++) {
+      long key = random.nextInt(LongBTreeMap.MAX_NODE_KEYS * 40);
+      Assert.assertEquals(expected.put(key, "value" + i),
+          map.put(key, "value" + i));
+    }
+    // keys beyond the int range
+    Assert.assertNull(map.put(Long.MAX_VALUE, "max"));
+    Assert.assertNull(map.put(Long.MIN_VALUE, "min"));
+    expected.put(Long.MAX_VALUE, "max");
+    expected.put(Long.MIN_VALUE, "min");
+
+    Assert.assertEquals(expected.size(), map.size());
+    Assert.assertTrue(map.height() >= 2);
+    for (long key = -1; key < LongBTreeMap.MAX_NODE_KEYS * 40 + 1; key++) {
+      Assert.assertEquals(expected.get(key), map.get(key));
+      Assert.assertEquals(expected.containsKey(key), map.containsKey(key));
+    }
+    Assert.assertEquals(Long.MIN_VALUE, map.firstKey());
+    Assert.assertEquals(Long.MAX_VALUE, map.lastKey());
+  }
+
+  @Test
+  public void testRemove_sameAsTreeMap() {
+    LongBTreeMap<Long> map = new LongBTreeMap<>();
+    TreeMap<Long, Long> expected = new TreeMap<>();
+    Random random = new Random(13);
+    int count = LongBTreeMap.MAX_NODE_KEYS * 60;
+    for (int i = 0; i < count; i++) {
+      long key = random.nextInt(count);
+      Assert.assertEquals(expected.put(key, key), map.put(key, key));
+    }
+    Assert.assertEquals(2, map.height());
+    map.checkInvariants();
+
+    // absent keys too, and most of the keys, so nodes borrow and merge
+    for (int i = 0; i < count * 2; i++) {
+      long key = random.nextInt(count + 10) - 5;
+      Assert.assertEquals(expected.remove(key), map.remove(key));
+    }
+    map.checkInvariants();
+    Assert.assertEquals(expected.size(), map.size());
+    assertCursor(expected, map.cursor());
+
+    // the root collapses to a leaf, and then the map is empty
+    for (Long key : new ArrayList<>(expected.keySet())) {
+      Assert.assertEquals(key, map.remove(key));
+      if (map.size() % 500 == 0) {
+        map.checkInvariants();
+        // two levels hold at least two half full leaves and a separator
+        Assert.assertTrue(map.size() > 2 * LongBTreeMap.MIN_NODE_KEYS
+            || map.height() < 2);
+      }
+    }
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertEquals(0, map.height());
+    Assert.assertNull(map.remove(1));
+    // a null value is removed as well
+    map.put(1, null);
+    Assert.assertNull(map.remove(1));
+    Assert.assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void testCursor_sameAsTreeMap() {
+    LongBTreeMap<Long> map = new LongBTreeMap<>();
+    TreeMap<Long, Long> expected = new TreeMap<>();
+    for (long i = 0; i < LongBTreeMap.MAX_NODE_KEYS * 10; i++) {
+      map.put(i * 2, i);
+      expected.put(i * 2, i);
+    }
+
+    assertCursor(expected, map.cursor());
+    for (long key = -1; key < LongBTreeMap.MAX_NODE_KEYS * 20 + 1; key += 97) {
+      assertCursor(expected.tailMap(key, true), map.cursor(key));
+    }
+    assertCursor(expected.tailMap(LongBTreeMap.MAX_NODE_KEYS * 20L, true),
+        map.cursor(LongBTreeMap.MAX_NODE_KEYS * 20L));
+  }
+
+  @Test
+  public void testCursor_emptyMap() {
+    LongBTreeMap<String> map = new LongBTreeMap<>();
+    Assert.assertFalse(map.cursor().next());
+    Assert.assertFalse(map.cursor(1).next());
+    try {
+      map.firstKey();
+      Assert.fail();
+    } catch (NoSuchElementException e) {
+    }
+  }
+
+  @Test
+  public void testCursor_failFast() {
+    LongBTreeMap<String> map = new LongBTreeMap<>();
+    map.put(1, "a");
+    map.put(2, "b");
+    LongBTreeMap.Cursor cursor = map.cursor();
+    Assert.assertTrue(cursor.next());
+    // replacing a value is not a structural modification
+    map.put(1, "c");
+    Assert.assertEquals("c", cursor.value());
+    map.put(3, "d");
+    try {
+      cursor.next();
+      Assert.fail();
+    } catch (ConcurrentModificationException e) {
+    }
+    cursor = map.cursor();
+    map.remove(2);
+    try {
+      cursor.next();
+      Assert.fail();
+    } catch (ConcurrentModificationException e) {
+    }
+  }
+
+  private static <V> void assertCursor(NavigableMap<Long, V> expected,
+      LongBTreeMap<V>.Cursor cursor) {
+    for (Map.Entry<Long, V> entry : expected.entrySet()) {
+      Assert.assertTrue(cursor.next());
+      Assert.assertEquals(entry.getKey().longValue(), cursor.key());
+      Assert.assertEquals(entry.getValue(), cursor.value());
+    }
+    Assert.assertFalse(cursor.next());
+    Assert.assertFalse(cursor.next());
+  }
+}
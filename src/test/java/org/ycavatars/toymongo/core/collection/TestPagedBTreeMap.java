@@ -0,0 +1,251 @@
+package org.ycavatars.toymongo.core.collection;
+
+import com.google.common.collect.Lists;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.storage.BufferPool;
+import org.ycavatars.toymongo.core.storage.Page;
+import org.ycavatars.toymongo.core.storage.PageFile;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author ycavatars
+ */
+public class TestPagedBTreeMap {
+
+  // 15 keys per leaf and 20 keys per internal node of longs
+  private static final int PAGE_SIZE = 256;
+
+  private FileSystem fileSystem;
+
+  private Path directory;
+
+  @Before
+  public void setUp() {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    directory = fileSystem.getPath("/");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  private PageFile file(String name) throws IOException {
+    return new PageFile(directory.resolve(name), PAGE_SIZE);
+  }
+
+  @Test
+  public void testOperations_sameAsTreeMapWithEvictions() throws IOException {
+    BufferPool pool = new BufferPool(16 * PAGE_SIZE, PAGE_SIZE);
+    try (PageFile file = file("index")) {
+      PagedBTreeMap<Long, Long> map = new PagedBTreeMap<>(pool, file,
+          PageSerializer.LONG, PageSerializer.LONG);
+      TreeMap<Long, Long> expected = new TreeMap<>();
+      Random random = new Random(7);
+      for (int i = 0; i < 20000; i++) {
+        long key = random.nextInt(10000);
+        if (random.nextInt(4) == 0) {
+          Assert.assertEquals(expected.remove(key), map.remove(key));
+        } else {
+          Assert.assertEquals(expected.put(key, (long) i),
+              map.put(key, (long) i));
+        }
+      }
+
+      Assert.assertTrue(map.height() >= 3);
+      Assert.assertTrue(file.pageCount() > pool.capacity() * 10);
+      Assert.assertTrue(pool.evictionCount() > 0);
+      Assert.assertTrue(pool.residentCount() <= pool.capacity());
+      Assert.assertEquals(expected.size(), map.size());
+      Assert.assertEquals(Lists.newArrayList(expected.entrySet()),
+          Lists.newArrayList(map.entrySet()));
+      Assert.assertEquals(
+          Lists.newArrayList(expected.descendingMap().entrySet()),
+          Lists.newArrayList(map.descendingMap().entrySet()));
+      for (long key = -1; key <= 10000; key += 7) {
+        Assert.assertEquals(expected.get(key), map.get(key));
+        Assert.assertEquals(expected.lowerEntry(key), map.lowerEntry(key));
+        Assert.assertEquals(expected.floorEntry(key), map.floorEntry(key));
+        Assert.assertEquals(expected.ceilingEntry(key), map.ceilingEntry(key));
+        Assert.assertEquals(expected.higherEntry(key), map.higherEntry(key));
+      }
+      Assert.assertEquals(expected.subMap(100L, true, 2000L, false),
+          map.subMap(100L, true, 2000L, false));
+      Assert.assertEquals(
+          Lists.newArrayList(expected.headMap(5000L, true).descendingKeySet()),
+          Lists.newArrayList(map.headMap(5000L, true).descendingKeySet()));
+
+      // remove through the iterator, leaving empty leaves behind
+      for (Iterator<Long> it = map.keySet().iterator(); it.hasNext(); ) {
+        if (it.next() % 10 != 0) {
+          it.remove();
+        }
+      }
+      expected.keySet().removeIf(key -> key % 10 != 0);
+      Assert.assertEquals(expected, map);
+      Assert.assertEquals(expected.firstEntry(), map.firstEntry());
+      Assert.assertEquals(expected.lastEntry(), map.lastEntry());
+      Assert.assertEquals(expected.higherKey(1L), map.higherKey(1L));
+      Assert.assertEquals(expected.lowerKey(9999L), map.lowerKey(9999L));
+
+      map.clear();
+      Assert.assertTrue(map.isEmpty());
+      Assert.assertEquals(1, file.pageCount());
+      Assert.assertNull(map.firstEntry());
+      Assert.assertNull(map.put(1L, 1L));
+      Assert.assertEquals(Long.valueOf(1), map.get(1L));
+    }
+  }
+
+  @Test
+  public void testIterator_failFastWithBound() throws IOException {
+    BufferPool pool = new BufferPool(16 * PAGE_SIZE, PAGE_SIZE);
+    try (PageFile file = file("index")) {
+      PagedBTreeMap<Long, Long> map = new PagedBTreeMap<>(pool, file,
+          PageSerializer.LONG, PageSerializer.LONG);
+      for (long i = 0; i < 200; i++) {
+        map.put(i, i);
+      }
+      Iterator<Long> iterator = map.headMap(100L).keySet().iterator();
+      // the map is cleared, and the file truncated, by the last remove
+      for (long i = 0; i < 200; i++) {
+        map.remove(i);
+      }
+      try {
+        iterator.hasNext();
+        Assert.fail();
+      } catch (ConcurrentModificationException e) {
+      }
+    }
+  }
+
+  @Test
+  public void testFlush_reopenWithAnotherPool() throws IOException {
+    TreeMap<String, Long> expected = new TreeMap<>();
+    BufferPool pool = new BufferPool(8 * PAGE_SIZE, PAGE_SIZE);
+    try (PageFile file = file("names")) {
+      PagedBTreeMap<String, Long> map = new PagedBTreeMap<>(pool, file,
+          PageSerializer.string(16), PageSerializer.LONG,
+          Comparator.reverseOrder());
+      for (long i = 0; i < 3000; i++) {
+        map.put("name" + i, i);
+        expected.put("name" + i, i);
+      }
+      try {
+        map.put("a name longer than 16 bytes", 0L);
+        Assert.fail();
+      } catch (IllegalArgumentException e) {
+      }
+      map.flush();
+    }
+
+    pool = new BufferPool(8 * PAGE_SIZE, PAGE_SIZE);
+    try (PageFile file = file("names")) {
+      PagedBTreeMap<String, Long> map = new PagedBTreeMap<>(pool, file,
+          PageSerializer.string(16), PageSerializer.LONG,
+          Comparator.reverseOrder());
+      Assert.assertEquals(expected, map);
+      Assert.assertEquals("name999", map.firstKey());
+      // read from the file
+      Assert.assertTrue(pool.missCount() >= file.pageCount());
+
+      try {
+        new PagedBTreeMap<>(pool, file, PageSerializer.LONG,
+            PageSerializer.LONG);
+        Assert.fail();
+      } catch (IllegalArgumentException e) {
+      }
+    }
+  }
+
+  @Test
+  public void testBufferPool_hotPagesStayResident() throws IOException {
+    BufferPool pool = new BufferPool(256 * PAGE_SIZE, PAGE_SIZE);
+    try (PageFile hotFile = file("hot"); PageFile coldFile = file("cold")) {
+      PagedBTreeMap<Long, Long> hot = new PagedBTreeMap<>(pool, hotFile,
+          PageSerializer.LONG, PageSerializer.LONG);
+      PagedBTreeMap<Long, Long> cold = new PagedBTreeMap<>(pool, coldFile,
+          PageSerializer.LONG, PageSerializer.LONG);
+      for (long i = 0; i < 100; i++) {
+        hot.put(i, i);
+      }
+      for (long i = 0; i < 50000; i++) {
+        cold.put(i, i);
+      }
+      Assert.assertTrue(coldFile.pageCount() > 10 * pool.capacity());
+      long hitsBefore = pool.hitCount();
+
+      Random random = new Random(11);
+      long hotMisses = 0;
+      long coldMisses = 0;
+      int gets = 20000;
+      for (int i = 0; i < gets; i++) {
+        long misses = pool.missCount();
+        long key = random.nextInt(100);
+        Assert.assertEquals(Long.valueOf(key), hot.get(key));
+        hotMisses += pool.missCount() - misses;
+
+        misses = pool.missCount();
+        key = random.nextInt(50000);
+        Assert.assertEquals(Long.valueOf(key), cold.get(key));
+        coldMisses += pool.missCount() - misses;
+      }
+      // a hot leaf is evicted only if no get reaches it in a whole revolution
+      Assert.assertTrue(hotMisses < gets / 100);
+      Assert.assertTrue(coldMisses > gets);
+      Assert.assertTrue(pool.hitCount() - hitsBefore > 2 * gets);
+      Assert.assertTrue(pool.residentCount() <= pool.capacity());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBufferPool_allPagesPinned() throws IOException {
+    BufferPool pool = new BufferPool(4 * PAGE_SIZE, PAGE_SIZE);
+    try (PageFile file = file("pinned")) {
+      for (int i = 0; i < 5; i++) {
+        pool.allocate(file);
+      }
+    }
+  }
+
+  @Test
+  public void testBufferPool_failedPinFreesItsFrame() throws IOException {
+    BufferPool pool = new BufferPool(4 * PAGE_SIZE, PAGE_SIZE);
+    PageFile closed = file("closed");
+    try (Page page = pool.allocate(closed)) {
+      page.markDirty();
+    }
+    pool.flush(closed);
+    closed.close();
+
+    pool = new BufferPool(4 * PAGE_SIZE, PAGE_SIZE);
+    try (PageFile file = file("index")) {
+      try {
+        pool.pin(file, 7);
+        Assert.fail();
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+        pool.pin(closed, 0);
+        Assert.fail();
+      } catch (IOException expected) {
+      }
+      Assert.assertEquals(0, pool.residentCount());
+      // evictions pass every frame, including the one of the failed read
+      for (int i = 0; i < 20; i++) {
+        pool.allocate(file).close();
+      }
+      Assert.assertEquals(4, pool.residentCount());
+      Assert.assertEquals(16, pool.evictionCount());
+    }
+  }
+}
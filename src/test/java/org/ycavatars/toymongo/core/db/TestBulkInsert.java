@@ -0,0 +1,275 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.google.common.base.Strings;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.journal.Journal;
+import org.ycavatars.toymongo.core.storage.ExtentStore;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author ycavatars
+ */
+public class TestBulkInsert {
+
+  private FileSystem fileSystem;
+
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    directory = fileSystem.getPath("/data/test");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  private Database open() throws IOException {
+    return new Database(directory, 0, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Generates {@code count} documents as they're read, so the whole stream
+   * never exists in memory.
+   */
+  private static InputStream documents(int count) {
+    return new InputStream() {
+      private int next = 0;
+
+      private byte[] line = new byte[0];
+
+      private int position = 0;
+
+      @Override public int read() {
+        if (position == line.length) {
+          if (next == count) {
+            return -1;
+          }
+          line = ("{\"n\":" + next + ",\"group\":" + (next * 7 % 100)
+              + ",\"name\":\"doc" + next + "\"}\n")
+              .getBytes(StandardCharsets.UTF_8);
+          position = 0;
+          next++;
+        }
+        return line[position++];
+      }
+    };
+  }
+
+  @Test
+  public void testLoad_batchesAndIndexes() throws IOException {
+    int count = 25_000;
+    try (Database database = open()) {
+      DocumentCollection collection = database.collection("people");
+      collection.createIndex(FieldPath.of("group"));
+      collection.createIndex(FieldPath.of("name"));
+
+      List<long[]> progress = new ArrayList<>();
+      BulkInsert insert = new BulkInsert(collection, 1000);
+      long total = insert.load(documents(count),
+          (batch, documents, sofar) ->
+              progress.add(new long[]{batch, documents, sofar}));
+
+      Assert.assertEquals(count, total);
+      Assert.assertEquals(25, progress.size());
+      for (int i = 0; i < progress.size(); i++) {
+        Assert.assertArrayEquals(new long[]{i + 1, 1000, (i + 1) * 1000L},
+            progress.get(i));
+      }
+
+      for (Index index : collection.indexes()) {
+        Assert.assertEquals(count, index.size());
+      }
+      List<RecordId> group = collection.find(FieldPath.of("group"), 42);
+      Assert.assertEquals(count / 100, group.size());
+      for (RecordId id : group) {
+        int n = (Integer) collection.get(id).get("n");
+        Assert.assertEquals(42, n * 7 % 100);
+      }
+      // an int and a long of the same value are the same key
+      Assert.assertEquals(group,
+          collection.find(FieldPath.of("group"), 42L));
+      RecordId id = collection.find(FieldPath.of("name"), "doc1234").get(0);
+      Assert.assertEquals(1234, collection.get(id).get("n"));
+      Assert.assertTrue(collection.find(FieldPath.of("name"), 1234).isEmpty());
+    }
+
+    // the records are kept, and the indexes rebuilt from them
+    try (Database database = open()) {
+      DocumentCollection collection = database.collection("people");
+      Assert.assertEquals(2, collection.indexes().size());
+      Assert.assertEquals(count / 100,
+          collection.find(FieldPath.of("group"), 42).size());
+    }
+  }
+
+  @Test
+  public void testLoad_malformedDocumentKeepsEarlierBatches()
+      throws IOException {
+    String body = "{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n{\"a\":4\n{\"a\":5}\n";
+    try (Database database = open()) {
+      DocumentCollection collection = database.collection("c");
+      collection.createIndex(FieldPath.of("a"));
+      BulkInsert insert = new BulkInsert(collection, 2);
+      try {
+        insert.load(new ByteArrayInputStream(
+            body.getBytes(StandardCharsets.UTF_8)), (b, d, t) -> {
+        });
+        Assert.fail();
+      } catch (JsonParseException e) {
+      }
+      Assert.assertEquals(2, insert.getTotal());
+      Assert.assertEquals(1, collection.find(FieldPath.of("a"), 2).size());
+      Assert.assertTrue(collection.find(FieldPath.of("a"), 3).isEmpty());
+    }
+  }
+
+  @Test
+  public void testOpen_recoversFromJournal() throws IOException {
+    Database crashed = open();
+    DocumentCollection collection = crashed.collection("c");
+    new BulkInsert(collection, 10).load(documents(100), (b, d, t) -> {
+    });
+
+    // the extent never reached the disk, and the first one is never
+    // checkpointed, as after a crash
+    Files.delete(directory.resolve("c.0"));
+    try (Database database = open()) {
+      Assert.assertEquals(1, database.collectionNames().size());
+      DocumentCollection recovered = database.collection("c");
+      List<Integer> numbers = new ArrayList<>();
+      recovered.scan((id, data) -> numbers.add((Integer) recovered.get(id)
+          .get("n")));
+      Assert.assertEquals(100, numbers.size());
+      Assert.assertEquals(99, (int) numbers.get(99));
+    }
+  }
+
+  @Test
+  public void testInsert_failedBatchLeavesNothing() throws IOException {
+    try (Database database = open()) {
+      DocumentCollection collection = database.collection("c");
+      collection.createIndex(FieldPath.of("a"));
+      int tooLarge = collection.store().maxRecordSize() + 1;
+      List<Document> batch = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        batch.add(DocumentJson.parse("{\"a\":" + i + "}"));
+      }
+      batch.add(DocumentJson.parse("{\"a\":\"" + Strings.repeat("x",
+          tooLarge) + "\"}"));
+      try {
+        collection.insert(batch);
+        Assert.fail();
+      } catch (IllegalArgumentException expected) {
+      }
+      Assert.assertEquals(0, collection.count());
+      Assert.assertTrue(collection.find(FieldPath.of("a"), 1).isEmpty());
+      collection.scan((id, data) -> {
+        Assert.fail("a record of a failed insert: " + id);
+        return true;
+      });
+
+      // the records are reused
+      List<RecordId> ids = collection.insert(batch.subList(0, 10));
+      Assert.assertEquals(new RecordId(0, 0), ids.get(9));
+    }
+    try (Database database = open()) {
+      Assert.assertEquals(10, database.collection("c").count());
+    }
+  }
+
+  @Test
+  public void testInsert_failedPublishHidesPublishedRecords()
+      throws IOException {
+    Files.createDirectories(directory);
+    // publishes 3 records, then fails once
+    ExtentStore store = new ExtentStore(directory, "c") {
+      int published = 0;
+
+      @Override public void publish(RecordId id, int length)
+          throws IOException {
+        if (published++ == 3) {
+          throw new IOException("disk full");
+        }
+        super.publish(id, length);
+      }
+    };
+    try (Journal journal = new Journal(
+        directory.resolve(Database.JOURNAL_FILE), 0, TimeUnit.MILLISECONDS);
+         DocumentCollection collection = new DocumentCollection("c",
+             directory, store, journal, new ReentrantReadWriteLock()
+             .readLock(), Optional.empty())) {
+      List<Document> batch = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        batch.add(DocumentJson.parse("{\"a\":" + i + "}"));
+      }
+      try {
+        collection.insert(batch);
+        Assert.fail();
+      } catch (IOException expected) {
+        Assert.assertEquals("disk full", expected.getMessage());
+        Assert.assertEquals(0, expected.getSuppressed().length);
+      }
+      Assert.assertEquals(0, collection.count());
+      collection.scan((id, data) -> {
+        Assert.fail("a record of a failed insert: " + id);
+        return true;
+      });
+
+      // the records are reused
+      List<RecordId> ids = collection.insert(batch);
+      Assert.assertEquals(new RecordId(0, 0), ids.get(9));
+      Assert.assertEquals(10, collection.count());
+    }
+  }
+
+  @Test
+  public void testOpen_unacknowledgedRecordsAreFreed() throws IOException {
+    Database crashed = open();
+    DocumentCollection collection = crashed.collection("c");
+    collection.insert(Collections.singletonList(
+        DocumentJson.parse("{\"a\":1}")));
+    // written before the journal, which never became durable
+    collection.store().reserve(DocumentJson.parse("{\"a\":2}").buffer());
+
+    try (Database database = open()) {
+      DocumentCollection recovered = database.collection("c");
+      Assert.assertEquals(1, recovered.count());
+      List<Object> values = new ArrayList<>();
+      recovered.scan((id, data) -> values.add(recovered.get(id).get("a")));
+      Assert.assertEquals(Collections.singletonList(1), values);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCollection_badName() throws IOException {
+    try (Database database = open()) {
+      database.collection("a.0");
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author ycavatars
+ */
+public class TestDatabases {
+
+  private FileSystem fileSystem;
+
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    directory = fileSystem.getPath("/data");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  private static List<Document> documents(int count) {
+    List<Document> documents = new ArrayList<>();
+    for (int n = 0; n < count; n++) {
+      documents.add(DocumentJson.parse("{\"n\":" + n + "}"));
+    }
+    return documents;
+  }
+
+  @Test
+  public void testCheckpoint_bySize() throws IOException {
+    try (Databases databases = new Databases(directory, 0, 0, 4096,
+        TimeUnit.MILLISECONDS)) {
+      Database small = databases.database("small");
+      Database large = databases.database("large");
+      small.collection("c").insert(documents(1));
+      large.collection("c").insert(documents(1000));
+      Assert.assertTrue(small.journalSize() > 0);
+      Assert.assertTrue(large.journalSize() >= 4096);
+
+      Assert.assertEquals(1, databases.checkpoint());
+      Assert.assertTrue(small.journalSize() > 0);
+      Assert.assertEquals(0, large.journalSize());
+      // nothing to discard
+      Assert.assertEquals(0, databases.checkpoint());
+    }
+    try (Databases databases = new Databases(directory, 0,
+        TimeUnit.MILLISECONDS)) {
+      Assert.assertEquals(1, databases.database("small").collection("c")
+          .count());
+      Assert.assertEquals(1000, databases.database("large").collection("c")
+          .count());
+    }
+  }
+
+  @Test
+  public void testCheckpoint_byInterval() throws Exception {
+    try (Databases databases = new Databases(directory, 0, 10, 0,
+        TimeUnit.MILLISECONDS)) {
+      Database database = databases.database("test");
+      database.collection("c").insert(documents(10));
+      Assert.assertTrue(database.journalSize() > 0);
+      // the background thread discards the journal
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (database.journalSize() > 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals(0, database.journalSize());
+      database.collection("c").insert(documents(10));
+      Assert.assertEquals(20, database.collection("c").count());
+    }
+  }
+
+  @Test
+  public void testCheckpoint_disabled() throws IOException {
+    try (Databases databases = new Databases(directory, 0,
+        TimeUnit.MILLISECONDS)) {
+      Database database = databases.database("test");
+      database.collection("c").insert(documents(1000));
+      Assert.assertEquals(0, databases.checkpoint());
+      Assert.assertTrue(database.journalSize() > 0);
+    }
+  }
+}
@@ -0,0 +1,248 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.document.Values;
+import org.ycavatars.toymongo.core.storage.ExtentStore;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * @author ycavatars
+ */
+public class TestIndexBuild {
+
+  private static final int COUNT = 5000;
+
+  private static final FieldPath GROUP = FieldPath.of("group");
+
+  private FileSystem fileSystem;
+
+  private Path directory;
+
+  private Database database;
+
+  private DocumentCollection collection;
+
+  @Before
+  public void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    directory = fileSystem.getPath("/data/test");
+    database = open();
+    collection = database.collection("c");
+    collection.insert(documents(0, COUNT));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    database.close();
+    fileSystem.close();
+  }
+
+  private Database open() throws IOException {
+    return new Database(directory, 0, TimeUnit.MILLISECONDS);
+  }
+
+  // values of several types, and embedded documents and arrays
+  private static List<Document> documents(int from, int to) {
+    List<Document> documents = new ArrayList<>();
+    for (int n = from; n < to; n++) {
+      String group;
+      switch (n % 5) {
+        case 0:
+          group = "\"g" + n % 13 + "\"";
+          break;
+        case 1:
+          group = "{\"x\":" + n % 3 + "}";
+          break;
+        case 2:
+          group = "[" + n % 3 + ",\"a\"]";
+          break;
+        case 3:
+          group = n % 2 == 0 ? "null" : "true";
+          break;
+        default:
+          group = String.valueOf(n % 4 == 0 ? n % 17 : n % 17 + 0.5);
+      }
+      documents.add(DocumentJson.parse("{\"n\":" + n + ",\"group\":" + group
+          + ",\"name\":\"doc" + n + "\"}"));
+    }
+    return documents;
+  }
+
+  // the records of each value of the field, found by a scan
+  private List<RecordId> scan(Object value) throws IOException {
+    List<RecordId> found = new ArrayList<>();
+    collection.scan((id, data) -> {
+      if (Values.compare(Document.wrap(data).get(GROUP), value) == 0) {
+        found.add(id);
+      }
+      return true;
+    });
+    return found;
+  }
+
+  private void assertIndexed(Index index, int count) throws IOException {
+    Assert.assertTrue(index.isReady());
+    Assert.assertEquals(count, index.size());
+    for (Object value : Arrays.asList("g3", 7, 7.5, null, true,
+        DocumentJson.parse("{\"x\":1}"))) {
+      List<RecordId> found = collection.find(GROUP, value);
+      Collections.sort(found);
+      Assert.assertEquals(String.valueOf(value), scan(value), found);
+    }
+  }
+
+  private long runFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(path -> path.toString().endsWith(".run")).count();
+    }
+  }
+
+  @Test
+  public void testBuild_externalSort() throws IOException {
+    Index index = collection.createIndex(Collections.singletonList(GROUP),
+        Runnable::run, 16 * 1024);
+    IndexBuild build = index.getBuild();
+    Assert.assertEquals(IndexBuild.Phase.READY, build.getPhase());
+    Assert.assertTrue(build.getRuns() > 10);
+    Assert.assertEquals(COUNT, build.getScanned());
+    Assert.assertEquals(COUNT, build.getLoaded());
+    Assert.assertEquals(1, build.getProgress(), 0);
+    Assert.assertEquals(0, runFiles());
+    assertIndexed(index, COUNT);
+
+    // the same keys as a build in memory
+    Index compound = collection.createIndex(Arrays.asList(GROUP,
+        FieldPath.of("name")), Runnable::run, 16 * 1024);
+    Index inMemory = collection.createIndex(Arrays.asList(GROUP,
+        FieldPath.of("n")));
+    Assert.assertTrue(compound.getBuild().getRuns() > 10);
+    Assert.assertEquals(0, inMemory.getBuild().getRuns());
+    Assert.assertEquals(
+        collection.statistics(inMemory.getPaths()).getDistinct(1),
+        collection.statistics(compound.getPaths()).getDistinct(1));
+  }
+
+  @Test
+  public void testBuild_insertsDuringBuild() throws IOException {
+    List<Runnable> builds = new ArrayList<>();
+    Index index = collection.createIndex(Collections.singletonList(GROUP),
+        builds::add, 16 * 1024);
+    Assert.assertFalse(index.isReady());
+    Assert.assertEquals(IndexBuild.Phase.SCANNING,
+        index.getBuild().getPhase());
+    int version = collection.indexVersion();
+    // the keys are buffered, and the index is not used yet
+    collection.insert(documents(COUNT, COUNT + 100));
+    try {
+      collection.statistics(GROUP);
+      Assert.fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    Assert.assertSame(index, collection.createIndex(
+        Collections.singletonList(GROUP), builds::add, 16 * 1024));
+
+    builds.get(0).run();
+    Assert.assertEquals(version + 1, collection.indexVersion());
+    collection.insert(documents(COUNT + 100, COUNT + 200));
+    assertIndexed(index, COUNT + 200);
+  }
+
+  @Test
+  public void testBuild_concurrentInserts() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Index index = collection.createIndex(Collections.singletonList(GROUP),
+          executor, 16 * 1024);
+      for (int n = COUNT; n < 2 * COUNT; n += 100) {
+        collection.insert(documents(n, n + 100));
+      }
+      index.getBuild().await();
+      assertIndexed(index, 2 * COUNT);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testBuild_catalogHasReadyIndexes() throws IOException {
+    // the build never runs
+    collection.createIndex(Collections.singletonList(GROUP), command -> {
+    }, 16 * 1024);
+    collection.createIndex(FieldPath.of("n"));
+    database.close();
+    database = open();
+    collection = database.getCollection("c").get();
+    Assert.assertEquals(1, collection.indexes().size());
+    Assert.assertTrue(collection.getIndex(FieldPath.of("n")).get().isReady());
+  }
+
+  @Test
+  public void testBuild_metrics() throws IOException {
+    List<Runnable> builds = new ArrayList<>();
+    Index index = collection.createIndex(Collections.singletonList(GROUP),
+        builds::add, 16 * 1024);
+    // the tree is loaded without the lock, so it's not measured yet
+    Assert.assertTrue(collection.indexMetrics().isEmpty());
+    builds.get(0).run();
+
+    IndexMetrics metrics = collection.indexMetrics().get(0);
+    Assert.assertEquals(index.getName(), metrics.getName());
+    Assert.assertEquals(COUNT, metrics.getEntries());
+    Assert.assertEquals(2, metrics.getHeight());
+    Assert.assertTrue(metrics.getNodes() > 2);
+    Assert.assertEquals(0, metrics.getSplits());
+    Assert.assertEquals(0, metrics.getLookups());
+
+    collection.insert(documents(COUNT, 2 * COUNT));
+    metrics = collection.indexMetrics().get(0);
+    Assert.assertEquals(2 * COUNT, metrics.getEntries());
+    Assert.assertTrue(metrics.getSplits() > 0);
+    // a lookup of each put
+    Assert.assertEquals(COUNT, metrics.getLookups());
+    // a binary search of each of the 2 levels
+    Assert.assertTrue(metrics.getComparisonsPerLookup() > 2);
+    Assert.assertTrue(metrics.getComparisonsPerLookup() < 2 * 11);
+    Assert.assertTrue(metrics.getFillFactor() > 0.5);
+    Assert.assertTrue(metrics.getFillFactor() < 1);
+    collection.find(GROUP, "g3");
+    Assert.assertTrue(collection.indexMetrics().get(0).getLookups() > COUNT);
+
+    Assert.assertTrue(collection.dataSize() > 0);
+    Assert.assertEquals(collection.extentCount() * (long) ExtentStore
+        .DEFAULT_EXTENT_SIZE, collection.storageSize());
+  }
+
+  @Test
+  public void testBuild_rejected() {
+    try {
+      collection.createIndex(Collections.singletonList(GROUP), command -> {
+        throw new RejectedExecutionException();
+      }, 16 * 1024);
+      Assert.fail();
+    } catch (RejectedExecutionException expected) {
+    }
+    Assert.assertFalse(collection.getIndex(GROUP).isPresent());
+  }
+}
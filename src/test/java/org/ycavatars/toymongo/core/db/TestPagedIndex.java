@@ -0,0 +1,186 @@
+package org.ycavatars.toymongo.core.db;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.document.Values;
+import org.ycavatars.toymongo.core.storage.BufferPool;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author ycavatars
+ */
+public class TestPagedIndex {
+
+  private static final int COUNT = 5000;
+
+  private static final FieldPath N = FieldPath.of("n");
+
+  private static final FieldPath V = FieldPath.of("v");
+
+  private FileSystem fileSystem;
+
+  private Path directory;
+
+  // small pages and few frames, so the indexes are paged out
+  private BufferPool pool;
+
+  private Database database;
+
+  private DocumentCollection collection;
+
+  @Before
+  public void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    directory = fileSystem.getPath("/data/test");
+    pool = new BufferPool(16 * 1024, 1024);
+    database = open();
+    collection = database.collection("c");
+    collection.insert(documents(0, COUNT));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    database.close();
+    fileSystem.close();
+  }
+
+  private Database open() throws IOException {
+    return new Database(directory, 0, Optional.of(pool),
+        TimeUnit.MILLISECONDS);
+  }
+
+  // v is an int, a long or a double
+  private static List<Document> documents(int from, int to) {
+    List<Document> documents = new ArrayList<>();
+    for (int n = from; n < to; n++) {
+      String v = n % 3 == 0 ? String.valueOf(n % 7)
+          : n % 3 == 1 ? String.valueOf(n % 7 + 5000000000L)
+          : String.valueOf(n % 7 + 0.5);
+      documents.add(DocumentJson.parse("{\"n\":" + n + ",\"v\":" + v
+          + "}"));
+    }
+    return documents;
+  }
+
+  private List<RecordId> scan(FieldPath path, Object value)
+      throws IOException {
+    List<RecordId> found = new ArrayList<>();
+    collection.scan((id, data) -> {
+      if (Values.compare(Document.wrap(data).get(path), value) == 0) {
+        found.add(id);
+      }
+      return true;
+    });
+    return found;
+  }
+
+  private void assertFound(FieldPath path, Object value) throws IOException {
+    List<RecordId> found = collection.find(path, value);
+    Collections.sort(found);
+    Assert.assertEquals(String.valueOf(value), scan(path, value), found);
+  }
+
+  private boolean pagesExist() throws IOException {
+    return Files.exists(directory.resolve("c.index-0.pages"));
+  }
+
+  @Test
+  public void testCreateIndex_numbers() throws IOException {
+    Index index = collection.createIndex(V);
+    Assert.assertTrue(index.isPaged());
+    Assert.assertTrue(pagesExist());
+    Assert.assertEquals(COUNT, index.size());
+    for (Object value : Arrays.asList(3, 5000000003L, 3.5, 4.0, 8)) {
+      assertFound(V, value);
+    }
+    // the tree doesn't fit in the pool
+    Assert.assertTrue(pool.evictionCount() > 0);
+    Assert.assertTrue(pool.missCount() > 0);
+
+    collection.insert(documents(COUNT, COUNT + 100));
+    Assert.assertTrue(index.isPaged());
+    Assert.assertEquals(COUNT + 100, index.size());
+    assertFound(V, 3);
+
+    IndexMetrics metrics = collection.indexMetrics().get(0);
+    Assert.assertEquals(COUNT + 100, metrics.getEntries());
+    Assert.assertTrue(metrics.getHeight() > 1);
+    Assert.assertTrue(metrics.getNodes() > 1);
+    Assert.assertTrue(metrics.getFillFactor() > 0);
+    Assert.assertTrue(metrics.getSplits() > 0);
+    Assert.assertTrue(metrics.getLookups() > 0);
+    Assert.assertEquals(COUNT + 100, collection.statistics(V).getEntries());
+  }
+
+  @Test
+  public void testInsert_stringMovesToHeap() throws IOException {
+    Index index = collection.createIndex(V);
+    Assert.assertTrue(index.isPaged());
+
+    collection.insert(Collections.singletonList(
+        DocumentJson.parse("{\"n\":-1,\"v\":\"a\"}")));
+    Assert.assertFalse(index.isPaged());
+    Assert.assertFalse(pagesExist());
+    Assert.assertEquals(0, pool.residentCount());
+    Assert.assertEquals(COUNT + 1, index.size());
+    for (Object value : Arrays.asList(3, 5000000003L, 3.5, "a")) {
+      assertFound(V, value);
+    }
+  }
+
+  @Test
+  public void testCreateIndex_stringOnHeap() throws IOException {
+    collection.insert(Collections.singletonList(
+        DocumentJson.parse("{\"n\":-1,\"v\":\"a\"}")));
+    Index index = collection.createIndex(V);
+    Assert.assertFalse(index.isPaged());
+    Assert.assertFalse(pagesExist());
+    Assert.assertEquals(COUNT + 1, index.size());
+    assertFound(V, "a");
+    assertFound(V, 6.5);
+  }
+
+  @Test
+  public void testCreateIndex_compoundOnHeap() throws IOException {
+    Index index = collection.createIndex(Arrays.asList(N, V));
+    Assert.assertFalse(index.isPaged());
+    Assert.assertEquals(COUNT, index.size());
+  }
+
+  @Test
+  public void testOpen_rebuildsPages() throws IOException {
+    collection.createIndex(N);
+    database.close();
+    Assert.assertFalse(pagesExist());
+    Assert.assertEquals(0, pool.residentCount());
+
+    // left over by a crash
+    Files.write(directory.resolve("c.index-7.pages"), new byte[1024]);
+    database = open();
+    collection = database.collection("c");
+    Assert.assertFalse(Files.exists(directory.resolve("c.index-7.pages")));
+    Index index = collection.getIndex(N).get();
+    Assert.assertTrue(index.isPaged());
+    Assert.assertTrue(pagesExist());
+    Assert.assertEquals(COUNT, index.size());
+    assertFound(N, 4321);
+  }
+}
@@ -0,0 +1,151 @@
+package org.ycavatars.toymongo.core.document;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author ycavatars
+ */
+public class TestDocument {
+
+  private static final String JSON = "{\"name\":\"Ada\",\"age\":36,"
+      + "\"id\":12345678901,\"score\":9.5,\"admin\":true,\"banned\":false,"
+      + "\"manager\":null,\"address\":{\"city\":\"London\",\"zip\":\"W1\"},"
+      + "\"tags\":[\"math\",{\"since\":1843},[1,2]],\"\u00e9t\u00e9\":\"\"}";
+
+  @Test
+  public void testJson_roundTrip() {
+    Document document = DocumentJson.parse(JSON);
+    Assert.assertEquals(JSON, DocumentJson.toJson(document));
+    Assert.assertEquals(JSON, document.toString());
+    Assert.assertEquals(Arrays.asList("name", "age", "id", "score", "admin",
+        "banned", "manager", "address", "tags", "\u00e9t\u00e9"),
+        document.names());
+    Assert.assertEquals(10, document.size());
+    Assert.assertEquals(document, DocumentJson.parse(JSON));
+    Assert.assertEquals("{}", DocumentJson.parse("{}").toString());
+  }
+
+  @Test
+  public void testGet_typedValues() {
+    Document document = DocumentJson.parse(JSON);
+    Assert.assertEquals("Ada", document.get("name"));
+    Assert.assertEquals(36, document.get("age"));
+    Assert.assertEquals(12345678901L, document.get("id"));
+    Assert.assertEquals(9.5, document.get("score"));
+    Assert.assertEquals(Boolean.TRUE, document.get("admin"));
+    Assert.assertEquals(Boolean.FALSE, document.get("banned"));
+    Assert.assertNull(document.get("manager"));
+    Assert.assertTrue(document.contains("manager"));
+    Assert.assertFalse(document.contains("missing"));
+    Assert.assertEquals("", document.get("\u00e9t\u00e9"));
+
+    Assert.assertEquals(FieldType.INT32, document.type(FieldPath.of("age")));
+    Assert.assertEquals(FieldType.INT64, document.type(FieldPath.of("id")));
+    Assert.assertEquals(FieldType.ARRAY, document.type(FieldPath.of("tags")));
+    Assert.assertEquals(36.0, document.getNumber(FieldPath.of("age")), 0);
+    Assert.assertNull(document.getNumber(FieldPath.of("name")));
+
+    Assert.assertEquals("Ada", document.get(0));
+    Assert.assertEquals("tags", document.name(8));
+    Assert.assertEquals(FieldType.NULL, document.type(6));
+  }
+
+  @Test
+  public void testGet_paths() {
+    Document document = DocumentJson.parse(JSON);
+    Assert.assertEquals("London", document.get("address.city"));
+    Assert.assertEquals("math", document.get("tags.0"));
+    Assert.assertEquals(1843, document.get("tags.1.since"));
+    Assert.assertEquals(2, document.get("tags.2.1"));
+    Assert.assertNull(document.get("tags.3"));
+    Assert.assertNull(document.get("tags.city"));
+    Assert.assertNull(document.get("name.first"));
+    Assert.assertNull(document.get("address.country"));
+
+    Document address = (Document) document.get("address");
+    Assert.assertFalse(address.isArray());
+    Assert.assertEquals("{\"city\":\"London\",\"zip\":\"W1\"}",
+        address.toString());
+    Document tags = (Document) document.get("tags");
+    Assert.assertTrue(tags.isArray());
+    Assert.assertEquals(3, tags.size());
+    Assert.assertEquals("[1,2]", tags.get(2).toString());
+  }
+
+  @Test
+  public void testWrap_fieldsReadInPlace() {
+    Document document = DocumentJson.parse(JSON);
+    // a record in the middle of a larger buffer, e.g. a mapped extent
+    ByteBuffer buffer = ByteBuffer.allocate(document.length() + 100);
+    buffer.position(40);
+    buffer.put(document.buffer());
+    buffer.position(40);
+
+    Document wrapped = Document.wrap(buffer);
+    Assert.assertEquals(document, wrapped);
+    Assert.assertEquals(40, buffer.position());
+    Assert.assertEquals("W1", wrapped.get("address.zip"));
+    Assert.assertTrue(wrapped.buffer().isReadOnly());
+
+    try {
+      buffer.putInt(40, document.length() + 100);
+      Document.wrap(buffer);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testFind_duplicateNamesAndManyFields() {
+    StringBuilder json = new StringBuilder("{");
+    for (int i = 999; i >= 0; i--) {
+      json.append("\"f").append(i).append("\":").append(i).append(',');
+    }
+    json.append("\"f7\":-1}");
+    Document document = DocumentJson.parse(json.toString());
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertEquals(i, document.get("f" + i));
+    }
+    Assert.assertEquals(1001, document.size());
+    Assert.assertEquals(-1, document.get(1000));
+  }
+
+  @Test
+  public void testWrite_projection() throws IOException {
+    Document document = DocumentJson.parse(JSON);
+    List<FieldPath> projection = Arrays.asList(FieldPath.of("tags.1"),
+        FieldPath.of("address.city"), FieldPath.of("name"),
+        FieldPath.of("age.value"), FieldPath.of("missing"));
+    StringWriter writer = new StringWriter();
+    try (JsonGenerator generator = new JsonFactory().createGenerator(writer)) {
+      DocumentJson.write(document, generator, projection);
+    }
+    Assert.assertEquals("{\"name\":\"Ada\",\"address\":{\"city\":\"London\"},"
+        + "\"tags\":[{\"since\":1843}]}", writer.toString());
+  }
+
+  @Test
+  public void testRead_streamOfDocuments() throws IOException {
+    try (JsonParser parser = new JsonFactory().createParser(
+        "{\"a\":1}\n{\"a\":2}\n")) {
+      Assert.assertEquals(1, DocumentJson.read(parser).get("a"));
+      Assert.assertEquals(2, DocumentJson.read(parser).get("a"));
+      Assert.assertNull(parser.nextToken());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParse_notAnObject() {
+    DocumentJson.parse("[1, 2]");
+  }
+}
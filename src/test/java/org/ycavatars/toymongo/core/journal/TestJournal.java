@@ -0,0 +1,212 @@
+package org.ycavatars.toymongo.core.journal;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.storage.ExtentReader;
+import org.ycavatars.toymongo.core.storage.ExtentStore;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author ycavatars
+ */
+public class TestJournal {
+
+  private FileSystem fileSystem;
+
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    file = fileSystem.getPath("/journal");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  @Test
+  public void testCommit_concurrentWritersShareFlushes() throws Exception {
+    int threads = 8;
+    int perThread = 100;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (Journal journal = new Journal(file, 5, TimeUnit.MILLISECONDS)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        int thread = t;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < perThread; i++) {
+            journal.commit(JournalEntry.insert("t" + thread,
+                new RecordId(thread, i), bytes("r" + i)));
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      Assert.assertTrue(journal.syncCount() < threads * perThread);
+
+      Map<String, Integer> next = new HashMap<>();
+      int count = journal.replay(entry -> {
+        int i = next.getOrDefault(entry.getNamespace(), 0);
+        Assert.assertEquals(i, entry.getRecordId().getOffset());
+        Assert.assertEquals("r" + i, string(entry.getData()));
+        next.put(entry.getNamespace(), i + 1);
+      });
+      Assert.assertEquals(threads * perThread, count);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testOpen_truncatesTornTail() throws IOException {
+    long size;
+    try (Journal journal = new Journal(file, 0, TimeUnit.MILLISECONDS)) {
+      for (int i = 0; i < 3; i++) {
+        journal.commit(JournalEntry.delete("users", new RecordId(0, i)));
+      }
+      size = journal.size();
+      Assert.assertEquals(size, Files.size(file));
+    }
+    // a frame which is cut in the middle
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 5}));
+    }
+
+    try (Journal journal = new Journal(file)) {
+      Assert.assertEquals(size, Files.size(file));
+      Assert.assertEquals(3, journal.replay(entry -> {
+      }));
+      journal.commit(JournalEntry.delete("users", new RecordId(0, 3)));
+    }
+
+    // a frame whose checksum doesn't match
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(file, bytes);
+    try (Journal journal = new Journal(file)) {
+      List<RecordId> ids = new ArrayList<>();
+      journal.replay(entry -> ids.add(entry.getRecordId()));
+      Assert.assertEquals(3, ids.size());
+      Assert.assertEquals(new RecordId(0, 2), ids.get(2));
+    }
+  }
+
+  @Test
+  public void testRecover_extents() throws IOException {
+    Path data = Files.createDirectory(fileSystem.getPath("/data"));
+    // the names in the store
+    NavigableMap<String, RecordId> index = new TreeMap<>();
+    RecordId lost;
+    try (Journal journal = new Journal(file, 1, TimeUnit.MILLISECONDS);
+         ExtentStore store = new ExtentStore(data, "users", 4096)) {
+      for (int i = 0; i < 50; i++) {
+        insert(journal, store, index, "user" + i);
+      }
+      for (int i = 0; i < 50; i += 5) {
+        delete(journal, store, index, "user" + i);
+      }
+      // reuses deleted records
+      insert(journal, store, index, "reused");
+      // allocated, but the insert isn't journaled before the crash
+      lost = store.insert(bytes("lost"));
+      insert(journal, store, index, "last");
+    }
+
+    // the extents never reached the disk
+    Path empty = Files.createDirectory(fileSystem.getPath("/empty"));
+    try (Journal journal = new Journal(file);
+         ExtentStore store = new ExtentStore(empty, "users", 4096)) {
+      int count = new JournalRecovery()
+          .collection("users", store)
+          .recover(journal);
+      Assert.assertEquals(50 + 10 + 2, count);
+      assertStore(store, index);
+
+      // the lost record is free again
+      Assert.assertEquals(lost, store.insert(bytes("lost")));
+    }
+
+    // redoing writes which did reach the disk changes nothing
+    try (Journal journal = new Journal(file);
+         ExtentStore store = new ExtentStore(data, "users", 4096)) {
+      store.delete(lost);
+      new JournalRecovery()
+          .collection("users", store)
+          .recover(journal);
+      assertStore(store, index);
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRecover_unknownCollection() throws IOException {
+    try (Journal journal = new Journal(file)) {
+      journal.commit(JournalEntry.delete("users", new RecordId(0, 0)));
+      new JournalRecovery().recover(journal);
+    }
+  }
+
+  private static void insert(Journal journal, ExtentStore store,
+      Map<String, RecordId> index, String name) throws IOException {
+    RecordId id = store.insert(bytes(name));
+    index.put(name, id);
+    journal.commit(JournalEntry.insert("users", id, bytes(name)));
+  }
+
+  private static void delete(Journal journal, ExtentStore store,
+      Map<String, RecordId> index, String name) throws IOException {
+    RecordId id = index.remove(name);
+    store.delete(id);
+    journal.commit(JournalEntry.delete("users", id));
+  }
+
+  private static void assertStore(ExtentStore store,
+      Map<String, RecordId> index) throws IOException {
+    for (Map.Entry<String, RecordId> entry : index.entrySet()) {
+      Assert.assertEquals(entry.getKey(), string(store.read(entry.getValue())));
+    }
+    List<String> scanned = new ArrayList<>();
+    try (ExtentReader reader = new ExtentReader(store)) {
+      reader.scan((id, data) -> scanned.add(string(data)));
+    }
+    scanned.sort(null);
+    Assert.assertEquals(new ArrayList<>(index.keySet()), scanned);
+  }
+
+  private static ByteBuffer bytes(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String string(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
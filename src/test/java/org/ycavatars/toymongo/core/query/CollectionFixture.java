@@ -0,0 +1,98 @@
+package org.ycavatars.toymongo.core.query;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.rules.ExternalResource;
+import org.ycavatars.toymongo.core.db.Database;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Opens a database in an in-memory file system before each test, whose
+ * collection {@code c} has {@code count} generated documents, and closes it
+ * afterwards.
+ *
+ * @author ycavatars
+ */
+class CollectionFixture extends ExternalResource {
+
+  private final int count;
+
+  // the JSON of the n-th document
+  private final IntFunction<String> document;
+
+  private FileSystem fileSystem;
+
+  private Database database;
+
+  private DocumentCollection collection;
+
+  CollectionFixture(int count, IntFunction<String> document) {
+    this.count = count;
+    this.document = document;
+  }
+
+  @Override protected void before() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    database = open();
+    collection = database.collection("c");
+    insert(0, count);
+  }
+
+  @Override protected void after() {
+    try {
+      database.close();
+      fileSystem.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Database open() throws IOException {
+    return new Database(fileSystem.getPath("/data/test"), 0,
+        TimeUnit.MILLISECONDS);
+  }
+
+  DocumentCollection collection() {
+    return collection;
+  }
+
+  /**
+   * Inserts the documents from {@code from} until {@code to}.
+   */
+  void insert(int from, int to) throws IOException {
+    List<Document> documents = new ArrayList<>();
+    for (int n = from; n < to; n++) {
+      documents.add(DocumentJson.parse(document.apply(n)));
+    }
+    collection.insert(documents);
+  }
+
+  /**
+   * Closes the database and opens it again, so its indexes are rebuilt.
+   */
+  DocumentCollection reopen() throws IOException {
+    database.close();
+    database = open();
+    collection = database.getCollection("c").get();
+    return collection;
+  }
+
+  /**
+   * Returns the directory of the runs spilled by sorts.
+   */
+  Path temp() throws IOException {
+    return Files.createDirectories(fileSystem.getPath("/tmp"));
+  }
+}
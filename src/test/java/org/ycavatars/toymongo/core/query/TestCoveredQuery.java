@@ -0,0 +1,195 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.Index;
+import org.ycavatars.toymongo.core.db.IndexKey;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * @author ycavatars
+ */
+public class TestCoveredQuery {
+
+  private static final int COUNT = 5000;
+
+  private static final List<FieldPath> A_B =
+      Arrays.asList(FieldPath.of("a"), FieldPath.of("b"));
+
+  // b is missing from every 100th document
+  @Rule
+  public final CollectionFixture fixture = new CollectionFixture(COUNT,
+      n -> "{\"n\":" + n + ",\"a\":" + n % 20
+          + (n % 100 == 0 ? "" : ",\"b\":" + n % 7) + ",\"x\":{\"y\":"
+          + n % 10 + "}}");
+
+  private DocumentCollection collection;
+
+  @Before
+  public void setUp() throws IOException {
+    collection = fixture.collection();
+    collection.createIndex(A_B);
+  }
+
+  private static Filter filter(String json) {
+    return Filter.of(DocumentJson.parse(json));
+  }
+
+  private static Optional<Collection<FieldPath>> projection(String... paths) {
+    return Optional.of(Arrays.stream(paths).map(FieldPath::of)
+        .collect(Collectors.toList()));
+  }
+
+  // the JSON of every document of the cursor, sorted
+  private static List<String> find(Cursor cursor) throws IOException {
+    List<String> found = new ArrayList<>();
+    while (!cursor.isExhausted()) {
+      cursor.next(100, (id, document) -> found.add(
+          cursor.getProjection().isPresent() ? project(document,
+              cursor.getProjection().get()) : DocumentJson.toJson(document)));
+    }
+    Collections.sort(found);
+    return found;
+  }
+
+  private static String project(Document document,
+      Collection<FieldPath> projection) {
+    return DocumentJson.toJson(DocumentJson.of(new ArrayList<>(projection),
+        projection.stream().map(document::get).collect(Collectors.toList())));
+  }
+
+  private Plan plan(String filter, Optional<Collection<FieldPath>> projection) {
+    return new QueryPlanner(16).plan(collection, filter(filter), projection);
+  }
+
+  private void assertFound(String json,
+      Optional<Collection<FieldPath>> projection) throws IOException {
+    Filter filter = filter(json);
+    Assert.assertEquals(json,
+        find(new ScanCursor(collection, filter, projection)),
+        find(plan(json, projection).open(collection, filter, projection)));
+  }
+
+  @Test
+  public void testIndexKey_orderedFieldByField() {
+    RecordId id = new RecordId(0, 0);
+    List<Object> one = Collections.singletonList(1);
+    List<IndexKey> keys = Arrays.asList(
+        IndexKey.lowest(1),
+        IndexKey.of(Arrays.asList(1, null), id),
+        IndexKey.typeStart(0).after(one),
+        IndexKey.of(Arrays.asList(1, 2), id),
+        IndexKey.of(Arrays.asList(1, 10), id),
+        IndexKey.typeEnd(0).after(one),
+        IndexKey.of(Arrays.asList(1, "a"), id),
+        IndexKey.highest(1),
+        IndexKey.of(Arrays.asList(2, null), id));
+    for (int i = 0; i + 1 < keys.size(); i++) {
+      Assert.assertTrue(keys.get(i) + " < " + keys.get(i + 1),
+          keys.get(i).compareTo(keys.get(i + 1)) < 0);
+      Assert.assertTrue(keys.get(i + 1) + " > " + keys.get(i),
+          keys.get(i + 1).compareTo(keys.get(i)) > 0);
+    }
+  }
+
+  @Test
+  public void testCompoundIndex_prefixAndRange() throws IOException {
+    Plan plan = plan("{\"a\":3,\"b\":{\"$gte\":2,\"$lt\":5}}",
+        Optional.empty());
+    Assert.assertEquals(Plan.Kind.INDEX_SCAN, plan.getKind());
+    Assert.assertEquals(Collections.singletonList(A_B), plan.getIndexes());
+    Assert.assertEquals(Plan.Kind.INDEX_SCAN,
+        plan("{\"a\":3}", Optional.empty()).getKind());
+    Assert.assertEquals(Plan.Kind.COLLECTION_SCAN,
+        plan("{\"b\":3}", Optional.empty()).getKind());
+
+    assertFound("{\"a\":3,\"b\":{\"$gte\":2,\"$lt\":5}}", Optional.empty());
+    assertFound("{\"a\":3,\"b\":4}", Optional.empty());
+    assertFound("{\"a\":{\"$lt\":2}}", Optional.empty());
+    assertFound("{\"a\":0,\"b\":null}", Optional.empty());
+    assertFound("{\"a\":0,\"b\":{\"$gt\":\"\"}}", Optional.empty());
+    // 3 of the 7 values of b of the 250 documents whose a is 3
+    Assert.assertEquals(107, plan.getRows(), 30);
+  }
+
+  @Test
+  public void testCovered_documentsFromKeys() throws IOException {
+    String json = "{\"a\":3,\"b\":{\"$gt\":1}}";
+    Plan plan = plan(json, projection("b", "a"));
+    Assert.assertTrue(plan.isCovered());
+    Assert.assertFalse(plan(json, projection("b", "n")).isCovered());
+    Assert.assertFalse(plan(json, Optional.empty()).isCovered());
+    Assert.assertFalse(plan("{\"a\":3,\"n\":1}", projection("a"))
+        .isCovered());
+    Assert.assertTrue(plan.getCost() < plan(json, projection("b", "n"))
+        .getCost());
+
+    // the documents of a covered plan have the projected fields only
+    Cursor cursor = plan.open(collection, filter(json), projection("b", "a"));
+    int[] found = {0};
+    while (!cursor.isExhausted()) {
+      cursor.next(100, (id, document) -> {
+        Assert.assertEquals(Arrays.asList("b", "a"), document.names());
+        found[0]++;
+      });
+    }
+    Assert.assertEquals(COUNT / 20 * 5 / 7, found[0], 5);
+
+    assertFound(json, projection("b", "a"));
+    // a missing field is fetched
+    assertFound("{\"a\":0}", projection("a", "b"));
+    collection.createIndex(Arrays.asList(FieldPath.of("x.y"),
+        FieldPath.of("n")));
+    Assert.assertTrue(plan("{\"x.y\":4}", projection("x.y", "n"))
+        .isCovered());
+    assertFound("{\"x.y\":4,\"n\":{\"$lt\":100}}", projection("n", "x.y"));
+    assertFound("{\"x.y\":4}", projection("x", "x.y"));
+  }
+
+  @Test
+  public void testCount_keysOnly() throws IOException {
+    QueryPlanner planner = new QueryPlanner(16);
+    Assert.assertEquals(COUNT, planner.count(collection, Filter.all()));
+    for (String json : Arrays.asList("{\"a\":3}", "{\"a\":3,\"b\":4}",
+        "{\"a\":{\"$gte\":18},\"b\":{\"$lt\":2}}", "{\"a\":0,\"b\":null}",
+        "{\"b\":4}")) {
+      Filter filter = filter(json);
+      Assert.assertEquals(json, find(new ScanCursor(collection, filter,
+          Optional.empty())).size(), planner.count(collection, filter));
+    }
+    Assert.assertTrue(plan("{\"a\":3,\"b\":4}", projection()).isCovered());
+  }
+
+  @Test
+  public void testCompoundIndex_reopened() throws IOException {
+    collection = fixture.reopen();
+    Index index = collection.getIndex(A_B).get();
+    Assert.assertEquals("a,b", index.getName());
+    Assert.assertEquals(COUNT, index.size());
+    Assert.assertEquals(20 * 7 + 1,
+        collection.statistics(A_B).getDistinct());
+    Assert.assertEquals(20, collection.statistics(A_B).getDistinct(1));
+    assertFound("{\"a\":3,\"b\":4}", Optional.empty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCompoundIndex_duplicateFields() throws IOException {
+    collection.createIndex(Arrays.asList(FieldPath.of("a"),
+        FieldPath.of("a")));
+  }
+}
@@ -0,0 +1,127 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author ycavatars
+ */
+public class TestCursor {
+
+  @Rule
+  public final CollectionFixture fixture = new CollectionFixture(1000,
+      n -> "{\"n\":" + n + ",\"mod\":" + n % 3 + "}");
+
+  private DocumentCollection collection;
+
+  @Before
+  public void setUp() {
+    collection = fixture.collection();
+  }
+
+  private static Filter filter(String json) {
+    return Filter.of(DocumentJson.parse(json));
+  }
+
+  // returns the values of n of every batch, until the cursor is exhausted
+  private static List<List<Integer>> drain(Cursor cursor, int batchSize)
+      throws IOException {
+    List<List<Integer>> batches = new ArrayList<>();
+    while (!cursor.isExhausted()) {
+      List<Integer> batch = new ArrayList<>();
+      cursor.next(batchSize,
+          (id, document) -> batch.add((Integer) document.get("n")));
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  @Test
+  public void testNext_scanResumesAfterEachBatch() throws IOException {
+    Cursor cursor = Cursor.open(collection, filter("{\"mod\":1}"),
+        Optional.empty());
+    Assert.assertTrue(cursor instanceof ScanCursor);
+    List<List<Integer>> batches = drain(cursor, 100);
+    Assert.assertEquals(4, batches.size());
+    Assert.assertEquals(100, batches.get(0).size());
+    Assert.assertEquals(33, batches.get(3).size());
+    List<Integer> all = new ArrayList<>();
+    batches.forEach(all::addAll);
+    Assert.assertEquals(333, all.size());
+    for (int i = 0; i < all.size(); i++) {
+      Assert.assertEquals(3 * i + 1, (int) all.get(i));
+    }
+    Assert.assertEquals(0, cursor.next(100, (id, document) -> Assert.fail()));
+  }
+
+  @Test
+  public void testNext_indexCursorMatchesScan() throws IOException {
+    List<List<Integer>> scanned = drain(Cursor.open(collection,
+        filter("{\"mod\":2,\"n\":500}"), Optional.empty()), 7);
+    collection.createIndex(FieldPath.of("mod"));
+    Cursor cursor = Cursor.open(collection, filter("{\"mod\":2}"),
+        Optional.empty());
+    Assert.assertTrue(cursor instanceof IndexCursor);
+    List<List<Integer>> batches = drain(cursor, 50);
+    Assert.assertEquals(7, batches.size());
+    Assert.assertEquals(33, batches.get(6).size());
+
+    Assert.assertEquals(Collections.singletonList(
+        Collections.singletonList(500)), scanned);
+    Assert.assertEquals(scanned, drain(Cursor.open(collection,
+        filter("{\"mod\":2,\"n\":500}"), Optional.empty()), 7));
+  }
+
+  @Test
+  public void testNext_seesInsertsBetweenBatches() throws IOException {
+    Cursor cursor = Cursor.open(collection, Filter.all(), Optional.empty());
+    List<Integer> first = new ArrayList<>();
+    cursor.next(990, (id, document) -> first.add((Integer) document.get("n")));
+    Assert.assertEquals(989, (int) first.get(989));
+    fixture.insert(1000, 1010);
+    List<List<Integer>> rest = drain(cursor, 100);
+    Assert.assertEquals(20, rest.get(0).size());
+    Assert.assertEquals(1009, (int) rest.get(0).get(19));
+  }
+
+  @Test
+  public void testReap_idleCursorsOnly() throws Exception {
+    try (CursorManager cursors = new CursorManager(1, TimeUnit.HOURS)) {
+      String idle = cursors.register(Cursor.open(collection, Filter.all(),
+          Optional.empty()));
+      Assert.assertTrue(cursors.get(idle).isPresent());
+      Assert.assertEquals(0, cursors.reap());
+    }
+
+    try (CursorManager cursors =
+             new CursorManager(50, TimeUnit.MILLISECONDS)) {
+      String id = cursors.register(Cursor.open(collection, Filter.all(),
+          Optional.empty()));
+      Assert.assertNotEquals(id, cursors.register(Cursor.open(collection,
+          Filter.all(), Optional.empty())));
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (cursors.size() > 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals(0, cursors.size());
+      Assert.assertFalse(cursors.get(id).isPresent());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFilter_operatorsNotSupported() {
+    filter("{\"$or\":[]}");
+  }
+}
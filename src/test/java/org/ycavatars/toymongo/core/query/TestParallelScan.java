@@ -0,0 +1,129 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.storage.RecordId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * @author ycavatars
+ */
+public class TestParallelScan {
+
+  private static final int COUNT = 5000;
+
+  @Rule
+  public final CollectionFixture fixture = new CollectionFixture(COUNT,
+      n -> "{\"n\":" + n + ",\"a\":" + n % 10 + "}");
+
+  private DocumentCollection collection;
+
+  private ParallelScanner scanner;
+
+  @Before
+  public void setUp() {
+    collection = fixture.collection();
+    // small ranges, so the collection has many of them
+    scanner = new ParallelScanner(4, 3, 4096);
+  }
+
+  @After
+  public void tearDown() {
+    scanner.close();
+  }
+
+  private static Filter filter(String json) {
+    return Filter.of(DocumentJson.parse(json));
+  }
+
+  // the n of every document of the cursor, in the order of the cursor
+  private static List<Integer> find(Cursor cursor, int batchSize)
+      throws IOException {
+    List<Integer> found = new ArrayList<>();
+    while (!cursor.isExhausted()) {
+      cursor.next(batchSize,
+          (id, document) -> found.add((Integer) document.get("n")));
+    }
+    return found;
+  }
+
+  @Test
+  public void testSplit_rangesOfRecords() throws IOException {
+    RecordId first = new RecordId(0, 0);
+    List<RecordId> starts = collection.split(first, 4096);
+    Assert.assertTrue(starts.size() > 10);
+    Assert.assertEquals(first, starts.get(0));
+    // the ranges have every record once
+    int[] count = {0};
+    for (int i = 0; i < starts.size(); i++) {
+      RecordId from = starts.get(i);
+      if (i + 1 < starts.size()) {
+        RecordId to = starts.get(i + 1);
+        Assert.assertTrue(from.compareTo(to) < 0);
+        collection.scan(from, to, (id, data) -> {
+          Assert.assertTrue(id.compareTo(to) < 0);
+          count[0]++;
+          return true;
+        });
+      } else {
+        collection.scan(from, (id, data) -> {
+          count[0]++;
+          return true;
+        });
+      }
+    }
+    Assert.assertEquals(COUNT, count[0]);
+  }
+
+  @Test
+  public void testScan_sameAsSerialScan() throws IOException {
+    for (String json : new String[]{"{}", "{\"a\":3}", "{\"n\":4999}",
+        "{\"n\":{\"$lt\":7}}", "{\"a\":11}"}) {
+      Filter filter = filter(json);
+      List<Integer> expected = find(new ScanCursor(collection, filter,
+          Optional.empty()), 1000);
+      for (int batchSize : new int[]{1, 7, 100, 10_000}) {
+        Assert.assertEquals(json + " " + batchSize, expected,
+            find(scanner.open(collection, filter, Optional.empty()),
+                batchSize));
+      }
+    }
+  }
+
+  @Test
+  public void testScan_limit() throws IOException {
+    Cursor cursor = scanner.open(collection, filter("{\"a\":3}"),
+        Optional.empty()).limit(25);
+    Assert.assertEquals(10, cursor.next(10, (id, document) -> {
+    }));
+    List<Integer> found = find(cursor, 10);
+    Assert.assertEquals(15, found.size());
+    Assert.assertEquals(Integer.valueOf(103), found.get(0));
+    Assert.assertTrue(cursor.isExhausted());
+    Assert.assertTrue(scanner.open(collection, Filter.all(),
+        Optional.empty()).limit(0).isExhausted());
+  }
+
+  @Test
+  public void testScan_insertsBetweenBatches() throws IOException {
+    Cursor cursor = scanner.open(collection, filter("{\"a\":3}"),
+        Optional.empty());
+    List<Integer> found = new ArrayList<>();
+    cursor.next(100, (id, document) -> found.add((Integer) document.get("n")));
+    collection.insert(Collections.singletonList(
+        DocumentJson.parse("{\"n\":" + COUNT + ",\"a\":3}")));
+    found.addAll(find(cursor, 100));
+    Assert.assertEquals(COUNT / 10 + 1, found.size());
+    Assert.assertEquals(Integer.valueOf(COUNT), found.get(found.size() - 1));
+  }
+}
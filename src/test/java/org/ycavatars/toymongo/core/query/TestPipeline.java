@@ -0,0 +1,210 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * @author ycavatars
+ */
+public class TestPipeline {
+
+  private static final int COUNT = 5000;
+
+  // a is missing from every 50th document, and x is a double or an int
+  @Rule
+  public final CollectionFixture fixture = new CollectionFixture(COUNT,
+      n -> "{\"n\":" + n + (n % 50 == 0 ? "" : ",\"a\":" + n * 7919 % 100)
+          + ",\"b\":\"b" + n % 7 + "\",\"x\":"
+          + (n % 2 == 0 ? n % 5 + ".0" : n % 5) + "}");
+
+  private DocumentCollection collection;
+
+  private Path temp;
+
+  private final QueryPlanner planner = new QueryPlanner(16);
+
+  @Before
+  public void setUp() throws IOException {
+    collection = fixture.collection();
+    temp = fixture.temp();
+  }
+
+  private static Pipeline pipeline(String json) {
+    return Pipeline.of((Document) DocumentJson.parse("{\"p\":" + json + "}")
+        .get("p"));
+  }
+
+  private Cursor open(long memory, String pipeline) {
+    return pipeline(pipeline).open(collection, planner, Optional.empty(),
+        new DocumentSorter(temp, memory));
+  }
+
+  private static List<String> run(Cursor cursor) throws IOException {
+    List<String> found = new ArrayList<>();
+    while (!cursor.isExhausted()) {
+      cursor.next(77, (id, document) -> found.add(document.toString()));
+    }
+    return found;
+  }
+
+  private static List<String> sorted(List<String> documents) {
+    List<String> sorted = new ArrayList<>(documents);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  private long files() throws IOException {
+    try (Stream<Path> files = Files.list(temp)) {
+      return files.count();
+    }
+  }
+
+  @Test
+  public void testGroup_accumulators() throws IOException {
+    List<String> found = run(open(1024 * 1024, "[{\"$match\":{\"b\":\"b3\"}},"
+        + "{\"$group\":{\"_id\":null,\"count\":{\"$count\":{}},"
+        + "\"sum\":{\"$sum\":\"$n\"},\"ones\":{\"$sum\":1},"
+        + "\"avg\":{\"$avg\":\"$a\"},\"min\":{\"$min\":\"$a\"},"
+        + "\"max\":{\"$max\":\"$n\"},\"first\":{\"$first\":\"$n\"},"
+        + "\"last\":{\"$last\":\"$n\"}}}]"));
+    List<Integer> ns = new ArrayList<>();
+    List<Integer> as = new ArrayList<>();
+    for (int n = 0; n < COUNT; n++) {
+      if (n % 7 == 3) {
+        ns.add(n);
+        if (n % 50 != 0) {
+          as.add(n * 7919 % 100);
+        }
+      }
+    }
+    Document group = DocumentJson.parse(found.get(0));
+    Assert.assertEquals(1, found.size());
+    Assert.assertNull(group.get("_id"));
+    Assert.assertEquals(ns.size(), group.get("count"));
+    Assert.assertEquals(ns.size(), group.get("ones"));
+    Assert.assertEquals(ns.stream().mapToInt(n -> n).sum(), group.get("sum"));
+    Assert.assertEquals(as.stream().mapToInt(a -> a).average().getAsDouble(),
+        (Double) group.get("avg"), 1e-9);
+    Assert.assertEquals(Collections.min(as), group.get("min"));
+    Assert.assertEquals(Collections.max(ns), group.get("max"));
+    Assert.assertEquals(ns.get(0), group.get("first"));
+    Assert.assertEquals(ns.get(ns.size() - 1), group.get("last"));
+  }
+
+  @Test
+  public void testGroup_spilledPartitions() throws IOException {
+    String pipeline = "[{\"$group\":{\"_id\":{\"b\":\"$b\",\"a\":\"$a\"},"
+        + "\"count\":{\"$sum\":1},\"first\":{\"$first\":\"$n\"},"
+        + "\"last\":{\"$last\":\"$n\"},\"max\":{\"$max\":\"$n\"}}}]";
+    List<String> inMemory = run(open(64 * 1024 * 1024, pipeline));
+    Assert.assertEquals(0, files());
+    // the first groups are returned in the order they're seen
+    Assert.assertEquals("{\"_id\":{\"b\":\"b0\",\"a\":null},\"count\":15,"
+        + "\"first\":0,\"last\":4900,\"max\":4900}", inMemory.get(0));
+
+    Cursor cursor = open(4 * 1024, pipeline);
+    List<String> found = new ArrayList<>();
+    cursor.next(10, (id, document) -> found.add(document.toString()));
+    Assert.assertTrue(files() > GroupCursor.PARTITIONS);
+    found.addAll(run(cursor));
+    Assert.assertEquals(sorted(inMemory), sorted(found));
+    Assert.assertEquals(0, files());
+  }
+
+  @Test
+  public void testGroup_equalNumbers() throws IOException {
+    // x is 0.0 or 0 and so on, which are the same group
+    List<String> found = run(open(1024 * 1024, "[{\"$group\":{\"_id\":\"$x\","
+        + "\"count\":{\"$sum\":1}}},{\"$sort\":{\"_id\":1}}]"));
+    Assert.assertEquals(Arrays.asList("{\"_id\":0,\"count\":1000}",
+        "{\"_id\":1,\"count\":1000}", "{\"_id\":2,\"count\":1000}",
+        "{\"_id\":3,\"count\":1000}", "{\"_id\":4,\"count\":1000}"), found);
+  }
+
+  @Test
+  public void testPipeline_projectSortLimit() throws IOException {
+    List<String> found = run(open(8 * 1024, "[{\"$match\":{\"b\":\"b1\"}},"
+        + "{\"$project\":{\"n\":1,\"a\":true}},{\"$sort\":{\"a\":-1,\"n\":1}},"
+        + "{\"$limit\":20},{\"$limit\":3},"
+        + "{\"$group\":{\"_id\":\"$b\",\"n\":{\"$sum\":\"$n\"}}}]"));
+    // b is projected away
+    List<Integer> expected = new ArrayList<>();
+    for (int n = 0; n < COUNT; n++) {
+      if (n % 7 == 1 && n % 50 != 0 && n * 7919 % 100 == 99) {
+        expected.add(n);
+      }
+    }
+    Assert.assertEquals(Collections.singletonList("{\"_id\":null,\"n\":"
+            + expected.stream().limit(3).mapToLong(n -> n).sum() + "}"),
+        found);
+    Assert.assertEquals(0, files());
+  }
+
+  @Test
+  public void testPipeline_sortPushedDown() throws IOException {
+    collection.createIndex(FieldPath.of("a"));
+    SortOrder order = SortOrder.of(DocumentJson.parse("{\"a\":1}"));
+    Filter range = Filter.of(DocumentJson.parse("{\"a\":{\"$gte\":90}}"));
+    Assert.assertEquals(Plan.Kind.INDEX_SCAN,
+        planner.ordered(collection, range, order, false).get().getKind());
+    Assert.assertEquals(Plan.Kind.INDEX_ORDER,
+        planner.ordered(collection, Filter.all(), order, true).get()
+            .getKind());
+    Assert.assertFalse(planner.ordered(collection, Filter.all(), order, false)
+        .isPresent());
+    Assert.assertFalse(planner.ordered(collection, range,
+        SortOrder.of(DocumentJson.parse("{\"a\":-1}")), true).isPresent());
+    Assert.assertFalse(planner.ordered(collection, range,
+        SortOrder.of(DocumentJson.parse("{\"n\":1}")), true).isPresent());
+
+    // a memory of 1 byte would spill every document if they were sorted
+    List<String> found = run(open(1, "[{\"$match\":{\"a\":{\"$gte\":90}}},"
+        + "{\"$sort\":{\"a\":1}},{\"$project\":{\"a\":1}}]"));
+    List<String> expected = new ArrayList<>();
+    for (int a = 90; a < 100; a++) {
+      for (int n = 0; n < COUNT; n++) {
+        if (n % 50 != 0 && n * 7919 % 100 == a) {
+          expected.add("{\"a\":" + a + "}");
+        }
+      }
+    }
+    Assert.assertEquals(expected, found);
+    // missing fields are indexed as null, which sorts first
+    Assert.assertEquals(Arrays.asList("{}", "{}", "{}"),
+        run(open(1, "[{\"$sort\":{\"a\":1}},{\"$limit\":3},"
+            + "{\"$project\":{\"a\":1}}]")));
+    Assert.assertEquals(0, files());
+  }
+
+  @Test
+  public void testPipeline_badStages() {
+    for (String pipeline : new String[]{"{\"$match\":{}}",
+        "[{\"$unwind\":\"$a\"}]", "[{\"$limit\":0}]", "[{\"$limit\":1.5}]",
+        "[{\"$project\":{\"a\":0}}]", "[{\"$group\":{\"n\":{\"$sum\":1}}}]",
+        "[{\"$group\":{\"_id\":null,\"n\":{\"$push\":\"$n\"}}}]",
+        "[{\"$group\":{\"_id\":null,\"n.m\":{\"$sum\":1}}}]",
+        "[{\"$sort\":{\"a\":2}}]", "[{\"$match\":{},\"$limit\":1}]"}) {
+      try {
+        pipeline(pipeline);
+        Assert.fail(pipeline);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.db.Index;
+import org.ycavatars.toymongo.core.db.IndexStatistics;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * @author ycavatars
+ */
+public class TestQueryPlanner {
+
+  private static final int COUNT = 10_000;
+
+  // flag is skewed: 90% of the documents have 0
+  @Rule
+  public final CollectionFixture fixture = new CollectionFixture(COUNT,
+      n -> "{\"n\":" + n + ",\"a\":" + n % 50 + ",\"b\":" + n % 37
+          + ",\"flag\":" + (n < 9000 ? 0 : 1) + ",\"name\":\"doc" + n + "\"}");
+
+  private DocumentCollection collection;
+
+  @Before
+  public void setUp() throws IOException {
+    collection = fixture.collection();
+    for (String path : Arrays.asList("n", "a", "b", "flag")) {
+      collection.createIndex(FieldPath.of(path));
+    }
+  }
+
+  private static Filter filter(String json) {
+    return Filter.of(DocumentJson.parse(json));
+  }
+
+  private List<Integer> find(Cursor cursor) throws IOException {
+    List<Integer> found = new ArrayList<>();
+    while (!cursor.isExhausted()) {
+      cursor.next(1000,
+          (id, document) -> found.add((Integer) document.get("n")));
+    }
+    Collections.sort(found);
+    return found;
+  }
+
+  private void assertPlan(String json, Plan.Kind kind, String... indexes)
+      throws IOException {
+    Filter filter = filter(json);
+    Plan plan = new QueryPlanner(16).plan(collection, filter);
+    Assert.assertEquals(json, kind, plan.getKind());
+    Assert.assertEquals(json, Arrays.asList(indexes), plan.getIndexes()
+        .stream().map(Index::name).collect(Collectors.toList()));
+    // every plan returns the same documents as a scan
+    Assert.assertEquals(json,
+        find(new ScanCursor(collection, filter, Optional.empty())),
+        find(plan.open(collection, filter, Optional.empty())));
+  }
+
+  @Test
+  public void testStatistics_estimates() {
+    IndexStatistics n = collection.statistics(FieldPath.of("n"));
+    Assert.assertEquals(COUNT, n.getEntries());
+    Assert.assertEquals(COUNT, n.getDistinct());
+    Assert.assertEquals(2, n.getHeight());
+    Assert.assertEquals(1, n.estimateEquals(42), 0);
+    Predicate range = filter("{\"n\":{\"$gte\":1000,\"$lt\":2000}}")
+        .predicates().get(0);
+    Assert.assertEquals(1000, n.estimateRange(range.from(), range.to()), 200);
+
+    IndexStatistics flag = collection.statistics(FieldPath.of("flag"));
+    Assert.assertEquals(2, flag.getDistinct());
+    Assert.assertEquals(9000, flag.estimateEquals(0), 200);
+    Assert.assertEquals(1000, flag.estimateEquals(1), 200);
+    Assert.assertEquals(200, collection.statistics(FieldPath.of("a"))
+        .estimateEquals(7), 50);
+  }
+
+  @Test
+  public void testPlan_cheapestCandidate() throws IOException {
+    assertPlan("{\"n\":42}", Plan.Kind.INDEX_SCAN, "n");
+    assertPlan("{\"n\":{\"$lt\":100}}", Plan.Kind.INDEX_SCAN, "n");
+    assertPlan("{\"n\":{\"$gte\":100}}", Plan.Kind.COLLECTION_SCAN);
+    assertPlan("{\"flag\":0}", Plan.Kind.COLLECTION_SCAN);
+    assertPlan("{\"flag\":1}", Plan.Kind.INDEX_SCAN, "flag");
+    assertPlan("{\"flag\":0,\"n\":{\"$gt\":9990}}", Plan.Kind.INDEX_SCAN,
+        "n");
+    assertPlan("{\"name\":\"doc7\"}", Plan.Kind.COLLECTION_SCAN);
+    // two predicates of 200 and 270 documents share 5
+    assertPlan("{\"a\":7,\"b\":3}", Plan.Kind.INDEX_INTERSECTION, "b", "a");
+    // numbers only: the string is not in the range
+    assertPlan("{\"n\":{\"$gt\":9995},\"name\":{\"$gt\":\"doc\"}}",
+        Plan.Kind.INDEX_SCAN, "n");
+  }
+
+  @Test
+  public void testPlan_cachedByShape() throws IOException {
+    QueryPlanner planner = new QueryPlanner(16);
+    Plan plan = planner.plan(collection, filter("{\"a\":7,\"b\":3}"));
+    Assert.assertTrue(planner.explain(collection, filter("{\"a\":1,\"b\":2}"))
+        .isCached());
+    Assert.assertSame(plan, planner.plan(collection,
+        filter("{\"b\":2,\"a\":1}")));
+    Assert.assertEquals(1, planner.cacheSize());
+
+    Explanation explanation = planner.explain(collection,
+        filter("{\"a\":1,\"b\":{\"$gt\":0}}"));
+    Assert.assertFalse(explanation.isCached());
+    Assert.assertEquals(4, explanation.getCandidates().size());
+    Assert.assertEquals(Plan.Kind.COLLECTION_SCAN,
+        explanation.getCandidates().get(0).getKind());
+    Assert.assertEquals(COUNT, explanation.getCandidates().get(0).getCost(),
+        0);
+
+    // a new index may be cheaper
+    collection.createIndex(FieldPath.of("name"));
+    Assert.assertFalse(planner.explain(collection,
+        filter("{\"a\":7,\"b\":3}")).isCached());
+  }
+
+  @Test
+  public void testFilter_rangesAndTypes() throws IOException {
+    Assert.assertEquals(Arrays.asList(98, 99), find(Cursor.open(collection,
+        filter("{\"n\":{\"$gt\":97,\"$lte\":99,\"$gte\":0}}"),
+        Optional.empty())));
+    Assert.assertEquals(Collections.emptyList(), find(Cursor.open(collection,
+        filter("{\"n\":{\"$gt\":\"a\"}}"), Optional.empty())));
+    Assert.assertEquals(Collections.singletonList(5), find(Cursor.open(
+        collection, filter("{\"n\":{\"$eq\":5,\"$lt\":10}}"),
+        Optional.empty())));
+    Assert.assertEquals(Collections.emptyList(), find(Cursor.open(
+        collection, filter("{\"n\":{\"$eq\":50,\"$lt\":10}}"),
+        Optional.empty())));
+  }
+
+  @Test
+  public void testFilter_equalityAndRanges() throws IOException {
+    // the bounds before and after an equality are all kept
+    Assert.assertEquals(Collections.emptyList(), find(Cursor.open(
+        collection, filter("{\"n\":{\"$gt\":10,\"$eq\":5,\"$lt\":20}}"),
+        Optional.empty())));
+    Assert.assertEquals(Collections.singletonList(15), find(Cursor.open(
+        collection, filter("{\"n\":{\"$gt\":10,\"$eq\":15,\"$lt\":20}}"),
+        Optional.empty())));
+    Assert.assertEquals(Collections.emptyList(), find(Cursor.open(
+        collection, filter("{\"n\":{\"$gt\":10,\"$lt\":20,\"$eq\":20}}"),
+        Optional.empty())));
+    Assert.assertEquals(Collections.emptyList(), find(Cursor.open(
+        collection, filter("{\"n\":{\"$eq\":5,\"$eq\":6}}"),
+        Optional.empty())));
+    assertPlan("{\"n\":{\"$gt\":10,\"$eq\":5,\"$lt\":20}}",
+        Plan.Kind.INDEX_SCAN, "n");
+    Assert.assertEquals(0, new QueryPlanner(16).count(collection,
+        filter("{\"n\":{\"$gt\":10,\"$eq\":5,\"$lt\":20}}")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFilter_unsupportedOperator() {
+    filter("{\"n\":{\"$in\":[1,2]}}");
+  }
+}
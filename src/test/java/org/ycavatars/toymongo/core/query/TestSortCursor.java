@@ -0,0 +1,155 @@
+package org.ycavatars.toymongo.core.query;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.ycavatars.toymongo.core.db.DocumentCollection;
+import org.ycavatars.toymongo.core.document.Document;
+import org.ycavatars.toymongo.core.document.DocumentJson;
+import org.ycavatars.toymongo.core.document.FieldPath;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author ycavatars
+ */
+public class TestSortCursor {
+
+  private static final int COUNT = 5000;
+
+  // a is missing from every 50th document
+  @Rule
+  public final CollectionFixture fixture = new CollectionFixture(COUNT,
+      n -> "{\"n\":" + n + (n % 50 == 0 ? "" : ",\"a\":" + n * 7919 % 100)
+          + ",\"b\":\"b" + n % 7 + "\"}");
+
+  private DocumentCollection collection;
+
+  private Path temp;
+
+  @Before
+  public void setUp() throws IOException {
+    collection = fixture.collection();
+    temp = fixture.temp();
+  }
+
+  private static SortOrder order(String json) {
+    return SortOrder.of(DocumentJson.parse(json));
+  }
+
+  private Cursor sort(long memory, String filter, String order, long limit) {
+    Cursor input = new ScanCursor(collection,
+        Filter.of(DocumentJson.parse(filter)), Optional.empty());
+    Cursor cursor = new DocumentSorter(temp, memory).sort(input, order(order),
+        limit, Optional.empty());
+    return limit > 0 ? cursor.limit(limit) : cursor;
+  }
+
+  private static List<Integer> find(Cursor cursor, int batchSize)
+      throws IOException {
+    List<Integer> found = new ArrayList<>();
+    while (!cursor.isExhausted()) {
+      cursor.next(batchSize,
+          (id, document) -> found.add((Integer) document.get("n")));
+    }
+    return found;
+  }
+
+  // the documents of a scan, sorted in memory
+  private List<Integer> expected(String filter, String order, long limit)
+      throws IOException {
+    Cursor scan = new ScanCursor(collection,
+        Filter.of(DocumentJson.parse(filter)), Optional.empty());
+    List<Document> documents = new ArrayList<>();
+    while (!scan.isExhausted()) {
+      scan.next(1000, (id, document) -> documents.add(document.copy()));
+    }
+    // a stable sort keeps equal documents in record order
+    documents.sort(order(order));
+    return documents.stream().limit(limit > 0 ? limit : Long.MAX_VALUE)
+        .map(document -> (Integer) document.get("n"))
+        .collect(Collectors.toList());
+  }
+
+  private long runs() throws IOException {
+    try (Stream<Path> files = Files.list(temp)) {
+      return files.count();
+    }
+  }
+
+  @Test
+  public void testSort_spilledRuns() throws IOException {
+    for (String order : new String[]{"{\"a\":1}", "{\"a\":-1,\"b\":1}",
+        "{\"b\":-1,\"n\":-1}"}) {
+      Cursor cursor = sort(8 * 1024, "{}", order, 0);
+      List<Integer> found = new ArrayList<>();
+      cursor.next(10, (id, document) -> found.add((Integer) document.get("n")));
+      // the first batch is returned while the runs are merged
+      Assert.assertTrue(runs() > 10);
+      found.addAll(find(cursor, 777));
+      Assert.assertEquals(order, expected("{}", order, 0), found);
+      Assert.assertEquals(0, runs());
+    }
+    Assert.assertEquals(expected("{\"b\":\"b3\"}", "{\"a\":1}", 0),
+        find(sort(1024 * 1024, "{\"b\":\"b3\"}", "{\"a\":1}", 0), 100));
+    Assert.assertEquals(0, runs());
+  }
+
+  @Test
+  public void testSort_topWithLimit() throws IOException {
+    Assert.assertEquals(expected("{}", "{\"a\":-1,\"n\":1}", 25),
+        find(sort(8 * 1024, "{}", "{\"a\":-1,\"n\":1}", 25), 10));
+    Assert.assertEquals(expected("{\"b\":\"b1\"}", "{\"a\":1}", 3),
+        find(sort(8 * 1024, "{\"b\":\"b1\"}", "{\"a\":1}", 3), 10));
+    Assert.assertEquals(0, runs());
+    // the limit doesn't fit in the memory, so every document is sorted
+    Assert.assertEquals(expected("{}", "{\"a\":1}", 4000),
+        find(sort(8 * 1024, "{}", "{\"a\":1}", 4000), 1000));
+    Assert.assertEquals(0, runs());
+  }
+
+  @Test
+  public void testSort_closeDeletesRuns() throws IOException {
+    Cursor cursor = sort(8 * 1024, "{}", "{\"a\":1}", 0);
+    cursor.next(1, (id, document) -> {
+    });
+    Assert.assertTrue(runs() > 0);
+    cursor.close();
+    Assert.assertEquals(0, runs());
+    Assert.assertEquals(0, cursor.next(1, (id, document) -> {
+    }));
+  }
+
+  @Test
+  public void testSortOrder_compare() {
+    SortOrder order = order("{\"b\":-1,\"a.x\":1}");
+    Assert.assertEquals(Arrays.asList(FieldPath.of("b"), FieldPath.of("a.x")),
+        order.getPaths());
+    List<String> sorted = Arrays.asList("{\"b\":\"s\"}",
+        "{\"a\":1,\"b\":1}", "{\"a\":{\"x\":1},\"b\":1}",
+        "{\"a\":{\"x\":2},\"b\":1}");
+    List<Document> documents = new ArrayList<>();
+    for (String json : sorted) {
+      documents.add(DocumentJson.parse(json));
+    }
+    Collections.reverse(documents);
+    documents.sort(order);
+    Assert.assertEquals(sorted, documents.stream().map(DocumentJson::toJson)
+        .collect(Collectors.toList()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSortOrder_badDirection() {
+    order("{\"a\":2}");
+  }
+}
@@ -0,0 +1,139 @@
+package org.ycavatars.toymongo.core.storage;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author ycavatars
+ */
+public class TestExtentReader {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRead_mappedOnDefaultFileSystem() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    try (ExtentStore store = new ExtentStore(directory, "users", 64 * 1024);
+         ExtentReader reader = new ExtentReader(store)) {
+      assertSameAsStore(store, reader);
+      Assert.assertTrue(reader.isMapped());
+    }
+  }
+
+  @Test
+  public void testRead_pooledBuffersOnJimfs() throws IOException {
+    try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+      Path directory = Files.createDirectory(fileSystem.getPath("/data"));
+      try (ExtentStore store = new ExtentStore(directory, "users", 64 * 1024);
+           ExtentReader reader = new ExtentReader(store)) {
+        assertSameAsStore(store, reader);
+        Assert.assertFalse(reader.isMapped());
+      }
+    }
+  }
+
+  @Test
+  public void testScan_recordsLargerThanChunk() throws IOException {
+    try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+      Path directory = Files.createDirectory(fileSystem.getPath("/data"));
+      int extentSize = ExtentReader.SCAN_CHUNK_SIZE * 4;
+      try (ExtentStore store = new ExtentStore(directory, "users", extentSize);
+           ExtentReader reader = new ExtentReader(store)) {
+        List<RecordId> ids = new ArrayList<>();
+        ids.add(store.insert(filled(100, 1)));
+        ids.add(store.insert(filled(ExtentReader.SCAN_CHUNK_SIZE + 1, 2)));
+        ids.add(store.insert(filled(ExtentReader.SCAN_CHUNK_SIZE - 100, 3)));
+        ids.add(store.insert(filled(10, 4)));
+
+        List<RecordId> scanned = new ArrayList<>();
+        reader.scan((id, data) -> {
+          Assert.assertEquals(store.read(id), data);
+          scanned.add(id);
+          return true;
+        });
+        Assert.assertEquals(ids, scanned);
+      }
+    }
+  }
+
+  private static void assertSameAsStore(ExtentStore store, ExtentReader reader)
+      throws IOException {
+    Random random = new Random(5);
+    List<RecordId> ids = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      ids.add(store.insert(filled(random.nextInt(1000), i)));
+    }
+    Assert.assertTrue(store.extentCount() > 3);
+    List<RecordId> live = new ArrayList<>();
+    for (int i = 0; i < ids.size(); i++) {
+      if (i % 3 == 0) {
+        store.delete(ids.get(i));
+      } else {
+        live.add(ids.get(i));
+      }
+    }
+
+    for (RecordId id : live) {
+      try (RecordSlice record = reader.read(id)) {
+        Assert.assertEquals(id, record.getId());
+        Assert.assertEquals(store.read(id), record.data());
+        Assert.assertTrue(record.data().isReadOnly());
+        Assert.assertTrue(record.data().isDirect());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(record.data().remaining(),
+            record.writeTo(Channels.newChannel(out)));
+        Assert.assertEquals(store.read(id), ByteBuffer.wrap(out.toByteArray()));
+      }
+    }
+    try {
+      reader.read(ids.get(0));
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+    }
+
+    List<RecordId> scanned = new ArrayList<>();
+    reader.scan((id, data) -> {
+      Assert.assertEquals(store.read(id), data);
+      scanned.add(id);
+      return true;
+    });
+    Assert.assertEquals(live, scanned);
+
+    // stop in the middle
+    scanned.clear();
+    reader.scan((id, data) -> scanned.add(id) && scanned.size() < 10);
+    Assert.assertEquals(live.subList(0, 10), scanned);
+
+    // writes after mapping are visible
+    RecordId id = store.insert(filled(20, 7));
+    try (RecordSlice record = reader.read(id)) {
+      Assert.assertEquals(filled(20, 7), record.data());
+    }
+  }
+
+  private static ByteBuffer filled(int length, int seed) {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    for (int i = 0; i < length; i++) {
+      buffer.put((byte) (seed + i));
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
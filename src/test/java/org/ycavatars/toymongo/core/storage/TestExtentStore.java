@@ -0,0 +1,214 @@
+package org.ycavatars.toymongo.core.storage;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author ycavatars
+ */
+public class TestExtentStore {
+
+  private static final int EXTENT_SIZE = 4096;
+
+  private FileSystem fileSystem;
+
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    directory = Files.createDirectory(fileSystem.getPath("/data"));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  @Test
+  public void testInsert_appendAndRead() throws IOException {
+    try (ExtentStore store = new ExtentStore(directory, "users", EXTENT_SIZE)) {
+      RecordId first = store.insert(bytes("first"));
+      RecordId second = store.insert(bytes("second"));
+
+      Assert.assertEquals(new RecordId(0, 0), first);
+      Assert.assertEquals(new RecordId(0, ExtentStore.MIN_RECORD_SIZE), second);
+      Assert.assertEquals("first", string(store.read(first)));
+      Assert.assertEquals("second", string(store.read(second)));
+      Assert.assertEquals(EXTENT_SIZE,
+          Files.size(directory.resolve("users.0")));
+      Assert.assertEquals(EXTENT_SIZE, store.storageSize());
+      Assert.assertEquals(2 * ExtentStore.MIN_RECORD_SIZE, store.dataSize());
+    }
+  }
+
+  @Test
+  public void testInsert_newExtentWhenFull() throws IOException {
+    try (ExtentStore store = new ExtentStore(directory, "users", EXTENT_SIZE)) {
+      List<RecordId> ids = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        ids.add(store.insert(ByteBuffer.allocate(100 + i)));
+      }
+      // records of 128 and 256 bytes
+      Assert.assertTrue(store.extentCount() > 2);
+      Assert.assertTrue(Files.exists(directory.resolve("users.2")));
+      for (int i = 0; i < 100; i++) {
+        Assert.assertEquals(100 + i, store.read(ids.get(i)).remaining());
+        if (i > 0) {
+          Assert.assertTrue(ids.get(i - 1).compareTo(ids.get(i)) < 0);
+        }
+      }
+
+      try {
+        store.insert(ByteBuffer.allocate(store.maxRecordSize() + 1));
+        Assert.fail();
+      } catch (IllegalArgumentException e) {
+      }
+      RecordId large = store.insert(ByteBuffer.allocate(store.maxRecordSize()));
+      Assert.assertEquals(0, large.getOffset());
+    }
+  }
+
+  @Test
+  public void testDelete_reuseSameSizeClass() throws IOException {
+    try (ExtentStore store = new ExtentStore(directory, "users", EXTENT_SIZE)) {
+      RecordId small = store.insert(ByteBuffer.allocate(10));
+      RecordId large = store.insert(ByteBuffer.allocate(100));
+      RecordId last = store.insert(ByteBuffer.allocate(10));
+
+      store.delete(large);
+      Assert.assertEquals(1, store.freeRecordCount());
+      try {
+        store.read(large);
+        Assert.fail();
+      } catch (IllegalArgumentException e) {
+      }
+      try {
+        store.delete(large);
+        Assert.fail();
+      } catch (IllegalArgumentException e) {
+      }
+
+      // a different size class is appended
+      RecordId appended = store.insert(ByteBuffer.allocate(10));
+      Assert.assertTrue(last.compareTo(appended) < 0);
+      // the same size class reuses the deleted record
+      Assert.assertEquals(large, store.insert(ByteBuffer.allocate(120)));
+      Assert.assertEquals(0, store.freeRecordCount());
+      Assert.assertEquals(10, store.read(small).remaining());
+    }
+  }
+
+  @Test
+  public void testOpen_rebuildFreeLists() throws IOException {
+    List<RecordId> ids = new ArrayList<>();
+    try (ExtentStore store = new ExtentStore(directory, "users", EXTENT_SIZE)) {
+      for (int i = 0; i < 100; i++) {
+        ids.add(store.insert(bytes("record" + i)));
+      }
+      for (int i = 0; i < 100; i += 2) {
+        store.delete(ids.get(i));
+      }
+    }
+    // another collection in the same directory
+    try (ExtentStore store = new ExtentStore(directory, "orders", EXTENT_SIZE)) {
+      store.insert(bytes("order"));
+    }
+
+    try (ExtentStore store = new ExtentStore(directory, "users", EXTENT_SIZE)) {
+      Assert.assertEquals(50, store.freeRecordCount());
+      for (int i = 1; i < 100; i += 2) {
+        Assert.assertEquals("record" + i, string(store.read(ids.get(i))));
+      }
+      RecordId reused = store.insert(bytes("new"));
+      Assert.assertEquals(0, reused.getOffset() % ExtentStore.MIN_RECORD_SIZE);
+      Assert.assertTrue(ids.indexOf(reused) % 2 == 0);
+      Assert.assertEquals(49, store.freeRecordCount());
+
+      // appended after the last record
+      for (int i = 0; i < 49; i++) {
+        store.insert(bytes("new" + i));
+      }
+      RecordId appended = store.insert(bytes("appended"));
+      Assert.assertTrue(ids.get(99).compareTo(appended) < 0);
+    }
+  }
+
+  @Test
+  public void testReserve_hiddenUntilPublished() throws IOException {
+    RecordId unpublished;
+    try (ExtentStore store = new ExtentStore(directory, "users", EXTENT_SIZE);
+         ExtentReader reader = new ExtentReader(store)) {
+      RecordId id = store.reserve(bytes("reserved"));
+      try {
+        store.read(id);
+        Assert.fail();
+      } catch (IllegalArgumentException expected) {
+      }
+      List<RecordId> scanned = new ArrayList<>();
+      reader.scan((recordId, data) -> scanned.add(recordId));
+      Assert.assertTrue(scanned.isEmpty());
+
+      store.publish(id, "reserved".length());
+      Assert.assertEquals("reserved", string(store.read(id)));
+      reader.scan((recordId, data) -> scanned.add(recordId));
+      Assert.assertEquals(1, scanned.size());
+
+      RecordId released = store.reserve(bytes("released"));
+      store.release(released);
+      Assert.assertEquals(1, store.freeRecordCount());
+      try {
+        store.release(id);
+        Assert.fail();
+      } catch (IllegalArgumentException expected) {
+      }
+      Assert.assertEquals(released, store.reserve(bytes("again")));
+      unpublished = store.reserve(bytes("unpublished"));
+    }
+
+    // as after a crash before the journal was durable
+    try (ExtentStore store = new ExtentStore(directory, "users", EXTENT_SIZE)) {
+      Assert.assertEquals(2, store.freeRecordCount());
+      try {
+        store.read(unpublished);
+        Assert.fail();
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void testRecordId_packToLong() {
+    RecordId id = new RecordId(3, 4096);
+    Assert.assertEquals(id, RecordId.fromLong(id.toLong()));
+    Assert.assertEquals(new RecordId(Integer.MAX_VALUE, Integer.MAX_VALUE),
+        RecordId.fromLong(new RecordId(Integer.MAX_VALUE, Integer.MAX_VALUE)
+            .toLong()));
+    Assert.assertTrue(new RecordId(0, Integer.MAX_VALUE).toLong()
+        < new RecordId(1, 0).toLong());
+    Assert.assertEquals("3:4096", id.toString());
+  }
+
+  private static ByteBuffer bytes(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String string(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
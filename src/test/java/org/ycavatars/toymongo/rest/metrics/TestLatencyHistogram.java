@@ -0,0 +1,79 @@
+package org.ycavatars.toymongo.rest.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author ycavatars
+ */
+public class TestLatencyHistogram {
+
+  @Test
+  public void testIndex_bucketsCoverEveryValue() {
+    Assert.assertEquals(0, LatencyHistogram.index(0));
+    Assert.assertEquals(LatencyHistogram.SUB_BUCKETS - 1,
+        LatencyHistogram.index(LatencyHistogram.SUB_BUCKETS - 1));
+    long previous = -1;
+    for (int i = 0; i <= LatencyHistogram.index(Long.MAX_VALUE); i++) {
+      long highest = LatencyHistogram.highest(i);
+      Assert.assertEquals(i, LatencyHistogram.index(previous + 1));
+      Assert.assertEquals(i, LatencyHistogram.index(highest));
+      // a value is recorded within 1/32 of itself
+      Assert.assertTrue(highest - previous - 1 <= Math.max(0, highest / 32));
+      previous = highest;
+    }
+    Assert.assertEquals(Long.MAX_VALUE, previous);
+  }
+
+  @Test
+  public void testPercentile() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(0, histogram.percentile(99));
+    Assert.assertEquals(0, histogram.mean(), 0);
+    for (long micros = 1; micros <= 1000; micros++) {
+      histogram.record(micros * 1000);
+    }
+    Assert.assertEquals(1000, histogram.count());
+    Assert.assertEquals(500500, histogram.mean(), 1e-6);
+    Assert.assertEquals(1000000, histogram.max());
+    Assert.assertEquals(1000000, histogram.percentile(100));
+    // the greatest value of the bucket of 1000
+    Assert.assertEquals(1007, histogram.percentile(0));
+    for (int percentile : new int[]{50, 90, 95, 99}) {
+      long expected = percentile * 10000L;
+      long actual = histogram.percentile(percentile);
+      Assert.assertTrue(actual + " at " + percentile, actual >= expected
+          && actual <= expected + expected / 32);
+    }
+  }
+
+  @Test
+  public void testRecord_concurrently() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 100000; i++) {
+            histogram.record(i % 100);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals(400000, histogram.count());
+    Assert.assertEquals(99, histogram.max());
+    Assert.assertEquals(49, histogram.percentile(50));
+  }
+}